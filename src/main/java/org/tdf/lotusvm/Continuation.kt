@@ -0,0 +1,40 @@
+package org.tdf.lotusvm
+
+import org.tdf.lotusvm.common.Constants
+import org.tdf.lotusvm.runtime.HostFunction
+import org.tdf.lotusvm.runtime.ModuleInstanceImpl
+
+// handle of a suspendable execution, see ModuleInstance.executeSuspendable
+// the machine state lives in the stack allocator of the instance, so the instance could not execute anything else
+// until the execution is done, executions of different instances could be multiplexed by one thread
+class Continuation internal constructor(private val instance: ModuleInstanceImpl, private val arity: Int) {
+    // host function which suspended the execution, null if the execution is done
+    var pending: HostFunction? = null
+        private set
+
+    val isDone: Boolean
+        get() = pending == null
+
+    // result of the function executed
+    var result: LongArray = Constants.EMPTY_LONGS
+        get() {
+            if (!isDone)
+                throw RuntimeException("execution is suspended by ${pending!!.name}")
+            return field
+        }
+        private set
+
+    // continue the execution with result of pending host function, return this
+    fun resume(result: Long): Continuation {
+        if (isDone)
+            throw RuntimeException("execution is done")
+        return instance.resume(this, result)
+    }
+
+    internal fun update(pending: HostFunction?, r: Long): Continuation {
+        this.pending = pending
+        if (pending == null && arity > 0)
+            result = longArrayOf(r)
+        return this
+    }
+}
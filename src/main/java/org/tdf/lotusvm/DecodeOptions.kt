@@ -0,0 +1,58 @@
+package org.tdf.lotusvm
+
+// options of decoding a module, all optimizations are disabled by default
+class DecodeOptions {
+    // lower function bodies into flat threaded code with pre-linked branches
+    var threaded = false
+        private set
+
+    // fuse frequent instruction sequences into superinstructions, see Superinstructions
+    var fused = false
+        private set
+
+    // translate function bodies into register code, see RegisterCode
+    var register = false
+        private set
+
+    // validate the module and record frame sizes of defined functions, see Validator
+    var validated = false
+        private set
+
+    // fold constant integer arithmetic and remove unreachable code of validated function bodies, see Optimizer
+    var optimized = false
+        private set
+
+    // insert gas instructions charging the cost of every basic block into function bodies, null if not metered
+    var gasSchedule: GasSchedule? = null
+        private set
+
+    fun threaded(threaded: Boolean): DecodeOptions {
+        this.threaded = threaded
+        return this
+    }
+
+    fun fused(fused: Boolean): DecodeOptions {
+        this.fused = fused
+        return this
+    }
+
+    fun register(register: Boolean): DecodeOptions {
+        this.register = register
+        return this
+    }
+
+    fun validated(validated: Boolean): DecodeOptions {
+        this.validated = validated
+        return this
+    }
+
+    fun optimized(optimized: Boolean): DecodeOptions {
+        this.optimized = optimized
+        return this
+    }
+
+    fun gas(schedule: GasSchedule?): DecodeOptions {
+        this.gasSchedule = schedule
+        return this
+    }
+}
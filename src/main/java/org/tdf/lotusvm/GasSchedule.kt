@@ -0,0 +1,42 @@
+package org.tdf.lotusvm
+
+import org.tdf.lotusvm.common.OpCode
+
+// gas cost of instructions, every instruction costs 1 by default
+// costs are summed per basic block at decode time and charged once on block entry, see GasMeter
+// bulk memory instructions are additionally charged per byte at runtime
+class GasSchedule {
+    // indexed by opcode, simd opcodes are 0x100 | sub opcode
+    private val costs = LongArray(OpCode.V128_GET_LOCAL.code) { 1L }
+
+    // gas cost per byte of memory.copy, memory.fill and memory.init, free by default
+    var byteCost: Long = 0
+        private set
+
+    fun cost(op: OpCode, cost: Long): GasSchedule {
+        if (op.code >= costs.size || op.parts.isNotEmpty() || op == OpCode.MOVE || op == OpCode.GAS)
+            throw RuntimeException("${op.name} is not a wasm instruction")
+        if (cost < 0)
+            throw RuntimeException("negative gas cost $cost")
+        costs[op.code] = cost
+        return this
+    }
+
+    fun byteCost(cost: Long): GasSchedule {
+        if (cost < 0)
+            throw RuntimeException("negative gas cost $cost")
+        byteCost = cost
+        return this
+    }
+
+    // cost of an instruction, a superinstruction costs the sum of it's parts
+    fun costOf(op: OpCode): Long {
+        if (op.parts.isEmpty())
+            return costs[op.code]
+        var r = 0L
+        for (p in op.parts) {
+            r += costs[p.code]
+        }
+        return r
+    }
+}
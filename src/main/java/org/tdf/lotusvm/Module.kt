@@ -8,6 +8,17 @@ interface Module : AutoCloseable {
         fun create(bin: ByteArray): Module {
             return ModuleImpl(bin)
         }
+
+        // if threaded is true, function bodies are lowered into flat threaded code with pre-linked branches
+        @JvmStatic
+        fun create(bin: ByteArray, threaded: Boolean): Module {
+            return ModuleImpl(bin, DecodeOptions().threaded(threaded))
+        }
+
+        @JvmStatic
+        fun create(bin: ByteArray, options: DecodeOptions): Module {
+            return ModuleImpl(bin, options)
+        }
     }
 
     val customSections: MutableList<CustomSection>
@@ -34,7 +45,31 @@ interface Module : AutoCloseable {
     val elementSection: ElementSection?
     val codeSection: CodeSection?
     val dataSection: DataSection?
+
+    // number of data segments, required by memory.init and data.drop
+    val dataCountSection: DataCountSection?
     val insPool: InstructionPool?
 
+    // instructions id of threaded code of defined functions, 0 if the function is not lowered,
+    // null if the module is decoded without threaded code
+    val threadedCodes: LongArray?
+
+    // instructions id of register code of defined functions, 0 if the function is not translated,
+    // null if the module is decoded without register code
+    val registerCodes: LongArray?
+
+    // max operand stack height and max label depth of defined functions, null if the module is decoded without validation
+    val maxStackSizes: IntArray?
+    val maxLabelSizes: IntArray?
+
+    // canonical id of every type of type section, equal types share the id of the first one
+    val typeIds: IntArray
+
+    // function bodies are metered by gas instructions, see DecodeOptions.gas
+    val metered: Boolean
+
+    // number of instructions removed by optimization, 0 if the module is decoded without optimization
+    val removedInstructions: Int
+
     override fun close()
 }
@@ -1,5 +1,6 @@
 package org.tdf.lotusvm
 
+import org.tdf.lotusvm.compiler.CompiledModule
 import org.tdf.lotusvm.runtime.*
 import org.tdf.lotusvm.types.GlobalType
 
@@ -18,11 +19,23 @@ interface ModuleInstance {
     val memory: Memory
     val hooks: Set<Hook>
 
+    // gas charged by basic blocks executed, the module must be decoded with DecodeOptions.gas
+    val gasUsed: Long
+    val gasRemaining: Long
+
+    // abort the running execution at the next function entry or loop back-edge, could be called by other threads,
+    // the instance must be built with Builder.interruptible
+    fun interrupt()
+
     fun containsExport(funcName: String): Boolean
     fun execute(functionIndex: Int, vararg parameters: Long): LongArray
 
     fun execute(funcName: String, vararg parameters: Long): LongArray
 
+    // execute the function by interpreter, host functions could suspend the execution by HostArgs.suspend,
+    // the returned continuation is resumed with result of the host function once it is available
+    fun executeSuspendable(funcName: String, vararg parameters: Long): Continuation
+
 
     companion object {
         @JvmStatic
@@ -35,6 +48,18 @@ interface ModuleInstance {
 class Builder private constructor() {
     var validateFunctionType = false
         private set
+    var unchecked = false
+        private set
+    var gasLimit = -1L
+        private set
+    var jitThreshold = -1
+        private set
+    var stepLimit = -1L
+        private set
+    var timeout = -1L
+        private set
+    var interruptible = false
+        private set
     var hostFunctions: Set<HostFunction> = emptySet()
         private set
     var hooks: Set<Hook> = emptySet()
@@ -43,7 +68,11 @@ class Builder private constructor() {
         private set
     var memory: Memory? = null
         private set
+    var restoredMemory = false
+        private set
     var module: Module? = null
+    var compiledModule: CompiledModule? = null
+        private set
     var stackAllocator: StackAllocator? = null
 
     fun module(module: Module): Builder {
@@ -76,11 +105,68 @@ class Builder private constructor() {
         return this
     }
 
+    // memory keeps the content of a previous instance, e.g. MappedMemory of an existing file,
+    // active data segments are dropped without put into memory
+    fun restoredMemory(): Builder {
+        restoredMemory = true
+        return this
+    }
+
     fun validateFunctionType(): Builder {
         validateFunctionType = true
         return this
     }
 
+    // drop stack underflow and local index checks of interpreter, frames are reserved at function entry,
+    // the module must be decoded with DecodeOptions.validated
+    fun unchecked(): Builder {
+        unchecked = true
+        return this
+    }
+
+    // trap with out of gas once the gas used exceeds limit, the module must be decoded with DecodeOptions.gas
+    fun gasLimit(limit: Long): Builder {
+        if (limit < 0)
+            throw RuntimeException("negative gas limit $limit")
+        gasLimit = limit
+        return this
+    }
+
+    // trap once the function entries and loop iterations of an execution exceed limit
+    fun stepLimit(limit: Long): Builder {
+        if (limit < 0)
+            throw RuntimeException("negative step limit $limit")
+        stepLimit = limit
+        return this
+    }
+
+    // trap once an execution runs longer than nanos, the clock is read every 1024 steps
+    fun timeout(nanos: Long): Builder {
+        if (nanos < 0)
+            throw RuntimeException("negative timeout $nanos")
+        timeout = nanos
+        return this
+    }
+
+    // allow executions to be aborted by ModuleInstance.interrupt
+    fun interruptible(): Builder {
+        interruptible = true
+        return this
+    }
+
+    // compile wasm functions into jvm byte code once they are invoked more than threshold times
+    fun jit(threshold: Int): Builder {
+        jitThreshold = threshold
+        return this
+    }
+
+    // execute with code compiled ahead of time, the module of compiled module is used
+    fun compiledModule(compiledModule: CompiledModule): Builder {
+        this.compiledModule = compiledModule
+        this.module = compiledModule.module
+        return this
+    }
+
     fun build(): ModuleInstance {
         return ModuleInstanceImpl(this)
     }
@@ -24,4 +24,6 @@ public class Constants {
     public static final int VALUE_F32 = 0x7d;
 
     public static final int VALUE_F64 = 0x7c;
+
+    public static final int VALUE_V128 = 0x7b;
 }
@@ -178,9 +178,100 @@ public enum OpCode {
     I32_REINTERPRET_F32(0xbc, "i32.reinterpret_f32", "", 0),
     I64_REINTERPRET_F64(0xbd, "i64.reinterpret_f64", "", 0),
     F32_REINTERPRET_I32(0xbe, "f32.reinterpret_i32", "", 0),
-    F64_REINTERPRET_I64(0xbf, "f64.reinterpret_i64", "", 0);
+    F64_REINTERPRET_I64(0xbf, "f64.reinterpret_i64", "", 0),
+    // superinstructions, internal opcodes never decoded from binary, see Superinstructions
+    I32_ADD_LL(0xe0, "i32.add_ll", "u16,u32", 0, GET_LOCAL, GET_LOCAL, I32_ADD),
+    I32_LOAD_L(0xe1, "i32.load_l", "u16,u32", 4, GET_LOCAL, I32_LOAD),
+    I32_ADD_C(0xe2, "i32.add_c", "u32", 0, I32_CONST, I32_ADD),
+    BR_IF_EQZ_L(0xe3, "br_if_eqz_l", "u16,u32", 0, GET_LOCAL, I32_EQZ, BR_IF),
+    I32_ADD_LC(0xe4, "i32.add_lc", "u16,u32", 0, GET_LOCAL, I32_CONST, I32_ADD),
+    // copy between slots of register code, see RegisterCode
+    MOVE(0xe8, "move", "u12,u12", 0),
+    // charge gas of a basic block, see GasMeter
+    GAS(0xe9, "gas", "u32", 0),
+    // bulk memory instructions, decoded from prefix 0xfc with sub opcode 8 - 11, see InstructionPool
+    MEMORY_INIT(0xf0, "memory.init", "u32", 0),
+    DATA_DROP(0xf1, "data.drop", "u32", 0),
+    MEMORY_COPY(0xf2, "memory.copy", "", 0),
+    MEMORY_FILL(0xf3, "memory.fill", "", 0),
+    // integer subset of simd instructions, decoded from prefix 0xfd, opcode = 0x100 | sub opcode
+    // the instruction id is 0xfd with sub opcode in the byte of result type, see InstructionId
+    V128_LOAD(0x100, "v128.load", "u32,u32", 16),
+    V128_STORE(0x10b, "v128.store", "u32,u32", 16),
+    V128_CONST(0x10c, "v128.const", "i128", 0),
+    I8X16_SHUFFLE(0x10d, "i8x16.shuffle", "u8x16", 0),
+    I8X16_SWIZZLE(0x10e, "i8x16.swizzle", "", 0),
+    I8X16_SPLAT(0x10f, "i8x16.splat", "", 0),
+    I16X8_SPLAT(0x110, "i16x8.splat", "", 0),
+    I32X4_SPLAT(0x111, "i32x4.splat", "", 0),
+    I64X2_SPLAT(0x112, "i64x2.splat", "", 0),
+    I8X16_EXTRACT_LANE_S(0x115, "i8x16.extract_lane_s", "u8", 0),
+    I8X16_EXTRACT_LANE_U(0x116, "i8x16.extract_lane_u", "u8", 0),
+    I8X16_REPLACE_LANE(0x117, "i8x16.replace_lane", "u8", 0),
+    I16X8_EXTRACT_LANE_S(0x118, "i16x8.extract_lane_s", "u8", 0),
+    I16X8_EXTRACT_LANE_U(0x119, "i16x8.extract_lane_u", "u8", 0),
+    I16X8_REPLACE_LANE(0x11a, "i16x8.replace_lane", "u8", 0),
+    I32X4_EXTRACT_LANE(0x11b, "i32x4.extract_lane", "u8", 0),
+    I32X4_REPLACE_LANE(0x11c, "i32x4.replace_lane", "u8", 0),
+    I64X2_EXTRACT_LANE(0x11d, "i64x2.extract_lane", "u8", 0),
+    I64X2_REPLACE_LANE(0x11e, "i64x2.replace_lane", "u8", 0),
+    I8X16_EQ(0x123, "i8x16.eq", "", 0),
+    I8X16_NE(0x124, "i8x16.ne", "", 0),
+    I16X8_EQ(0x12d, "i16x8.eq", "", 0),
+    I16X8_NE(0x12e, "i16x8.ne", "", 0),
+    I32X4_EQ(0x137, "i32x4.eq", "", 0),
+    I32X4_NE(0x138, "i32x4.ne", "", 0),
+    V128_NOT(0x14d, "v128.not", "", 0),
+    V128_AND(0x14e, "v128.and", "", 0),
+    V128_ANDNOT(0x14f, "v128.andnot", "", 0),
+    V128_OR(0x150, "v128.or", "", 0),
+    V128_XOR(0x151, "v128.xor", "", 0),
+    V128_BITSELECT(0x152, "v128.bitselect", "", 0),
+    V128_ANY_TRUE(0x153, "v128.any_true", "", 0),
+    I8X16_ALL_TRUE(0x163, "i8x16.all_true", "", 0),
+    I8X16_SHL(0x16b, "i8x16.shl", "", 0),
+    I8X16_SHR_S(0x16c, "i8x16.shr_s", "", 0),
+    I8X16_SHR_U(0x16d, "i8x16.shr_u", "", 0),
+    I8X16_ADD(0x16e, "i8x16.add", "", 0),
+    I8X16_SUB(0x171, "i8x16.sub", "", 0),
+    I16X8_ALL_TRUE(0x183, "i16x8.all_true", "", 0),
+    I16X8_SHL(0x18b, "i16x8.shl", "", 0),
+    I16X8_SHR_S(0x18c, "i16x8.shr_s", "", 0),
+    I16X8_SHR_U(0x18d, "i16x8.shr_u", "", 0),
+    I16X8_ADD(0x18e, "i16x8.add", "", 0),
+    I16X8_SUB(0x191, "i16x8.sub", "", 0),
+    I16X8_MUL(0x195, "i16x8.mul", "", 0),
+    I32X4_ALL_TRUE(0x1a3, "i32x4.all_true", "", 0),
+    I32X4_SHL(0x1ab, "i32x4.shl", "", 0),
+    I32X4_SHR_S(0x1ac, "i32x4.shr_s", "", 0),
+    I32X4_SHR_U(0x1ad, "i32x4.shr_u", "", 0),
+    I32X4_ADD(0x1ae, "i32x4.add", "", 0),
+    I32X4_SUB(0x1b1, "i32x4.sub", "", 0),
+    I32X4_MUL(0x1b5, "i32x4.mul", "", 0),
+    I64X2_ALL_TRUE(0x1c3, "i64x2.all_true", "", 0),
+    I64X2_SHL(0x1cb, "i64x2.shl", "", 0),
+    I64X2_SHR_S(0x1cc, "i64x2.shr_s", "", 0),
+    I64X2_SHR_U(0x1cd, "i64x2.shr_u", "", 0),
+    I64X2_ADD(0x1ce, "i64x2.add", "", 0),
+    I64X2_SUB(0x1d1, "i64x2.sub", "", 0),
+    I64X2_MUL(0x1d5, "i64x2.mul", "", 0),
+    I64X2_EQ(0x1d6, "i64x2.eq", "", 0),
+    I64X2_NE(0x1d7, "i64x2.ne", "", 0),
+    // v128 local and parametric instructions, rewritten from the scalar ones by validation
+    // v128.local.get = high slot (2byte) | low slot (2byte) | 0xfd | 0xf0
+    V128_GET_LOCAL(0x1f0, "v128.local.get", "u16,u16", 0),
+    V128_SET_LOCAL(0x1f1, "v128.local.set", "u16,u16", 0),
+    V128_TEE_LOCAL(0x1f2, "v128.local.tee", "u16,u16", 0),
+    V128_DROP(0x1f3, "v128.drop", "", 0),
+    V128_SELECT(0x1f4, "v128.select", "", 0);
 
-    static OpCode[] CODES = new OpCode[0xbf + 1];
+    // prefix of bulk memory instructions in binary
+    public static final int BULK_PREFIX = 0xfc;
+
+    // prefix of simd instructions in binary and opcode byte of simd instructions in instruction id
+    public static final int SIMD_PREFIX = 0xfd;
+
+    static OpCode[] CODES = new OpCode[0x1ff + 1];
 
     static {
         for (int i = 0; i < OpCode.values().length; i++) {
@@ -192,13 +283,16 @@ public enum OpCode {
     public final String name;
     public final String codeSize;
     public final int loadSize;
+    // instructions fused by superinstruction, empty for wasm instructions
+    public final OpCode[] parts;
 
 
-    OpCode(int code, String name, String codeSize, int loadSize) {
+    OpCode(int code, String name, String codeSize, int loadSize, OpCode... parts) {
         this.code = code;
         this.name = name;
         this.codeSize = codeSize;
         this.loadSize = loadSize;
+        this.parts = parts;
     }
 
     public static OpCode fromCode(int b) {
@@ -0,0 +1,270 @@
+package org.tdf.lotusvm.common;
+
+// opcodes of OpCode as compile time constants, the interpreter switches on the opcode byte of instruction id,
+// OpCode is looked up only for hooks and debugging
+public final class Opcodes {
+    private Opcodes() {
+    }
+
+    // control Instructions
+    public static final int UNREACHABLE = 0x00;
+    public static final int NOP = 0x01;
+    public static final int BLOCK = 0x02;
+    public static final int LOOP = 0x03;
+    public static final int IF = 0x04;
+    public static final int ELSE = 0x05;
+    public static final int END = 0x0b;
+    public static final int BR = 0x0c;
+    public static final int BR_IF = 0x0d;
+    public static final int BR_TABLE = 0x0e;
+    public static final int RETURN = 0x0f;
+    public static final int CALL = 0x10;
+    public static final int CALL_INDIRECT = 0x11;
+    // parametric Instructions
+    public static final int DROP = 0x1a;
+    public static final int SELECT = 0x1b;
+    // variable instructions
+    public static final int GET_LOCAL = 0x20;
+    public static final int SET_LOCAL = 0x21;
+    public static final int TEE_LOCAL = 0x22;
+    public static final int GET_GLOBAL = 0x23;
+    public static final int SET_GLOBAL = 0x24;
+    // memory instructions
+    public static final int I32_LOAD = 0x28;
+    public static final int I64_LOAD = 0x29;
+    public static final int F32_LOAD = 0x2a;
+    public static final int F64_LOAD = 0x2b;
+    public static final int I32_LOAD8_S = 0x2c;
+    public static final int I32_LOAD8_U = 0x2d;
+    public static final int I32_LOAD16_S = 0x2e;
+    public static final int I32_LOAD16_U = 0x2f;
+    public static final int I64_LOAD8_S = 0x30;
+    public static final int I64_LOAD8_U = 0x31;
+    public static final int I64_LOAD16_S = 0x32;
+    public static final int I64_LOAD16_U = 0x33;
+    public static final int I64_LOAD32_S = 0x34;
+    public static final int I64_LOAD32_U = 0x35;
+    public static final int I32_STORE = 0x36;
+    public static final int I64_STORE = 0x37;
+    public static final int F32_STORE = 0x38;
+    public static final int F64_STORE = 0x39;
+    public static final int I32_STORE8 = 0x3a;
+    public static final int I32_STORE16 = 0x3b;
+    public static final int I64_STORE8 = 0x3c;
+    public static final int I64_STORE16 = 0x3d;
+    public static final int I64_STORE32 = 0x3e;
+    public static final int CURRENT_MEMORY = 0x3f;
+    public static final int GROW_MEMORY = 0x40;
+    // numeric instructions
+    // constants
+    public static final int I32_CONST = 0x41;
+    public static final int I64_CONST = 0x42;
+    public static final int F32_CONST = 0x43;
+    public static final int F64_CONST = 0x44;
+    public static final int I32_EQZ = 0x45;
+    public static final int I32_EQ = 0x46;
+    public static final int I32_NE = 0x47;
+    public static final int I32_LTS = 0x48;
+    public static final int I32_LTU = 0x49;
+    public static final int I32_GTS = 0x4a;
+    public static final int I32_GTU = 0x4b;
+    public static final int I32_LES = 0x4c;
+    public static final int I32_LEU = 0x4d;
+    public static final int I32_GES = 0x4e;
+    public static final int I32_GEU = 0x4f;
+    public static final int I64_EQZ = 0x50;
+    public static final int I64_EQ = 0x51;
+    public static final int I64_NE = 0x52;
+    public static final int I64_LTS = 0x53;
+    public static final int I64_LTU = 0x54;
+    public static final int I64_GTS = 0x55;
+    public static final int I64_GTU = 0x56;
+    public static final int I64_LES = 0x57;
+    public static final int I64_LEU = 0x58;
+    public static final int I64_GES = 0x59;
+    public static final int I64_GEU = 0x5a;
+    public static final int F32_EQ = 0x5b;
+    public static final int F32_NE = 0x5c;
+    public static final int F32_LT = 0x5d;
+    public static final int F32_GT = 0x5e;
+    public static final int F32_LE = 0x5f;
+    public static final int F32_GE = 0x60;
+    public static final int F64_EQ = 0x61;
+    public static final int F64_NE = 0x62;
+    public static final int F64_LT = 0x63;
+    public static final int F64_GT = 0x64;
+    public static final int F64_LE = 0x65;
+    public static final int F64_GE = 0x66;
+    public static final int I32_CLZ = 0x67;
+    public static final int I32_CTZ = 0x68;
+    public static final int I32_POPCNT = 0x69;
+    public static final int I32_ADD = 0x6a;
+    public static final int I32_SUB = 0x6b;
+    public static final int I32_MUL = 0x6c;
+    public static final int I32_DIVS = 0x6d;
+    public static final int I32_DIVU = 0x6e;
+    public static final int I32_REMS = 0x6f;
+    public static final int I32_REMU = 0x70;
+    public static final int I32_AND = 0x71;
+    public static final int I32_OR = 0x72;
+    public static final int I32_XOR = 0x73;
+    public static final int I32_SHL = 0x74;
+    public static final int I32_SHRS = 0x75;
+    public static final int I32_SHRU = 0x76;
+    public static final int I32_ROTL = 0x77;
+    public static final int I32_ROTR = 0x78;
+    public static final int I64_CLZ = 0x79;
+    public static final int I64_CTZ = 0x7a;
+    public static final int I64_POPCNT = 0x7b;
+    public static final int I64_ADD = 0x7c;
+    public static final int I64_SUB = 0x7d;
+    public static final int I64_MUL = 0x7e;
+    public static final int I64_DIVS = 0x7f;
+    public static final int I64_DIVU = 0x80;
+    public static final int I64_REMS = 0x81;
+    public static final int I64_REMU = 0x82;
+    public static final int I64_AND = 0x83;
+    public static final int I64_OR = 0x84;
+    public static final int I64_XOR = 0x85;
+    public static final int I64_SHL = 0x86;
+    public static final int I64_SHRS = 0x87;
+    public static final int I64_SHRU = 0x88;
+    public static final int I64_ROTL = 0x89;
+    public static final int I64_ROTR = 0x8a;
+    public static final int F32_ABS = 0x8b;
+    public static final int F32_NEG = 0x8c;
+    public static final int F32_CEIL = 0x8d;
+    public static final int F32_FLOOR = 0x8e;
+    public static final int F32_TRUNC = 0x8f;
+    public static final int F32_NEAREST = 0x90;
+    public static final int F32_SQRT = 0x91;
+    public static final int F32_ADD = 0x92;
+    public static final int F32_SUB = 0x93;
+    public static final int F32_MUL = 0x94;
+    public static final int F32_DIV = 0x95;
+    public static final int F32_MIN = 0x96;
+    public static final int F32_MAX = 0x97;
+    public static final int F32_COPYSIGN = 0x98;
+    public static final int F64_ABS = 0x99;
+    public static final int F64_NEG = 0x9a;
+    public static final int F64_CEIL = 0x9b;
+    public static final int F64_FLOOR = 0x9c;
+    public static final int F64_TRUNC = 0x9d;
+    public static final int F64_NEAREST = 0x9e;
+    public static final int F64_SQRT = 0x9f;
+    public static final int F64_ADD = 0xa0;
+    public static final int F64_SUB = 0xa1;
+    public static final int F64_MUL = 0xa2;
+    public static final int F64_DIV = 0xa3;
+    public static final int F64_MIN = 0xa4;
+    public static final int F64_MAX = 0xa5;
+    public static final int F64_COPYSIGN = 0xa6;
+    public static final int I32_WRAP_I64 = 0xa7;
+    public static final int I32_TRUNC_SF32 = 0xa8;
+    public static final int I32_TRUNC_UF32 = 0xa9;
+    public static final int I32_TRUNC_SF64 = 0xaa;
+    public static final int I32_TRUNC_UF64 = 0xab;
+    public static final int I64_EXTEND_SI32 = 0xac;
+    public static final int I64_EXTEND_UI32 = 0xad;
+    public static final int I64_TRUNC_SF32 = 0xae;
+    public static final int I64_TRUNC_UF32 = 0xaf;
+    public static final int I64_TRUNC_SF64 = 0xb0;
+    public static final int I64_TRUNC_UF64 = 0xb1;
+    public static final int F32_CONVERT_SI32 = 0xb2;
+    public static final int F32_CONVERT_UI32 = 0xb3;
+    public static final int F32_CONVERT_SI64 = 0xb4;
+    public static final int F32_CONVERT_UI64 = 0xb5;
+    public static final int F32_DEMOTE_F64 = 0xb6;
+    public static final int F64_CONVERT_SI32 = 0xb7;
+    public static final int F64_CONVERT_UI32 = 0xb8;
+    public static final int F64_CONVERT_SI64 = 0xb9;
+    public static final int F64_CONVERT_UI64 = 0xba;
+    public static final int F64_PROMOTE_F32 = 0xbb;
+    public static final int I32_REINTERPRET_F32 = 0xbc;
+    public static final int I64_REINTERPRET_F64 = 0xbd;
+    public static final int F32_REINTERPRET_I32 = 0xbe;
+    public static final int F64_REINTERPRET_I64 = 0xbf;
+    // superinstructions, internal opcodes never decoded from binary, see Superinstructions
+    public static final int I32_ADD_LL = 0xe0;
+    public static final int I32_LOAD_L = 0xe1;
+    public static final int I32_ADD_C = 0xe2;
+    public static final int BR_IF_EQZ_L = 0xe3;
+    public static final int I32_ADD_LC = 0xe4;
+    // copy between slots of register code, see RegisterCode
+    public static final int MOVE = 0xe8;
+    // charge gas of a basic block, see GasMeter
+    public static final int GAS = 0xe9;
+    // bulk memory instructions, decoded from prefix 0xfc with sub opcode 8 - 11
+    public static final int MEMORY_INIT = 0xf0;
+    public static final int DATA_DROP = 0xf1;
+    public static final int MEMORY_COPY = 0xf2;
+    public static final int MEMORY_FILL = 0xf3;
+    // simd opcodes are 0x100 | sub opcode, the opcode byte is OpCode.SIMD_PREFIX, see InstructionId.getSimdCode
+    public static final int V128_LOAD = 0x100;
+    public static final int V128_STORE = 0x10b;
+    public static final int V128_CONST = 0x10c;
+    public static final int I8X16_SHUFFLE = 0x10d;
+    public static final int I8X16_SWIZZLE = 0x10e;
+    public static final int I8X16_SPLAT = 0x10f;
+    public static final int I16X8_SPLAT = 0x110;
+    public static final int I32X4_SPLAT = 0x111;
+    public static final int I64X2_SPLAT = 0x112;
+    public static final int I8X16_EXTRACT_LANE_S = 0x115;
+    public static final int I8X16_EXTRACT_LANE_U = 0x116;
+    public static final int I8X16_REPLACE_LANE = 0x117;
+    public static final int I16X8_EXTRACT_LANE_S = 0x118;
+    public static final int I16X8_EXTRACT_LANE_U = 0x119;
+    public static final int I16X8_REPLACE_LANE = 0x11a;
+    public static final int I32X4_EXTRACT_LANE = 0x11b;
+    public static final int I32X4_REPLACE_LANE = 0x11c;
+    public static final int I64X2_EXTRACT_LANE = 0x11d;
+    public static final int I64X2_REPLACE_LANE = 0x11e;
+    public static final int I8X16_EQ = 0x123;
+    public static final int I8X16_NE = 0x124;
+    public static final int I16X8_EQ = 0x12d;
+    public static final int I16X8_NE = 0x12e;
+    public static final int I32X4_EQ = 0x137;
+    public static final int I32X4_NE = 0x138;
+    public static final int V128_NOT = 0x14d;
+    public static final int V128_AND = 0x14e;
+    public static final int V128_ANDNOT = 0x14f;
+    public static final int V128_OR = 0x150;
+    public static final int V128_XOR = 0x151;
+    public static final int V128_BITSELECT = 0x152;
+    public static final int V128_ANY_TRUE = 0x153;
+    public static final int I8X16_ALL_TRUE = 0x163;
+    public static final int I8X16_SHL = 0x16b;
+    public static final int I8X16_SHR_S = 0x16c;
+    public static final int I8X16_SHR_U = 0x16d;
+    public static final int I8X16_ADD = 0x16e;
+    public static final int I8X16_SUB = 0x171;
+    public static final int I16X8_ALL_TRUE = 0x183;
+    public static final int I16X8_SHL = 0x18b;
+    public static final int I16X8_SHR_S = 0x18c;
+    public static final int I16X8_SHR_U = 0x18d;
+    public static final int I16X8_ADD = 0x18e;
+    public static final int I16X8_SUB = 0x191;
+    public static final int I16X8_MUL = 0x195;
+    public static final int I32X4_ALL_TRUE = 0x1a3;
+    public static final int I32X4_SHL = 0x1ab;
+    public static final int I32X4_SHR_S = 0x1ac;
+    public static final int I32X4_SHR_U = 0x1ad;
+    public static final int I32X4_ADD = 0x1ae;
+    public static final int I32X4_SUB = 0x1b1;
+    public static final int I32X4_MUL = 0x1b5;
+    public static final int I64X2_ALL_TRUE = 0x1c3;
+    public static final int I64X2_SHL = 0x1cb;
+    public static final int I64X2_SHR_S = 0x1cc;
+    public static final int I64X2_SHR_U = 0x1cd;
+    public static final int I64X2_ADD = 0x1ce;
+    public static final int I64X2_SUB = 0x1d1;
+    public static final int I64X2_MUL = 0x1d5;
+    public static final int I64X2_EQ = 0x1d6;
+    public static final int I64X2_NE = 0x1d7;
+    // v128 local and parametric instructions rewritten by validation
+    public static final int V128_GET_LOCAL = 0x1f0;
+    public static final int V128_SET_LOCAL = 0x1f1;
+    public static final int V128_TEE_LOCAL = 0x1f2;
+    public static final int V128_DROP = 0x1f3;
+    public static final int V128_SELECT = 0x1f4;
+}
@@ -0,0 +1,56 @@
+package org.tdf.lotusvm.compiler;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.reflect.Array;
+import java.lang.reflect.Method;
+
+// define generated classes as hidden classes (jdk 15+) so they could be unloaded once unreachable,
+// fall back to a throwaway class loader per class on older jdk
+final class ClassDefiner {
+    private static final MethodHandles.Lookup LOOKUP = MethodHandles.lookup();
+    private static final Method DEFINE_HIDDEN_CLASS;
+    private static final Object NO_OPTIONS;
+
+    static {
+        Method m = null;
+        Object options = null;
+        try {
+            Class<?> optionClass = Class.forName("java.lang.invoke.MethodHandles$Lookup$ClassOption");
+            options = Array.newInstance(optionClass, 0);
+            m = MethodHandles.Lookup.class.getMethod(
+                "defineHiddenClass", byte[].class, boolean.class, options.getClass()
+            );
+        } catch (Exception ignored) {
+            // hidden class is not available
+        }
+        DEFINE_HIDDEN_CLASS = m;
+        NO_OPTIONS = options;
+    }
+
+    private ClassDefiner() {
+    }
+
+    // the internal name of generated class should be in package org.tdf.lotusvm.compiler
+    static Class<?> define(byte[] bytes) {
+        if (DEFINE_HIDDEN_CLASS != null) {
+            try {
+                MethodHandles.Lookup lookup =
+                    (MethodHandles.Lookup) DEFINE_HIDDEN_CLASS.invoke(LOOKUP, bytes, true, NO_OPTIONS);
+                return lookup.lookupClass();
+            } catch (Exception e) {
+                throw new RuntimeException("define hidden class failed", e);
+            }
+        }
+        return new Loader(ClassDefiner.class.getClassLoader()).define(bytes);
+    }
+
+    private static final class Loader extends ClassLoader {
+        Loader(ClassLoader parent) {
+            super(parent);
+        }
+
+        Class<?> define(byte[] bytes) {
+            return defineClass(null, bytes, 0, bytes.length);
+        }
+    }
+}
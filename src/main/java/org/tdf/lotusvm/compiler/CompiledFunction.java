@@ -0,0 +1,9 @@
+package org.tdf.lotusvm.compiler;
+
+import org.tdf.lotusvm.runtime.ModuleInstanceImpl;
+
+// a wasm function translated into jvm byte code
+// the arguments and result are in the same representation as values in stack allocator
+public interface CompiledFunction {
+    long execute(ModuleInstanceImpl module, long[] args);
+}
@@ -0,0 +1,63 @@
+package org.tdf.lotusvm.compiler;
+
+import org.tdf.lotusvm.Module;
+
+// a module with functions compiled ahead of time, the generated code is stateless and could be shared by instances
+// the compiled module is reference counted, created with one reference, retain() adds one and close() releases one,
+// the module is closed once the last reference released
+public final class CompiledModule implements AutoCloseable {
+    private final Module module;
+    private final boolean hooks;
+    // indexed by function index, null for imported functions and functions failed to compile
+    private final CompiledFunction[] functions;
+    private int references = 1;
+
+    CompiledModule(Module module, boolean hooks, CompiledFunction[] functions) {
+        this.module = module;
+        this.hooks = hooks;
+        this.functions = functions;
+    }
+
+    public Module getModule() {
+        return module;
+    }
+
+    // whether hook calls are emitted
+    public boolean getHooks() {
+        return hooks;
+    }
+
+    public CompiledFunction get(int functionIndex) {
+        return functions[functionIndex];
+    }
+
+    public int getCompiledCount() {
+        int n = 0;
+        for (CompiledFunction f : functions) {
+            if (f != null)
+                n++;
+        }
+        return n;
+    }
+
+    // add a reference, e.g. held by instances until they are no longer used
+    public synchronized CompiledModule retain() {
+        if (references == 0)
+            throw new RuntimeException("compiled module is closed");
+        references++;
+        return this;
+    }
+
+    public synchronized int getReferences() {
+        return references;
+    }
+
+    @Override
+    public void close() {
+        synchronized (this) {
+            if (references == 0 || --references > 0)
+                return;
+        }
+        module.close();
+    }
+}
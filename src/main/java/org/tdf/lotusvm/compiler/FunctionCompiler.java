@@ -0,0 +1,1129 @@
+package org.tdf.lotusvm.compiler;
+
+import org.objectweb.asm.ClassVisitor;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.Label;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+import org.tdf.lotusvm.common.OpCode;
+import org.tdf.lotusvm.types.*;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// translate a wasm function body in instruction pool into a static jvm method
+// the wasm operand stack is mapped to jvm operand stack and wasm locals are mapped to jvm locals,
+// i32 and f32 are represented as jvm int, i64 and f64 are represented as jvm long
+// the signature of generated method is (params..., ModuleInstanceImpl) -> result
+// a RuntimeException is thrown if the body cannot be compiled, caller should fall back to interpreter
+final class FunctionCompiler implements Opcodes {
+    static final String MODULE = "org/tdf/lotusvm/runtime/ModuleInstanceImpl";
+    static final String RUNTIME = "org/tdf/lotusvm/compiler/JitRuntime";
+    static final String COMPILED = "org/tdf/lotusvm/compiler/CompiledFunction";
+    private static final String MEMORY = "org/tdf/lotusvm/runtime/Memory";
+    private static final String OPCODE = "org/tdf/lotusvm/common/OpCode";
+    // hotspot never compiles methods larger than HugeMethodLimit, run these methods in interpreter is slower
+    private static final int HUGE_METHOD_LIMIT = 8000;
+
+    private final InstructionPool pool;
+    // function types of type section
+    private final List<FunctionType> types;
+    // function types of function index space
+    private final List<FunctionType> functionTypes;
+    private final List<GlobalType> globalTypes;
+    // emit calls of ModuleInstanceImpl.touchXXX
+    private final boolean hooks;
+    // calls to functions marked in direct are linked to static methods of owner, null if all calls are dynamic
+    private final String owner;
+    private final boolean[] direct;
+
+    private MethodVisitor mv;
+    private final List<ValueType> stack = new ArrayList<>();
+    private final List<Control> controls = new ArrayList<>();
+    private final List<ValueType> localTypes = new ArrayList<>();
+    private int[] localSlots;
+    private int moduleSlot;
+    private int memorySlot;
+    private int nextSlot;
+    private final List<Integer> intScratch = new ArrayList<>();
+    private final List<Integer> longScratch = new ArrayList<>();
+
+    FunctionCompiler(
+        InstructionPool pool,
+        List<FunctionType> types,
+        List<FunctionType> functionTypes,
+        List<GlobalType> globalTypes,
+        boolean hooks
+    ) {
+        this(pool, types, functionTypes, globalTypes, hooks, null, null);
+    }
+
+    FunctionCompiler(
+        InstructionPool pool,
+        List<FunctionType> types,
+        List<FunctionType> functionTypes,
+        List<GlobalType> globalTypes,
+        boolean hooks,
+        String owner,
+        boolean[] direct
+    ) {
+        this.pool = pool;
+        this.types = types;
+        this.functionTypes = functionTypes;
+        this.globalTypes = globalTypes;
+        this.hooks = hooks;
+        this.owner = owner;
+        this.direct = direct;
+    }
+
+    static boolean isLong(ValueType t) {
+        return t == ValueType.I64 || t == ValueType.F64;
+    }
+
+    // the module is the last parameter, so arguments on jvm stack could be passed to direct calls as is
+    static String descriptor(FunctionType type) {
+        StringBuilder sb = new StringBuilder("(");
+        for (ValueType t : type.getParameterTypes()) {
+            sb.append(isLong(t) ? 'J' : 'I');
+        }
+        sb.append("L" + MODULE + ";)");
+        if (type.getResultTypes().isEmpty())
+            return sb.append('V').toString();
+        return sb.append(isLong(type.getResultTypes().get(0)) ? 'J' : 'I').toString();
+    }
+
+    static void iconst(MethodVisitor mv, int i) {
+        if (i >= -1 && i <= 5) {
+            mv.visitInsn(ICONST_0 + i);
+        } else if (i >= Byte.MIN_VALUE && i <= Byte.MAX_VALUE) {
+            mv.visitIntInsn(BIPUSH, i);
+        } else if (i >= Short.MIN_VALUE && i <= Short.MAX_VALUE) {
+            mv.visitIntInsn(SIPUSH, i);
+        } else {
+            mv.visitLdcInsn(i);
+        }
+    }
+
+    static void lconst(MethodVisitor mv, long l) {
+        if (l == 0 || l == 1) {
+            mv.visitInsn((int) (LCONST_0 + l));
+            return;
+        }
+        mv.visitLdcInsn(l);
+    }
+
+    // convert jvm value to the representation of stack allocator
+    static void toRaw(MethodVisitor mv, ValueType t) {
+        if (isLong(t))
+            return;
+        mv.visitInsn(I2L);
+        mv.visitLdcInsn(0xffffffffL);
+        mv.visitInsn(LAND);
+    }
+
+    static void fromRaw(MethodVisitor mv, ValueType t) {
+        if (!isLong(t))
+            mv.visitInsn(L2I);
+    }
+
+    // frames are computed without loading classes, generated code never merges references of different types
+    static ClassWriter classWriter() {
+        return new ClassWriter(ClassWriter.COMPUTE_FRAMES) {
+            @Override
+            protected String getCommonSuperClass(String type1, String type2) {
+                return "java/lang/Object";
+            }
+        };
+    }
+
+    // name of static method for function in function index space
+    static String methodName(int functionIndex) {
+        return "f" + functionIndex;
+    }
+
+    // public long execute(ModuleInstanceImpl module, long[] args), invokes static method target of owner
+    static void bridge(ClassVisitor cv, String owner, String target, FunctionType type) {
+        MethodVisitor mv = cv.visitMethod(ACC_PUBLIC, "execute", "(L" + MODULE + ";[J)J", null, null);
+        mv.visitCode();
+        bridgeBody(mv, 1, 2, owner, target, type);
+        mv.visitMaxs(0, 0);
+        mv.visitEnd();
+    }
+
+    // unpack arguments from long[] in argsSlot, invoke the static method and return raw result
+    static void bridgeBody(MethodVisitor mv, int moduleSlot, int argsSlot, String owner, String target, FunctionType type) {
+        List<ValueType> params = type.getParameterTypes();
+        for (int i = 0; i < params.size(); i++) {
+            mv.visitVarInsn(ALOAD, argsSlot);
+            iconst(mv, i);
+            mv.visitMethodInsn(INVOKESTATIC, RUNTIME, "arg", "([JI)J", false);
+            fromRaw(mv, params.get(i));
+        }
+        mv.visitVarInsn(ALOAD, moduleSlot);
+        mv.visitMethodInsn(INVOKESTATIC, owner, target, descriptor(type), false);
+        if (type.getResultTypes().isEmpty()) {
+            mv.visitInsn(LCONST_0);
+        } else {
+            toRaw(mv, type.getResultTypes().get(0));
+        }
+        mv.visitInsn(LRETURN);
+    }
+
+    // emit public static method with the name into class visitor
+    void compile(ClassVisitor cv, String name, FunctionType type, List<ValueType> locals, long body) {
+        stack.clear();
+        controls.clear();
+        localTypes.clear();
+        intScratch.clear();
+        longScratch.clear();
+
+        localTypes.addAll(type.getParameterTypes());
+        localTypes.addAll(locals);
+        localSlots = new int[localTypes.size()];
+        int params = type.getParameterTypes().size();
+        int slot = 0;
+        for (int i = 0; i < localSlots.length; i++) {
+            if (i == params)
+                moduleSlot = slot++;
+            localSlots[i] = slot;
+            slot += isLong(localTypes.get(i)) ? 2 : 1;
+        }
+        if (localSlots.length == params)
+            moduleSlot = slot++;
+        memorySlot = slot++;
+        nextSlot = slot;
+
+        mv = cv.visitMethod(ACC_PUBLIC | ACC_STATIC, name, descriptor(type), null, null);
+        mv.visitCode();
+        mv.visitVarInsn(ALOAD, moduleSlot);
+        mv.visitMethodInsn(INVOKEVIRTUAL, MODULE, "enterFrame", "()V", false);
+
+        // params are initialized by caller, declared locals are initialized as zero
+        for (int i = type.getParameterTypes().size(); i < localSlots.length; i++) {
+            ValueType t = localTypes.get(i);
+            if (isLong(t)) {
+                mv.visitInsn(LCONST_0);
+            } else {
+                mv.visitInsn(ICONST_0);
+            }
+            store(t, localSlots[i]);
+        }
+        mv.visitVarInsn(ALOAD, moduleSlot);
+        mv.visitMethodInsn(INVOKEVIRTUAL, MODULE, "getMemory", "()L" + MEMORY + ";", false);
+        mv.visitVarInsn(ASTORE, memorySlot);
+
+        ValueType result = type.getResultTypes().isEmpty() ? null : type.getResultTypes().get(0);
+        Control function = new Control(new Label(), false, 0, result);
+        controls.add(function);
+        if (compileRange(body)) {
+            endBlock(function);
+        }
+        mv.visitLabel(function.label);
+        resetStack(function);
+        if (hooks) {
+            mv.visitVarInsn(ALOAD, moduleSlot);
+            mv.visitMethodInsn(INVOKEVIRTUAL, MODULE, "touchFrameExit", "()V", false);
+        }
+        emitReturn(result);
+        Label end = new Label();
+        mv.visitLabel(end);
+        if (end.getOffset() > HUGE_METHOD_LIMIT)
+            throw new RuntimeException("method too large: " + end.getOffset() + " bytes");
+        mv.visitMaxs(0, 0);
+        mv.visitEnd();
+        mv = null;
+    }
+
+    // return false if the end of instructions is unreachable
+    private boolean compileRange(long instructions) {
+        int size = InstructionPool.getInstructionsSize(instructions);
+        for (int i = 0; i < size; i++) {
+            if (!compileInstruction(pool.getInstructionInArray(instructions, i)))
+                return false;
+        }
+        return true;
+    }
+
+    private boolean compileInstruction(long ins) {
+        OpCode code = InstructionId.getOpCode(ins);
+        if (code.parts.length > 0) {
+            // superinstructions are compiled as their parts
+            for (long part : Superinstructions.expand(ins)) {
+                if (!compileInstruction(part))
+                    return false;
+            }
+            return true;
+        }
+        if (code == OpCode.GAS) {
+            mv.visitVarInsn(ALOAD, moduleSlot);
+            mv.visitLdcInsn(GasMeter.getCost(ins));
+            mv.visitMethodInsn(INVOKEVIRTUAL, MODULE, "chargeGas", "(J)V", false);
+            return true;
+        }
+        if (code == OpCode.RETURN) {
+            Control function = controls.get(0);
+            if (function.result != null) {
+                if (stack.isEmpty() || peek() != function.result)
+                    throw new RuntimeException("invalid operand of return");
+            }
+            emitReturn(function.result);
+            return false;
+        }
+        if (hooks) {
+            mv.visitVarInsn(ALOAD, moduleSlot);
+            mv.visitFieldInsn(GETSTATIC, OPCODE, code.name(), "L" + OPCODE + ";");
+            mv.visitMethodInsn(INVOKEVIRTUAL, MODULE, "touchIns", "(L" + OPCODE + ";)V", false);
+        }
+        switch (code) {
+            case NOP:
+                return true;
+            case I32_REINTERPRET_F32:
+                pop(ValueType.F32);
+                push(ValueType.I32);
+                return true;
+            case I64_REINTERPRET_F64:
+                pop(ValueType.F64);
+                push(ValueType.I64);
+                return true;
+            case I64_EXTEND_UI32:
+                pop(ValueType.I32);
+                toRaw(mv, ValueType.I32);
+                push(ValueType.I64);
+                return true;
+            case UNREACHABLE:
+                mv.visitMethodInsn(INVOKESTATIC, RUNTIME, "unreachable", "()Ljava/lang/RuntimeException;", false);
+                mv.visitInsn(ATHROW);
+                return false;
+            case BLOCK: {
+                Control c = new Control(new Label(), false, stack.size(), blockType(ins));
+                controls.add(c);
+                if (compileRange(pool.getBranch0(ins))) {
+                    endBlock(c);
+                }
+                controls.remove(controls.size() - 1);
+                mv.visitLabel(c.label);
+                resetStack(c);
+                return true;
+            }
+            case LOOP: {
+                Control c = new Control(new Label(), true, stack.size(), blockType(ins));
+                mv.visitLabel(c.label);
+                controls.add(c);
+                if (compileRange(pool.getBranch0(ins))) {
+                    endBlock(c);
+                }
+                controls.remove(controls.size() - 1);
+                resetStack(c);
+                return true;
+            }
+            case IF: {
+                pop(ValueType.I32);
+                Label otherwise = new Label();
+                mv.visitJumpInsn(IFEQ, otherwise);
+                Control c = new Control(new Label(), false, stack.size(), blockType(ins));
+                controls.add(c);
+                if (compileRange(pool.getBranch0(ins))) {
+                    endBlock(c);
+                    mv.visitJumpInsn(GOTO, c.label);
+                }
+                truncate(c.height);
+                mv.visitLabel(otherwise);
+                long branch1 = pool.getBranch1(ins);
+                if (pool.isNullBranch(branch1)) {
+                    if (c.result != null)
+                        throw new RuntimeException("if without else should not have result");
+                } else if (compileRange(branch1)) {
+                    endBlock(c);
+                }
+                controls.remove(controls.size() - 1);
+                mv.visitLabel(c.label);
+                resetStack(c);
+                return true;
+            }
+            case BR:
+                emitBranch(InstructionId.getLeft32(ins));
+                return false;
+            case BR_IF: {
+                pop(ValueType.I32);
+                Label skip = new Label();
+                mv.visitJumpInsn(IFEQ, skip);
+                emitBranch(InstructionId.getLeft32(ins));
+                mv.visitLabel(skip);
+                return true;
+            }
+            case BR_TABLE: {
+                pop(ValueType.I32);
+                int n = InstructionId.getOperandSize(ins) - 1;
+                int defaultDepth = pool.getOperandAsInt(ins, n);
+                if (n == 0) {
+                    mv.visitInsn(POP);
+                    emitBranch(defaultDepth);
+                    return false;
+                }
+                // share the branch stub between cases with same depth
+                Map<Integer, Label> stubs = new HashMap<>();
+                Label defaultLabel = new Label();
+                stubs.put(defaultDepth, defaultLabel);
+                Label[] cases = new Label[n];
+                for (int i = 0; i < n; i++) {
+                    cases[i] = stubs.computeIfAbsent(pool.getOperandAsInt(ins, i), k -> new Label());
+                }
+                mv.visitTableSwitchInsn(0, n - 1, defaultLabel, cases);
+                for (Map.Entry<Integer, Label> e : stubs.entrySet()) {
+                    mv.visitLabel(e.getValue());
+                    emitBranch(e.getKey());
+                }
+                return false;
+            }
+            case DROP:
+                popJvm(pop());
+                return true;
+            case SELECT: {
+                pop(ValueType.I32);
+                ValueType t = pop();
+                if (pop() != t)
+                    throw new RuntimeException("type mismatch of select");
+                Label second = new Label();
+                Label end = new Label();
+                mv.visitJumpInsn(IFEQ, second);
+                popJvm(t);
+                mv.visitJumpInsn(GOTO, end);
+                mv.visitLabel(second);
+                if (isLong(t)) {
+                    mv.visitInsn(DUP2_X2);
+                    mv.visitInsn(POP2);
+                    mv.visitInsn(POP2);
+                } else {
+                    mv.visitInsn(SWAP);
+                    mv.visitInsn(POP);
+                }
+                mv.visitLabel(end);
+                push(t);
+                return true;
+            }
+            case GET_LOCAL: {
+                int idx = localIndex(ins);
+                ValueType t = localTypes.get(idx);
+                load(t, localSlots[idx]);
+                push(t);
+                return true;
+            }
+            case SET_LOCAL: {
+                int idx = localIndex(ins);
+                ValueType t = localTypes.get(idx);
+                pop(t);
+                store(t, localSlots[idx]);
+                return true;
+            }
+            case TEE_LOCAL: {
+                int idx = localIndex(ins);
+                ValueType t = localTypes.get(idx);
+                pop(t);
+                mv.visitInsn(isLong(t) ? DUP2 : DUP);
+                store(t, localSlots[idx]);
+                push(t);
+                return true;
+            }
+            case GET_GLOBAL: {
+                ValueType t = globalType(ins);
+                mv.visitVarInsn(ALOAD, moduleSlot);
+                iconst(mv, InstructionId.getLeft32(ins));
+                mv.visitMethodInsn(INVOKEVIRTUAL, MODULE, "getGlobal", "(I)J", false);
+                fromRaw(mv, t);
+                push(t);
+                return true;
+            }
+            case SET_GLOBAL: {
+                ValueType t = globalType(ins);
+                pop(t);
+                toRaw(mv, t);
+                int tmp = scratch(ValueType.I64, 0);
+                mv.visitVarInsn(LSTORE, tmp);
+                mv.visitVarInsn(ALOAD, moduleSlot);
+                iconst(mv, InstructionId.getLeft32(ins));
+                mv.visitVarInsn(LLOAD, tmp);
+                mv.visitMethodInsn(INVOKEVIRTUAL, MODULE, "setGlobal", "(IJ)V", false);
+                return true;
+            }
+            // memory instructions
+            case I32_LOAD:
+                emitLoad(ins, "load32", "I");
+                push(ValueType.I32);
+                return true;
+            case I64_LOAD32_U:
+                emitLoad(ins, "load32", "I");
+                toRaw(mv, ValueType.I32);
+                push(ValueType.I64);
+                return true;
+            case I64_LOAD32_S:
+                emitLoad(ins, "load32", "I");
+                mv.visitInsn(I2L);
+                push(ValueType.I64);
+                return true;
+            case I64_LOAD:
+                emitLoad(ins, "load64", "J");
+                push(ValueType.I64);
+                return true;
+            case I32_LOAD8_S:
+                emitLoad(ins, "load8", "B");
+                push(ValueType.I32);
+                return true;
+            case I64_LOAD8_S:
+                emitLoad(ins, "load8", "B");
+                mv.visitInsn(I2L);
+                push(ValueType.I64);
+                return true;
+            case I32_LOAD8_U:
+                emitLoad(ins, "load8", "B");
+                iconst(mv, 0xff);
+                mv.visitInsn(IAND);
+                push(ValueType.I32);
+                return true;
+            case I64_LOAD8_U:
+                emitLoad(ins, "load8", "B");
+                iconst(mv, 0xff);
+                mv.visitInsn(IAND);
+                mv.visitInsn(I2L);
+                push(ValueType.I64);
+                return true;
+            case I32_LOAD16_S:
+                emitLoad(ins, "load16", "S");
+                push(ValueType.I32);
+                return true;
+            case I64_LOAD16_S:
+                emitLoad(ins, "load16", "S");
+                mv.visitInsn(I2L);
+                push(ValueType.I64);
+                return true;
+            case I32_LOAD16_U:
+                emitLoad(ins, "load16", "S");
+                mv.visitLdcInsn(0xffff);
+                mv.visitInsn(IAND);
+                push(ValueType.I32);
+                return true;
+            case I64_LOAD16_U:
+                emitLoad(ins, "load16", "S");
+                mv.visitLdcInsn(0xffff);
+                mv.visitInsn(IAND);
+                mv.visitInsn(I2L);
+                push(ValueType.I64);
+                return true;
+            case I32_STORE8:
+                emitStore(ins, ValueType.I32, I2B, "storeI8", "B");
+                return true;
+            case I64_STORE8:
+                emitStore(ins, ValueType.I64, I2B, "storeI8", "B");
+                return true;
+            case I32_STORE16:
+                emitStore(ins, ValueType.I32, I2S, "storeI16", "S");
+                return true;
+            case I64_STORE16:
+                emitStore(ins, ValueType.I64, I2S, "storeI16", "S");
+                return true;
+            case I32_STORE:
+                emitStore(ins, ValueType.I32, NOP, "storeI32", "I");
+                return true;
+            case I64_STORE32:
+                emitStore(ins, ValueType.I64, NOP, "storeI32", "I");
+                return true;
+            case I64_STORE:
+                emitStore(ins, ValueType.I64, NOP, "storeI64", "J");
+                return true;
+            case CURRENT_MEMORY:
+                mv.visitVarInsn(ALOAD, memorySlot);
+                mv.visitMethodInsn(INVOKEINTERFACE, MEMORY, "getPages", "()I", true);
+                push(ValueType.I32);
+                return true;
+            case GROW_MEMORY:
+                pop(ValueType.I32);
+                mv.visitVarInsn(ALOAD, moduleSlot);
+                mv.visitInsn(SWAP);
+                mv.visitMethodInsn(INVOKESTATIC, RUNTIME, "growMemory", "(L" + MODULE + ";I)I", false);
+                push(ValueType.I32);
+                return true;
+            case MEMORY_INIT:
+                pop(ValueType.I32);
+                pop(ValueType.I32);
+                pop(ValueType.I32);
+                mv.visitVarInsn(ALOAD, moduleSlot);
+                iconst(mv, InstructionId.getLeft32(ins));
+                mv.visitMethodInsn(INVOKESTATIC, RUNTIME, "memoryInit", "(IIIL" + MODULE + ";I)V", false);
+                return true;
+            case DATA_DROP:
+                mv.visitVarInsn(ALOAD, moduleSlot);
+                iconst(mv, InstructionId.getLeft32(ins));
+                mv.visitMethodInsn(INVOKEVIRTUAL, MODULE, "dataDrop", "(I)V", false);
+                return true;
+            case MEMORY_COPY:
+            case MEMORY_FILL:
+                pop(ValueType.I32);
+                pop(ValueType.I32);
+                pop(ValueType.I32);
+                mv.visitVarInsn(ALOAD, moduleSlot);
+                mv.visitMethodInsn(INVOKESTATIC, RUNTIME, code == OpCode.MEMORY_COPY ? "memoryCopy" : "memoryFill", "(IIIL" + MODULE + ";)V", false);
+                return true;
+            case I32_CONST:
+                iconst(mv, InstructionId.getLeft32(ins));
+                push(ValueType.I32);
+                return true;
+            case I64_CONST:
+                lconst(mv, pool.getOperand(ins, 0));
+                push(ValueType.I64);
+                return true;
+            // i32 numeric instructions
+            case I32_CLZ:
+                unaryI32("java/lang/Integer", "numberOfLeadingZeros");
+                return true;
+            case I32_CTZ:
+                unaryI32("java/lang/Integer", "numberOfTrailingZeros");
+                return true;
+            case I32_POPCNT:
+                unaryI32("java/lang/Integer", "bitCount");
+                return true;
+            case I32_ADD:
+                binaryI32(IADD);
+                return true;
+            case I32_SUB:
+                binaryI32(ISUB);
+                return true;
+            case I32_MUL:
+                binaryI32(IMUL);
+                return true;
+            case I32_DIVS:
+                binaryI32(RUNTIME, "divS");
+                return true;
+            case I32_DIVU:
+                binaryI32("java/lang/Integer", "divideUnsigned");
+                return true;
+            case I32_REMS:
+                binaryI32(IREM);
+                return true;
+            case I32_REMU:
+                binaryI32("java/lang/Integer", "remainderUnsigned");
+                return true;
+            case I32_AND:
+                binaryI32(IAND);
+                return true;
+            case I32_OR:
+                binaryI32(IOR);
+                return true;
+            case I32_XOR:
+                binaryI32(IXOR);
+                return true;
+            case I32_SHL:
+                binaryI32(ISHL);
+                return true;
+            case I32_SHRS:
+                binaryI32(ISHR);
+                return true;
+            case I32_SHRU:
+                binaryI32(IUSHR);
+                return true;
+            case I32_ROTL:
+                binaryI32("java/lang/Integer", "rotateLeft");
+                return true;
+            case I32_ROTR:
+                binaryI32("java/lang/Integer", "rotateRight");
+                return true;
+            case I32_EQZ:
+                pop(ValueType.I32);
+                bool(IFEQ);
+                return true;
+            case I32_EQ:
+                compareI32(IF_ICMPEQ);
+                return true;
+            case I32_NE:
+                compareI32(IF_ICMPNE);
+                return true;
+            case I32_LTS:
+                compareI32(IF_ICMPLT);
+                return true;
+            case I32_LES:
+                compareI32(IF_ICMPLE);
+                return true;
+            case I32_GTS:
+                compareI32(IF_ICMPGT);
+                return true;
+            case I32_GES:
+                compareI32(IF_ICMPGE);
+                return true;
+            case I32_LTU:
+                compareUnsignedI32(IFLT);
+                return true;
+            case I32_LEU:
+                compareUnsignedI32(IFLE);
+                return true;
+            case I32_GTU:
+                compareUnsignedI32(IFGT);
+                return true;
+            case I32_GEU:
+                compareUnsignedI32(IFGE);
+                return true;
+            // i64 numeric instructions
+            case I64_CLZ:
+                unaryI64("numberOfLeadingZeros");
+                return true;
+            case I64_CTZ:
+                unaryI64("numberOfTrailingZeros");
+                return true;
+            case I64_POPCNT:
+                unaryI64("bitCount");
+                return true;
+            case I64_ADD:
+                binaryI64(LADD);
+                return true;
+            case I64_SUB:
+                binaryI64(LSUB);
+                return true;
+            case I64_MUL:
+                binaryI64(LMUL);
+                return true;
+            case I64_DIVS:
+                binaryI64(RUNTIME, "divS");
+                return true;
+            case I64_DIVU:
+                binaryI64("java/lang/Long", "divideUnsigned");
+                return true;
+            case I64_REMS:
+                binaryI64(LREM);
+                return true;
+            case I64_REMU:
+                binaryI64("java/lang/Long", "remainderUnsigned");
+                return true;
+            case I64_AND:
+                binaryI64(LAND);
+                return true;
+            case I64_OR:
+                binaryI64(LOR);
+                return true;
+            case I64_XOR:
+                binaryI64(LXOR);
+                return true;
+            case I64_SHL:
+                shiftI64(LSHL);
+                return true;
+            case I64_SHRS:
+                shiftI64(LSHR);
+                return true;
+            case I64_SHRU:
+                shiftI64(LUSHR);
+                return true;
+            case I64_ROTL:
+                rotateI64("rotateLeft");
+                return true;
+            case I64_ROTR:
+                rotateI64("rotateRight");
+                return true;
+            case I64_EQZ:
+                pop(ValueType.I64);
+                mv.visitInsn(LCONST_0);
+                mv.visitInsn(LCMP);
+                bool(IFEQ);
+                return true;
+            case I64_EQ:
+                compareI64(IFEQ);
+                return true;
+            case I64_NE:
+                compareI64(IFNE);
+                return true;
+            case I64_LTS:
+                compareI64(IFLT);
+                return true;
+            case I64_LES:
+                compareI64(IFLE);
+                return true;
+            case I64_GTS:
+                compareI64(IFGT);
+                return true;
+            case I64_GES:
+                compareI64(IFGE);
+                return true;
+            case I64_LTU:
+                compareUnsignedI64(IFLT);
+                return true;
+            case I64_LEU:
+                compareUnsignedI64(IFLE);
+                return true;
+            case I64_GTU:
+                compareUnsignedI64(IFGT);
+                return true;
+            case I64_GEU:
+                compareUnsignedI64(IFGE);
+                return true;
+            case I32_WRAP_I64:
+                pop(ValueType.I64);
+                mv.visitInsn(L2I);
+                push(ValueType.I32);
+                return true;
+            case I64_EXTEND_SI32:
+                pop(ValueType.I32);
+                mv.visitInsn(I2L);
+                push(ValueType.I64);
+                return true;
+            case CALL: {
+                int f = InstructionId.getLeft32(ins);
+                if (f < 0 || f >= functionTypes.size())
+                    throw new RuntimeException("call function index overflow");
+                FunctionType t = functionTypes.get(f);
+                if (direct != null && direct[f]) {
+                    for (int i = t.getParameterTypes().size() - 1; i >= 0; i--) {
+                        pop(t.getParameterTypes().get(i));
+                    }
+                    mv.visitVarInsn(ALOAD, moduleSlot);
+                    mv.visitMethodInsn(INVOKESTATIC, owner, methodName(f), descriptor(t), false);
+                    if (!t.getResultTypes().isEmpty())
+                        push(t.getResultTypes().get(0));
+                    return true;
+                }
+                ValueType[] args = popArguments(t.getParameterTypes().size());
+                mv.visitVarInsn(ALOAD, moduleSlot);
+                iconst(mv, f);
+                newArguments(args);
+                mv.visitMethodInsn(INVOKESTATIC, RUNTIME, "invoke", "(L" + MODULE + ";I[J)J", false);
+                pushResult(t);
+                return true;
+            }
+            case CALL_INDIRECT: {
+                int typeIndex = InstructionId.getLeft32(ins);
+                if (typeIndex < 0 || typeIndex >= types.size())
+                    throw new RuntimeException("call indirect type index overflow");
+                FunctionType t = types.get(typeIndex);
+                int n = t.getParameterTypes().size();
+                pop(ValueType.I32);
+                int element = scratch(ValueType.I32, n);
+                mv.visitVarInsn(ISTORE, element);
+                ValueType[] args = popArguments(n);
+                mv.visitVarInsn(ALOAD, moduleSlot);
+                iconst(mv, typeIndex);
+                mv.visitVarInsn(ILOAD, element);
+                newArguments(args);
+                mv.visitMethodInsn(INVOKESTATIC, RUNTIME, "invokeIndirect", "(L" + MODULE + ";II[J)J", false);
+                pushResult(t);
+                return true;
+            }
+            default:
+                if (code.isFloatOp(code)) {
+                    mv.visitFieldInsn(GETSTATIC, OPCODE, code.name(), "L" + OPCODE + ";");
+                    mv.visitMethodInsn(
+                        INVOKESTATIC, RUNTIME, "floatOp",
+                        "(L" + OPCODE + ";)Ljava/lang/UnsupportedOperationException;", false
+                    );
+                    mv.visitInsn(ATHROW);
+                    return false;
+                }
+                throw new RuntimeException("unsupported opcode " + code);
+        }
+    }
+
+    private ValueType blockType(long ins) {
+        ResultType r = InstructionId.getResultType(ins);
+        if (r == null)
+            throw new RuntimeException("missing block type");
+        switch (r) {
+            case I32:
+                return ValueType.I32;
+            case I64:
+                return ValueType.I64;
+            case F32:
+                return ValueType.F32;
+            case F64:
+                return ValueType.F64;
+            default:
+                return null;
+        }
+    }
+
+    private int localIndex(long ins) {
+        int idx = InstructionId.getLeft32(ins);
+        if (idx < 0 || idx >= localTypes.size())
+            throw new RuntimeException("local variable overflow");
+        return idx;
+    }
+
+    private ValueType globalType(long ins) {
+        int idx = InstructionId.getLeft32(ins);
+        if (idx < 0 || idx >= globalTypes.size())
+            throw new RuntimeException("global variable overflow");
+        return globalTypes.get(idx).getValueType();
+    }
+
+    private int scratch(ValueType t, int i) {
+        List<Integer> slots = isLong(t) ? longScratch : intScratch;
+        while (slots.size() <= i) {
+            slots.add(nextSlot);
+            nextSlot += isLong(t) ? 2 : 1;
+        }
+        return slots.get(i);
+    }
+
+    private void load(ValueType t, int slot) {
+        mv.visitVarInsn(isLong(t) ? LLOAD : ILOAD, slot);
+    }
+
+    private void store(ValueType t, int slot) {
+        mv.visitVarInsn(isLong(t) ? LSTORE : ISTORE, slot);
+    }
+
+    private void popJvm(ValueType t) {
+        mv.visitInsn(isLong(t) ? POP2 : POP);
+    }
+
+    private void push(ValueType t) {
+        stack.add(t);
+    }
+
+    private ValueType peek() {
+        return stack.get(stack.size() - 1);
+    }
+
+    // values below the label of current block are not accessible
+    private ValueType pop() {
+        if (stack.size() <= controls.get(controls.size() - 1).height)
+            throw new RuntimeException("stack underflow");
+        return stack.remove(stack.size() - 1);
+    }
+
+    private void pop(ValueType expected) {
+        if (pop() != expected)
+            throw new RuntimeException("type mismatch, " + expected + " expected");
+    }
+
+    private void truncate(int height) {
+        while (stack.size() > height) {
+            stack.remove(stack.size() - 1);
+        }
+    }
+
+    private void endBlock(Control c) {
+        int expected = c.height + (c.result == null ? 0 : 1);
+        if (stack.size() != expected || (c.result != null && peek() != c.result))
+            throw new RuntimeException("invalid stack at the end of block");
+    }
+
+    private void resetStack(Control c) {
+        truncate(c.height);
+        if (c.result != null)
+            push(c.result);
+    }
+
+    private void emitReturn(ValueType result) {
+        mv.visitVarInsn(ALOAD, moduleSlot);
+        mv.visitMethodInsn(INVOKEVIRTUAL, MODULE, "exitFrame", "()V", false);
+        if (result == null) {
+            mv.visitInsn(RETURN);
+            return;
+        }
+        mv.visitInsn(isLong(result) ? LRETURN : IRETURN);
+    }
+
+    // unwind jvm stack to the height of target label, keep the label value on top, then jump to label
+    // the type stack is untouched since the fall through path of br_if continues with it
+    private void emitBranch(int depth) {
+        if (depth < 0 || depth >= controls.size())
+            throw new RuntimeException("label index overflow");
+        Control target = controls.get(controls.size() - 1 - depth);
+        if (target.branchArity()) {
+            if (stack.size() <= target.height || peek() != target.result)
+                throw new RuntimeException("invalid operand of branch");
+            if (stack.size() - 1 > target.height) {
+                ValueType t = peek();
+                int tmp = scratch(t, 0);
+                store(t, tmp);
+                for (int i = stack.size() - 2; i >= target.height; i--) {
+                    popJvm(stack.get(i));
+                }
+                load(t, tmp);
+            }
+        } else {
+            for (int i = stack.size() - 1; i >= target.height; i--) {
+                popJvm(stack.get(i));
+            }
+        }
+        // execution limits are checked on loop back-edges
+        if (target.loop) {
+            mv.visitVarInsn(ALOAD, moduleSlot);
+            mv.visitMethodInsn(INVOKEVIRTUAL, MODULE, "checkpoint", "()V", false);
+        }
+        mv.visitJumpInsn(GOTO, target.label);
+    }
+
+    // memory, base -> memory, base, offset, the effective address is checked by memory
+    private void emitAddress(long ins) {
+        pop(ValueType.I32);
+        mv.visitVarInsn(ALOAD, memorySlot);
+        mv.visitInsn(SWAP);
+        iconst(mv, InstructionId.getLeft32(ins));
+    }
+
+    private void emitLoad(long ins, String method, String returnType) {
+        emitAddress(ins);
+        mv.visitMethodInsn(INVOKEINTERFACE, MEMORY, method, "(II)" + returnType, true);
+    }
+
+    // narrow = jvm opcode to convert int value into parameter type
+    private void emitStore(long ins, ValueType type, int narrow, String method, String paramType) {
+        pop(type);
+        int tmp = scratch(type, 0);
+        store(type, tmp);
+        emitAddress(ins);
+        load(type, tmp);
+        if (isLong(type) && !paramType.equals("J"))
+            mv.visitInsn(L2I);
+        if (narrow != NOP)
+            mv.visitInsn(narrow);
+        mv.visitMethodInsn(INVOKEINTERFACE, MEMORY, method, "(II" + paramType + ")V", true);
+    }
+
+    // convert the int on top of stack into boolean by jump opcode
+    private void bool(int jump) {
+        Label yes = new Label();
+        Label end = new Label();
+        mv.visitJumpInsn(jump, yes);
+        mv.visitInsn(ICONST_0);
+        mv.visitJumpInsn(GOTO, end);
+        mv.visitLabel(yes);
+        mv.visitInsn(ICONST_1);
+        mv.visitLabel(end);
+        push(ValueType.I32);
+    }
+
+    private void unaryI32(String owner, String method) {
+        pop(ValueType.I32);
+        mv.visitMethodInsn(INVOKESTATIC, owner, method, "(I)I", false);
+        push(ValueType.I32);
+    }
+
+    private void unaryI64(String method) {
+        pop(ValueType.I64);
+        mv.visitMethodInsn(INVOKESTATIC, "java/lang/Long", method, "(J)I", false);
+        mv.visitInsn(I2L);
+        push(ValueType.I64);
+    }
+
+    private void binaryI32(int op) {
+        pop(ValueType.I32);
+        pop(ValueType.I32);
+        mv.visitInsn(op);
+        push(ValueType.I32);
+    }
+
+    private void binaryI32(String owner, String method) {
+        pop(ValueType.I32);
+        pop(ValueType.I32);
+        mv.visitMethodInsn(INVOKESTATIC, owner, method, "(II)I", false);
+        push(ValueType.I32);
+    }
+
+    private void binaryI64(int op) {
+        pop(ValueType.I64);
+        pop(ValueType.I64);
+        mv.visitInsn(op);
+        push(ValueType.I64);
+    }
+
+    private void binaryI64(String owner, String method) {
+        pop(ValueType.I64);
+        pop(ValueType.I64);
+        mv.visitMethodInsn(INVOKESTATIC, owner, method, "(JJ)J", false);
+        push(ValueType.I64);
+    }
+
+    private void shiftI64(int op) {
+        pop(ValueType.I64);
+        pop(ValueType.I64);
+        mv.visitInsn(L2I);
+        mv.visitInsn(op);
+        push(ValueType.I64);
+    }
+
+    private void rotateI64(String method) {
+        pop(ValueType.I64);
+        pop(ValueType.I64);
+        mv.visitInsn(L2I);
+        mv.visitMethodInsn(INVOKESTATIC, "java/lang/Long", method, "(JI)J", false);
+        push(ValueType.I64);
+    }
+
+    private void compareI32(int jump) {
+        pop(ValueType.I32);
+        pop(ValueType.I32);
+        bool(jump);
+    }
+
+    private void compareUnsignedI32(int jump) {
+        pop(ValueType.I32);
+        pop(ValueType.I32);
+        mv.visitMethodInsn(INVOKESTATIC, "java/lang/Integer", "compareUnsigned", "(II)I", false);
+        bool(jump);
+    }
+
+    private void compareI64(int jump) {
+        pop(ValueType.I64);
+        pop(ValueType.I64);
+        mv.visitInsn(LCMP);
+        bool(jump);
+    }
+
+    private void compareUnsignedI64(int jump) {
+        pop(ValueType.I64);
+        pop(ValueType.I64);
+        mv.visitMethodInsn(INVOKESTATIC, "java/lang/Long", "compareUnsigned", "(JJ)I", false);
+        bool(jump);
+    }
+
+    // pop n arguments from jvm stack into scratch locals
+    private ValueType[] popArguments(int n) {
+        ValueType[] args = new ValueType[n];
+        for (int i = n - 1; i >= 0; i--) {
+            args[i] = pop();
+            store(args[i], scratch(args[i], i));
+        }
+        return args;
+    }
+
+    // create long[] from scratch locals stored by popArguments
+    private void newArguments(ValueType[] args) {
+        iconst(mv, args.length);
+        mv.visitIntInsn(NEWARRAY, T_LONG);
+        for (int i = 0; i < args.length; i++) {
+            mv.visitInsn(DUP);
+            iconst(mv, i);
+            load(args[i], scratch(args[i], i));
+            toRaw(mv, args[i]);
+            mv.visitInsn(LASTORE);
+        }
+    }
+
+    private void pushResult(FunctionType type) {
+        if (type.getResultTypes().isEmpty()) {
+            mv.visitInsn(POP2);
+            return;
+        }
+        ValueType r = type.getResultTypes().get(0);
+        fromRaw(mv, r);
+        push(r);
+    }
+
+    private static final class Control {
+        // branch target, the start of loop or the end of block
+        final Label label;
+        final boolean loop;
+        // stack height at entry
+        final int height;
+        // null if the block has no result
+        final ValueType result;
+
+        Control(Label label, boolean loop, int height, ValueType result) {
+            this.label = label;
+            this.loop = loop;
+            this.height = height;
+            this.result = result;
+        }
+
+        boolean branchArity() {
+            return !loop && result != null;
+        }
+    }
+}
@@ -0,0 +1,123 @@
+package org.tdf.lotusvm.compiler;
+
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.Type;
+import org.tdf.lotusvm.runtime.HostFunction;
+import org.tdf.lotusvm.types.FunctionType;
+
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+
+// generate a subclass of HostFunction calling a java method directly, equivalent to hand-written host function
+// execute(HostArgs) reads arguments by HostArgs.argXXX, calls the method and converts the result by HostArgs.setResult
+public final class HostFunctionCompiler implements Opcodes {
+    private static final String CLASS_NAME = "org/tdf/lotusvm/compiler/HostAdapter";
+    private static final String HOST = "org/tdf/lotusvm/runtime/HostFunction";
+    private static final String ARGS = "org/tdf/lotusvm/runtime/HostArgs";
+    private static final String INSTANCE = "org/tdf/lotusvm/ModuleInstance";
+
+    private HostFunctionCompiler() {
+    }
+
+    // the method should be public and visible by the class loader of generated class
+    public static boolean isCompilable(Method m) {
+        Class<?> owner = m.getDeclaringClass();
+        if (!Modifier.isPublic(m.getModifiers()) || !Modifier.isPublic(owner.getModifiers()))
+            return false;
+        try {
+            return Class.forName(owner.getName(), false, HostFunctionCompiler.class.getClassLoader()) == owner;
+        } catch (ClassNotFoundException e) {
+            return false;
+        }
+    }
+
+    // withInstance = the first parameter of method is ModuleInstance, target is null if the method is static
+    public static HostFunction compile(
+        Method m, Object target, String name, FunctionType type, boolean withInstance, String[] alias
+    ) {
+        boolean isStatic = Modifier.isStatic(m.getModifiers());
+        String owner = Type.getInternalName(m.getDeclaringClass());
+        String ownerDescriptor = Type.getDescriptor(m.getDeclaringClass());
+        ClassWriter cw = FunctionCompiler.classWriter();
+        cw.visit(V11, ACC_PUBLIC | ACC_FINAL | ACC_SUPER, CLASS_NAME, null, HOST, null);
+        cw.visitField(ACC_PRIVATE | ACC_FINAL, "target", ownerDescriptor, null, null).visitEnd();
+
+        MethodVisitor init = cw.visitMethod(
+            ACC_PUBLIC, "<init>",
+            "(Ljava/lang/String;Lorg/tdf/lotusvm/types/FunctionType;[Ljava/lang/String;Ljava/lang/Object;)V", null, null
+        );
+        init.visitCode();
+        init.visitVarInsn(ALOAD, 0);
+        init.visitVarInsn(ALOAD, 1);
+        init.visitVarInsn(ALOAD, 2);
+        init.visitVarInsn(ALOAD, 3);
+        init.visitMethodInsn(INVOKESPECIAL, HOST, "<init>",
+            "(Ljava/lang/String;Lorg/tdf/lotusvm/types/FunctionType;[Ljava/lang/String;)V", false);
+        init.visitVarInsn(ALOAD, 0);
+        init.visitVarInsn(ALOAD, 4);
+        init.visitTypeInsn(CHECKCAST, owner);
+        init.visitFieldInsn(PUTFIELD, CLASS_NAME, "target", ownerDescriptor);
+        init.visitInsn(RETURN);
+        init.visitMaxs(0, 0);
+        init.visitEnd();
+
+        Class<?> result = m.getReturnType();
+        MethodVisitor mv = cw.visitMethod(ACC_PUBLIC, "execute", "(L" + ARGS + ";)V", null, null);
+        mv.visitCode();
+        if (result != void.class)
+            mv.visitVarInsn(ALOAD, 1);
+        if (!isStatic) {
+            mv.visitVarInsn(ALOAD, 0);
+            mv.visitFieldInsn(GETFIELD, CLASS_NAME, "target", ownerDescriptor);
+        }
+        if (withInstance) {
+            mv.visitVarInsn(ALOAD, 0);
+            mv.visitMethodInsn(INVOKEVIRTUAL, HOST, "getInstance", "()L" + INSTANCE + ";", false);
+        }
+        Class<?>[] params = m.getParameterTypes();
+        for (int i = withInstance ? 1 : 0; i < params.length; i++) {
+            mv.visitVarInsn(ALOAD, 1);
+            FunctionCompiler.iconst(mv, withInstance ? i - 1 : i);
+            mv.visitMethodInsn(INVOKEINTERFACE, ARGS, getter(params[i]), "(I)" + Type.getDescriptor(params[i]), true);
+        }
+        boolean itf = m.getDeclaringClass().isInterface();
+        mv.visitMethodInsn(isStatic ? INVOKESTATIC : itf ? INVOKEINTERFACE : INVOKEVIRTUAL,
+            owner, m.getName(), Type.getMethodDescriptor(m), itf);
+        if (result != void.class) {
+            if (result == float.class)
+                mv.visitMethodInsn(INVOKESTATIC, "java/lang/Float", "floatToRawIntBits", "(F)I", false);
+            if (result == double.class)
+                mv.visitMethodInsn(INVOKESTATIC, "java/lang/Double", "doubleToRawLongBits", "(D)J", false);
+            if (result == int.class || result == float.class)
+                mv.visitMethodInsn(INVOKESTATIC, "java/lang/Integer", "toUnsignedLong", "(I)J", false);
+            mv.visitMethodInsn(INVOKEINTERFACE, ARGS, "setResult", "(J)V", true);
+        }
+        mv.visitInsn(RETURN);
+        mv.visitMaxs(0, 0);
+        mv.visitEnd();
+        cw.visitEnd();
+
+        Class<?> c = ClassDefiner.define(cw.toByteArray());
+        try {
+            return (HostFunction) c
+                .getDeclaredConstructor(String.class, FunctionType.class, String[].class, Object.class)
+                .newInstance(name, type, alias, target);
+        } catch (ReflectiveOperationException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private static String getter(Class<?> type) {
+        if (type == int.class)
+            return "argI32";
+        if (type == long.class)
+            return "argI64";
+        if (type == float.class)
+            return "argF32";
+        if (type == double.class)
+            return "argF64";
+        throw new RuntimeException("unsupported type " + type.getName());
+    }
+}
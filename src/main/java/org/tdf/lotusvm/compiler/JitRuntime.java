@@ -0,0 +1,85 @@
+package org.tdf.lotusvm.compiler;
+
+import org.tdf.lotusvm.common.OpCode;
+import org.tdf.lotusvm.runtime.*;
+
+// helpers invoked by generated code, they must be public since generated classes may live in another class loader
+public final class JitRuntime {
+    private JitRuntime() {
+    }
+
+    public static long arg(long[] args, int i) {
+        return i < args.length ? args[i] : 0;
+    }
+
+    public static int divS(int v1, int v2) {
+        if (v1 == 0x80000000 && v2 == -1)
+            throw new RuntimeException("math over flow: divide i32.min_value by -1");
+        return v1 / v2;
+    }
+
+    public static long divS(long v1, long v2) {
+        if (v1 == 0x8000000000000000L && v2 == -1)
+            throw new RuntimeException("math overflow: divide i64.min_value by -1");
+        return v1 / v2;
+    }
+
+    public static int growMemory(ModuleInstanceImpl module, int n) {
+        Memory mem = module.getMemory();
+        int before = mem.getPages() * Memory.PAGE_SIZE;
+        int after = (mem.getPages() + n) * Memory.PAGE_SIZE;
+        module.touchMemGrow(before, after);
+        return mem.grow(n);
+    }
+
+    // bulk memory instructions, operands are on stack before the module
+    public static void memoryInit(int dst, int src, int n, ModuleInstanceImpl module, int segment) {
+        module.memoryInit(segment, dst, src, n);
+    }
+
+    public static void memoryCopy(int dst, int src, int n, ModuleInstanceImpl module) {
+        module.memoryCopy(dst, src, n);
+    }
+
+    public static void memoryFill(int dst, int value, int n, ModuleInstanceImpl module) {
+        module.memoryFill(dst, (byte) value, n);
+    }
+
+    public static RuntimeException unreachable() {
+        return new RuntimeException("exec: reached unreachable");
+    }
+
+    public static UnsupportedOperationException floatOp(OpCode code) {
+        return new UnsupportedOperationException("float number op " + code.name + " is not allowed");
+    }
+
+    public static long invoke(ModuleInstanceImpl module, int functionIndex, long[] args) {
+        return invoke(module, module.getFunc(functionIndex), functionIndex, args);
+    }
+
+    public static long invokeIndirect(ModuleInstanceImpl module, int typeIndex, int elementIndex, long[] args) {
+        FunctionInstance function = module.getFuncInTable(elementIndex);
+        // the arguments are popped by the declared type at compile time
+        if (function.getParamSize() != args.length)
+            throw new RuntimeException("failed exec: signature mismatch in call_indirect expected");
+        if (module.getValidateFunctionType()
+            && module.getTypeIdInTable(elementIndex) != module.getTypeIds()[typeIndex]) {
+            throw new RuntimeException("failed exec: signature mismatch in call_indirect expected");
+        }
+        return invoke(module, function, (int) (elementIndex | StackAllocator.TABLE_MASK), args);
+    }
+
+    // bits = function index or element index | TABLE_MASK, used by stack allocator to locate the function
+    private static long invoke(ModuleInstanceImpl module, FunctionInstance function, int bits, long[] args) {
+        if (function.isHost()) {
+            module.touchHostFunc((HostFunction) function);
+            return function.execute(args);
+        }
+        CompiledFunction compiled = module.compiledOf(function);
+        if (compiled != null)
+            return module.invokeCompiled(compiled, args);
+        StackAllocator allocator = module.getStackAllocator();
+        allocator.pushFrame(bits, args);
+        return allocator.execute();
+    }
+}
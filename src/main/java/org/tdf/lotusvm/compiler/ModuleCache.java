@@ -0,0 +1,74 @@
+package org.tdf.lotusvm.compiler;
+
+import org.tdf.lotusvm.DecodeOptions;
+import org.tdf.lotusvm.Module;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Supplier;
+
+// least recently used cache of compiled modules keyed by hash of code and decode options, so the compilation is paid once per code
+// get() returns a reference retained for the caller, which should be closed once instances of it are no longer used,
+// eviction only releases the reference of cache, so the module is never closed under a live instance
+public final class ModuleCache implements AutoCloseable {
+    private final boolean hooks;
+    private final LinkedHashMap<List<Object>, CompiledModule> modules;
+
+    public ModuleCache(int capacity) {
+        this(capacity, false);
+    }
+
+    public ModuleCache(int capacity, boolean hooks) {
+        if (capacity <= 0)
+            throw new RuntimeException("invalid cache capacity " + capacity);
+        this.hooks = hooks;
+        this.modules = new LinkedHashMap<List<Object>, CompiledModule>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<List<Object>, CompiledModule> eldest) {
+                if (size() <= capacity)
+                    return false;
+                eldest.getValue().close();
+                return true;
+            }
+        };
+    }
+
+    public CompiledModule get(byte[] hash, Supplier<byte[]> code) {
+        return get(hash, new DecodeOptions(), code);
+    }
+
+    // code is loaded, decoded with options and compiled if missed
+    public synchronized CompiledModule get(byte[] hash, DecodeOptions options, Supplier<byte[]> code) {
+        // options are mutable, so the key is a copy of them, gas schedules are compared by identity
+        List<Object> key = Arrays.asList(
+            ByteBuffer.wrap(hash.clone()), options.getThreaded(), options.getFused(), options.getRegister(),
+            options.getValidated(), options.getOptimized(), options.getGasSchedule()
+        );
+        CompiledModule compiled = modules.get(key);
+        if (compiled != null)
+            return compiled.retain();
+        Module module = Module.create(code.get(), options);
+        try {
+            compiled = ModuleCompiler.compile(module, hooks);
+        } catch (RuntimeException e) {
+            module.close();
+            throw e;
+        }
+        modules.put(key, compiled);
+        return compiled.retain();
+    }
+
+    public synchronized int size() {
+        return modules.size();
+    }
+
+    // release the references of cache, modules retained by callers are closed by them
+    @Override
+    public synchronized void close() {
+        modules.values().forEach(CompiledModule::close);
+        modules.clear();
+    }
+}
@@ -0,0 +1,174 @@
+package org.tdf.lotusvm.compiler;
+
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.Label;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+import org.tdf.lotusvm.Module;
+import org.tdf.lotusvm.types.*;
+
+import java.lang.reflect.Constructor;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+// compile all functions of a module into static methods of one class ahead of time,
+// calls between compiled functions are linked directly, others are dispatched by JitRuntime
+// functions failed to compile, i.e. too large, are interpreted
+public final class ModuleCompiler implements Opcodes {
+    private static final String CLASS_NAME = "org/tdf/lotusvm/compiler/AotModule";
+    private static final String INDEX = "index";
+
+    private ModuleCompiler() {
+    }
+
+    public static CompiledModule compile(Module module) {
+        return compile(module, false);
+    }
+
+    // instances with hooks are interpreted if hook calls are not emitted
+    public static CompiledModule compile(Module module, boolean hooks) {
+        List<FunctionType> types = module.getTypeSection() == null ?
+            Collections.emptyList() : module.getTypeSection().getFunctionTypes();
+
+        List<FunctionType> functionTypes = new ArrayList<>();
+        if (module.getImportSection() != null) {
+            for (ImportSection.Import imp : module.getImportSection().getImports()) {
+                if (imp.getType() == ImportType.TYPE_INDEX)
+                    functionTypes.add(types.get(imp.getTypeIndex()));
+            }
+        }
+        int imports = functionTypes.size();
+        List<Code> codes = new ArrayList<>();
+        if (module.getFunctionSection() != null) {
+            for (int typeIndex : module.getFunctionSection().getTypeIndices()) {
+                functionTypes.add(types.get(typeIndex));
+            }
+            codes = module.getCodeSection().getCodes();
+        }
+
+        List<GlobalType> globalTypes = new ArrayList<>();
+        if (module.getGlobalSection() != null) {
+            for (Global g : module.getGlobalSection().getGlobals()) {
+                globalTypes.add(g.getGlobalType());
+            }
+        }
+
+        // find functions could be compiled before linking, calls to the others are dispatched dynamically
+        boolean[] direct = new boolean[functionTypes.size()];
+        FunctionCompiler probe = new FunctionCompiler(module.getInsPool(), types, functionTypes, globalTypes, hooks);
+        for (int i = imports; i < direct.length; i++) {
+            Function f = codes.get(i - imports).getCode();
+            try {
+                probe.compile(
+                    FunctionCompiler.classWriter(), FunctionCompiler.methodName(i),
+                    functionTypes.get(i), localTypes(f), f.getExpression()
+                );
+                direct[i] = true;
+            } catch (RuntimeException ignored) {
+                // interpreted
+            }
+        }
+
+        FunctionCompiler compiler = new FunctionCompiler(
+            module.getInsPool(), types, functionTypes, globalTypes, hooks, CLASS_NAME, direct
+        );
+        ClassWriter cw = FunctionCompiler.classWriter();
+        cw.visit(V11, ACC_PUBLIC | ACC_FINAL | ACC_SUPER, CLASS_NAME, null, "java/lang/Object",
+            new String[]{FunctionCompiler.COMPILED});
+        cw.visitField(ACC_PRIVATE | ACC_FINAL, INDEX, "I", null, null).visitEnd();
+
+        MethodVisitor init = cw.visitMethod(ACC_PUBLIC, "<init>", "(I)V", null, null);
+        init.visitCode();
+        init.visitVarInsn(ALOAD, 0);
+        init.visitMethodInsn(INVOKESPECIAL, "java/lang/Object", "<init>", "()V", false);
+        init.visitVarInsn(ALOAD, 0);
+        init.visitVarInsn(ILOAD, 1);
+        init.visitFieldInsn(PUTFIELD, CLASS_NAME, INDEX, "I");
+        init.visitInsn(RETURN);
+        init.visitMaxs(0, 0);
+        init.visitEnd();
+
+        for (int i = imports; i < direct.length; i++) {
+            if (!direct[i])
+                continue;
+            Function f = codes.get(i - imports).getCode();
+            compiler.compile(
+                cw, FunctionCompiler.methodName(i), functionTypes.get(i), localTypes(f), f.getExpression()
+            );
+
+            // static long e<i>(ModuleInstanceImpl module, long[] args)
+            MethodVisitor mv = cw.visitMethod(
+                ACC_PRIVATE | ACC_STATIC, entryName(i), "(L" + FunctionCompiler.MODULE + ";[J)J", null, null
+            );
+            mv.visitCode();
+            FunctionCompiler.bridgeBody(mv, 0, 1, CLASS_NAME, FunctionCompiler.methodName(i), functionTypes.get(i));
+            mv.visitMaxs(0, 0);
+            mv.visitEnd();
+        }
+        execute(cw, direct);
+        cw.visitEnd();
+
+        Class<?> c = ClassDefiner.define(cw.toByteArray());
+        CompiledFunction[] functions = new CompiledFunction[direct.length];
+        try {
+            Constructor<?> constructor = c.getDeclaredConstructor(int.class);
+            for (int i = 0; i < direct.length; i++) {
+                if (direct[i])
+                    functions[i] = (CompiledFunction) constructor.newInstance(i);
+            }
+        } catch (ReflectiveOperationException e) {
+            throw new RuntimeException(e);
+        }
+        return new CompiledModule(module, hooks, functions);
+    }
+
+    // public long execute(ModuleInstanceImpl module, long[] args), dispatch by index to e<index>
+    private static void execute(ClassWriter cw, boolean[] direct) {
+        MethodVisitor mv = cw.visitMethod(ACC_PUBLIC, "execute", "(L" + FunctionCompiler.MODULE + ";[J)J", null, null);
+        mv.visitCode();
+        Label fail = new Label();
+        if (direct.length > 0) {
+            Label[] labels = new Label[direct.length];
+            for (int i = 0; i < labels.length; i++) {
+                labels[i] = direct[i] ? new Label() : fail;
+            }
+            mv.visitVarInsn(ALOAD, 0);
+            mv.visitFieldInsn(GETFIELD, CLASS_NAME, INDEX, "I");
+            mv.visitTableSwitchInsn(0, labels.length - 1, fail, labels);
+            for (int i = 0; i < labels.length; i++) {
+                if (!direct[i])
+                    continue;
+                mv.visitLabel(labels[i]);
+                mv.visitVarInsn(ALOAD, 1);
+                mv.visitVarInsn(ALOAD, 2);
+                mv.visitMethodInsn(
+                    INVOKESTATIC, CLASS_NAME, entryName(i), "(L" + FunctionCompiler.MODULE + ";[J)J", false
+                );
+                mv.visitInsn(LRETURN);
+            }
+        }
+        mv.visitLabel(fail);
+        mv.visitTypeInsn(NEW, "java/lang/RuntimeException");
+        mv.visitInsn(DUP);
+        mv.visitLdcInsn("function not compiled");
+        mv.visitMethodInsn(INVOKESPECIAL, "java/lang/RuntimeException", "<init>", "(Ljava/lang/String;)V", false);
+        mv.visitInsn(ATHROW);
+        mv.visitMaxs(0, 0);
+        mv.visitEnd();
+    }
+
+    private static String entryName(int functionIndex) {
+        return "e" + functionIndex;
+    }
+
+    private static List<ValueType> localTypes(Function f) {
+        List<ValueType> r = new ArrayList<>();
+        for (Local l : f.getLocals()) {
+            for (int i = 0; i < l.getCount(); i++) {
+                r.add(l.getType());
+            }
+        }
+        return r;
+    }
+}
@@ -0,0 +1,92 @@
+package org.tdf.lotusvm.compiler;
+
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+import org.tdf.lotusvm.runtime.FunctionInstance;
+import org.tdf.lotusvm.runtime.ModuleInstanceImpl;
+import org.tdf.lotusvm.runtime.WASMFunction;
+import org.tdf.lotusvm.types.FunctionType;
+
+import java.util.ArrayList;
+import java.util.List;
+
+// the second execution tier, a wasm function is translated into jvm byte code once it's invocations cross the threshold
+// functions failed to compile, i.e. invalid or too large, are always interpreted by stack allocator
+public final class TieredCompiler implements Opcodes {
+    private static final String CLASS_NAME = "org/tdf/lotusvm/compiler/JitFunction";
+    private static final String METHOD_NAME = "call";
+
+    private final ModuleInstanceImpl module;
+    private final int threshold;
+    private int compiledCount;
+    private int failedCount;
+
+    public TieredCompiler(ModuleInstanceImpl module, int threshold) {
+        if (threshold < 0)
+            throw new RuntimeException("invalid jit threshold " + threshold);
+        this.module = module;
+        this.threshold = threshold;
+    }
+
+    public int getCompiledCount() {
+        return compiledCount;
+    }
+
+    public int getFailedCount() {
+        return failedCount;
+    }
+
+    // count an invocation of the function, return compiled code if the function is hot
+    public CompiledFunction compiledOf(WASMFunction function) {
+        CompiledFunction compiled = function.getCompiled();
+        if (compiled != null || function.getCompileFailed())
+            return compiled;
+        if (function.getInvocations() < threshold) {
+            function.setInvocations(function.getInvocations() + 1);
+            return null;
+        }
+        try {
+            compiled = compile(function);
+            function.setCompiled(compiled);
+            compiledCount++;
+        } catch (RuntimeException | LinkageError e) {
+            function.setCompileFailed(true);
+            failedCount++;
+        }
+        return compiled;
+    }
+
+    private CompiledFunction compile(WASMFunction function) {
+        List<FunctionType> functionTypes = new ArrayList<>();
+        for (FunctionInstance f : module.getFunctions()) {
+            functionTypes.add(f.getType());
+        }
+        FunctionCompiler compiler = new FunctionCompiler(
+            module.getInsPool(), module.getTypes(), functionTypes, module.getGlobalTypes(), !module.getHooks().isEmpty()
+        );
+
+        ClassWriter cw = FunctionCompiler.classWriter();
+        cw.visit(V11, ACC_PUBLIC | ACC_FINAL | ACC_SUPER, CLASS_NAME, null, "java/lang/Object",
+            new String[]{FunctionCompiler.COMPILED});
+
+        MethodVisitor init = cw.visitMethod(ACC_PUBLIC, "<init>", "()V", null, null);
+        init.visitCode();
+        init.visitVarInsn(ALOAD, 0);
+        init.visitMethodInsn(INVOKESPECIAL, "java/lang/Object", "<init>", "()V", false);
+        init.visitInsn(RETURN);
+        init.visitMaxs(0, 0);
+        init.visitEnd();
+
+        compiler.compile(cw, METHOD_NAME, function.getType(), function.getLocalTypes(), function.getBody());
+        FunctionCompiler.bridge(cw, CLASS_NAME, METHOD_NAME, function.getType());
+        cw.visitEnd();
+
+        Class<?> c = ClassDefiner.define(cw.toByteArray());
+        try {
+            return (CompiledFunction) c.getDeclaredConstructor().newInstance();
+        } catch (ReflectiveOperationException e) {
+            throw new RuntimeException(e);
+        }
+    }
+}
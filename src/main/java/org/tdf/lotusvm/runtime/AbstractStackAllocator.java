@@ -4,16 +4,39 @@ package org.tdf.lotusvm.runtime;
 import org.jetbrains.annotations.NotNull;
 import org.tdf.lotusvm.common.Constants;
 import org.tdf.lotusvm.common.OpCode;
+import org.tdf.lotusvm.compiler.CompiledFunction;
+import org.tdf.lotusvm.types.GasMeter;
 import org.tdf.lotusvm.types.InstructionId;
 import org.tdf.lotusvm.types.InstructionPool;
+import org.tdf.lotusvm.types.RegisterCode;
 import org.tdf.lotusvm.types.ResultType;
+import org.tdf.lotusvm.types.Simd;
+import org.tdf.lotusvm.types.Superinstructions;
+import org.tdf.lotusvm.types.ThreadedCode;
 import org.tdf.lotusvm.types.ValueType;
 
+import static org.tdf.lotusvm.common.Opcodes.*;
+
 public abstract class AbstractStackAllocator implements StackAllocator {
     protected final int maxFrames;
     protected final int maxLabelSize;
     protected final int maxStackSize;
     protected ModuleInstanceImpl module;
+    // the module is validated, underflow and overflow checks inside a frame are skipped
+    protected boolean unchecked;
+    // the instance has hooks, the interpreter variant without hook dispatch is selected if false
+    protected boolean hooked;
+    // the instance has execution limits, checked on function entry and loop back-edges
+    protected boolean limited;
+    // arguments of host function calls, reused by every call
+    private final StackArgs hostArgs = new StackArgs();
+    // host functions could suspend the execution, set by suspendable executions of module instance
+    protected boolean suspendable;
+    // nesting depth of execute, host functions could execute the instance again
+    private int running;
+    // the execution is suspended by pending host function, entry = frame index of entry frame
+    protected HostFunction pending;
+    private int suspendedEntry;
 
     protected AbstractStackAllocator(int maxStackSize, int maxFrames, int maxLabelSize) {
         if (maxStackSize <= 0 || maxFrames <= 0 || maxLabelSize <= 0)
@@ -23,6 +46,11 @@ public abstract class AbstractStackAllocator implements StackAllocator {
         this.maxStackSize = maxStackSize;
     }
 
+    @Override
+    public int getMaxFrames() {
+        return maxFrames;
+    }
+
     // push a value into a stack
     int popI32() {
         return (int) pop();
@@ -56,10 +84,28 @@ public abstract class AbstractStackAllocator implements StackAllocator {
 
     protected abstract long getFunctionBody();
 
+    protected abstract long getThreadedBody();
+
+    protected abstract long getRegisterBody();
+
+    // pc of threaded code or register code in current frame
+    protected abstract int getThreadedPc();
+
+    protected abstract void setThreadedPc(int pc);
+
+    // drop operands above height of current frame, keep the top value if arity is true
+    abstract void unwind(int height, boolean arity);
+
+    // write a local or an operand of current frame by slot index of register code, the stack size is unchanged
+    abstract void setSlot(int index, long value);
+
     protected abstract ValueType getResultType();
 
     public abstract int currentFrameIndex();
 
+    // index of the n-th operand from the top of current frame, nothing is popped
+    abstract int peekN(int n);
+
     long[] popLongs(int n) {
         if (n == 0) return Constants.EMPTY_LONGS;
         long[] res = new long[n];
@@ -86,10 +132,75 @@ public abstract class AbstractStackAllocator implements StackAllocator {
         return res;
     }
 
+    // calls to interpreted functions push frames and continue in this loop instead of recursion,
+    // returns once the entry frame returned
     public long execute() throws RuntimeException {
-        InstructionPool pool = module.getInsPool();
+        int entry = currentFrameIndex();
+        enterFrame();
+        return run(entry);
+    }
 
-        pushLabel(getResultType() != null, getFunctionBody(), false);
+    // push the result of pending host function and continue the suspended execution
+    @Override
+    public long resume(long result) {
+        HostFunction function = pending;
+        if (function == null)
+            throw new RuntimeException("execution is not suspended");
+        pending = null;
+        if (function.getArity() > 0)
+            push(result);
+        return run(suspendedEntry);
+    }
+
+    // return 0 if the execution is suspended
+    private long run(int entry) {
+        running++;
+        try {
+            return loop(entry);
+        } finally {
+            running--;
+        }
+    }
+
+    private long loop(int entry) {
+        while (true) {
+            long register = getRegisterBody();
+            long threaded = getThreadedBody();
+            boolean pushed;
+            if (register != 0)
+                pushed = executeRegister(register);
+            else if (threaded != 0)
+                pushed = hooked ? executeThreadedHooked(threaded) : executeThreaded(threaded);
+            else
+                pushed = executeNested();
+            if (pushed) {
+                if (pending != null) {
+                    suspendedEntry = entry;
+                    return 0;
+                }
+                continue;
+            }
+            boolean arity = getResultType() != null;
+            long r = returns();
+            if (currentFrameIndex() < entry)
+                return r;
+            if (arity)
+                push(r);
+        }
+    }
+
+    // push label of function body for nested code, threaded code and register code start at pc 0
+    private void enterFrame() {
+        if (limited)
+            module.checkpoint();
+        if (getThreadedBody() == 0 && getRegisterBody() == 0)
+            pushLabel(getResultType() != null, getFunctionBody(), false);
+    }
+
+    // run current frame until a frame is pushed by call (return true) or current frame returned (return false)
+    private boolean executeNested() {
+        InstructionPool pool = module.getInsPool();
+        boolean hooked = this.hooked;
         while (!labelIsEmpty()) {
             int pc = getPc();
             long body = getInstructions();
@@ -100,29 +211,601 @@ public abstract class AbstractStackAllocator implements StackAllocator {
             }
             long ins = pool.getInstructionInArray(body, pc);
 
-            OpCode c = InstructionId.getOpCode(ins);
-            if (c.equals(OpCode.RETURN)) {
-                return returns();
+            if (InstructionId.getCode(ins) == RETURN) {
+                return false;
             }
             setPc(pc + 1);
-            invoke(ins);
+            if (hooked) {
+                int c = InstructionId.getCode(ins);
+                module.touchIns(c == OpCode.SIMD_PREFIX ? InstructionId.getSimdCode(ins) : c);
+            }
+            if (invoke(ins))
+                return true;
         }
-        module.touchFrameExit();
-        return returns();
-        // clear stack and local variables
+        if (hooked)
+            module.touchFrameExit();
+        return false;
     }
 
-    private int getMemoryOffset(long ins) {
-        int r = InstructionId.getLeft32(ins);
-        long l = Integer.toUnsignedLong(popI32()) + Integer.toUnsignedLong(r);
-        if (Long.compareUnsigned(l, Integer.MAX_VALUE) > 0)
-            throw new RuntimeException("memory access overflow");
-        return (int) l;
+    // run flat code lowered by ThreadedCode, no label is pushed since branches are pre-linked,
+    // this variant is selected if the instance has no hooks, see executeThreadedHooked
+    private boolean executeThreaded(long code) {
+        InstructionPool pool = module.getInsPool();
+        int pc = getThreadedPc();
+        while (true) {
+            long ins = pool.getInstructionInArray(code, pc);
+            pc++;
+            int c = InstructionId.getCode(ins);
+            // most instructions are not control instructions, they are dispatched by the jump table of invoke
+            if (c > CALL_INDIRECT && c != BR_IF_EQZ_L) {
+                invoke(ins);
+                continue;
+            }
+            switch (c) {
+                case RETURN:
+                    return false;
+                case END:
+                    return false;
+                case ELSE:
+                    pc = ThreadedCode.getTarget(ins);
+                    break;
+                case BLOCK:
+                case LOOP:
+                    break;
+                case IF:
+                    if (pop() == 0)
+                        pc = ThreadedCode.getTarget(ins);
+                    break;
+                case BR:
+                    pc = jump(ins, pc);
+                    break;
+                case BR_IF:
+                    if (pop() != 0)
+                        pc = jump(ins, pc);
+                    break;
+                case BR_TABLE: {
+                    // n = size of labels include default
+                    int n = InstructionId.getLeft32(ins);
+                    int i = popI32();
+                    if (Integer.compareUnsigned(i, n - 1) >= 0)
+                        i = n - 1;
+                    pc = jump(pool.getInstructionInArray(code, pc + i), pc);
+                    break;
+                }
+                case BR_IF_EQZ_L:
+                    // followed by the branch descriptor
+                    if ((int) getLocal(Superinstructions.getLocal(ins)) == 0)
+                        pc = jump(pool.getInstructionInArray(code, pc), pc);
+                    else
+                        pc++;
+                    break;
+                case CALL:
+                case CALL_INDIRECT:
+                    // pc is saved in frame before the callee frame pushed
+                    setThreadedPc(pc);
+                    if (invoke(ins))
+                        return true;
+                    break;
+                default:
+                    invoke(ins);
+            }
+        }
+    }
+
+    // same as executeThreaded but hooks are called before every instruction
+    private boolean executeThreadedHooked(long code) {
+        InstructionPool pool = module.getInsPool();
+        int pc = getThreadedPc();
+        while (true) {
+            long ins = pool.getInstructionInArray(code, pc);
+            pc++;
+            int c = InstructionId.getCode(ins);
+            // most instructions are not control instructions, they are dispatched by the jump table of invoke
+            if (c > CALL_INDIRECT && c != BR_IF_EQZ_L) {
+                module.touchIns(c == OpCode.SIMD_PREFIX ? InstructionId.getSimdCode(ins) : c);
+                invoke(ins);
+                continue;
+            }
+            switch (c) {
+                case RETURN:
+                    return false;
+                case END:
+                    module.touchFrameExit();
+                    return false;
+                case ELSE:
+                    pc = ThreadedCode.getTarget(ins);
+                    break;
+                case BLOCK:
+                case LOOP:
+                    module.touchIns(c);
+                    break;
+                case IF:
+                    module.touchIns(c);
+                    if (pop() == 0)
+                        pc = ThreadedCode.getTarget(ins);
+                    break;
+                case BR:
+                    module.touchIns(c);
+                    pc = jump(ins, pc);
+                    break;
+                case BR_IF:
+                    module.touchIns(c);
+                    if (pop() != 0)
+                        pc = jump(ins, pc);
+                    break;
+                case BR_TABLE: {
+                    module.touchIns(c);
+                    // n = size of labels include default
+                    int n = InstructionId.getLeft32(ins);
+                    int i = popI32();
+                    if (Integer.compareUnsigned(i, n - 1) >= 0)
+                        i = n - 1;
+                    pc = jump(pool.getInstructionInArray(code, pc + i), pc);
+                    break;
+                }
+                case BR_IF_EQZ_L:
+                    // followed by the branch descriptor
+                    module.touchIns(c);
+                    if ((int) getLocal(Superinstructions.getLocal(ins)) == 0)
+                        pc = jump(pool.getInstructionInArray(code, pc), pc);
+                    else
+                        pc++;
+                    break;
+                case CALL:
+                case CALL_INDIRECT:
+                    // pc is saved in frame before the callee frame pushed
+                    setThreadedPc(pc);
+                    module.touchIns(c);
+                    if (invoke(ins))
+                        return true;
+                    break;
+                default:
+                    module.touchIns(c);
+                    invoke(ins);
+            }
+        }
     }
 
-    void invoke(long ins) throws RuntimeException {
-        OpCode code = InstructionId.getOpCode(ins);
-        module.touchIns(code);
+    // run register code translated by RegisterCode, operands are read from and written to slots of frame,
+    // the stack size is synced only before calls and return
+    private boolean executeRegister(long code) {
+        InstructionPool pool = module.getInsPool();
+        Memory mem = module.getMemory();
+        int pc = getThreadedPc();
+        while (true) {
+            long ins = pool.getInstructionInArray(code, pc);
+            pc++;
+            int c = InstructionId.getCode(ins);
+            int a = RegisterCode.getA(ins);
+            int b = RegisterCode.getB(ins);
+            int imm = InstructionId.getLeft32(ins);
+            switch (c) {
+                case RETURN:
+                    if (getResultType() != null) {
+                        long r = getLocal(a);
+                        unwind(0, false);
+                        push(r);
+                    }
+                    return false;
+                case UNREACHABLE:
+                    throw new RuntimeException("exec: reached unreachable");
+                case BR:
+                    pc = jumpRegister(imm, pc);
+                    break;
+                case BR_IF:
+                    if ((int) getLocal(a) != 0)
+                        pc = jumpRegister(imm, pc);
+                    break;
+                case IF:
+                    if ((int) getLocal(a) == 0)
+                        pc = imm;
+                    break;
+                case BR_TABLE: {
+                    int i = (int) getLocal(a);
+                    if (Integer.compareUnsigned(i, imm - 1) >= 0)
+                        i = imm - 1;
+                    long entry = pool.getInstructionInArray(code, pc + i);
+                    if ((entry & 1L) != 0)
+                        setSlot(RegisterCode.getA(entry), getLocal(RegisterCode.getB(entry)));
+                    pc = jumpRegister(InstructionId.getLeft32(entry), pc);
+                    break;
+                }
+                case CALL:
+                    unwind(a, false);
+                    setThreadedPc(pc);
+                    if (call(module.getFunc(imm), imm))
+                        return true;
+                    break;
+                case CALL_INDIRECT: {
+                    int elementIndex = (int) getLocal(b);
+                    unwind(a, false);
+                    FunctionInstance function = module.getFuncInTable(elementIndex);
+                    if (module.getValidateFunctionType()
+                        && module.getTypeIdInTable(elementIndex) != module.getTypeIds()[imm]) {
+                        throw new RuntimeException("failed exec: signature mismatch in call_indirect expected");
+                    }
+                    setThreadedPc(pc);
+                    if (call(function, (int) (elementIndex | TABLE_MASK)))
+                        return true;
+                    break;
+                }
+                case MOVE:
+                    setSlot(a, getLocal(b));
+                    break;
+                case GAS:
+                    module.chargeGas(GasMeter.getCost(ins));
+                    break;
+                case SELECT:
+                    if ((int) getLocal(imm) == 0)
+                        setSlot(a, getLocal(b));
+                    break;
+                case GET_GLOBAL:
+                    setSlot(a, module.getGlobal(imm));
+                    break;
+                case SET_GLOBAL:
+                    module.setGlobal(imm, getLocal(a));
+                    break;
+                case CURRENT_MEMORY:
+                    setI32(a, mem.getPages());
+                    break;
+                case GROW_MEMORY: {
+                    int n = (int) getLocal(b);
+                    int before = mem.getPages() * Memory.PAGE_SIZE;
+                    int after = (mem.getPages() + n) * Memory.PAGE_SIZE;
+                    module.touchMemGrow(before, after);
+                    setI32(a, mem.grow(n));
+                    break;
+                }
+                case I32_CONST:
+                    setI32(a, imm);
+                    break;
+                case I64_CONST:
+                    setSlot(a, pool.getInstructionInArray(code, pc));
+                    pc++;
+                    break;
+                // memory instructions
+                case I32_LOAD:
+                case I64_LOAD32_U:
+                    setI32(a, mem.load32((int) getLocal(b), InstructionId.getLeft32(ins)));
+                    break;
+                case I64_LOAD:
+                    setSlot(a, mem.load64((int) getLocal(b), InstructionId.getLeft32(ins)));
+                    break;
+                case I32_LOAD8_S:
+                    setI32(a, mem.load8((int) getLocal(b), InstructionId.getLeft32(ins)));
+                    break;
+                case I64_LOAD8_S:
+                    setSlot(a, mem.load8((int) getLocal(b), InstructionId.getLeft32(ins)));
+                    break;
+                case I32_LOAD8_U:
+                case I64_LOAD8_U:
+                    setSlot(a, mem.load8((int) getLocal(b), InstructionId.getLeft32(ins)) & 0xffL);
+                    break;
+                case I32_LOAD16_S:
+                    setI32(a, mem.load16((int) getLocal(b), InstructionId.getLeft32(ins)));
+                    break;
+                case I64_LOAD16_S:
+                    setSlot(a, mem.load16((int) getLocal(b), InstructionId.getLeft32(ins)));
+                    break;
+                case I32_LOAD16_U:
+                case I64_LOAD16_U:
+                    setSlot(a, mem.load16((int) getLocal(b), InstructionId.getLeft32(ins)) & 0xffffL);
+                    break;
+                case I64_LOAD32_S:
+                    setSlot(a, mem.load32((int) getLocal(b), InstructionId.getLeft32(ins)));
+                    break;
+                case I32_STORE8:
+                case I64_STORE8:
+                    mem.storeI8((int) getLocal(b), InstructionId.getLeft32(ins), (byte) getLocal(a));
+                    break;
+                case I32_STORE16:
+                case I64_STORE16:
+                    mem.storeI16((int) getLocal(b), InstructionId.getLeft32(ins), (short) getLocal(a));
+                    break;
+                case I32_STORE:
+                case I64_STORE32:
+                    mem.storeI32((int) getLocal(b), InstructionId.getLeft32(ins), (int) getLocal(a));
+                    break;
+                case I64_STORE:
+                    mem.storeI64((int) getLocal(b), InstructionId.getLeft32(ins), getLocal(a));
+                    break;
+                default:
+                    executeRegisterNumeric(c, a, b, imm);
+            }
+        }
+    }
+
+    // A = op B or A = B op C of register code
+    private void executeRegisterNumeric(int c, int a, int b, int imm) {
+        switch (c) {
+            case I32_ADD_C:
+                setI32(a, (int) getLocal(b) + imm);
+                return;
+            case I32_EQZ:
+                setBoolean(a, (int) getLocal(b) == 0);
+                return;
+            case I32_CLZ:
+                setI32(a, Integer.numberOfLeadingZeros((int) getLocal(b)));
+                return;
+            case I32_CTZ:
+                setI32(a, Integer.numberOfTrailingZeros((int) getLocal(b)));
+                return;
+            case I32_POPCNT:
+                setI32(a, Integer.bitCount((int) getLocal(b)));
+                return;
+            case I64_EQZ:
+                setBoolean(a, getLocal(b) == 0);
+                return;
+            case I64_CLZ:
+                setSlot(a, Long.numberOfLeadingZeros(getLocal(b)));
+                return;
+            case I64_CTZ:
+                setSlot(a, Long.numberOfTrailingZeros(getLocal(b)));
+                return;
+            case I64_POPCNT:
+                setSlot(a, Long.bitCount(getLocal(b)));
+                return;
+            case I32_WRAP_I64:
+                setI32(a, (int) getLocal(b));
+                return;
+            case I64_EXTEND_SI32:
+                setSlot(a, (int) getLocal(b));
+                return;
+        }
+        if (c >= I64_CLZ && c <= I64_ROTR || c >= I64_EQ && c <= I64_GEU) {
+            executeRegisterI64(c, a, getLocal(b), getLocal(imm));
+            return;
+        }
+        int v1 = (int) getLocal(b);
+        int v2 = (int) getLocal(imm);
+        switch (c) {
+            case I32_ADD:
+                setI32(a, v1 + v2);
+                break;
+            case I32_SUB:
+                setI32(a, v1 - v2);
+                break;
+            case I32_MUL:
+                setI32(a, v1 * v2);
+                break;
+            case I32_DIVS:
+                if (v1 == 0x80000000 && v2 == -1)
+                    throw new RuntimeException("math over flow: divide i32.min_value by -1");
+                setI32(a, v1 / v2);
+                break;
+            case I32_DIVU:
+                setI32(a, Integer.divideUnsigned(v1, v2));
+                break;
+            case I32_REMS:
+                setI32(a, v1 % v2);
+                break;
+            case I32_REMU:
+                setI32(a, Integer.remainderUnsigned(v1, v2));
+                break;
+            case I32_AND:
+                setI32(a, v1 & v2);
+                break;
+            case I32_OR:
+                setI32(a, v1 | v2);
+                break;
+            case I32_XOR:
+                setI32(a, v1 ^ v2);
+                break;
+            case I32_SHL:
+                setI32(a, v1 << v2);
+                break;
+            case I32_SHRU:
+                setI32(a, v1 >>> v2);
+                break;
+            case I32_SHRS:
+                setI32(a, v1 >> v2);
+                break;
+            case I32_ROTL:
+                setI32(a, Integer.rotateLeft(v1, v2));
+                break;
+            case I32_ROTR:
+                setI32(a, Integer.rotateLeft(v1, -v2));
+                break;
+            case I32_EQ:
+                setBoolean(a, v1 == v2);
+                break;
+            case I32_NE:
+                setBoolean(a, v1 != v2);
+                break;
+            case I32_LES:
+                setBoolean(a, v1 <= v2);
+                break;
+            case I32_LEU:
+                setBoolean(a, Integer.compareUnsigned(v1, v2) <= 0);
+                break;
+            case I32_LTS:
+                setBoolean(a, v1 < v2);
+                break;
+            case I32_LTU:
+                setBoolean(a, Integer.compareUnsigned(v1, v2) < 0);
+                break;
+            case I32_GTS:
+                setBoolean(a, v1 > v2);
+                break;
+            case I32_GTU:
+                setBoolean(a, Integer.compareUnsigned(v1, v2) > 0);
+                break;
+            case I32_GES:
+                setBoolean(a, v1 >= v2);
+                break;
+            case I32_GEU:
+                setBoolean(a, Integer.compareUnsigned(v1, v2) >= 0);
+                break;
+            default:
+                throw new RuntimeException(String.format("unknown opcode %x", c));
+        }
+    }
+
+    private void executeRegisterI64(int c, int a, long v1, long v2) {
+        switch (c) {
+            case I64_ADD:
+                setSlot(a, v1 + v2);
+                break;
+            case I64_SUB:
+                setSlot(a, v1 - v2);
+                break;
+            case I64_MUL:
+                setSlot(a, v1 * v2);
+                break;
+            case I64_DIVS:
+                if (v1 == 0x8000000000000000L && v2 == -1)
+                    throw new RuntimeException("math overflow: divide i64.min_value by -1");
+                setSlot(a, v1 / v2);
+                break;
+            case I64_DIVU:
+                setSlot(a, Long.divideUnsigned(v1, v2));
+                break;
+            case I64_REMS:
+                setSlot(a, v1 % v2);
+                break;
+            case I64_REMU:
+                setSlot(a, Long.remainderUnsigned(v1, v2));
+                break;
+            case I64_AND:
+                setSlot(a, v1 & v2);
+                break;
+            case I64_OR:
+                setSlot(a, v1 | v2);
+                break;
+            case I64_XOR:
+                setSlot(a, v1 ^ v2);
+                break;
+            case I64_SHL:
+                setSlot(a, v1 << v2);
+                break;
+            case I64_SHRS:
+                setSlot(a, v1 >> v2);
+                break;
+            case I64_SHRU:
+                setSlot(a, v1 >>> v2);
+                break;
+            case I64_ROTL:
+                setSlot(a, Long.rotateLeft(v1, (int) v2));
+                break;
+            case I64_ROTR:
+                setSlot(a, Long.rotateLeft(v1, -(int) v2));
+                break;
+            case I64_EQ:
+                setBoolean(a, v1 == v2);
+                break;
+            case I64_NE:
+                setBoolean(a, v1 != v2);
+                break;
+            case I64_LTS:
+                setBoolean(a, v1 < v2);
+                break;
+            case I64_LTU:
+                setBoolean(a, Long.compareUnsigned(v1, v2) < 0);
+                break;
+            case I64_GTS:
+                setBoolean(a, v1 > v2);
+                break;
+            case I64_GTU:
+                setBoolean(a, Long.compareUnsigned(v1, v2) > 0);
+                break;
+            case I64_LES:
+                setBoolean(a, v1 <= v2);
+                break;
+            case I64_LEU:
+                setBoolean(a, Long.compareUnsigned(v1, v2) <= 0);
+                break;
+            case I64_GES:
+                setBoolean(a, v1 >= v2);
+                break;
+            case I64_GEU:
+                setBoolean(a, Long.compareUnsigned(v1, v2) >= 0);
+                break;
+            default:
+                throw new RuntimeException(String.format("unknown opcode %x", c));
+        }
+    }
+
+    private void setI32(int slot, int value) {
+        setSlot(slot, value & 0xffffffffL);
+    }
+
+    private void setBoolean(int slot, boolean b) {
+        setSlot(slot, b ? 1 : 0);
+    }
+
+    // pc = pc of next instruction, a branch to a smaller pc is a loop back-edge
+    private int jump(long ins, int pc) {
+        unwind(ThreadedCode.getHeight(ins), ThreadedCode.getArity(ins));
+        int target = ThreadedCode.getTarget(ins);
+        if (limited && target < pc)
+            module.checkpoint();
+        return target;
+    }
+
+    private int jumpRegister(int target, int pc) {
+        if (limited && target < pc)
+            module.checkpoint();
+        return target;
+    }
+
+    // return true if a frame of wasm function is pushed, the result is pushed by execute loop once the frame returned
+    private boolean call(FunctionInstance function, int bits) {
+        long r;
+        if (function.isHost()) {
+            if (hooked)
+                module.touchHostFunc((HostFunction) function);
+            r = callHost((HostFunction) function);
+            // the execution loop returns as if a frame is pushed
+            if (pending != null)
+                return true;
+        } else {
+            CompiledFunction compiled = module.compiledOf(function);
+            if (compiled == null) {
+                pushFrame(bits, null);
+                enterFrame();
+                return true;
+            }
+            r = module.invokeCompiled(compiled, popLongs(function.getParamSize()));
+        }
+        if (function.getArity() > 0) {
+            push(r);
+        }
+        return false;
+    }
+
+    // arguments are popped after the call, so they are not overwritten by frames of nested executions
+    private long callHost(HostFunction function) {
+        int n = function.getParamSize();
+        StackArgs args = hostArgs;
+        int base = args.base;
+        int size = args.size;
+        long result = args.result;
+        boolean suspend = args.suspend;
+        args.base = peekN(n);
+        args.size = n;
+        args.result = 0;
+        args.suspend = false;
+        long r;
+        boolean suspended;
+        try {
+            function.execute(args);
+            r = args.result;
+            suspended = args.suspend;
+        } finally {
+            args.base = base;
+            args.size = size;
+            args.result = result;
+            args.suspend = suspend;
+        }
+        popN(currentFrameIndex(), n);
+        if (suspended)
+            pending = function;
+        return r;
+    }
+
+    // return true if a frame is pushed by call, hooks are called by the caller
+    boolean invoke(long ins) throws RuntimeException {
+        int code = InstructionId.getCode(ins);
         InstructionPool pool = module.getInsPool();
         Memory mem = module.getMemory();
 
@@ -135,6 +818,9 @@ public abstract class AbstractStackAllocator implements StackAllocator {
                 break;
             case UNREACHABLE:
                 throw new RuntimeException("exec: reached unreachable");
+            case GAS:
+                module.chargeGas(GasMeter.getCost(ins));
+                break;
                 // parametric instructions
             case BLOCK:
                 pushLabel(InstructionId.getResultType(ins) != ResultType.EMPTY, pool.getBranch0(ins), false);
@@ -189,53 +875,16 @@ public abstract class AbstractStackAllocator implements StackAllocator {
                 break;
             case CALL: {
                 int f = InstructionId.getLeft32(ins);
-                FunctionInstance function = module.getFunc(f);
-                long res;
-                if (function.isHost()) {
-                    module.touchHostFunc((HostFunction) function);
-
-                    res = function.execute(
-                        popLongs(function.getParamSize())
-                    );
-                } else {
-                    pushFrame(f, null);
-                    res = execute();
-                }
-
-                int resLength = function.getArity();
-                if (module.getValidateFunctionType() && resLength != function.getArity()) {
-                    throw new RuntimeException("the result of function " + function + " is not equals to its arity");
-                }
-                if (function.getArity() > 0) {
-                    push(
-                        res
-                    );
-                }
-                break;
+                return call(module.getFunc(f), f);
             }
             case CALL_INDIRECT: {
                 int elementIndex = popI32();
                 FunctionInstance function = module.getFuncInTable(elementIndex);
-
-                long r;
-                if (function.isHost()) {
-                    module.touchHostFunc((HostFunction) function);
-
-                    r = function.execute(
-                        popLongs(function.getParamSize())
-                    );
-                } else {
-                    pushFrame((int) (elementIndex | TABLE_MASK), null);
-                    r = execute();
-                }
                 if (module.getValidateFunctionType()
-                    && !function.getType().equals(module.getTypes().get(InstructionId.getLeft32(ins)))) {
+                    && module.getTypeIdInTable(elementIndex) != module.getTypeIds()[InstructionId.getLeft32(ins)]) {
                     throw new RuntimeException("failed exec: signature mismatch in call_indirect expected");
                 }
-                if (function.getArity() > 0) {
-                    push(r);
-                }
-                break;
+                return call(function, (int) (elementIndex | TABLE_MASK));
             }
             case SELECT: {
                 int c = popI32();
@@ -258,8 +907,7 @@ public abstract class AbstractStackAllocator implements StackAllocator {
             case TEE_LOCAL: {
                 long val = pop();
                 push(val);
-                push(val);
-                setLocal(InstructionId.getLeft32(ins), pop());
+                setLocal(InstructionId.getLeft32(ins), val);
                 break;
             }
             case GET_GLOBAL:
@@ -272,60 +920,60 @@ public abstract class AbstractStackAllocator implements StackAllocator {
             case I32_LOAD:
             case I64_LOAD32_U:
                 pushI32(
-                    mem.load32(getMemoryOffset(ins))
+                    mem.load32(popI32(), InstructionId.getLeft32(ins))
                 );
                 break;
             case I64_LOAD:
                 push(
-                    mem.load64(getMemoryOffset(ins))
+                    mem.load64(popI32(), InstructionId.getLeft32(ins))
                 );
                 break;
             case I32_LOAD8_S:
-                pushI32(mem.load8(getMemoryOffset(ins)));
+                pushI32(mem.load8(popI32(), InstructionId.getLeft32(ins)));
                 break;
             case I64_LOAD8_S: {
-                push(mem.load8(getMemoryOffset(ins)));
+                push(mem.load8(popI32(), InstructionId.getLeft32(ins)));
                 break;
             }
             case I32_LOAD8_U:
             case I64_LOAD8_U:
-                pushI8(mem.load8(getMemoryOffset(ins)));
+                pushI8(mem.load8(popI32(), InstructionId.getLeft32(ins)));
                 break;
             case I32_LOAD16_S: {
-                pushI32(mem.load16(getMemoryOffset(ins)));
+                pushI32(mem.load16(popI32(), InstructionId.getLeft32(ins)));
                 break;
             }
             case I64_LOAD16_S:
-                push(mem.load16(getMemoryOffset(ins)));
+                push(mem.load16(popI32(), InstructionId.getLeft32(ins)));
                 break;
             case I32_LOAD16_U:
             case I64_LOAD16_U:
-                pushI16(mem.load16(getMemoryOffset(ins)));
+                pushI16(mem.load16(popI32(), InstructionId.getLeft32(ins)));
                 break;
             case I64_LOAD32_S:
-                push(mem.load32(getMemoryOffset(ins)));
+                push(mem.load32(popI32(), InstructionId.getLeft32(ins)));
                 break;
             case I32_STORE8:
             case I64_STORE8: {
                 byte c = (byte) pop();
-                mem.storeI8(getMemoryOffset(ins), c);
+                mem.storeI8(popI32(), InstructionId.getLeft32(ins), c);
                 break;
             }
             case I32_STORE16:
             case I64_STORE16: {
                 short c = (short) pop();
-                mem.storeI16(getMemoryOffset(ins), c);
+                mem.storeI16(popI32(), InstructionId.getLeft32(ins), c);
                 break;
             }
             case I32_STORE:
             case I64_STORE32: {
                 int c = popI32();
-                mem.storeI32(getMemoryOffset(ins), c);
+                mem.storeI32(popI32(), InstructionId.getLeft32(ins), c);
                 break;
             }
             case I64_STORE: {
                 long c = pop();
-                mem.storeI64(getMemoryOffset(ins), c);
+                mem.storeI64(popI32(), InstructionId.getLeft32(ins), c);
                 break;
             }
             case CURRENT_MEMORY:
@@ -339,12 +987,51 @@ public abstract class AbstractStackAllocator implements StackAllocator {
                 pushI32(mem.grow(n));
                 break;
             }
+            // bulk memory instructions
+            case MEMORY_INIT: {
+                int n = popI32();
+                int src = popI32();
+                module.memoryInit(InstructionId.getLeft32(ins), popI32(), src, n);
+                break;
+            }
+            case DATA_DROP:
+                module.dataDrop(InstructionId.getLeft32(ins));
+                break;
+            case MEMORY_COPY: {
+                int n = popI32();
+                int src = popI32();
+                module.memoryCopy(popI32(), src, n);
+                break;
+            }
+            case MEMORY_FILL: {
+                int n = popI32();
+                byte value = (byte) popI32();
+                module.memoryFill(popI32(), value, n);
+                break;
+            }
             case I32_CONST:
                 pushI32(InstructionId.getLeft32(ins));
                 break;
             case I64_CONST:
                 push(pool.getOperand(ins, 0));
                 break;
+            // superinstructions
+            case I32_ADD_LL:
+                pushI32((int) getLocal(Superinstructions.getLocal(ins)) + (int) getLocal(InstructionId.getLeft32(ins)));
+                break;
+            case I32_LOAD_L:
+                pushI32(mem.load32((int) getLocal(Superinstructions.getLocal(ins)), InstructionId.getLeft32(ins)));
+                break;
+            case I32_ADD_C:
+                pushI32(popI32() + InstructionId.getLeft32(ins));
+                break;
+            case I32_ADD_LC:
+                pushI32((int) getLocal(Superinstructions.getLocal(ins)) + InstructionId.getLeft32(ins));
+                break;
+            case BR_IF_EQZ_L:
+                if ((int) getLocal(Superinstructions.getLocal(ins)) == 0)
+                    branch(InstructionId.getLeft32(ins));
+                break;
             case I32_CLZ:
                 pushI32(Integer.numberOfLeadingZeros(popI32()));
                 break;
@@ -708,12 +1395,219 @@ public abstract class AbstractStackAllocator implements StackAllocator {
             case F64_CONVERT_SI64:
             case F64_CONVERT_UI64:
             case F64_PROMOTE_F32:
-                throw new UnsupportedOperationException("float number op " + code.name + " is not allowed");
+                throw new UnsupportedOperationException("float number op " + OpCode.fromCode(code).name + " is not allowed");
+            case OpCode.SIMD_PREFIX:
+                executeSimd(ins, mem, pool);
+                break;
             default:
-                throw new RuntimeException("unknown opcode " + code);
+                throw new RuntimeException(String.format("unknown opcode %x", code));
+        }
+        return false;
+    }
+
+    // a v128 operand is two slots, the high 64 bits are on the top
+    private void executeSimd(long ins, Memory mem, InstructionPool pool) {
+        int code = InstructionId.getSimdCode(ins);
+        int left = InstructionId.getLeft32(ins);
+        switch (code) {
+            case V128_LOAD: {
+                int ea = Memory.effectiveAddress(popI32(), left);
+                long low = mem.load64(ea, 0);
+                push(low);
+                push(mem.load64(ea, 8));
+                return;
+            }
+            case V128_STORE: {
+                long high = pop();
+                long low = pop();
+                int ea = Memory.effectiveAddress(popI32(), left);
+                // the high half is stored first, so nothing is written if the access is out of bounds
+                mem.storeI64(ea, 8, high);
+                mem.storeI64(ea, 0, low);
+                return;
+            }
+            case V128_CONST:
+                push(pool.getOperand(ins, 0));
+                push(pool.getOperand(ins, 1));
+                return;
+            case V128_GET_LOCAL:
+                push(getLocal(Simd.getLowSlot(ins)));
+                push(getLocal(Simd.getHighSlot(ins)));
+                return;
+            case V128_SET_LOCAL:
+                setLocal(Simd.getHighSlot(ins), pop());
+                setLocal(Simd.getLowSlot(ins), pop());
+                return;
+            case V128_TEE_LOCAL: {
+                long high = pop();
+                long low = pop();
+                setLocal(Simd.getHighSlot(ins), high);
+                setLocal(Simd.getLowSlot(ins), low);
+                push(low);
+                push(high);
+                return;
+            }
+            case V128_DROP:
+                pop();
+                pop();
+                return;
+            case V128_SELECT: {
+                int c = popI32();
+                long high2 = pop();
+                long low2 = pop();
+                if (c == 0) {
+                    pop();
+                    pop();
+                    push(low2);
+                    push(high2);
+                }
+                return;
+            }
+            case I8X16_SHUFFLE: {
+                long bHigh = pop();
+                long bLow = pop();
+                long aHigh = pop();
+                long aLow = pop();
+                push(Simd.shuffle(aLow, aHigh, bLow, bHigh, pool.getOperand(ins, 0)));
+                push(Simd.shuffle(aLow, aHigh, bLow, bHigh, pool.getOperand(ins, 1)));
+                return;
+            }
+            case I8X16_SWIZZLE: {
+                long sHigh = pop();
+                long sLow = pop();
+                long aHigh = pop();
+                long aLow = pop();
+                push(Simd.swizzle(aLow, aHigh, sLow));
+                push(Simd.swizzle(aLow, aHigh, sHigh));
+                return;
+            }
+            case I8X16_SPLAT:
+            case I16X8_SPLAT:
+            case I32X4_SPLAT:
+            case I64X2_SPLAT: {
+                long v = pop();
+                long r = code == I8X16_SPLAT ? Simd.splat8((int) v)
+                    : code == I16X8_SPLAT ? Simd.splat16((int) v)
+                    : code == I32X4_SPLAT ? Simd.splat32((int) v) : v;
+                push(r);
+                push(r);
+                return;
+            }
+            case I8X16_EXTRACT_LANE_S:
+                pushI32((byte) extractLane(8, left));
+                return;
+            case I8X16_EXTRACT_LANE_U:
+                pushI32((int) extractLane(8, left));
+                return;
+            case I16X8_EXTRACT_LANE_S:
+                pushI32((short) extractLane(16, left));
+                return;
+            case I16X8_EXTRACT_LANE_U:
+                pushI32((int) extractLane(16, left));
+                return;
+            case I32X4_EXTRACT_LANE:
+                pushI32((int) extractLane(32, left));
+                return;
+            case I64X2_EXTRACT_LANE:
+                push(extractLane(64, left));
+                return;
+            case I8X16_REPLACE_LANE:
+                replaceLane(8, left);
+                return;
+            case I16X8_REPLACE_LANE:
+                replaceLane(16, left);
+                return;
+            case I32X4_REPLACE_LANE:
+                replaceLane(32, left);
+                return;
+            case I64X2_REPLACE_LANE:
+                replaceLane(64, left);
+                return;
+            case V128_NOT: {
+                long high = pop();
+                long low = pop();
+                push(~low);
+                push(~high);
+                return;
+            }
+            case V128_BITSELECT: {
+                long cHigh = pop();
+                long cLow = pop();
+                long bHigh = pop();
+                long bLow = pop();
+                long aHigh = pop();
+                long aLow = pop();
+                push((aLow & cLow) | (bLow & ~cLow));
+                push((aHigh & cHigh) | (bHigh & ~cHigh));
+                return;
+            }
+            case V128_ANY_TRUE: {
+                long high = pop();
+                long low = pop();
+                pushI32((low | high) != 0 ? 1 : 0);
+                return;
+            }
+            case I8X16_ALL_TRUE:
+            case I16X8_ALL_TRUE:
+            case I32X4_ALL_TRUE:
+            case I64X2_ALL_TRUE: {
+                long high = pop();
+                long low = pop();
+                pushI32(Simd.allTrue(code, low, high) ? 1 : 0);
+                return;
+            }
+            case I8X16_SHL:
+            case I8X16_SHR_S:
+            case I8X16_SHR_U:
+            case I16X8_SHL:
+            case I16X8_SHR_S:
+            case I16X8_SHR_U:
+            case I32X4_SHL:
+            case I32X4_SHR_S:
+            case I32X4_SHR_U:
+            case I64X2_SHL:
+            case I64X2_SHR_S:
+            case I64X2_SHR_U: {
+                int count = popI32();
+                long high = pop();
+                long low = pop();
+                push(Simd.shift(code, low, count));
+                push(Simd.shift(code, high, count));
+                return;
+            }
+            default: {
+                long bHigh = pop();
+                long bLow = pop();
+                long aHigh = pop();
+                long aLow = pop();
+                push(Simd.binary(code, aLow, bLow));
+                push(Simd.binary(code, aHigh, bHigh));
+            }
         }
     }
 
+    // pop a v128 and return the unsigned lane
+    private long extractLane(int bits, int lane) {
+        long high = pop();
+        long low = pop();
+        int lanes = 64 / bits;
+        return Simd.extract(lane < lanes ? low : high, bits, lane % lanes);
+    }
+
+    // pop the lane value and a v128, push the v128 with the lane replaced
+    private void replaceLane(int bits, int lane) {
+        long value = pop();
+        long high = pop();
+        long low = pop();
+        int lanes = 64 / bits;
+        if (lane < lanes)
+            low = Simd.replace(low, bits, lane, value);
+        else
+            high = Simd.replace(high, bits, lane % lanes, value);
+        push(low);
+        push(high);
+    }
+
     @NotNull
     @Override
     public ModuleInstanceImpl getModule() {
@@ -722,5 +1616,56 @@ public abstract class AbstractStackAllocator implements StackAllocator {
 
     public void setModule(ModuleInstanceImpl module) {
         this.module = module;
+        this.unchecked = module.getUnchecked();
+        this.hooked = !module.getHooks().isEmpty();
+        this.limited = module.getLimited();
+    }
+
+    // flyweight view over arguments on the operand stack
+    private final class StackArgs implements HostArgs {
+        private int base;
+        private int size;
+        private long result;
+        private boolean suspend;
+
+        @Override
+        public int size() {
+            return size;
+        }
+
+        @Override
+        public long arg(int i) {
+            if (i < 0 || i >= size)
+                throw new RuntimeException("argument index overflow " + i);
+            return getUnchecked(base + i);
+        }
+
+        @Override
+        public void setResult(long result) {
+            this.result = result;
+        }
+
+        // only the outermost execution loop could be suspended
+        @Override
+        public void suspend() {
+            if (!suspendable || running != 1)
+                throw new RuntimeException("execution could not be suspended");
+            suspend = true;
+        }
+    }
+
+    @Override
+    public HostFunction getPending() {
+        return pending;
+    }
+
+    @Override
+    public boolean getSuspendable() {
+        return suspendable;
+    }
+
+    @Override
+    public void setSuspendable(boolean suspendable) {
+        this.suspendable = suspendable;
     }
 }
@@ -0,0 +1,31 @@
+package org.tdf.lotusvm.runtime;
+
+// arguments view over an array, used by HostFunction.execute(long[])
+final class ArrayHostArgs implements HostArgs {
+    private final long[] args;
+    long result;
+
+    ArrayHostArgs(long[] args) {
+        this.args = args;
+    }
+
+    @Override
+    public int size() {
+        return args.length;
+    }
+
+    @Override
+    public long arg(int i) {
+        return args[i];
+    }
+
+    @Override
+    public void setResult(long result) {
+        this.result = result;
+    }
+
+    @Override
+    public long[] toLongArray() {
+        return args;
+    }
+}
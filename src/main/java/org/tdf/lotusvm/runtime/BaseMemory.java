@@ -3,11 +3,15 @@ package org.tdf.lotusvm.runtime;
 import lombok.Getter;
 import org.tdf.lotusvm.types.LimitType;
 
+import java.util.Arrays;
+
 // TODO: limit memory size in block chain
 @Getter
 public class BaseMemory implements Memory {
     private LimitType limit;
+    // the array may be longer than memory, it's doubled once exceeded, so growing a page at a time is copied log(n) times
     private byte[] data;
+    private int rawSize;
     private int pages;
 
     public BaseMemory() {
@@ -18,25 +22,60 @@ public class BaseMemory implements Memory {
     public void setLimit(LimitType limit) {
         this.limit = limit;
         this.pages = limit.getMinimum();
-        this.data = new byte[limit.getMinimum() * PAGE_SIZE];
+        this.rawSize = limit.getMinimum() * PAGE_SIZE;
+        this.data = new byte[rawSize];
     }
 
     public void put(int offset, byte[] data) {
-        System.arraycopy(data, 0, this.data, offset, data.length);
+        put(offset, data, 0, data.length);
     }
 
 
     public byte[] load(int offset, int n) {
         byte[] ret = new byte[n];
-        System.arraycopy(data, offset, ret, 0, n);
+        System.arraycopy(data, index(offset, 0, n), ret, 0, n);
         return ret;
     }
 
     public int load32(int offset) {
-        return (data[offset] & 0xff) | ((data[offset + 1] & 0xff) << 8) | ((data[offset + 2] & 0xff) << 16) | ((data[offset + 3] & 0xff) << 24);
+        return load32(offset, 0);
     }
 
     public long load64(int offset) {
+        return load64(offset, 0);
+    }
+
+    public byte load8(int offset) {
+        return load8(offset, 0);
+    }
+
+    public short load16(int offset) {
+        return load16(offset, 0);
+    }
+
+    public void storeI32(int offset, int val) {
+        storeI32(offset, 0, val);
+    }
+
+    public void storeI64(int offset, long n) {
+        storeI64(offset, 0, n);
+    }
+
+    public void storeI16(int offset, short num) {
+        storeI16(offset, 0, num);
+    }
+
+    public void storeI8(int offset, byte n) {
+        storeI8(offset, 0, n);
+    }
+
+    // unchecked accesses of array index
+
+    private int get32(int offset) {
+        return (data[offset] & 0xff) | ((data[offset + 1] & 0xff) << 8) | ((data[offset + 2] & 0xff) << 16) | ((data[offset + 3] & 0xff) << 24);
+    }
+
+    private long get64(int offset) {
         return (((long) data[offset]) & 0xffL) |
             (((long) data[offset + 1]) & 0xffL) << 8 |
             (((long) data[offset + 2]) & 0xffL) << 16 |
@@ -48,22 +87,22 @@ public class BaseMemory implements Memory {
             ;
     }
 
-    public byte load8(int offset) {
+    private byte get8(int offset) {
         return data[offset];
     }
 
-    public short load16(int offset) {
+    private short get16(int offset) {
         return (short) ((data[offset] & 0xff) | ((data[offset + 1] & 0xff) << 8));
     }
 
-    public void storeI32(int offset, int val) {
+    private void set32(int offset, int val) {
         data[offset] = (byte) (val & 0xff);
         data[offset + 1] = (byte) ((val >>> 8) & 0xff);
         data[offset + 2] = (byte) ((val >>> 16) & 0xff);
         data[offset + 3] = (byte) ((val >>> 24) & 0xff);
     }
 
-    public void storeI64(int offset, long n) {
+    private void set64(int offset, long n) {
         data[offset] = (byte) (n & 0xff);
         data[offset + 1] = (byte) ((n >>> 8) & 0xff);
         data[offset + 2] = (byte) ((n >>> 16) & 0xff);
@@ -74,15 +113,71 @@ public class BaseMemory implements Memory {
         data[offset + 7] = (byte) ((n >>> 56) & 0xff);
     }
 
-    public void storeI16(int offset, short num) {
+    private void set16(int offset, short num) {
         data[offset] = (byte) (num & 0xff);
         data[offset + 1] = (byte) ((num >>> 8) & 0xff);
     }
 
-    public void storeI8(int offset, byte n) {
+    private void set8(int offset, byte n) {
         this.data[offset] = n;
     }
 
+    public int load32(int base, int offset) {
+        return get32(index(base, offset, 4));
+    }
+
+    public long load64(int base, int offset) {
+        return get64(index(base, offset, 8));
+    }
+
+    public byte load8(int base, int offset) {
+        return get8(index(base, offset, 1));
+    }
+
+    public short load16(int base, int offset) {
+        return get16(index(base, offset, 2));
+    }
+
+    public void storeI32(int base, int offset, int val) {
+        set32(index(base, offset, 4), val);
+    }
+
+    public void storeI64(int base, int offset, long n) {
+        set64(index(base, offset, 8), n);
+    }
+
+    public void storeI16(int base, int offset, short num) {
+        set16(index(base, offset, 2), num);
+    }
+
+    public void storeI8(int base, int offset, byte n) {
+        set8(index(base, offset, 1), n);
+    }
+
+    public void put(int dst, byte[] data, int src, int n) {
+        if (Integer.toUnsignedLong(src) + Integer.toUnsignedLong(n) > data.length)
+            throw new RuntimeException("memory access overflow");
+        System.arraycopy(data, src, this.data, index(dst, 0, Integer.toUnsignedLong(n)), n);
+    }
+
+    public void copy(int dst, int src, int n) {
+        long length = Integer.toUnsignedLong(n);
+        int from = index(src, 0, length);
+        System.arraycopy(data, from, data, index(dst, 0, length), n);
+    }
+
+    public void fill(int dst, byte value, int n) {
+        int from = index(dst, 0, Integer.toUnsignedLong(n));
+        Arrays.fill(data, from, from + n, value);
+    }
+
+    // array index of effective address, checked against memory size once
+    private int index(int base, int offset, long size) {
+        long index = Integer.toUnsignedLong(base) + Integer.toUnsignedLong(offset);
+        if (index + size > rawSize)
+            throw new RuntimeException("memory access overflow");
+        return (int) index;
+    }
 
     // The memory.grow instruction is non-deterministic.
     // It may either succeed, returning the old memory size sz, or fail, returning -1
@@ -90,14 +185,23 @@ public class BaseMemory implements Memory {
     // However, failure can occur in other cases as well.
     // In practice, the choice depends on the resources available to the embedder.
     public int grow(int n) {
-        if (limit.getBounded() && getPages() + n > limit.getMaximum()) {
+        // n is unsigned, e.g. -1 is 0xffffffff pages
+        long newPages = pages + Integer.toUnsignedLong(n);
+        if (newPages > MAX_PAGES || limit.getBounded() && newPages > limit.getMaximum()) {
             return -1;
         }
+        long newRawSize = newPages * PAGE_SIZE;
+        if (newRawSize > Integer.MAX_VALUE)
+            throw new RuntimeException("memory overflow");
+        if (newRawSize > data.length) {
+            long capacity = Math.min(2L * data.length, limit.getBounded() ? (long) limit.getMaximum() * PAGE_SIZE : Integer.MAX_VALUE);
+            this.data = Arrays.copyOf(data, (int) Math.max(newRawSize, Math.min(capacity, Integer.MAX_VALUE - 8)));
+        } else {
+            Arrays.fill(data, rawSize, (int) newRawSize, (byte) 0);
+        }
         int prev = this.pages;
-        this.pages += n;
-        byte[] tmp = new byte[PAGE_SIZE * this.pages];
-        System.arraycopy(this.data, 0, tmp, 0, this.data.length);
-        this.data = tmp;
+        this.pages = (int) newPages;
+        this.rawSize = (int) newRawSize;
         return prev;
     }
 
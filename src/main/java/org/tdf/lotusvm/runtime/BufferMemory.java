@@ -0,0 +1,219 @@
+package org.tdf.lotusvm.runtime;
+
+import lombok.Getter;
+import org.tdf.lotusvm.types.LimitType;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+
+// memory backed by a byte buffer accessed by var handles, without sun.misc.Unsafe
+// a direct buffer is allocated off heap and released by garbage collector, so close is optional
+// a heap buffer is backed by byte array, var handles of both are intrinsified by jit
+public class BufferMemory implements Memory {
+    private static final VarHandle SHORT = MethodHandles.byteBufferViewVarHandle(short[].class, ByteOrder.LITTLE_ENDIAN);
+    private static final VarHandle INT = MethodHandles.byteBufferViewVarHandle(int[].class, ByteOrder.LITTLE_ENDIAN);
+    private static final VarHandle LONG = MethodHandles.byteBufferViewVarHandle(long[].class, ByteOrder.LITTLE_ENDIAN);
+
+    private final boolean direct;
+    private LimitType limit = new LimitType();
+    private ByteBuffer buffer;
+    private int rawSize;
+
+    @Getter
+    private int pages;
+
+    public BufferMemory() {
+        this(true);
+    }
+
+    public BufferMemory(boolean direct) {
+        this.direct = direct;
+        this.buffer = allocate(0);
+    }
+
+    // zeroed buffer of size, e.g. a mapped file for MappedMemory
+    protected ByteBuffer allocate(int size) {
+        return direct ? ByteBuffer.allocateDirect(size) : ByteBuffer.allocate(size);
+    }
+
+    // buffer of size grown from buffer, the content is kept
+    protected ByteBuffer resize(ByteBuffer buffer, int size) {
+        ByteBuffer grown = allocate(size);
+        grown.put(buffer.duplicate().clear());
+        return grown;
+    }
+
+    @Override
+    public void setLimit(LimitType limit) {
+        this.pages = limit.getMinimum();
+        int rawSize = pages * PAGE_SIZE;
+        if (rawSize < 0)
+            throw new RuntimeException("memory overflow");
+        this.buffer = allocate(rawSize);
+        this.rawSize = rawSize;
+        this.limit = limit;
+    }
+
+    @Override
+    public void put(int offset, byte[] data) {
+        buffer.duplicate().position(index(offset, 0, data.length)).put(data);
+    }
+
+    @Override
+    public void put(int dst, byte[] data, int src, int n) {
+        if (Integer.toUnsignedLong(src) + Integer.toUnsignedLong(n) > data.length)
+            throw new RuntimeException("memory access overflow");
+        buffer.duplicate().position(index(dst, 0, Integer.toUnsignedLong(n))).put(data, src, n);
+    }
+
+    // bulk put between buffers is safe for overlapped regions
+    @Override
+    public void copy(int dst, int src, int n) {
+        long length = Integer.toUnsignedLong(n);
+        int from = index(src, 0, length);
+        ByteBuffer source = buffer.duplicate().limit(from + n).position(from);
+        buffer.duplicate().position(index(dst, 0, length)).put(source);
+    }
+
+    @Override
+    public void fill(int dst, byte value, int n) {
+        int i = index(dst, 0, Integer.toUnsignedLong(n));
+        int end = i + n;
+        if (buffer.hasArray()) {
+            Arrays.fill(buffer.array(), i, end, value);
+            return;
+        }
+        long word = (value & 0xffL) * 0x0101010101010101L;
+        for (; i + 8 <= end; i += 8) {
+            LONG.set(buffer, i, word);
+        }
+        for (; i < end; i++) {
+            buffer.put(i, value);
+        }
+    }
+
+    @Override
+    public byte[] load(int offset, int length) {
+        byte[] r = new byte[length];
+        buffer.duplicate().position(index(offset, 0, length)).get(r);
+        return r;
+    }
+
+    @Override
+    public int load32(int offset) {
+        return load32(offset, 0);
+    }
+
+    @Override
+    public int load32(int base, int offset) {
+        return (int) INT.get(buffer, index(base, offset, 4));
+    }
+
+    @Override
+    public long load64(int offset) {
+        return load64(offset, 0);
+    }
+
+    @Override
+    public long load64(int base, int offset) {
+        return (long) LONG.get(buffer, index(base, offset, 8));
+    }
+
+    @Override
+    public byte load8(int offset) {
+        return load8(offset, 0);
+    }
+
+    @Override
+    public byte load8(int base, int offset) {
+        return buffer.get(index(base, offset, 1));
+    }
+
+    @Override
+    public short load16(int offset) {
+        return load16(offset, 0);
+    }
+
+    @Override
+    public short load16(int base, int offset) {
+        return (short) SHORT.get(buffer, index(base, offset, 2));
+    }
+
+    @Override
+    public void storeI32(int offset, int val) {
+        storeI32(offset, 0, val);
+    }
+
+    @Override
+    public void storeI32(int base, int offset, int val) {
+        INT.set(buffer, index(base, offset, 4), val);
+    }
+
+    @Override
+    public void storeI64(int offset, long n) {
+        storeI64(offset, 0, n);
+    }
+
+    @Override
+    public void storeI64(int base, int offset, long n) {
+        LONG.set(buffer, index(base, offset, 8), n);
+    }
+
+    @Override
+    public void storeI16(int offset, short num) {
+        storeI16(offset, 0, num);
+    }
+
+    @Override
+    public void storeI16(int base, int offset, short num) {
+        SHORT.set(buffer, index(base, offset, 2), num);
+    }
+
+    @Override
+    public void storeI8(int offset, byte n) {
+        storeI8(offset, 0, n);
+    }
+
+    @Override
+    public void storeI8(int base, int offset, byte n) {
+        buffer.put(index(base, offset, 1), n);
+    }
+
+    // buffer index of effective address, checked against memory size once,
+    // the check of var handle is dominated by this one and eliminated by jit
+    private int index(int base, int offset, long size) {
+        long index = Integer.toUnsignedLong(base) + Integer.toUnsignedLong(offset);
+        if (index + size > rawSize)
+            throw new RuntimeException("memory access overflow");
+        return (int) index;
+    }
+
+    @Override
+    public int grow(int n) {
+        // n is unsigned, e.g. -1 is 0xffffffff pages
+        long newPages = pages + Integer.toUnsignedLong(n);
+        if (newPages > MAX_PAGES || limit.getBounded() && newPages > limit.getMaximum()) {
+            return -1;
+        }
+        int newRawSize = (int) newPages * PAGE_SIZE;
+        if (newRawSize < 0)
+            throw new RuntimeException("memory overflow");
+        ByteBuffer grown = resize(buffer, newRawSize);
+        int prev = this.pages;
+        this.pages = (int) newPages;
+        this.buffer = grown;
+        this.rawSize = newRawSize;
+        return prev;
+    }
+
+    // the buffer is released by garbage collector
+    @Override
+    public void close() {
+        buffer = allocate(0);
+        rawSize = 0;
+        pages = 0;
+    }
+}
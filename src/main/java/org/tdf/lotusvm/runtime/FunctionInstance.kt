@@ -6,6 +6,7 @@ interface FunctionInstance {
     val paramSize: Int
     val arity: Int
     val type: FunctionType
+
     fun execute(parameters: LongArray): Long
     val isHost: Boolean
 }
\ No newline at end of file
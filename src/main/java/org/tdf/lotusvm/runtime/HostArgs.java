@@ -0,0 +1,59 @@
+package org.tdf.lotusvm.runtime;
+
+// arguments and result of a host function call, see HostFunction.execute(HostArgs)
+// the view is only valid during the call, it should not be kept by host functions
+public interface HostArgs {
+    int size();
+
+    // raw bits of i-th argument
+    long arg(int i);
+
+    default int argI32(int i) {
+        return (int) arg(i);
+    }
+
+    default long argI64(int i) {
+        return arg(i);
+    }
+
+    default float argF32(int i) {
+        return Float.intBitsToFloat((int) arg(i));
+    }
+
+    default double argF64(int i) {
+        return Double.longBitsToDouble(arg(i));
+    }
+
+    // raw bits of result, ignored if the function returns nothing
+    void setResult(long result);
+
+    default void setI32(int result) {
+        setResult(Integer.toUnsignedLong(result));
+    }
+
+    default void setI64(long result) {
+        setResult(result);
+    }
+
+    default void setF32(float result) {
+        setResult(Integer.toUnsignedLong(Float.floatToRawIntBits(result)));
+    }
+
+    default void setF64(double result) {
+        setResult(Double.doubleToRawLongBits(result));
+    }
+
+    // suspend the execution once the host function returned, the result is ignored,
+    // the execution is continued by Continuation.resume with the result, see ModuleInstance.executeSuspendable
+    default void suspend() {
+        throw new RuntimeException("execution could not be suspended");
+    }
+
+    default long[] toLongArray() {
+        long[] r = new long[size()];
+        for (int i = 0; i < r.length; i++) {
+            r[i] = arg(i);
+        }
+        return r;
+    }
+}
@@ -23,7 +23,20 @@ abstract class HostFunction(
     override val arity: Int
         get() = type.resultTypes.size
 
-    abstract override fun execute(args: LongArray): Long
+    // calling convention without allocation, arguments are read from the operand stack in place,
+    // override either this or execute(LongArray)
+    open fun execute(args: HostArgs) {
+        if (args is ArrayHostArgs)
+            throw RuntimeException("host function $name is not implemented")
+        args.setResult(execute(args.toLongArray()))
+    }
+
+    // array based calling convention kept for compatibility, arguments are copied into a new array on every call
+    override fun execute(args: LongArray): Long {
+        val view = ArrayHostArgs(args)
+        execute(view)
+        return view.result
+    }
     override val isHost: Boolean
         get() = true
 
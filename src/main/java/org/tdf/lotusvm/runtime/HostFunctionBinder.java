@@ -0,0 +1,193 @@
+package org.tdf.lotusvm.runtime;
+
+import org.tdf.lotusvm.ModuleInstance;
+import org.tdf.lotusvm.compiler.HostFunctionCompiler;
+import org.tdf.lotusvm.types.FunctionType;
+import org.tdf.lotusvm.types.ValueType;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.*;
+
+// bind methods annotated by WasmExport as host functions, the function type is derived from the signature
+// int, long, float and double are mapped to i32, i64, f32 and f64, the result could also be void
+// a leading parameter of type ModuleInstance receives the instance which calls the function
+// methods of any visibility are bound, including inherited ones
+// public methods are called by adapters generated by HostFunctionCompiler, others by method handles adapted at bind time,
+// calls are free of boxing and reflection in both ways
+public final class HostFunctionBinder {
+    private static final MethodHandles.Lookup LOOKUP = MethodHandles.lookup();
+    private static final Map<Class<?>, MethodHandle> GETTERS = new HashMap<>();
+    private static final Map<Class<?>, MethodHandle> RESULTS = new HashMap<>();
+    private static final Map<Class<?>, ValueType> TYPES = new HashMap<>();
+
+    static {
+        TYPES.put(int.class, ValueType.I32);
+        TYPES.put(long.class, ValueType.I64);
+        TYPES.put(float.class, ValueType.F32);
+        TYPES.put(double.class, ValueType.F64);
+        try {
+            GETTERS.put(int.class, getter("argI32", int.class));
+            GETTERS.put(long.class, getter("argI64", long.class));
+            GETTERS.put(float.class, getter("argF32", float.class));
+            GETTERS.put(double.class, getter("argF64", double.class));
+            RESULTS.put(int.class, LOOKUP.findStatic(Integer.class, "toUnsignedLong", MethodType.methodType(long.class, int.class)));
+            RESULTS.put(float.class, LOOKUP.findStatic(HostFunctionBinder.class, "f32", MethodType.methodType(long.class, float.class)));
+            RESULTS.put(double.class, LOOKUP.findStatic(Double.class, "doubleToRawLongBits", MethodType.methodType(long.class, double.class)));
+            RESULTS.put(void.class, MethodHandles.constant(long.class, 0L));
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    private HostFunctionBinder() {
+    }
+
+    // bind annotated instance methods and static methods of target
+    public static Set<HostFunction> bind(Object target) {
+        return bind(target.getClass(), target);
+    }
+
+    // bind annotated static methods of class
+    public static Set<HostFunction> bind(Class<?> clazz) {
+        return bind(clazz, null);
+    }
+
+    private static Set<HostFunction> bind(Class<?> clazz, Object target) {
+        Set<HostFunction> r = new HashSet<>();
+        // names and aliases bound, adapters are of different classes so they are not equal by name
+        Set<String> names = new HashSet<>();
+        for (Method m : methods(clazz)) {
+            WasmExport export = m.getAnnotation(WasmExport.class);
+            if (export == null)
+                continue;
+            boolean isStatic = Modifier.isStatic(m.getModifiers());
+            if (!isStatic && target == null)
+                continue;
+            for (String name : names(export)) {
+                if (!names.add(name))
+                    throw new RuntimeException("bind host function " + name + " failed: duplicated");
+            }
+            r.add(bind(export, m, isStatic ? null : target));
+        }
+        return r;
+    }
+
+    private static List<String> names(WasmExport export) {
+        List<String> r = new ArrayList<>();
+        r.add(export.value());
+        r.addAll(Arrays.asList(export.alias()));
+        return r;
+    }
+
+    // declared methods of any visibility of class and super classes, public methods of interfaces,
+    // a method overridden by a subclass is taken from the subclass
+    private static List<Method> methods(Class<?> clazz) {
+        List<Method> r = new ArrayList<>();
+        Set<String> signatures = new HashSet<>();
+        for (Class<?> c = clazz; c != null && c != Object.class; c = c.getSuperclass()) {
+            for (Method m : c.getDeclaredMethods()) {
+                if (!m.isSynthetic() && signatures.add(m.getName() + Arrays.toString(m.getParameterTypes())))
+                    r.add(m);
+            }
+        }
+        for (Method m : clazz.getMethods()) {
+            if (m.getDeclaringClass().isInterface() && signatures.add(m.getName() + Arrays.toString(m.getParameterTypes())))
+                r.add(m);
+        }
+        return r;
+    }
+
+    private static HostFunction bind(WasmExport export, Method m, Object target) {
+        Class<?>[] params = m.getParameterTypes();
+        int first = params.length > 0 && params[0] == ModuleInstance.class ? 1 : 0;
+        List<ValueType> paramTypes = new ArrayList<>();
+        for (int i = first; i < params.length; i++) {
+            paramTypes.add(valueType(export, params[i]));
+        }
+        List<ValueType> resultTypes = m.getReturnType() == void.class
+            ? Collections.emptyList()
+            : Collections.singletonList(valueType(export, m.getReturnType()));
+        FunctionType type = new FunctionType(paramTypes, resultTypes);
+
+        if (HostFunctionCompiler.isCompilable(m)) {
+            try {
+                return HostFunctionCompiler.compile(m, target, export.value(), type, first == 1, export.alias());
+            } catch (RuntimeException | LinkageError ignored) {
+                // fall back to method handle
+            }
+        }
+
+        MethodHandle h;
+        try {
+            m.setAccessible(true);
+            h = LOOKUP.unreflect(m);
+        } catch (IllegalAccessException | RuntimeException e) {
+            throw new RuntimeException("bind host function " + export.value() + " failed: " + e.getMessage());
+        }
+        if (target != null)
+            h = h.bindTo(target);
+        // (ModuleInstance, p0, p1 ...) -> r
+        if (first == 0)
+            h = MethodHandles.dropArguments(h, 0, ModuleInstance.class);
+        // (ModuleInstance, HostArgs, HostArgs ...) -> r
+        MethodHandle[] getters = new MethodHandle[params.length - first];
+        for (int i = 0; i < getters.length; i++) {
+            getters[i] = MethodHandles.insertArguments(GETTERS.get(params[first + i]), 1, i);
+        }
+        h = MethodHandles.filterArguments(h, 1, getters);
+        // (ModuleInstance, HostArgs) -> long
+        h = MethodHandles.filterReturnValue(h, RESULTS.getOrDefault(m.getReturnType(), MethodHandles.identity(long.class)));
+        int[] reorder = new int[getters.length + 1];
+        Arrays.fill(reorder, 1, reorder.length, 1);
+        h = MethodHandles.permuteArguments(
+            h, MethodType.methodType(long.class, ModuleInstance.class, HostArgs.class), reorder
+        );
+        return new BoundHostFunction(export.value(), type, h, first == 1, export.alias());
+    }
+
+    private static ValueType valueType(WasmExport export, Class<?> clazz) {
+        ValueType t = TYPES.get(clazz);
+        if (t == null)
+            throw new RuntimeException("bind host function " + export.value() + " failed: unsupported type " + clazz.getName());
+        return t;
+    }
+
+    private static MethodHandle getter(String name, Class<?> type) throws ReflectiveOperationException {
+        return LOOKUP.findVirtual(HostArgs.class, name, MethodType.methodType(type, int.class));
+    }
+
+    private static long f32(float f) {
+        return Integer.toUnsignedLong(Float.floatToRawIntBits(f));
+    }
+
+    private static final class BoundHostFunction extends HostFunction {
+        // (ModuleInstance, HostArgs) -> long
+        private final MethodHandle handle;
+        // the method receives the calling instance
+        private final boolean withInstance;
+
+        BoundHostFunction(String name, FunctionType type, MethodHandle handle, boolean withInstance, String[] alias) {
+            super(name, type, alias);
+            this.handle = handle;
+            this.withInstance = withInstance;
+        }
+
+        @Override
+        public void execute(HostArgs args) {
+            ModuleInstance instance = withInstance ? getInstance() : null;
+            long r;
+            try {
+                r = (long) handle.invokeExact(instance, args);
+            } catch (RuntimeException | Error e) {
+                throw e;
+            } catch (Throwable t) {
+                throw new RuntimeException(t);
+            }
+            args.setResult(r);
+        }
+    }
+}
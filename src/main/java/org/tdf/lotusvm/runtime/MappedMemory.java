@@ -0,0 +1,106 @@
+package org.tdf.lotusvm.runtime;
+
+import org.tdf.lotusvm.types.LimitType;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+
+import static java.nio.file.StandardOpenOption.CREATE;
+import static java.nio.file.StandardOpenOption.READ;
+import static java.nio.file.StandardOpenOption.WRITE;
+
+// memory mapped on a file, one file per instance, the memory is restored from the file by set limit,
+// build the instance with ModuleInstance.Builder.restoredMemory to keep it from active data segments
+// a shared mapping writes through to the file and is extended by grow, flush() forces it to the storage device
+// a copy-on-write mapping never writes the file, e.g. for speculative execution, it's moved to an anonymous buffer by grow
+public class MappedMemory extends BufferMemory {
+    private final FileChannel channel;
+    private final boolean copyOnWrite;
+    private MappedByteBuffer mapped;
+
+    public MappedMemory(Path path) {
+        this(path, false);
+    }
+
+    public MappedMemory(Path path, boolean copyOnWrite) {
+        super(true);
+        this.copyOnWrite = copyOnWrite;
+        try {
+            this.channel = FileChannel.open(path, READ, WRITE, CREATE);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    // pages of the file rounded up, not less than the minimum of limit
+    @Override
+    public void setLimit(LimitType limit) {
+        long pages;
+        try {
+            pages = (channel.size() + PAGE_SIZE - 1) / PAGE_SIZE;
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        if (pages > MAX_PAGES || limit.getBounded() && pages > limit.getMaximum())
+            throw new RuntimeException("memory file exceeds limit of " + limit.getMaximum() + " pages");
+        super.setLimit(new LimitType(limit.getBounded(), Math.max(limit.getMinimum(), (int) pages), limit.getMaximum()));
+    }
+
+    // the file is extended by a shared mapping, bytes beyond the file are zeros
+    @Override
+    protected ByteBuffer allocate(int size) {
+        // called by constructor before the file opened
+        if (size == 0)
+            return ByteBuffer.allocateDirect(0);
+        try {
+            if (!copyOnWrite) {
+                mapped = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+                return mapped;
+            }
+            long file = channel.size();
+            if (size <= file)
+                return channel.map(FileChannel.MapMode.PRIVATE, 0, size);
+            ByteBuffer r = ByteBuffer.allocateDirect(size);
+            if (file > 0)
+                r.put(channel.map(FileChannel.MapMode.READ_ONLY, 0, file));
+            return r.clear();
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    // a shared mapping is remapped since the content is in the file
+    @Override
+    protected ByteBuffer resize(ByteBuffer buffer, int size) {
+        if (!copyOnWrite)
+            return allocate(size);
+        ByteBuffer grown = ByteBuffer.allocateDirect(size);
+        grown.put(buffer.duplicate().clear());
+        return grown.clear();
+    }
+
+    public boolean isCopyOnWrite() {
+        return copyOnWrite;
+    }
+
+    // force the writes of shared mapping to the storage device, no-op for copy-on-write
+    public void flush() {
+        if (mapped != null)
+            mapped.force();
+    }
+
+    // the mapping is released by garbage collector, writes are not forced
+    @Override
+    public void close() {
+        super.close();
+        mapped = null;
+        try {
+            channel.close();
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+}
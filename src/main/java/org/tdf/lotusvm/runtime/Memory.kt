@@ -6,6 +6,14 @@ interface Memory : AutoCloseable {
     companion object {
         const val PAGE_SIZE = 64 * (1 shl 10) // 64 KB
         const val MAX_PAGES = 0xFFFF
+
+        // effective address = unsigned base + unsigned static offset, traps if the address overflows int
+        @JvmStatic
+        fun effectiveAddress(base: Int, offset: Int): Int {
+            val l = Integer.toUnsignedLong(base) + Integer.toUnsignedLong(offset)
+            if (l > Int.MAX_VALUE) throw RuntimeException("memory access overflow")
+            return l.toInt()
+        }
     }
 
     fun setLimit(limit: LimitType)
@@ -19,6 +27,28 @@ interface Memory : AutoCloseable {
     fun storeI64(offset: Int, n: Long)
     fun storeI16(offset: Int, num: Short)
     fun storeI8(offset: Int, n: Byte)
+
+    // accessors of memory instructions, the effective address is unsigned base + unsigned static offset,
+    // implementations check the effective address and the access size against memory size at once
+    fun load32(base: Int, offset: Int): Int = load32(effectiveAddress(base, offset))
+    fun load64(base: Int, offset: Int): Long = load64(effectiveAddress(base, offset))
+    fun load8(base: Int, offset: Int): Byte = load8(effectiveAddress(base, offset))
+    fun load16(base: Int, offset: Int): Short = load16(effectiveAddress(base, offset))
+    fun storeI32(base: Int, offset: Int, value: Int) = storeI32(effectiveAddress(base, offset), value)
+    fun storeI64(base: Int, offset: Int, n: Long) = storeI64(effectiveAddress(base, offset), n)
+    fun storeI16(base: Int, offset: Int, num: Short) = storeI16(effectiveAddress(base, offset), num)
+    fun storeI8(base: Int, offset: Int, n: Byte) = storeI8(effectiveAddress(base, offset), n)
+
+    // bulk memory instructions, addresses and length are unsigned, traps if any byte is out of bounds
+    // memory.copy, the regions may overlap
+    fun copy(dst: Int, src: Int, n: Int) = put(dst, load(src, n))
+
+    // memory.fill
+    fun fill(dst: Int, value: Byte, n: Int) = put(dst, ByteArray(n) { value })
+
+    // memory.init, copy n bytes of data from src, traps if the range exceeds data
+    fun put(dst: Int, data: ByteArray, src: Int, n: Int) = put(dst, data.copyOfRange(src, src + n))
+
     fun grow(n: Int): Int
     val pages: Int
 
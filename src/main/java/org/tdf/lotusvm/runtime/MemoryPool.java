@@ -0,0 +1,241 @@
+package org.tdf.lotusvm.runtime;
+
+import java.io.Closeable;
+import java.lang.ref.WeakReference;
+import java.nio.ByteOrder;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+
+import static org.tdf.lotusvm.types.UnsafeUtil.UNSAFE;
+
+// pool of zeroed off-heap regions for memories, e.g. one memory per transaction without malloc, memset and free per call
+// regions are in size classes of power of two pages, a released region is zeroed only at the blocks written
+// a region released is cached by the thread up to thread capacity, then by the pool up to max cached bytes, otherwise freed
+// allocated bytes including cached never exceed max bytes, cached regions of all threads are freed once max bytes is hit
+// regions cached by a dead thread are moved to the pool when another thread starts to use it
+public class MemoryPool implements Closeable {
+    public static final int DEFAULT_THREAD_CAPACITY = 8;
+    public static final long DEFAULT_MAX_CACHED_BYTES = 256L << 20;
+    // 2^15 pages is 2 GiB, the largest class addressed by int
+    private static final int CLASSES = 16;
+
+    private final int threadCapacity;
+    private final long maxCachedBytes;
+    private final long maxBytes;
+
+    // regions cached by pool, indexed by size class
+    private final List<ArrayDeque<Region>> shared = new ArrayList<>();
+    // caches of all threads, to be freed on close or once max bytes is hit
+    private final List<ThreadCache> caches = new ArrayList<>();
+    private final ThreadLocal<ThreadCache> cache = ThreadLocal.withInitial(this::newCache);
+
+    private long allocatedBytes;
+    private long cachedBytes;
+    private volatile boolean closed;
+
+    // off-heap region of capacity pages, blocks of 4 KiB written are marked dirty
+    static final class Region {
+        static final int BLOCK_SHIFT = 12;
+
+        final long pointer;
+        final int capacity;
+        final long[] dirty;
+
+        Region(long pointer, int capacity) {
+            this.pointer = pointer;
+            this.capacity = capacity;
+            this.dirty = new long[(capacity * (Memory.PAGE_SIZE >>> BLOCK_SHIFT) + 63) >>> 6];
+        }
+
+        long size() {
+            return (long) capacity * Memory.PAGE_SIZE;
+        }
+
+        // zero the dirty blocks, adjacent blocks are zeroed at once
+        void zero() {
+            int blocks = dirty.length * 64;
+            int i = 0;
+            while (i < blocks) {
+                if ((dirty[i >>> 6] & (1L << i)) == 0) {
+                    i++;
+                    continue;
+                }
+                int j = i;
+                while (j < blocks && (dirty[j >>> 6] & (1L << j)) != 0)
+                    j++;
+                UNSAFE.setMemory(pointer + ((long) i << BLOCK_SHIFT), (long) (j - i) << BLOCK_SHIFT, (byte) 0);
+                i = j;
+            }
+            Arrays.fill(dirty, 0);
+        }
+
+        void free() {
+            UNSAFE.freeMemory(pointer);
+        }
+    }
+
+    // regions cached by a thread, the thread is held weakly
+    private static final class ThreadCache {
+        final WeakReference<Thread> owner = new WeakReference<>(Thread.currentThread());
+        final ArrayDeque<Region> regions = new ArrayDeque<>();
+
+        boolean isDead() {
+            Thread t = owner.get();
+            return t == null || !t.isAlive();
+        }
+    }
+
+    public MemoryPool() {
+        this(DEFAULT_THREAD_CAPACITY, DEFAULT_MAX_CACHED_BYTES, Long.MAX_VALUE);
+    }
+
+    public MemoryPool(int threadCapacity, long maxCachedBytes, long maxBytes) {
+        if (ByteOrder.nativeOrder() != ByteOrder.LITTLE_ENDIAN)
+            throw new RuntimeException("create memory pool failed: native byte order is not little endian!");
+        if (threadCapacity < 0 || maxCachedBytes < 0 || maxBytes < 0)
+            throw new RuntimeException("negative capacity of memory pool");
+        this.threadCapacity = threadCapacity;
+        this.maxCachedBytes = maxCachedBytes;
+        this.maxBytes = maxBytes;
+        for (int i = 0; i < CLASSES; i++) {
+            shared.add(new ArrayDeque<>());
+        }
+    }
+
+    private synchronized ThreadCache newCache() {
+        for (Iterator<ThreadCache> it = caches.iterator(); it.hasNext(); ) {
+            ThreadCache c = it.next();
+            if (!c.isDead())
+                continue;
+            it.remove();
+            synchronized (c.regions) {
+                c.regions.forEach(this::cacheOrFree);
+                c.regions.clear();
+            }
+        }
+        ThreadCache r = new ThreadCache();
+        caches.add(r);
+        return r;
+    }
+
+    // memory allocating from this pool at set limit, the memory should be closed to release
+    public Memory acquire() {
+        return new PooledMemory(this);
+    }
+
+    // pages rounded up to power of two
+    static int sizeClass(int pages) {
+        return pages <= 1 ? 0 : 32 - Integer.numberOfLeadingZeros(pages - 1);
+    }
+
+    // zeroed region of at least pages
+    Region allocate(int pages) {
+        int c = sizeClass(pages);
+        if (c >= CLASSES)
+            throw new RuntimeException("memory overflow");
+        ArrayDeque<Region> local = cache.get().regions;
+        synchronized (local) {
+            for (Iterator<Region> it = local.iterator(); it.hasNext(); ) {
+                Region r = it.next();
+                if (r.capacity == 1 << c) {
+                    it.remove();
+                    return r;
+                }
+            }
+        }
+        long size = (long) Memory.PAGE_SIZE << c;
+        synchronized (this) {
+            if (closed)
+                throw new RuntimeException("memory pool is closed");
+            Region r = shared.get(c).pollFirst();
+            if (r != null) {
+                cachedBytes -= size;
+                return r;
+            }
+            // free regions cached of other classes to keep under max bytes
+            for (int i = CLASSES - 1; i >= 0 && allocatedBytes + size > maxBytes; i--) {
+                for (Region cached = shared.get(i).pollFirst(); cached != null; cached = shared.get(i).pollFirst()) {
+                    free(cached);
+                    cachedBytes -= cached.size();
+                    if (allocatedBytes + size <= maxBytes)
+                        break;
+                }
+            }
+            // then regions cached by threads, including dead ones
+            for (int i = 0; i < caches.size() && allocatedBytes + size > maxBytes; i++) {
+                ArrayDeque<Region> regions = caches.get(i).regions;
+                synchronized (regions) {
+                    for (Region cached = regions.pollLast(); cached != null; cached = regions.pollLast()) {
+                        free(cached);
+                        if (allocatedBytes + size <= maxBytes)
+                            break;
+                    }
+                }
+            }
+            if (allocatedBytes + size > maxBytes)
+                throw new RuntimeException("memory pool exhausted");
+            allocatedBytes += size;
+        }
+        long pointer = UNSAFE.allocateMemory(size);
+        UNSAFE.setMemory(pointer, size, (byte) 0);
+        return new Region(pointer, 1 << c);
+    }
+
+    void release(Region r) {
+        r.zero();
+        ArrayDeque<Region> local = cache.get().regions;
+        synchronized (local) {
+            if (!closed && local.size() < threadCapacity) {
+                local.addFirst(r);
+                return;
+            }
+        }
+        cacheOrFree(r);
+    }
+
+    // cache a zeroed region by pool up to max cached bytes, otherwise free it
+    private synchronized void cacheOrFree(Region r) {
+        if (closed || cachedBytes + r.size() > maxCachedBytes) {
+            free(r);
+            return;
+        }
+        shared.get(sizeClass(r.capacity)).addFirst(r);
+        cachedBytes += r.size();
+    }
+
+    private synchronized void free(Region r) {
+        r.free();
+        allocatedBytes -= r.size();
+    }
+
+    // bytes allocated off heap, including regions in use and cached
+    public synchronized long getAllocatedBytes() {
+        return allocatedBytes;
+    }
+
+    // bytes of regions cached by pool, not including thread caches
+    public synchronized long getCachedBytes() {
+        return cachedBytes;
+    }
+
+    // free cached regions, regions in use are freed when released
+    @Override
+    public synchronized void close() {
+        closed = true;
+        for (ArrayDeque<Region> regions : shared) {
+            regions.forEach(this::free);
+            regions.clear();
+        }
+        cachedBytes = 0;
+        for (ThreadCache c : caches) {
+            synchronized (c.regions) {
+                c.regions.forEach(this::free);
+                c.regions.clear();
+            }
+        }
+        caches.clear();
+    }
+}
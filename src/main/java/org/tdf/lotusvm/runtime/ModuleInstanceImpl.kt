@@ -1,9 +1,14 @@
 package org.tdf.lotusvm.runtime
 
 import org.tdf.lotusvm.Builder
+import org.tdf.lotusvm.Continuation
 import org.tdf.lotusvm.ModuleInstance
 import org.tdf.lotusvm.common.Constants
 import org.tdf.lotusvm.common.OpCode
+import org.tdf.lotusvm.common.Opcodes
+import org.tdf.lotusvm.compiler.CompiledFunction
+import org.tdf.lotusvm.compiler.CompiledModule
+import org.tdf.lotusvm.compiler.TieredCompiler
 import org.tdf.lotusvm.types.*
 import java.util.*
 import java.util.function.Consumer
@@ -44,9 +49,53 @@ class ModuleInstanceImpl(builder: Builder) : ModuleInstance {
 
     val types: List<FunctionType>
 
+    // canonical ids of types, see Module.typeIds
+    val typeIds: IntArray
+
+    // canonical type ids by function index, kept by the instance since host functions could be shared by modules
+    val functionTypeIds: IntArray
+
     val validateFunctionType: Boolean = builder.validateFunctionType
+
+    // skip stack checks of interpreter, the module must be validated
+    val unchecked: Boolean = builder.unchecked
+
+    // gas limit of the instance, unlimited if not set
+    private val gasLimit: Long = if (builder.gasLimit < 0) Long.MAX_VALUE else builder.gasLimit
+
+    override var gasUsed: Long = 0
+        private set
+
+    override val gasRemaining: Long
+        get() = gasLimit - gasUsed
+
+    // execution limits, checked on function entry and loop back-edges only if limited
+    private val stepLimit: Long = if (builder.stepLimit < 0) Long.MAX_VALUE else builder.stepLimit
+    private val timeout: Long = builder.timeout
+    val limited: Boolean = builder.stepLimit >= 0 || builder.timeout >= 0 || builder.interruptible
+
+    // function entries and loop iterations of current execution
+    var steps: Long = 0
+        private set
+    private var deadline = 0L
+
+    @Volatile
+    private var interrupted = false
+
+    // nesting depth of execute, host functions may execute the instance again
+    private var executing = 0
     var stackAllocator: StackAllocator = builder.stackAllocator!!
 
+    // null if tiered compilation is disabled
+    val jit: TieredCompiler? = if (builder.jitThreshold < 0) null else TieredCompiler(this, builder.jitThreshold)
+
+    // ahead-of-time compiled code of the module
+    private val aot: CompiledModule? = builder.compiledModule
+
+    // depth of compiled frames on java stack
+    private var depth = 0
+    private val maxDepth = stackAllocator.maxFrames
+
     var insPool: InstructionPool
 
 
@@ -54,6 +103,9 @@ class ModuleInstanceImpl(builder: Builder) : ModuleInstance {
         get() = setOf(*hookArray)
         set(value) {
             this.hookArray = value.toTypedArray()
+            link()
+            // select the interpreter variant again
+            stackAllocator.module = this
         }
 
     override var globals: LongArray = Constants.EMPTY_LONGS
@@ -73,20 +125,180 @@ class ModuleInstanceImpl(builder: Builder) : ModuleInstance {
     }
 
     override fun execute(functionIndex: Int, vararg parameters: Long): LongArray {
-        stackAllocator.pushFrame(functionIndex, Objects.requireNonNull(parameters))
         val ins = functions[functionIndex]
-        val r = stackAllocator.execute()
+        val r = invoke(functionIndex, ins, parameters)
         return if (ins.arity > 0) longArrayOf(r) else Constants.EMPTY_LONGS
     }
 
     override fun execute(funcName: String, vararg parameters: Long): LongArray {
         val idx = exports[funcName]!!
         val ins = functions[exports[funcName]!!]
-        stackAllocator.pushFrame(idx, Objects.requireNonNull(parameters))
-        val r = stackAllocator.execute()
+        val r = invoke(idx, ins, parameters)
         return if (ins.arity > 0) longArrayOf(r) else Constants.EMPTY_LONGS
     }
 
+    private fun invoke(functionIndex: Int, ins: FunctionInstance, parameters: LongArray): Long {
+        if (stackAllocator.pending != null)
+            throw RuntimeException("module instance is suspended")
+        // an interrupt landed after the previous execution completed is not for this one
+        if (executing == 0) {
+            steps = 0
+            deadline = System.nanoTime() + timeout
+            interrupted = false
+        }
+        executing++
+        try {
+            val compiled = compiledOf(ins)
+            if (compiled != null) {
+                return invokeCompiled(compiled, Objects.requireNonNull(parameters))
+            }
+            stackAllocator.pushFrame(functionIndex, Objects.requireNonNull(parameters))
+            return stackAllocator.execute()
+        } finally {
+            executing--
+        }
+    }
+
+    // compiled code keeps frames on java stack, so it is not suspendable
+    override fun executeSuspendable(funcName: String, vararg parameters: Long): Continuation {
+        if (jit != null || aot != null)
+            throw RuntimeException("suspendable execution of compiled code is not supported")
+        if (executing != 0 || stackAllocator.pending != null)
+            throw RuntimeException("module instance is busy")
+        val idx = exports[funcName] ?: throw RuntimeException("function $funcName not exported")
+        val continuation = Continuation(this, functions[idx].arity)
+        steps = 0
+        deadline = System.nanoTime() + timeout
+        interrupted = false
+        return proceed(continuation) {
+            stackAllocator.pushFrame(idx, parameters)
+            stackAllocator.execute()
+        }
+    }
+
+    // steps are accumulated across suspensions, the deadline restarts since waiting for host is not execution time
+    internal fun resume(continuation: Continuation, result: Long): Continuation {
+        deadline = System.nanoTime() + timeout
+        return proceed(continuation) { stackAllocator.resume(result) }
+    }
+
+    private inline fun proceed(continuation: Continuation, execution: () -> Long): Continuation {
+        executing++
+        stackAllocator.suspendable = true
+        try {
+            val r = execution()
+            return continuation.update(stackAllocator.pending, r)
+        } finally {
+            stackAllocator.suspendable = false
+            executing--
+        }
+    }
+
+    override fun interrupt() {
+        if (!limited)
+            throw RuntimeException("module instance is not interruptible")
+        interrupted = true
+    }
+
+    // called on function entry and loop back-edges, the interrupt flag is cleared once observed or a new execution started
+    fun checkpoint() {
+        if (!limited)
+            return
+        if (++steps > stepLimit)
+            throw RuntimeException("step limit exceeded")
+        if (interrupted) {
+            interrupted = false
+            throw RuntimeException("execution interrupted")
+        }
+        if (timeout >= 0 && (steps and 1023L) == 0L && System.nanoTime() - deadline > 0)
+            throw RuntimeException("execution timeout")
+    }
+
+    // compiled code of the function, null if the function should be interpreted
+    fun compiledOf(function: FunctionInstance): CompiledFunction? {
+        if (function !is WASMFunction)
+            return null
+        return jit?.compiledOf(function) ?: function.compiled
+    }
+
+    fun invokeCompiled(function: CompiledFunction, args: LongArray): Long {
+        val saved = depth
+        try {
+            return function.execute(this, args)
+        } catch (e: StackOverflowError) {
+            throw RuntimeException("frame overflow")
+        } finally {
+            // compiled frames are not exited if exception thrown
+            depth = saved
+        }
+    }
+
+    // charge gas of a basic block, gas used is set to the limit if out of gas
+    fun chargeGas(cost: Long) {
+        if (cost > gasLimit - gasUsed) {
+            gasUsed = gasLimit
+            throw RuntimeException("out of gas")
+        }
+        gasUsed += cost
+    }
+
+    // segments of data section, active segments are dropped after instantiation
+    private var dataSegments: Array<ByteArray> = emptyArray()
+
+    // gas cost per byte of bulk memory instructions
+    private var byteCost: Long = 0
+
+    private fun chargeBytes(n: Int) {
+        if (byteCost == 0L)
+            return
+        val bytes = Integer.toUnsignedLong(n)
+        chargeGas(if (bytes > Long.MAX_VALUE / byteCost) Long.MAX_VALUE else bytes * byteCost)
+    }
+
+    fun memoryInit(segment: Int, dst: Int, src: Int, n: Int) {
+        val data = dataSegments[segment]
+        chargeBytes(n)
+        memory.put(dst, data, src, n)
+    }
+
+    fun dataDrop(segment: Int) {
+        dataSegments[segment] = Constants.EMPTY_BYTE_ARRAY
+    }
+
+    fun memoryCopy(dst: Int, src: Int, n: Int) {
+        chargeBytes(n)
+        memory.copy(dst, src, n)
+    }
+
+    fun memoryFill(dst: Int, value: Byte, n: Int) {
+        chargeBytes(n)
+        memory.fill(dst, value, n)
+    }
+
+    // called by compiled code at function entry and exit
+    fun enterFrame() {
+        if (depth >= maxDepth)
+            throw RuntimeException("frame overflow")
+        depth++
+        checkpoint()
+    }
+
+    fun exitFrame() {
+        depth--
+    }
+
+    // bind ahead-of-time compiled code, which is skipped if hooks are present but not emitted,
+    // code compiled by jit is discarded since hook calls are emitted only if there are hooks at compile time
+    // register code is skipped if hooks are present since instructions are not executed one by one
+    private fun link() {
+        for (i in functions.indices) {
+            val f = functions[i] as? WASMFunction ?: continue
+            f.compiled = if (aot != null && (aot.hooks || hookArray.isEmpty())) aot.get(i) else null
+            f.compileFailed = false
+            f.register = if (hookArray.isEmpty()) f.registerCode else 0
+        }
+    }
+
     private fun executeExpression(instructions: Long, type: ValueType): Long {
         stackAllocator.pushExpression(instructions, type)
         return stackAllocator.execute()
@@ -98,6 +310,11 @@ class ModuleInstanceImpl(builder: Builder) : ModuleInstance {
         return table?.functions?.get(idx)!!
     }
 
+    // canonical type id of the function in table, the index is checked by getFuncInTable
+    fun getTypeIdInTable(idx: Int): Int {
+        return table!!.typeIds[idx]
+    }
+
     private val tableSize: Int
         get() = table?.functions?.size ?: 0
 
@@ -109,9 +326,17 @@ class ModuleInstanceImpl(builder: Builder) : ModuleInstance {
         stackAllocator.module = this
 
         val module = builder.module!!
+        if (aot != null && aot.module !== module)
+            throw RuntimeException("create module instance failed: compiled module mismatch")
         insPool = module.insPool!!
+        if (unchecked && module.maxStackSizes == null)
+            throw RuntimeException("create module instance failed: module is not validated")
+        if (builder.gasLimit >= 0 && !module.metered)
+            throw RuntimeException("create module instance failed: module is not metered")
+        byteCost = insPool.gasSchedule?.byteCost ?: 0
 
         types = module.typeSection?.functionTypes ?: emptyList()
+        typeIds = module.typeIds
 
         val functionsMap: MutableMap<String, HostFunction> = mutableMapOf()
         for (f in builder.hostFunctions) {
@@ -124,6 +349,8 @@ class ModuleInstanceImpl(builder: Builder) : ModuleInstance {
         }
 
 
+        val ids: MutableList<Int> = ArrayList()
+
         // imports
         if (module.importSection != null) {
             for (imp in module.importSection!!.imports) {
@@ -135,6 +362,7 @@ class ModuleInstanceImpl(builder: Builder) : ModuleInstance {
 //                    throw new RuntimeException("invalid function type: " + func.getName());
 //                }
                 func.instance = this
+                ids.add(typeIds[imp.typeIndex])
                 functions.add(func)
             }
         }
@@ -170,11 +398,18 @@ class ModuleInstanceImpl(builder: Builder) : ModuleInstance {
                 val typeIndex = module.functionSection!!.typeIndices[i]
                 val code = module.codeSection!!.codes[i]
                 val type = module.typeSection!!.functionTypes[typeIndex]
+                ids.add(typeIds[typeIndex])
                 functions.add(
-                    WASMFunction(type, code.code.expression, code.code.locals)
+                    WASMFunction(
+                        type, code.code.expression, code.code.locals,
+                        module.threadedCodes?.get(i) ?: 0, module.registerCodes?.get(i) ?: 0,
+                        module.maxStackSizes?.get(i) ?: 0, module.maxLabelSizes?.get(i) ?: 0
+                    )
                 )
             }
         }
+        functionTypeIds = ids.toIntArray()
+        link()
 
         // init elements
         if (module.elementSection != null) {
@@ -183,7 +418,8 @@ class ModuleInstanceImpl(builder: Builder) : ModuleInstance {
                 if (offset < 0) throw RuntimeException("invalid offset, overflow Integer.MAX_VALUE")
                 table!!.putElements(
                     offset,
-                    Arrays.stream(x.functionIndex).mapToObj { i: Int -> functions[i] }.collect(Collectors.toList())
+                    Arrays.stream(x.functionIndex).mapToObj { i: Int -> functions[i] }.collect(Collectors.toList()),
+                    IntArray(x.functionIndex.size) { functionTypeIds[x.functionIndex[it]] }
                 )
             })
         }
@@ -194,19 +430,25 @@ class ModuleInstanceImpl(builder: Builder) : ModuleInstance {
             )
         }
 
-        // put data into memory
+        // put data into memory, passive segments are kept for memory.init
         if (module.dataSection != null) {
-            module.dataSection!!.dataSegments.forEach(Consumer { (_, expression, init) ->
-                val offset = executeExpression(expression, ValueType.I32)
-                memory.put(offset.toInt(), init)
-            })
+            val segments = module.dataSection!!.dataSegments
+            dataSegments = Array(segments.size) { segments[it].init }
+            segments.forEachIndexed { i, (_, expression, init, passive) ->
+                if (passive)
+                    return@forEachIndexed
+                if (!builder.restoredMemory) {
+                    val offset = executeExpression(expression, ValueType.I32)
+                    memory.put(offset.toInt(), init)
+                }
+                dataSegments[i] = Constants.EMPTY_BYTE_ARRAY
+            }
         }
 
         // load and execute start function
         if (module.startSection != null) {
             startFunction = functions[module.startSection!!.functionIndex]
-            stackAllocator.pushFrame(module.startSection!!.functionIndex, Constants.EMPTY_LONGS)
-            stackAllocator.execute()
+            invoke(module.startSection!!.functionIndex, startFunction!!, Constants.EMPTY_LONGS)
         }
 
         // exports
@@ -223,9 +465,23 @@ class ModuleInstanceImpl(builder: Builder) : ModuleInstance {
         )
     }
 
+    // called by the hooked interpreter with the opcode byte
+    fun touchIns(code: Int) {
+        if (code == Opcodes.GAS)
+            return
+        touchIns(OpCode.fromCode(code))
+    }
+
     fun touchIns(ins: OpCode) {
         for (i in 0 until hookArray.size) {
-            hookArray[i].onInstruction(ins, this)
+            // superinstruction is observed as it's parts
+            if (ins.parts.isEmpty()) {
+                hookArray[i].onInstruction(ins, this)
+                continue
+            }
+            for (p in ins.parts) {
+                hookArray[i].onInstruction(p, this)
+            }
         }
     }
 
@@ -0,0 +1,242 @@
+package org.tdf.lotusvm.runtime;
+
+import lombok.Getter;
+import org.tdf.lotusvm.types.LimitType;
+
+import static org.tdf.lotusvm.types.UnsafeUtil.UNSAFE;
+
+// memory on a region of memory pool, released to pool on close
+// grow inside the region capacity is free, otherwise moved to a region of larger class
+// blocks written are marked dirty on the region, so only them are zeroed on release
+public class PooledMemory implements Memory {
+    private static final int ARRAY_OFFSET = UNSAFE.arrayBaseOffset(byte[].class);
+    private static final int BLOCK_SHIFT = MemoryPool.Region.BLOCK_SHIFT;
+
+    private final MemoryPool pool;
+    private MemoryPool.Region region;
+    private LimitType limit = new LimitType();
+    private long pointer;
+    private long[] dirty;
+    private int rawSize;
+
+    @Getter
+    private int pages;
+
+    PooledMemory(MemoryPool pool) {
+        this.pool = pool;
+    }
+
+    // pages of the region, grow is free up to the capacity
+    public int getCapacity() {
+        return region == null ? 0 : region.capacity;
+    }
+
+    @Override
+    public void setLimit(LimitType limit) {
+        int pages = limit.getMinimum();
+        if ((long) pages * PAGE_SIZE > Integer.MAX_VALUE)
+            throw new RuntimeException("memory overflow");
+        close();
+        use(pool.allocate(pages));
+        this.pages = pages;
+        this.rawSize = pages * PAGE_SIZE;
+        this.limit = limit;
+    }
+
+    private void use(MemoryPool.Region region) {
+        this.region = region;
+        this.pointer = region.pointer;
+        this.dirty = region.dirty;
+    }
+
+    private void mark(long index) {
+        int b = (int) (index >>> BLOCK_SHIFT);
+        dirty[b >>> 6] |= 1L << b;
+    }
+
+    // mark bytes [index, index + length)
+    private void mark(long index, long length) {
+        if (length == 0)
+            return;
+        for (long b = index >>> BLOCK_SHIFT; b <= (index + length - 1) >>> BLOCK_SHIFT; b++) {
+            mark(b << BLOCK_SHIFT);
+        }
+    }
+
+    @Override
+    public void put(int offset, byte[] data) {
+        put(offset, data, 0, data.length);
+    }
+
+    @Override
+    public void put(int dst, byte[] data, int src, int n) {
+        if (Integer.toUnsignedLong(src) + Integer.toUnsignedLong(n) > data.length)
+            throw new RuntimeException("memory access overflow");
+        long length = Integer.toUnsignedLong(n);
+        long i = index(dst, 0, length);
+        UNSAFE.copyMemory(data, ARRAY_OFFSET + src, null, pointer + i, n);
+        mark(i, length);
+    }
+
+    @Override
+    public byte[] load(int offset, int length) {
+        long from = pointer + index(offset, 0, length);
+        byte[] r = new byte[length];
+        UNSAFE.copyMemory(null, from, r, ARRAY_OFFSET, length);
+        return r;
+    }
+
+    @Override
+    public void copy(int dst, int src, int n) {
+        long length = Integer.toUnsignedLong(n);
+        long from = pointer + index(src, 0, length);
+        long i = index(dst, 0, length);
+        UNSAFE.copyMemory(from, pointer + i, length);
+        mark(i, length);
+    }
+
+    @Override
+    public void fill(int dst, byte value, int n) {
+        long length = Integer.toUnsignedLong(n);
+        long i = index(dst, 0, length);
+        UNSAFE.setMemory(pointer + i, length, value);
+        mark(i, length);
+    }
+
+    @Override
+    public int load32(int offset) {
+        return load32(offset, 0);
+    }
+
+    @Override
+    public int load32(int base, int offset) {
+        return UNSAFE.getInt(pointer + index(base, offset, 4));
+    }
+
+    @Override
+    public long load64(int offset) {
+        return load64(offset, 0);
+    }
+
+    @Override
+    public long load64(int base, int offset) {
+        return UNSAFE.getLong(pointer + index(base, offset, 8));
+    }
+
+    @Override
+    public byte load8(int offset) {
+        return load8(offset, 0);
+    }
+
+    @Override
+    public byte load8(int base, int offset) {
+        return UNSAFE.getByte(pointer + index(base, offset, 1));
+    }
+
+    @Override
+    public short load16(int offset) {
+        return load16(offset, 0);
+    }
+
+    @Override
+    public short load16(int base, int offset) {
+        return UNSAFE.getShort(pointer + index(base, offset, 2));
+    }
+
+    @Override
+    public void storeI32(int offset, int val) {
+        storeI32(offset, 0, val);
+    }
+
+    @Override
+    public void storeI32(int base, int offset, int val) {
+        long i = index(base, offset, 4);
+        UNSAFE.putInt(pointer + i, val);
+        mark(i);
+        mark(i + 3);
+    }
+
+    @Override
+    public void storeI64(int offset, long n) {
+        storeI64(offset, 0, n);
+    }
+
+    @Override
+    public void storeI64(int base, int offset, long n) {
+        long i = index(base, offset, 8);
+        UNSAFE.putLong(pointer + i, n);
+        mark(i);
+        mark(i + 7);
+    }
+
+    @Override
+    public void storeI16(int offset, short num) {
+        storeI16(offset, 0, num);
+    }
+
+    @Override
+    public void storeI16(int base, int offset, short num) {
+        long i = index(base, offset, 2);
+        UNSAFE.putShort(pointer + i, num);
+        mark(i);
+        mark(i + 1);
+    }
+
+    @Override
+    public void storeI8(int offset, byte n) {
+        storeI8(offset, 0, n);
+    }
+
+    @Override
+    public void storeI8(int base, int offset, byte n) {
+        long i = index(base, offset, 1);
+        UNSAFE.putByte(pointer + i, n);
+        mark(i);
+    }
+
+    // effective address checked against memory size once, as UnsafeMemory.address
+    private long index(int base, int offset, long size) {
+        long index = Integer.toUnsignedLong(base) + Integer.toUnsignedLong(offset);
+        if (index + size > rawSize)
+            throw new RuntimeException("memory access overflow");
+        return index;
+    }
+
+    @Override
+    public int grow(int n) {
+        // n is unsigned, e.g. -1 is 0xffffffff pages
+        long newPages = pages + Integer.toUnsignedLong(n);
+        if (newPages > MAX_PAGES || limit.getBounded() && newPages > limit.getMaximum()) {
+            return -1;
+        }
+        long newRawSize = newPages * PAGE_SIZE;
+        if (newRawSize > Integer.MAX_VALUE)
+            throw new RuntimeException("memory overflow");
+        // the region is zero beyond memory size since memory never shrinks
+        if (newPages > getCapacity()) {
+            MemoryPool.Region old = region;
+            use(pool.allocate((int) newPages));
+            if (old != null) {
+                UNSAFE.copyMemory(old.pointer, pointer, rawSize);
+                mark(0, rawSize);
+                pool.release(old);
+            }
+        }
+        int prev = this.pages;
+        this.pages = (int) newPages;
+        this.rawSize = (int) newRawSize;
+        return prev;
+    }
+
+    @Override
+    public void close() {
+        if (region == null)
+            return;
+        MemoryPool.Region r = region;
+        region = null;
+        pointer = 0;
+        rawSize = 0;
+        pages = 0;
+        pool.release(r);
+    }
+}
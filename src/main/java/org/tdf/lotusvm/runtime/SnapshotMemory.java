@@ -0,0 +1,373 @@
+package org.tdf.lotusvm.runtime;
+
+import lombok.Getter;
+import org.tdf.lotusvm.types.LimitType;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// memory of 4 KiB blocks with nested copy-on-write snapshots, e.g. for rollback of reverted transactions
+// snapshot() is O(1), a block is copied into the journal of the innermost snapshot when it is written for the first time,
+// rollback(snapshot) puts back the blocks journaled since the snapshot, commit() merges the journal into the outer one
+// the block is owned by the innermost snapshot if it was journaled, so writes of an owned block are not checked again
+public class SnapshotMemory implements Memory {
+    private static final VarHandle SHORT = MethodHandles.byteArrayViewVarHandle(short[].class, ByteOrder.LITTLE_ENDIAN);
+    private static final VarHandle INT = MethodHandles.byteArrayViewVarHandle(int[].class, ByteOrder.LITTLE_ENDIAN);
+    private static final VarHandle LONG = MethodHandles.byteArrayViewVarHandle(long[].class, ByteOrder.LITTLE_ENDIAN);
+
+    public static final int BLOCK_SHIFT = 12;
+    public static final int BLOCK_SIZE = 1 << BLOCK_SHIFT;
+    private static final int BLOCK_MASK = BLOCK_SIZE - 1;
+
+    private LimitType limit = new LimitType();
+    private byte[][] blocks = new byte[0][];
+    // id of the snapshot owning the block, the block is journaled before written if it's not owned by current
+    private int[] owners = new int[0];
+    private int rawSize;
+    private final List<Snapshot> snapshots = new ArrayList<>();
+    // id of the innermost snapshot, 0 if there is no snapshot
+    private int current;
+    private int nextId = 1;
+
+    @Getter
+    private int pages;
+
+    private static final class Snapshot {
+        final int id;
+        final int pages;
+        // original blocks written since the snapshot, indexed by block
+        final Map<Integer, byte[]> journal = new HashMap<>();
+
+        Snapshot(int id, int pages) {
+            this.id = id;
+            this.pages = pages;
+        }
+    }
+
+    @Override
+    public void setLimit(LimitType limit) {
+        if (!snapshots.isEmpty())
+            throw new RuntimeException("memory has snapshots");
+        this.limit = limit;
+        this.blocks = new byte[0][];
+        this.owners = new int[0];
+        resize(limit.getMinimum());
+    }
+
+    // number of nested snapshots
+    public int getSnapshots() {
+        return snapshots.size();
+    }
+
+    // take a snapshot nested in the current one, return the snapshot which is the number of snapshots
+    public int snapshot() {
+        Snapshot s = new Snapshot(nextId++, pages);
+        snapshots.add(s);
+        current = s.id;
+        return snapshots.size();
+    }
+
+    // restore the memory as when the snapshot taken, the snapshot and snapshots nested in are discarded
+    public void rollback(int snapshot) {
+        if (snapshot <= 0 || snapshot > snapshots.size())
+            throw new RuntimeException("unknown snapshot " + snapshot);
+        int pages = snapshots.get(snapshot - 1).pages;
+        Map<Integer, byte[]> restored = new HashMap<>();
+        // the outer journal has the older block
+        for (int i = snapshots.size() - 1; i >= snapshot - 1; i--) {
+            restored.putAll(snapshots.remove(i).journal);
+        }
+        // the snapshot rolled back into, the journaled blocks are owned by it again
+        Snapshot target = snapshots.isEmpty() ? null : snapshots.get(snapshots.size() - 1);
+        current = target == null ? 0 : target.id;
+        resize(pages);
+        for (Map.Entry<Integer, byte[]> e : restored.entrySet()) {
+            int b = e.getKey();
+            if (b >= blocks.length)
+                continue;
+            blocks[b] = e.getValue();
+            owners[b] = target == null || target.journal.containsKey(b) ? current : -1;
+        }
+    }
+
+    // discard the innermost snapshot, the changes since it are kept
+    public void commit() {
+        if (snapshots.isEmpty())
+            throw new RuntimeException("no snapshot to commit");
+        Snapshot s = snapshots.remove(snapshots.size() - 1);
+        Snapshot outer = snapshots.isEmpty() ? null : snapshots.get(snapshots.size() - 1);
+        current = outer == null ? 0 : outer.id;
+        int outerBlocks = outer == null ? 0 : outer.pages * (PAGE_SIZE / BLOCK_SIZE);
+        for (Map.Entry<Integer, byte[]> e : s.journal.entrySet()) {
+            int b = e.getKey();
+            // blocks grown after the outer snapshot are not journaled
+            if (outer != null && b < outerBlocks)
+                outer.journal.putIfAbsent(b, e.getValue());
+            if (b < owners.length)
+                owners[b] = current;
+        }
+    }
+
+    private void resize(int pages) {
+        long rawSize = (long) pages * PAGE_SIZE;
+        if (rawSize > Integer.MAX_VALUE)
+            throw new RuntimeException("memory overflow");
+        int n = (int) (rawSize >>> BLOCK_SHIFT);
+        int old = blocks.length;
+        blocks = Arrays.copyOf(blocks, n);
+        owners = Arrays.copyOf(owners, n);
+        for (int i = old; i < n; i++) {
+            blocks[i] = new byte[BLOCK_SIZE];
+            // blocks grown after the snapshot are not journaled
+            owners[i] = current;
+        }
+        this.pages = pages;
+        this.rawSize = (int) rawSize;
+    }
+
+    // block to be written, journaled if it's not owned by the innermost snapshot
+    private byte[] writable(int b) {
+        byte[] block = blocks[b];
+        if (owners[b] == current)
+            return block;
+        if (current != 0) {
+            Snapshot s = snapshots.get(snapshots.size() - 1);
+            if (b < s.pages * (PAGE_SIZE / BLOCK_SIZE))
+                s.journal.putIfAbsent(b, block.clone());
+        }
+        owners[b] = current;
+        return block;
+    }
+
+    // effective address checked against memory size once
+    private int index(int base, int offset, long size) {
+        long index = Integer.toUnsignedLong(base) + Integer.toUnsignedLong(offset);
+        if (index + size > rawSize)
+            throw new RuntimeException("memory access overflow");
+        return (int) index;
+    }
+
+    @Override
+    public void put(int offset, byte[] data) {
+        put(offset, data, 0, data.length);
+    }
+
+    @Override
+    public void put(int dst, byte[] data, int src, int n) {
+        if (Integer.toUnsignedLong(src) + Integer.toUnsignedLong(n) > data.length)
+            throw new RuntimeException("memory access overflow");
+        int i = index(dst, 0, Integer.toUnsignedLong(n));
+        while (n > 0) {
+            int len = Math.min(n, BLOCK_SIZE - (i & BLOCK_MASK));
+            System.arraycopy(data, src, writable(i >>> BLOCK_SHIFT), i & BLOCK_MASK, len);
+            i += len;
+            src += len;
+            n -= len;
+        }
+    }
+
+    @Override
+    public byte[] load(int offset, int length) {
+        int i = index(offset, 0, Integer.toUnsignedLong(length));
+        byte[] r = new byte[length];
+        for (int k = 0; k < length; ) {
+            int len = Math.min(length - k, BLOCK_SIZE - (i & BLOCK_MASK));
+            System.arraycopy(blocks[i >>> BLOCK_SHIFT], i & BLOCK_MASK, r, k, len);
+            i += len;
+            k += len;
+        }
+        return r;
+    }
+
+    // chunks never cross blocks, copied forward if dst is lower than src, otherwise backward
+    @Override
+    public void copy(int dst, int src, int n) {
+        long length = Integer.toUnsignedLong(n);
+        int s = index(src, 0, length);
+        int d = index(dst, 0, length);
+        if (d <= s) {
+            while (n > 0) {
+                int len = Math.min(n, Math.min(BLOCK_SIZE - (s & BLOCK_MASK), BLOCK_SIZE - (d & BLOCK_MASK)));
+                byte[] to = writable(d >>> BLOCK_SHIFT);
+                System.arraycopy(blocks[s >>> BLOCK_SHIFT], s & BLOCK_MASK, to, d & BLOCK_MASK, len);
+                s += len;
+                d += len;
+                n -= len;
+            }
+            return;
+        }
+        s += n;
+        d += n;
+        while (n > 0) {
+            int len = Math.min(n, Math.min(((s - 1) & BLOCK_MASK) + 1, ((d - 1) & BLOCK_MASK) + 1));
+            s -= len;
+            d -= len;
+            n -= len;
+            byte[] to = writable(d >>> BLOCK_SHIFT);
+            System.arraycopy(blocks[s >>> BLOCK_SHIFT], s & BLOCK_MASK, to, d & BLOCK_MASK, len);
+        }
+    }
+
+    @Override
+    public void fill(int dst, byte value, int n) {
+        int i = index(dst, 0, Integer.toUnsignedLong(n));
+        while (n > 0) {
+            int len = Math.min(n, BLOCK_SIZE - (i & BLOCK_MASK));
+            int from = i & BLOCK_MASK;
+            Arrays.fill(writable(i >>> BLOCK_SHIFT), from, from + len, value);
+            i += len;
+            n -= len;
+        }
+    }
+
+    @Override
+    public int load32(int offset) {
+        return load32(offset, 0);
+    }
+
+    @Override
+    public int load32(int base, int offset) {
+        int i = index(base, offset, 4);
+        if ((i & BLOCK_MASK) > BLOCK_SIZE - 4)
+            return (int) loadAcross(i, 4);
+        return (int) INT.get(blocks[i >>> BLOCK_SHIFT], i & BLOCK_MASK);
+    }
+
+    @Override
+    public long load64(int offset) {
+        return load64(offset, 0);
+    }
+
+    @Override
+    public long load64(int base, int offset) {
+        int i = index(base, offset, 8);
+        if ((i & BLOCK_MASK) > BLOCK_SIZE - 8)
+            return loadAcross(i, 8);
+        return (long) LONG.get(blocks[i >>> BLOCK_SHIFT], i & BLOCK_MASK);
+    }
+
+    @Override
+    public byte load8(int offset) {
+        return load8(offset, 0);
+    }
+
+    @Override
+    public byte load8(int base, int offset) {
+        int i = index(base, offset, 1);
+        return blocks[i >>> BLOCK_SHIFT][i & BLOCK_MASK];
+    }
+
+    @Override
+    public short load16(int offset) {
+        return load16(offset, 0);
+    }
+
+    @Override
+    public short load16(int base, int offset) {
+        int i = index(base, offset, 2);
+        if ((i & BLOCK_MASK) > BLOCK_SIZE - 2)
+            return (short) loadAcross(i, 2);
+        return (short) SHORT.get(blocks[i >>> BLOCK_SHIFT], i & BLOCK_MASK);
+    }
+
+    @Override
+    public void storeI32(int offset, int val) {
+        storeI32(offset, 0, val);
+    }
+
+    @Override
+    public void storeI32(int base, int offset, int val) {
+        int i = index(base, offset, 4);
+        if ((i & BLOCK_MASK) > BLOCK_SIZE - 4) {
+            storeAcross(i, 4, val);
+            return;
+        }
+        INT.set(writable(i >>> BLOCK_SHIFT), i & BLOCK_MASK, val);
+    }
+
+    @Override
+    public void storeI64(int offset, long n) {
+        storeI64(offset, 0, n);
+    }
+
+    @Override
+    public void storeI64(int base, int offset, long n) {
+        int i = index(base, offset, 8);
+        if ((i & BLOCK_MASK) > BLOCK_SIZE - 8) {
+            storeAcross(i, 8, n);
+            return;
+        }
+        LONG.set(writable(i >>> BLOCK_SHIFT), i & BLOCK_MASK, n);
+    }
+
+    @Override
+    public void storeI16(int offset, short num) {
+        storeI16(offset, 0, num);
+    }
+
+    @Override
+    public void storeI16(int base, int offset, short num) {
+        int i = index(base, offset, 2);
+        if ((i & BLOCK_MASK) > BLOCK_SIZE - 2) {
+            storeAcross(i, 2, num);
+            return;
+        }
+        SHORT.set(writable(i >>> BLOCK_SHIFT), i & BLOCK_MASK, num);
+    }
+
+    @Override
+    public void storeI8(int offset, byte n) {
+        storeI8(offset, 0, n);
+    }
+
+    @Override
+    public void storeI8(int base, int offset, byte n) {
+        int i = index(base, offset, 1);
+        writable(i >>> BLOCK_SHIFT)[i & BLOCK_MASK] = n;
+    }
+
+    // little endian value of size bytes crossing blocks, the index is checked
+    private long loadAcross(int i, int size) {
+        long r = 0;
+        for (int k = size - 1; k >= 0; k--) {
+            int j = i + k;
+            r = r << 8 | (blocks[j >>> BLOCK_SHIFT][j & BLOCK_MASK] & 0xffL);
+        }
+        return r;
+    }
+
+    private void storeAcross(int i, int size, long value) {
+        for (int k = 0; k < size; k++) {
+            int j = i + k;
+            writable(j >>> BLOCK_SHIFT)[j & BLOCK_MASK] = (byte) (value >>> (k * 8));
+        }
+    }
+
+    @Override
+    public int grow(int n) {
+        // n is unsigned, e.g. -1 is 0xffffffff pages
+        long newPages = pages + Integer.toUnsignedLong(n);
+        if (newPages > MAX_PAGES || limit.getBounded() && newPages > limit.getMaximum()) {
+            return -1;
+        }
+        int prev = this.pages;
+        resize((int) newPages);
+        return prev;
+    }
+
+    @Override
+    public void close() {
+        snapshots.clear();
+        current = 0;
+        blocks = new byte[0][];
+        owners = new int[0];
+        rawSize = 0;
+        pages = 0;
+    }
+}
@@ -7,11 +7,23 @@ interface StackAllocator : AutoCloseable {
     val isEmpty: Boolean
     fun execute(): Long
 
+    // continue the execution suspended by pending host function with it's result, return 0 if suspended again
+    fun resume(result: Long): Long
+
+    // host function suspended current execution, null if not suspended
+    val pending: HostFunction?
+
+    // host functions could suspend the execution
+    var suspendable: Boolean
+
     // create a frame, return the frame Id, the function referred by index must be wasm function
     fun pushFrame(functionIndex: Int, params: LongArray?)
     fun pushExpression(instructions: Long, type: ValueType?)
     val labelSize: Int
 
+    // max frames of the call stack, including frames of compiled functions
+    val maxFrames: Int
+
     // get from stack by index, unchecked
     fun getUnchecked(index: Int): Long
     fun popN(frameIndex: Int, n: Int): Int
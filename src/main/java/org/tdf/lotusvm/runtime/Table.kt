@@ -6,11 +6,16 @@ class Table internal constructor(val limit: LimitType) {
     var functions: Array<FunctionInstance?>
         private set
 
-    fun putElements(offset: Int, functions: Collection<FunctionInstance?>) {
+    // canonical type ids of functions, see ModuleInstanceImpl.functionTypeIds
+    var typeIds: IntArray
+        private set
+
+    fun putElements(offset: Int, functions: Collection<FunctionInstance?>, typeIds: IntArray) {
         for ((i, f) in functions.withIndex()) {
             val index = offset + i
             spaceCheck(index)
             this.functions[index] = f
+            this.typeIds[index] = typeIds[i]
         }
     }
 
@@ -22,9 +27,11 @@ class Table internal constructor(val limit: LimitType) {
         val tmp = functions
         functions = arrayOfNulls(tmp.size * 2)
         System.arraycopy(tmp, 0, functions, 0, tmp.size)
+        typeIds = typeIds.copyOf(functions.size)
     }
 
     init {
         functions = arrayOfNulls(Math.max(limit.minimum, 8))
+        typeIds = IntArray(functions.size)
     }
 }
\ No newline at end of file
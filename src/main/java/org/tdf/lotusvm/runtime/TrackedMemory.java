@@ -0,0 +1,323 @@
+package org.tdf.lotusvm.runtime;
+
+import lombok.Getter;
+import org.tdf.lotusvm.types.LimitType;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.NoSuchElementException;
+import java.util.PrimitiveIterator;
+
+// memory tracking pages written through stores, put, copy, fill and grow of the delegate
+// dirty pages are iterated and cleared by persistence, digest() is the root of a sha256 tree over pages
+// which rehashes the pages written since last digest and their ancestors only
+// writes bypassing this memory, e.g. rollback of a SnapshotMemory delegate, should be reported by touch(offset, length)
+public class TrackedMemory implements Memory {
+    public static final int DEFAULT_PAGE_SHIFT = 12;
+    private static final byte[] EMPTY = new byte[32];
+
+    @Getter
+    private final Memory delegate;
+    private final int shift;
+    // pages written since clearDirty
+    private long[] dirty = new long[0];
+    // pages written since digest
+    private long[] stale = new long[0];
+    // number of tracked pages
+    private int count;
+
+    // sha256 tree of capacity leaves in heap layout, node i has children 2i and 2i + 1, leaf j is node capacity + j
+    private byte[][] tree = new byte[][]{EMPTY, EMPTY};
+    private int capacity = 1;
+    private final MessageDigest sha256;
+
+    public TrackedMemory(Memory delegate) {
+        this(delegate, DEFAULT_PAGE_SHIFT);
+    }
+
+    // pages of 1 << shift bytes, from 256 bytes to 64 KiB
+    public TrackedMemory(Memory delegate, int shift) {
+        if (shift < 8 || shift > 16)
+            throw new RuntimeException("invalid page shift " + shift);
+        this.delegate = delegate;
+        this.shift = shift;
+        try {
+            this.sha256 = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        }
+        resize();
+    }
+
+    public int getPageSize() {
+        return 1 << shift;
+    }
+
+    // number of tracked pages, not pages of 64 KiB
+    public int getTrackedPages() {
+        return count;
+    }
+
+    @Override
+    public int getPages() {
+        return delegate.getPages();
+    }
+
+    @Override
+    public void setLimit(LimitType limit) {
+        delegate.setLimit(limit);
+        this.count = 0;
+        this.dirty = new long[0];
+        this.stale = new long[0];
+        this.tree = new byte[][]{EMPTY, EMPTY};
+        this.capacity = 1;
+        resize();
+    }
+
+    // new pages are dirty
+    private void resize() {
+        int from = count;
+        int n = (int) ((long) delegate.getPages() * PAGE_SIZE >>> shift);
+        int words = (n + 63) >>> 6;
+        dirty = Arrays.copyOf(dirty, words);
+        stale = Arrays.copyOf(stale, words);
+        count = n;
+        for (int i = from; i < n; i++) {
+            dirty[i >>> 6] |= 1L << i;
+            stale[i >>> 6] |= 1L << i;
+        }
+        if (n <= capacity)
+            return;
+        int c = capacity;
+        while (c < n)
+            c <<= 1;
+        byte[][] t = new byte[2 * c][];
+        Arrays.fill(t, EMPTY);
+        System.arraycopy(tree, capacity, t, c, capacity);
+        tree = t;
+        capacity = c;
+        // leaves are moved, internal nodes are rebuilt
+        for (int i = c - 1; i > 0; i--) {
+            tree[i] = node(tree[2 * i], tree[2 * i + 1]);
+        }
+    }
+
+    private void mark(long index) {
+        int i = (int) (index >>> shift);
+        long bit = 1L << i;
+        dirty[i >>> 6] |= bit;
+        stale[i >>> 6] |= bit;
+    }
+
+    // mark bytes [offset, offset + length)
+    private void mark(int offset, int length) {
+        if (length == 0)
+            return;
+        long from = Integer.toUnsignedLong(offset);
+        long to = from + Integer.toUnsignedLong(length) - 1;
+        for (long i = from >>> shift; i <= to >>> shift; i++) {
+            mark(i << shift);
+        }
+    }
+
+    // report bytes written bypassing this memory, they are checked against the memory size
+    public void touch(int offset, int length) {
+        if (Integer.toUnsignedLong(offset) + Integer.toUnsignedLong(length) > (long) count << shift)
+            throw new RuntimeException("memory access overflow");
+        mark(offset, length);
+    }
+
+    public boolean isDirty(int page) {
+        return (dirty[page >>> 6] & (1L << page)) != 0;
+    }
+
+    // ascending indices of pages written since clearDirty, the page i is bytes [i * page size, (i + 1) * page size)
+    public PrimitiveIterator.OfInt dirtyPages() {
+        long[] bits = dirty.clone();
+        return new PrimitiveIterator.OfInt() {
+            private int word;
+
+            @Override
+            public boolean hasNext() {
+                while (word < bits.length && bits[word] == 0)
+                    word++;
+                return word < bits.length;
+            }
+
+            @Override
+            public int nextInt() {
+                if (!hasNext())
+                    throw new NoSuchElementException();
+                long w = bits[word];
+                bits[word] = w & (w - 1);
+                return word * 64 + Long.numberOfTrailingZeros(w);
+            }
+        };
+    }
+
+    public void clearDirty() {
+        Arrays.fill(dirty, 0);
+    }
+
+    // root of the sha256 tree, leaf is sha256 of the page, node is sha256 of children, leaves beyond memory are zeros
+    public byte[] digest() {
+        BitSet nodes = new BitSet();
+        int pageSize = 1 << shift;
+        for (int w = 0; w < stale.length; w++) {
+            for (long bits = stale[w]; bits != 0; bits &= bits - 1) {
+                int i = w * 64 + Long.numberOfTrailingZeros(bits);
+                sha256.update(delegate.load(i << shift, pageSize));
+                tree[capacity + i] = sha256.digest();
+                nodes.set((capacity + i) >>> 1);
+            }
+            stale[w] = 0;
+        }
+        // parent is lower than children, so children are rehashed before
+        for (int i = nodes.previousSetBit(nodes.length() - 1); i > 0; i = nodes.previousSetBit(i - 1)) {
+            tree[i] = node(tree[2 * i], tree[2 * i + 1]);
+            nodes.set(i >>> 1);
+        }
+        return tree[1].clone();
+    }
+
+    private byte[] node(byte[] left, byte[] right) {
+        sha256.update(left);
+        sha256.update(right);
+        return sha256.digest();
+    }
+
+    @Override
+    public void put(int offset, byte[] data) {
+        delegate.put(offset, data);
+        mark(offset, data.length);
+    }
+
+    @Override
+    public void put(int dst, byte[] data, int src, int n) {
+        delegate.put(dst, data, src, n);
+        mark(dst, n);
+    }
+
+    @Override
+    public byte[] load(int offset, int length) {
+        return delegate.load(offset, length);
+    }
+
+    @Override
+    public void copy(int dst, int src, int n) {
+        delegate.copy(dst, src, n);
+        mark(dst, n);
+    }
+
+    @Override
+    public void fill(int dst, byte value, int n) {
+        delegate.fill(dst, value, n);
+        mark(dst, n);
+    }
+
+    @Override
+    public int load32(int offset) {
+        return delegate.load32(offset);
+    }
+
+    @Override
+    public int load32(int base, int offset) {
+        return delegate.load32(base, offset);
+    }
+
+    @Override
+    public long load64(int offset) {
+        return delegate.load64(offset);
+    }
+
+    @Override
+    public long load64(int base, int offset) {
+        return delegate.load64(base, offset);
+    }
+
+    @Override
+    public byte load8(int offset) {
+        return delegate.load8(offset);
+    }
+
+    @Override
+    public byte load8(int base, int offset) {
+        return delegate.load8(base, offset);
+    }
+
+    @Override
+    public short load16(int offset) {
+        return delegate.load16(offset);
+    }
+
+    @Override
+    public short load16(int base, int offset) {
+        return delegate.load16(base, offset);
+    }
+
+    @Override
+    public void storeI32(int offset, int val) {
+        storeI32(offset, 0, val);
+    }
+
+    // the effective address is checked by delegate
+    @Override
+    public void storeI32(int base, int offset, int val) {
+        delegate.storeI32(base, offset, val);
+        long i = Integer.toUnsignedLong(base) + Integer.toUnsignedLong(offset);
+        mark(i);
+        mark(i + 3);
+    }
+
+    @Override
+    public void storeI64(int offset, long n) {
+        storeI64(offset, 0, n);
+    }
+
+    @Override
+    public void storeI64(int base, int offset, long n) {
+        delegate.storeI64(base, offset, n);
+        long i = Integer.toUnsignedLong(base) + Integer.toUnsignedLong(offset);
+        mark(i);
+        mark(i + 7);
+    }
+
+    @Override
+    public void storeI16(int offset, short num) {
+        storeI16(offset, 0, num);
+    }
+
+    @Override
+    public void storeI16(int base, int offset, short num) {
+        delegate.storeI16(base, offset, num);
+        long i = Integer.toUnsignedLong(base) + Integer.toUnsignedLong(offset);
+        mark(i);
+        mark(i + 1);
+    }
+
+    @Override
+    public void storeI8(int offset, byte n) {
+        storeI8(offset, 0, n);
+    }
+
+    @Override
+    public void storeI8(int base, int offset, byte n) {
+        delegate.storeI8(base, offset, n);
+        mark(Integer.toUnsignedLong(base) + Integer.toUnsignedLong(offset));
+    }
+
+    @Override
+    public int grow(int n) {
+        int prev = delegate.grow(n);
+        if (prev >= 0)
+            resize();
+        return prev;
+    }
+
+    @Override
+    public void close() {
+        delegate.close();
+    }
+}
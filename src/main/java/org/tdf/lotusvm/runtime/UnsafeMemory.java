@@ -8,125 +8,214 @@ import java.nio.ByteOrder;
 
 import static org.tdf.lotusvm.types.UnsafeUtil.UNSAFE;
 
+// memory grows inside the capacity allocated by zeroing the new pages only, without reallocation
+// the capacity is reserved up to the maximum of limit or reserved pages at set limit, e.g. for allocators growing a page at a time,
+// the pages never touched are not backed by physical memory, otherwise the capacity is doubled once exceeded
 public class UnsafeMemory implements Memory {
+    // largest memory addressed by int
+    private static final int MAX_CAPACITY = Integer.MAX_VALUE / PAGE_SIZE;
+
     private final int ARRAY_OFFSET = UNSAFE.arrayBaseOffset(byte[].class);
     private LimitType limit = new LimitType();
     private long pointer;
+    private final int reservedPages;
 
     private int rawSize;
+    // bytes allocated at pointer, not less than raw size
+    private long capacity;
 
     @Getter
     private int pages;
 
     public UnsafeMemory() {
+        this(0);
+    }
+
+    // reserve pages up to the maximum of limit at set limit
+    public UnsafeMemory(int reservedPages) {
         if (ByteOrder.nativeOrder() != ByteOrder.LITTLE_ENDIAN)
             throw new RuntimeException("create unsafe memory failed: native byte order is not little endian!");
+        if (reservedPages < 0)
+            throw new RuntimeException("negative reserved pages " + reservedPages);
+        this.reservedPages = reservedPages;
     }
 
     public void setRawSize(int rawSize) {
-        pointer = UNSAFE.allocateMemory(rawSize);
+        reserve(rawSize, rawSize);
+    }
+
+    // allocate capacity bytes and zero raw size bytes, the memory allocated before is freed
+    private void reserve(int rawSize, long capacity) {
+        close();
+        pointer = UNSAFE.allocateMemory(capacity);
         this.rawSize = rawSize;
+        this.capacity = capacity;
         UNSAFE.setMemory(pointer, rawSize, (byte) 0);
     }
 
+    // pages allocated, grow inside them is not reallocated
+    public int getCapacity() {
+        return (int) (capacity / PAGE_SIZE);
+    }
+
     @Override
     public void setLimit(LimitType limit) {
         this.pages = limit.getMinimum();
         int rawSize = pages * PAGE_SIZE;
         if (rawSize < 0)
             throw new RuntimeException("memory overflow");
-        setRawSize(rawSize);
+        int reserved = Math.min(reservedPages, MAX_CAPACITY);
+        if (limit.getBounded())
+            reserved = Math.min(reserved, limit.getMaximum());
+        reserve(rawSize, Math.max(rawSize, (long) reserved * PAGE_SIZE));
         this.limit = limit;
     }
 
     @Override
     public void put(int offset, byte[] data) {
-        if (offset + data.length > rawSize)
+        put(offset, data, 0, data.length);
+    }
+
+    @Override
+    public void put(int dst, byte[] data, int src, int n) {
+        if (Integer.toUnsignedLong(src) + Integer.toUnsignedLong(n) > data.length)
             throw new RuntimeException("memory access overflow");
-        UNSAFE.copyMemory(data, ARRAY_OFFSET, null, pointer + offset, data.length);
+        UNSAFE.copyMemory(data, ARRAY_OFFSET + src, null, address(dst, 0, Integer.toUnsignedLong(n)), n);
     }
 
     @Override
     public byte[] load(int offset, int length) {
-        if (offset + length > rawSize)
-            throw new RuntimeException("memory access overflow");
+        long from = address(offset, 0, length);
         byte[] r = new byte[length];
-        UNSAFE.copyMemory(null, pointer + offset, r, ARRAY_OFFSET, length);
+        UNSAFE.copyMemory(null, from, r, ARRAY_OFFSET, length);
         return r;
     }
 
+    // both regions are checked before copy, unsafe copy is safe for overlapped regions
+    @Override
+    public void copy(int dst, int src, int n) {
+        long length = Integer.toUnsignedLong(n);
+        long from = address(src, 0, length);
+        UNSAFE.copyMemory(from, address(dst, 0, length), length);
+    }
+
+    @Override
+    public void fill(int dst, byte value, int n) {
+        long length = Integer.toUnsignedLong(n);
+        UNSAFE.setMemory(address(dst, 0, length), length, value);
+    }
+
     @Override
     public int load32(int offset) {
-        if (offset + 4 > rawSize)
-            throw new RuntimeException("memory access overflow");
-        return UNSAFE.getInt(pointer + offset);
+        return load32(offset, 0);
+    }
+
+    @Override
+    public int load32(int base, int offset) {
+        return UNSAFE.getInt(address(base, offset, 4));
     }
 
     @Override
     public long load64(int offset) {
-        if (offset + 8 > rawSize)
-            throw new RuntimeException("memory access overflow");
-        return UNSAFE.getLong(pointer + offset);
+        return load64(offset, 0);
+    }
+
+    @Override
+    public long load64(int base, int offset) {
+        return UNSAFE.getLong(address(base, offset, 8));
     }
 
     @Override
     public byte load8(int offset) {
-        if (offset >= rawSize)
-            throw new RuntimeException("memory access overflow");
-        return UNSAFE.getByte(pointer + offset);
+        return load8(offset, 0);
+    }
+
+    @Override
+    public byte load8(int base, int offset) {
+        return UNSAFE.getByte(address(base, offset, 1));
     }
 
     @Override
     public short load16(int offset) {
-        if (offset + 2 > rawSize)
-            throw new RuntimeException("memory access overflow");
-        return UNSAFE.getShort(pointer + offset);
+        return load16(offset, 0);
+    }
+
+    @Override
+    public short load16(int base, int offset) {
+        return UNSAFE.getShort(address(base, offset, 2));
     }
 
     @Override
     public void storeI32(int offset, int val) {
-        if (offset + 4 > rawSize)
-            throw new RuntimeException("memory access overflow");
-        UNSAFE.putInt(pointer + offset, val);
+        storeI32(offset, 0, val);
+    }
+
+    @Override
+    public void storeI32(int base, int offset, int val) {
+        UNSAFE.putInt(address(base, offset, 4), val);
     }
 
     @Override
     public void storeI64(int offset, long n) {
-        if (offset + 8 > rawSize)
-            throw new RuntimeException("memory access overflow");
-        UNSAFE.putLong(pointer + offset, n);
+        storeI64(offset, 0, n);
+    }
+
+    @Override
+    public void storeI64(int base, int offset, long n) {
+        UNSAFE.putLong(address(base, offset, 8), n);
     }
 
     @Override
     public void storeI16(int offset, short num) {
-        if (offset + 2 > rawSize)
-            throw new RuntimeException("memory access overflow");
-        UNSAFE.putShort(pointer + offset, num);
+        storeI16(offset, 0, num);
+    }
+
+    @Override
+    public void storeI16(int base, int offset, short num) {
+        UNSAFE.putShort(address(base, offset, 2), num);
     }
 
     @Override
     public void storeI8(int offset, byte n) {
-        if (offset >= rawSize)
+        storeI8(offset, 0, n);
+    }
+
+    @Override
+    public void storeI8(int base, int offset, byte n) {
+        UNSAFE.putByte(address(base, offset, 1), n);
+    }
+
+    // native address of effective address, the only bounds check of an access
+    // unsigned base + unsigned offset never overflows long, so a single comparison covers both overflow and bounds
+    private long address(int base, int offset, long size) {
+        long address = Integer.toUnsignedLong(base) + Integer.toUnsignedLong(offset);
+        if (address + size > rawSize)
             throw new RuntimeException("memory access overflow");
-        UNSAFE.putByte(pointer + offset, n);
+        return pointer + address;
     }
 
     @Override
     public int grow(int n) {
-        if (limit.getBounded() && getPages() + n > limit.getMaximum()) {
+        // n is unsigned, e.g. -1 is 0xffffffff pages
+        long newPages = pages + Integer.toUnsignedLong(n);
+        if (newPages > MAX_PAGES || limit.getBounded() && newPages > limit.getMaximum()) {
             return -1;
         }
-        if (n + this.pages > MAX_PAGES)
-            return -1;
         int prevRawSize = rawSize;
-        int newRawSize = (pages + n) * PAGE_SIZE;
+        int newRawSize = (int) newPages * PAGE_SIZE;
         if (newRawSize < 0)
             throw new RuntimeException("memory overflow");
-        long newPointer = UNSAFE.reallocateMemory(pointer, newRawSize);
-        UNSAFE.setMemory(newPointer + prevRawSize, newRawSize - prevRawSize, (byte) 0);
+        // doubled, so growing a page at a time is reallocated log(n) times
+        if (newRawSize > capacity) {
+            long newCapacity = Math.max(newRawSize, Math.min(2 * capacity, (long) MAX_CAPACITY * PAGE_SIZE));
+            if (limit.getBounded())
+                newCapacity = Math.max(newRawSize, Math.min(newCapacity, (long) limit.getMaximum() * PAGE_SIZE));
+            this.pointer = UNSAFE.reallocateMemory(pointer, newCapacity);
+            this.capacity = newCapacity;
+        }
+        UNSAFE.setMemory(pointer + prevRawSize, newRawSize - prevRawSize, (byte) 0);
         int prev = this.pages;
-        this.pages += n;
-        this.pointer = newPointer;
+        this.pages = (int) newPages;
         this.rawSize = newRawSize;
         return prev;
     }
@@ -138,5 +227,7 @@ public class UnsafeMemory implements Memory {
             return;
         UNSAFE.freeMemory(pointer);
         pointer = 0;
+        rawSize = 0;
+        capacity = 0;
     }
 }
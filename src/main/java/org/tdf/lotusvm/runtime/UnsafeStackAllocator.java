@@ -13,7 +13,7 @@ public class UnsafeStackAllocator extends AbstractStackAllocator {
     private static final long LOOP_OFFSET = 7L;
     private static final long LABEL_PC_OFFSET = 2L;
 
-    private final LongBuffer stackData;
+    private final UnsafeLongBuffer stackData;
 
     // label data = stack pc (2byte) | label pc (2byte) | 0x00  | 0x00  | arity (1byte) | loop (1byte)
     private final long labelDataPtr;
@@ -27,11 +27,20 @@ public class UnsafeStackAllocator extends AbstractStackAllocator {
     // = label array id in instruction pool = (label size (4byte) | label offset (4byte))
     private final LongBuffer labels;
 
+    // pc of threaded code of frames
+    private final LongBuffer pcs;
+
     // frame count
     private int count;
 
     private ValueType resultType;
     private long functionBody;
+    // threaded code of current function, 0 if the frame is an expression or the function is not lowered
+    private long threadedBody;
+    // register code of current function, 0 if the frame is an expression or the function is not translated
+    private long registerBody;
+    // pc of threaded code or register code
+    private int threadedPc;
 
     private int labelSize;
     private int localSize;
@@ -58,6 +67,9 @@ public class UnsafeStackAllocator extends AbstractStackAllocator {
         this.offsets = new UnsafeLongBuffer(maxFrames);
         this.offsets.setSize(maxFrames);
 
+        this.pcs = new UnsafeLongBuffer(maxFrames);
+        this.pcs.setSize(maxFrames);
+
         this.labelDataPtr = UNSAFE.allocateMemory((maxLabelSize * 8L));
         UNSAFE.setMemory(labelDataPtr, (maxLabelSize * 8L), (byte) 0);
     }
@@ -108,11 +120,16 @@ public class UnsafeStackAllocator extends AbstractStackAllocator {
         return UNSAFE.getShort(labelDataPtr + ((p * 8L))) & MAX_UNSIGNED_SHORT;
     }
 
+    // frames are reserved at entry in unchecked mode, accesses inside the frame are never out of bounds
     private long getStackData(int index) {
-        return stackData.get(index);
+        return unchecked ? stackData.getUnchecked(index) : stackData.get(index);
     }
 
     private void setStackData(int index, long data) {
+        if (unchecked) {
+            stackData.setUnchecked(index, data);
+            return;
+        }
         stackData.set(index, data);
     }
 
@@ -150,6 +167,10 @@ public class UnsafeStackAllocator extends AbstractStackAllocator {
         }
 
 
+        // a constant expression produces one value under one label
+        if (unchecked && (newStackBase + 1 > maxStackSize || newLabelBase + 1 > maxLabelSize))
+            throw new RuntimeException("stack overflow");
+
         // new stack base and new label base
         clearFrameData();
 
@@ -158,6 +179,9 @@ public class UnsafeStackAllocator extends AbstractStackAllocator {
 
         this.resultType = type;
         this.functionBody = instructions;
+        this.threadedBody = 0;
+        this.registerBody = 0;
+        this.threadedPc = 0;
 
         this.count++;
     }
@@ -173,6 +197,7 @@ public class UnsafeStackAllocator extends AbstractStackAllocator {
         offset = FrameDataOffset.setStackBase(offset, stackBase);
         frameData.set(currentFrameIndex(), frameId);
         offsets.set(currentFrameIndex(), offset);
+        pcs.set(currentFrameIndex(), threadedPc);
     }
 
     private void loadFrame() {
@@ -185,6 +210,7 @@ public class UnsafeStackAllocator extends AbstractStackAllocator {
         long prevOffset = this.offsets.get(currentFrameIndex());
         this.stackBase = FrameDataOffset.getStackBase(prevOffset);
         this.labelBase = FrameDataOffset.getLabelBase(prevOffset);
+        this.threadedPc = (int) this.pcs.get(currentFrameIndex());
         resetBody(functionIndex);
     }
 
@@ -230,10 +256,21 @@ public class UnsafeStackAllocator extends AbstractStackAllocator {
         // set local size
         this.localSize = func.getParamSize() + func.getLocals();
 
+        // reserve the frame, operand stack and labels of the function are bounded by validation
+        if (unchecked) {
+            if (newStackBase + localSize + func.getMaxStackSize() > maxStackSize)
+                throw new RuntimeException("stack overflow");
+            if (newLabelBase + func.getMaxLabelSize() > maxLabelSize)
+                throw new RuntimeException("label overflow");
+        }
+
         // set body and value type
         functionBody = func.getBody();
+        threadedBody = func.getThreaded();
+        registerBody = func.getRegister();
+        threadedPc = 0;
         // set value type
-        resultType = func.getType().getResultTypes().isEmpty() ? null : func.getType().getResultTypes().get(0);
+        resultType = func.getResultType();
 
         this.count++;
         if (args == null) {
@@ -262,17 +299,24 @@ public class UnsafeStackAllocator extends AbstractStackAllocator {
     private void resetBody(int functionIndex) {
         WASMFunction func = getFuncByBits(functionIndex);
         this.functionBody = func.getBody();
-        this.resultType = func.getType().getResultTypes().isEmpty() ? null : func.getType().getResultTypes().get(0);
+        this.threadedBody = func.getThreaded();
+        this.registerBody = func.getRegister();
+        this.resultType = func.getResultType();
     }
 
 
     @Override
     public void setLocal(int index, long value) {
-        if (index >= this.localSize)
+        if (!unchecked && index >= this.localSize)
             throw new RuntimeException("local variable overflow");
         setStackData(stackBase + index, value);
     }
 
+    @Override
+    void setSlot(int index, long value) {
+        setStackData(stackBase + index, value);
+    }
+
     @Override
     public void push(long value) {
         int base = stackBase + localSize;
@@ -284,7 +328,7 @@ public class UnsafeStackAllocator extends AbstractStackAllocator {
     @Override
     public long pop() {
         int base = stackBase + localSize;
-        if (stackSize == 0)
+        if (!unchecked && stackSize == 0)
             throw new RuntimeException("stack underflow");
         long v = getStackData(base + stackSize - 1);
         this.stackSize--;
@@ -301,13 +345,20 @@ public class UnsafeStackAllocator extends AbstractStackAllocator {
         return getStackData(stackBase + index);
     }
 
+    @Override
+    int peekN(int n) {
+        if (!unchecked && stackSize < n)
+            throw new RuntimeException("stack underflow");
+        return this.stackBase + this.localSize + stackSize - n;
+    }
+
     @Override
     public int popN(int frameIndex, int length) {
         if (length == 0)
             return 0;
 
         if (frameIndex == currentFrameIndex()) {
-            if (stackSize < length)
+            if (!unchecked && stackSize < length)
                 throw new RuntimeException("stack underflow");
             int r = this.stackBase + this.localSize + stackSize - length;
             this.stackSize -= length;
@@ -316,7 +367,7 @@ public class UnsafeStackAllocator extends AbstractStackAllocator {
             long frameId = frameData.get(frameIndex);
             long offset = offsets.get(frameIndex);
             int size = FrameId.getStackSize(frameId);
-            if (size < length)
+            if (!unchecked && size < length)
                 throw new RuntimeException("stack underflow");
             frameData.set(frameIndex, FrameId.setStackSize(frameId, size - length));
             return FrameDataOffset.getStackBase(offset) + FrameId.getLocalSize(frameId) + size - length;
@@ -337,6 +388,8 @@ public class UnsafeStackAllocator extends AbstractStackAllocator {
     @Override
     public void pushLabel(boolean arity, long body, boolean loop) {
         int p = labelBase + labelSize;
+        if (!unchecked && p >= maxLabelSize)
+            throw new RuntimeException("label overflow");
         setArity(p, arity);
         setLoop(p, loop);
         setLabelPc(p, 0);
@@ -358,6 +411,17 @@ public class UnsafeStackAllocator extends AbstractStackAllocator {
     }
 
 
+    @Override
+    void unwind(int height, boolean arity) {
+        if (arity) {
+            long val = pop();
+            this.stackSize = height;
+            push(val);
+            return;
+        }
+        this.stackSize = height;
+    }
+
     public void popAndClearLabel() {
         if (labelSize == 0)
             throw new RuntimeException("label underflow");
@@ -389,6 +453,9 @@ public class UnsafeStackAllocator extends AbstractStackAllocator {
         }
 
         boolean loop = getLoop(p);
+        // branch to a loop label is a back-edge
+        if (loop && limited)
+            module.checkpoint();
 
         // if loop set label pc of label poped as zero
         // else set label pc of label poped as as full
@@ -435,6 +502,7 @@ public class UnsafeStackAllocator extends AbstractStackAllocator {
     @Override
     public void clear() {
         this.count = 0;
+        this.pending = null;
     }
 
     @Override
@@ -444,6 +512,7 @@ public class UnsafeStackAllocator extends AbstractStackAllocator {
         frameData.close();
         offsets.close();
         labels.close();
+        pcs.close();
     }
 
     @Override
@@ -457,6 +526,26 @@ public class UnsafeStackAllocator extends AbstractStackAllocator {
         return functionBody;
     }
 
+    @Override
+    protected long getThreadedBody() {
+        return threadedBody;
+    }
+
+    @Override
+    protected long getRegisterBody() {
+        return registerBody;
+    }
+
+    @Override
+    protected int getThreadedPc() {
+        return threadedPc;
+    }
+
+    @Override
+    protected void setThreadedPc(int pc) {
+        this.threadedPc = pc;
+    }
+
     @Override
     protected ValueType getResultType() {
         return resultType;
@@ -1,18 +1,42 @@
 package org.tdf.lotusvm.runtime
 
+import org.tdf.lotusvm.compiler.CompiledFunction
 import org.tdf.lotusvm.types.FunctionType
 import org.tdf.lotusvm.types.Local
+import org.tdf.lotusvm.types.ValueType
 
 internal class WASMFunction(
     override val type: FunctionType, // params + localvars
     val body: Long,
-    private val locals: List<Local>
+    private val locals: List<Local>,
+    // flat threaded code, 0 if not lowered
+    val threaded: Long = 0,
+    // register code, 0 if not translated
+    val registerCode: Long = 0,
+    // max operand stack height and max label depth, reserved at entry in unchecked mode
+    val maxStackSize: Int = 0,
+    val maxLabelSize: Int = 0
 ) : FunctionInstance {
 
+    // type of result, null if the function returns nothing
+    val resultType: ValueType? = type.resultTypes.firstOrNull()
+
+    // register code bound by module instance, 0 if the function is interpreted as threaded or nested code
+    var register: Long = 0
+
+    // invocations counted by tiered compiler, compiled is set once the threshold is crossed
+    var invocations: Int = 0
+    var compiled: CompiledFunction? = null
+    var compileFailed: Boolean = false
+
+    // types of declared local variables, expanded by count
+    val localTypes: List<ValueType>
+        get() = locals.flatMap { l -> List(l.count) { l.type } }
+
     fun getLocals(): Int {
         var ret = 0
         for (i in locals.indices) {
-            ret += locals[i].count
+            ret += locals[i].slots
         }
         return ret
     }
@@ -0,0 +1,16 @@
+package org.tdf.lotusvm.runtime;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+// mark a java method as host function, see HostFunctionBinder
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.METHOD)
+public @interface WasmExport {
+    // name of host function imported by modules
+    String value();
+
+    String[] alias() default {};
+}
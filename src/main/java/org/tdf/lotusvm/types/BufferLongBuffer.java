@@ -0,0 +1,67 @@
+package org.tdf.lotusvm.types;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+// long buffer backed by a direct byte buffer accessed by var handle, without sun.misc.Unsafe
+// the memory is released by garbage collector, so close is optional
+public class BufferLongBuffer implements LongBuffer {
+    private static final VarHandle LONG = MethodHandles.byteBufferViewVarHandle(long[].class, ByteOrder.nativeOrder());
+
+    private ByteBuffer buffer;
+    private int cap;
+    private int size;
+
+    public BufferLongBuffer(int initialCap) {
+        this.cap = Math.max(initialCap, 8);
+        this.buffer = ByteBuffer.allocateDirect(cap * 8);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public long get(int index) {
+        if (index >= size)
+            throw new RuntimeException("access overflow");
+        return (long) LONG.get(buffer, index * 8);
+    }
+
+    public void set(int index, long val) {
+        if (index >= size)
+            throw new RuntimeException("access overflow");
+        LONG.set(buffer, index * 8, val);
+    }
+
+    public void push(long value) {
+        if (this.size == cap)
+            grow(Math.max(cap * 2, 8));
+        LONG.set(buffer, size * 8, value);
+        this.size++;
+    }
+
+    @Override
+    public void setSize(int size) {
+        this.size = size;
+        if (this.cap < this.size)
+            grow(this.size);
+    }
+
+    private void grow(int cap) {
+        if (cap > Integer.MAX_VALUE / 8)
+            throw new RuntimeException("buffer overflow");
+        ByteBuffer grown = ByteBuffer.allocateDirect(cap * 8);
+        grown.put(buffer.duplicate().clear());
+        this.buffer = grown;
+        this.cap = cap;
+    }
+
+    @Override
+    public void close() {
+        buffer = ByteBuffer.allocateDirect(0);
+        cap = 0;
+        size = 0;
+    }
+}
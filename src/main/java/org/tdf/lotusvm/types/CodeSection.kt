@@ -27,6 +27,10 @@ class CodeSection(id: SectionID, size: Long, payload: BytesReader, offset: Int,
 }
 
 class Local(val count: Int, val type: ValueType) {
+    // number of stack slots, a v128 local takes two slots
+    val slots: Int
+        get() = if (type == ValueType.V128) count * 2 else count
+
     companion object : ObjectReader<Local> {
         override fun readFrom(reader: BytesReader): Local {
             return Local(reader.readVarUint32(), ValueType.readFrom(reader))
@@ -34,12 +38,16 @@ class Local(val count: Int, val type: ValueType) {
     }
 }
 
-class Function(val locals: List<Local>, val expression: Long) {
+class Function(val locals: List<Local>, expression: Long) {
+    // rewritten by Optimizer if the module is optimized
+    var expression = expression
+        internal set
+
     companion object : ObjectReader<Function> {
         override fun readFrom(reader: BytesReader): Function {
             return Function(
                 reader.readObjectVec(Local.Companion),
-                reader.insPool.readExpressionFrom(reader)
+                reader.insPool.readFunctionBodyFrom(reader)
             )
         }
     }
@@ -0,0 +1,18 @@
+package org.tdf.lotusvm.types
+
+import org.tdf.lotusvm.common.BytesReader
+
+/**
+ * The data count section has the id 12. It decodes into the number of data segments of data section,
+ * which is required by memory.init and data.drop since the code section is validated before data section.
+ */
+class DataCountSection(id: SectionID, size: Long, payload: BytesReader, offset: Int, limit: Int) : AbstractSection(
+    id, size, payload, offset, limit
+) {
+    var count = 0
+        private set
+
+    override fun readPayload() {
+        count = reader.readVarUint32()
+    }
+}
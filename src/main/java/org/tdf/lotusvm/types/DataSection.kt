@@ -12,14 +12,21 @@ class DataSection(id: SectionID, size: Long, payload: BytesReader, offset: Int,
         dataSegments = reader.readObjectVec(DataSegment.Companion)
     }
 
-    data class DataSegment(val memoryIndex: Int, val expression: Long, val init: ByteArray) {
+    // a passive segment is copied into memory by memory.init, an active segment is copied at instantiation
+    data class DataSegment(val memoryIndex: Int, val expression: Long, val init: ByteArray, val passive: Boolean = false) {
         companion object : ObjectReader<DataSegment> {
+            // flags = 0 active of memory 0, 1 passive, 2 active with memory index
             override fun readFrom(reader: BytesReader): DataSegment {
-                return DataSegment(
-                    reader.readVarUint32(),
-                    reader.insPool.readExpressionFrom(reader),
-                    reader.readByteVec()
-                )
+                return when (val flags = reader.readVarUint32()) {
+                    0 -> DataSegment(0, reader.insPool.readExpressionFrom(reader), reader.readByteVec())
+                    1 -> DataSegment(0, 0, reader.readByteVec(), true)
+                    2 -> DataSegment(
+                        reader.readVarUint32(),
+                        reader.insPool.readExpressionFrom(reader),
+                        reader.readByteVec()
+                    )
+                    else -> throw RuntimeException("invalid data segment flags $flags")
+                }
             }
         }
     }
@@ -0,0 +1,73 @@
+package org.tdf.lotusvm.types;
+
+import org.tdf.lotusvm.GasSchedule;
+import org.tdf.lotusvm.common.OpCode;
+
+import java.util.Arrays;
+
+// split the instructions of a block into straight-line segments and insert a gas instruction charging the total cost
+// at the start of every segment, nested blocks are metered by themselves
+// a segment ends after block, loop and if, since the instruction following the nested block is a join point,
+// and after branches, so a segment is always executed to the end unless a trap occurs
+// gas = cost (4byte) | 0x0000 | 0xff | gas, a segment costing more than 0xffffffff is charged by multiple gas instructions
+// gas instructions are never observed by hooks
+public final class GasMeter {
+    private static final long MAX_COST = 0xffffffffL;
+
+    private GasMeter() {
+    }
+
+    // return the metered instructions
+    public static long[] meter(long[] code, int length, GasSchedule schedule) {
+        long[] out = new long[length + 8];
+        int w = 0;
+        int i = 0;
+        while (i < length) {
+            int end = i;
+            long cost = 0;
+            while (end < length) {
+                OpCode c = InstructionId.getOpCode(code[end++]);
+                cost = Math.addExact(cost, schedule.costOf(c));
+                if (endsSegment(c))
+                    break;
+            }
+            int n = (int) ((cost + MAX_COST - 1) / MAX_COST) + end - i;
+            if (w + n > out.length)
+                out = Arrays.copyOf(out, Math.max(out.length * 2, w + n));
+            while (cost > 0) {
+                long charge = Math.min(cost, MAX_COST);
+                out[w++] = gas(charge);
+                cost -= charge;
+            }
+            System.arraycopy(code, i, out, w, end - i);
+            w += end - i;
+            i = end;
+        }
+        return Arrays.copyOf(out, w);
+    }
+
+    public static long gas(long cost) {
+        return InstructionId.setLeft32(InstructionId.withOpCode(OpCode.GAS), (int) cost);
+    }
+
+    public static long getCost(long ins) {
+        return Integer.toUnsignedLong(InstructionId.getLeft32(ins));
+    }
+
+    private static boolean endsSegment(OpCode c) {
+        switch (c) {
+            case BLOCK:
+            case LOOP:
+            case IF:
+            case BR:
+            case BR_IF:
+            case BR_TABLE:
+            case BR_IF_EQZ_L:
+            case RETURN:
+            case UNREACHABLE:
+                return true;
+            default:
+                return false;
+        }
+    }
+}
@@ -157,7 +157,7 @@ public class Instruction {
         if (c.code >= I32_LOAD.code && c.code < I32_CONST.code) {
             return readMemoryInstruction(reader);
         }
-        if (c.code >= I32_CONST.code) {
+        if (c.code >= I32_CONST.code && c.code <= F64_REINTERPRET_I64.code) {
             return readNumericInstruction(reader);
         }
         throw new RuntimeException("unknown opcode " + c);
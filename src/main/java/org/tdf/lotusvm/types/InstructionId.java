@@ -6,6 +6,7 @@ import org.tdf.lotusvm.common.OpCode;
 // operand (4byte) or zero | 0x00 | 0x01 | 0x00 | opcode for instruction with <= 1(i32, f32) operand, no branch
 // operand position (4byte) | 0x00 | 0x01 | 0x00 | opcode for instruction with = 1(i64, f64) operand, no branch
 // memory position | operand size (2byte) | result type (1byte) | opcode for instruction with branch and var length operands
+// operand (4byte) | operand size (2byte) | sub opcode (1byte) | 0xfd for simd instruction, see OpCode.SIMD_PREFIX
 
 // allocation for instruction branch and operands
 // 8 byte  operands offset | branch1 size (2byte) | branch0 size (2byte)
@@ -15,11 +16,26 @@ public final class InstructionId {
     }
 
     public static OpCode getOpCode(long insId) {
-        return OpCode.fromCode((int) (insId & 0xffL));
+        int code = (int) (insId & 0xffL);
+        if (code == OpCode.SIMD_PREFIX)
+            return OpCode.fromCode(getSimdCode(insId));
+        return OpCode.fromCode(code);
     }
 
-    // with opcode and null result type
+    // opcode byte, see Opcodes
+    public static int getCode(long insId) {
+        return (int) (insId & 0xffL);
+    }
+
+    // opcode of simd instruction = 0x100 | sub opcode, see Opcodes
+    public static int getSimdCode(long insId) {
+        return 0x100 | (int) ((insId & 0xFF00L) >>> 8);
+    }
+
+    // with opcode and null result type, or with sub opcode if the instruction is simd
     public static long withOpCode(OpCode op) {
+        if (op.code > 0xff)
+            return OpCode.SIMD_PREFIX | ((op.code & 0xFFL) << 8);
         return (op.code & 0xFFL) | (0xFF00L);
     }
 
@@ -1,5 +1,6 @@
 package org.tdf.lotusvm.types;
 
+import org.tdf.lotusvm.GasSchedule;
 import org.tdf.lotusvm.common.BytesReader;
 import org.tdf.lotusvm.common.OpCode;
 
@@ -30,10 +31,20 @@ public final class InstructionPool implements Closeable {
 
 
 
-    private static final long NULL = 0xFFFFFFFFFFFFFFFFL;
+    static final long NULL = 0xFFFFFFFFFFFFFFFFL;
 
     private final LongBuffer data;
 
+    // fuse instruction sequences into superinstructions when decoding
+    private boolean fused;
+
+    // insert gas instructions into function bodies when decoding, null if not metered
+    private GasSchedule gasSchedule;
+    // a function body is being decoded, constant expressions are not metered
+    private boolean metering;
+    // any simd instruction is decoded
+    private boolean simd;
+
     public InstructionPool() {
         this(MAX_INITIAL_CAP);
     }
@@ -64,6 +75,26 @@ public final class InstructionPool implements Closeable {
         return data.size();
     }
 
+    public boolean isFused() {
+        return fused;
+    }
+
+    public void setFused(boolean fused) {
+        this.fused = fused;
+    }
+
+    public boolean isSimd() {
+        return simd;
+    }
+
+    public GasSchedule getGasSchedule() {
+        return gasSchedule;
+    }
+
+    public void setGasSchedule(GasSchedule gasSchedule) {
+        this.gasSchedule = gasSchedule;
+    }
+
 
     // push instruction return the position
 
@@ -81,6 +112,15 @@ public final class InstructionPool implements Closeable {
         data.push(value);
     }
 
+    // push a contiguous instructions array, return the instructions id
+    public long pushInstructions(long[] instructions, int length) {
+        int start = this.size();
+        for (int i = 0; i < length; i++) {
+            data.push(instructions[i]);
+        }
+        return (Integer.toUnsignedLong(length) << INSTRUCTIONS_SIZE_SHIFTS) | (Integer.toUnsignedLong(start));
+    }
+
     public int getBranchSize(long insId, int branch) {
         int branchOffset = InstructionId.getLeft32(insId) + branch;
         long l = this.data.get(branchOffset);
@@ -126,6 +166,24 @@ public final class InstructionPool implements Closeable {
         return this.data.get(branchOffset);
     }
 
+    public void setBranchInstructions(long insId, int branch, long instructions) {
+        int branchOffset = InstructionId.getLeft32(insId) + branch;
+        this.data.set(branchOffset, instructions);
+    }
+
+    // overwrite the instructions in place with no more instructions, return id of the rewritten instructions
+    public long rewriteInstructions(long id, long[] instructions, int length) {
+        if (length > getInstructionsSize(id))
+            throw new RuntimeException("instructions overflow");
+        if (length == 0)
+            return 0;
+        int start = getInstructionsOffset(id);
+        for (int i = 0; i < length; i++) {
+            data.set(start + i, instructions[i]);
+        }
+        return (Integer.toUnsignedLong(length) << INSTRUCTIONS_SIZE_SHIFTS) | (Integer.toUnsignedLong(start));
+    }
+
     public long getOperand(long insId, int index) {
         int operandSize = InstructionId.getOperandSize(insId);
         if (index >= operandSize)
@@ -144,12 +202,17 @@ public final class InstructionPool implements Closeable {
             case BR_IF:
             case CALL:
             case CALL_INDIRECT:
+            case MEMORY_INIT:
+            case DATA_DROP:
                 return Integer.toUnsignedLong(InstructionId.getLeft32(insId));
         }
 
         if (c.code >= GET_LOCAL.code && c.code < I32_LOAD.code) {
             return Integer.toUnsignedLong(InstructionId.getLeft32(insId));
         }
+        if (c.code > 0xff && c != V128_CONST && c != I8X16_SHUFFLE) {
+            return Integer.toUnsignedLong(InstructionId.getLeft32(insId));
+        }
         if (c.code >= I32_LOAD.code && c.code < I32_CONST.code) {
             return Integer.toUnsignedLong(InstructionId.getLeft32(insId));
         }
@@ -261,6 +324,8 @@ public final class InstructionPool implements Closeable {
         }
         // align is intend to optimize memory access, currently unused
         int align = reader.readVarUint32();
+        if (Integer.compareUnsigned(align, Integer.numberOfTrailingZeros(c.loadSize)) > 0)
+            throw new RuntimeException("alignment must not be larger than natural");
         int m = reader.readVarUint32();
         ins =  InstructionId.setLeft32(ins, m);
         return InstructionId.setOperandSize(ins, 1);
@@ -297,7 +362,78 @@ public final class InstructionPool implements Closeable {
         return ins;
     }
 
+    // 0xfc 0x08 dataidx 0x00 = memory.init, 0xfc 0x09 dataidx = data.drop,
+    // 0xfc 0x0a 0x00 0x00 = memory.copy, 0xfc 0x0b 0x00 = memory.fill
+    private long readBulkMemoryInstruction(BytesReader reader) {
+        reader.read();
+        int sub = reader.readVarUint32();
+        switch (sub) {
+            case 0x08: {
+                long ins = InstructionId.setLeft32(InstructionId.withOpCode(MEMORY_INIT), reader.readVarUint32());
+                if (reader.read() != 0)
+                    throw new RuntimeException("invalid terminator of opcode " + MEMORY_INIT);
+                return InstructionId.setOperandSize(ins, 1);
+            }
+            case 0x09: {
+                long ins = InstructionId.setLeft32(InstructionId.withOpCode(DATA_DROP), reader.readVarUint32());
+                return InstructionId.setOperandSize(ins, 1);
+            }
+            case 0x0a:
+                if (reader.read() != 0 || reader.read() != 0)
+                    throw new RuntimeException("invalid terminator of opcode " + MEMORY_COPY);
+                return InstructionId.withOpCode(MEMORY_COPY);
+            case 0x0b:
+                if (reader.read() != 0)
+                    throw new RuntimeException("invalid terminator of opcode " + MEMORY_FILL);
+                return InstructionId.withOpCode(MEMORY_FILL);
+            default:
+                throw new RuntimeException(String.format("unknown opcode %x %x", OpCode.BULK_PREFIX, sub));
+        }
+    }
+
+    // 0xfd sub opcode (u32) followed by memarg, 16 bytes of v128.const and i8x16.shuffle, or a lane index byte
+    private long readSimdInstruction(BytesReader reader) {
+        reader.read();
+        int sub = reader.readVarUint32();
+        // v128 local and parametric instructions are internal
+        if (Integer.compareUnsigned(sub, V128_GET_LOCAL.code & 0xff) >= 0)
+            throw new RuntimeException(String.format("unknown opcode %x %x", OpCode.SIMD_PREFIX, sub));
+        OpCode c = OpCode.fromCode(0x100 | sub);
+        simd = true;
+        long ins = InstructionId.withOpCode(c);
+        switch (c) {
+            case V128_LOAD:
+            case V128_STORE: {
+                int align = reader.readVarUint32();
+                if (Integer.compareUnsigned(align, Integer.numberOfTrailingZeros(c.loadSize)) > 0)
+                    throw new RuntimeException("alignment must not be larger than natural");
+                ins = InstructionId.setLeft32(ins, reader.readVarUint32());
+                return InstructionId.setOperandSize(ins, 1);
+            }
+            case V128_CONST:
+            case I8X16_SHUFFLE: {
+                long low = reader.readUint64();
+                long high = reader.readUint64();
+                ins = pushWithBodyOffset(InstructionId.setOperandSize(ins, 2));
+                pushValue(low);
+                pushValue(high);
+                return ins;
+            }
+        }
+        if (Simd.lanes(c) > 0) {
+            ins = InstructionId.setLeft32(ins, reader.read());
+            return InstructionId.setOperandSize(ins, 1);
+        }
+        return ins;
+    }
+
     public long readFrom(BytesReader reader) {
+        if (reader.peek() == OpCode.BULK_PREFIX) {
+            return readBulkMemoryInstruction(reader);
+        }
+        if (reader.peek() == OpCode.SIMD_PREFIX) {
+            return readSimdInstruction(reader);
+        }
         OpCode c = OpCode.fromCode(reader.peek());
         if (c.code >= UNREACHABLE.code && c.code < DROP.code) {
             return readControlInstruction(reader);
@@ -311,7 +447,7 @@ public final class InstructionPool implements Closeable {
         if (c.code >= I32_LOAD.code && c.code < I32_CONST.code) {
             return readMemoryInstruction(reader);
         }
-        if (c.code >= I32_CONST.code) {
+        if (c.code >= I32_CONST.code && c.code <= F64_REINTERPRET_I64.code) {
             return readNumericInstruction(reader);
         }
         throw new RuntimeException("unknown opcode " + c);
@@ -356,13 +492,55 @@ public final class InstructionPool implements Closeable {
         return (Integer.toUnsignedLong(cnt) << INSTRUCTIONS_SIZE_SHIFTS) | (Integer.toUnsignedLong(start));
     }
 
+    // the instructions spanned are at the end of pool, so they are fused in place and the pool is truncated
+    private long fuse(long instructions) {
+        int start = getInstructionsOffset(instructions);
+        long[] code = new long[getInstructionsSize(instructions)];
+        for (int i = 0; i < code.length; i++) {
+            code[i] = data.get(start + i);
+        }
+        int length = Superinstructions.fuse(code, code.length);
+        for (int i = 0; i < length; i++) {
+            data.set(start + i, code[i]);
+        }
+        data.setSize(start + length);
+        return (Integer.toUnsignedLong(length) << INSTRUCTIONS_SIZE_SHIFTS) | (Integer.toUnsignedLong(start));
+    }
+
+    // the instructions spanned are at the end of pool, so gas instructions are inserted in place
+    private long meter(long instructions) {
+        int start = getInstructionsOffset(instructions);
+        long[] code = new long[getInstructionsSize(instructions)];
+        for (int i = 0; i < code.length; i++) {
+            code[i] = data.get(start + i);
+        }
+        long[] metered = GasMeter.meter(code, code.length, gasSchedule);
+        if (metered.length > MAX_UNSIGNED_SHORT) {
+            throw new RuntimeException("label size overflow");
+        }
+        data.setSize(start);
+        for (long ins : metered) {
+            data.push(ins);
+        }
+        return (Integer.toUnsignedLong(metered.length) << INSTRUCTIONS_SIZE_SHIFTS) | (Integer.toUnsignedLong(start));
+    }
+
+    private long span(int head) {
+        long instructions = spanLinkedList(head);
+        if (fused)
+            instructions = fuse(instructions);
+        if (metering)
+            instructions = meter(instructions);
+        return instructions;
+    }
+
     private long readInstructionsUntil(BytesReader reader, int... ends) {
         Integer head = null;
         int cur = 0;
         while (true) {
             int ins = reader.peek();
             for (int e : ends) {
-                if (e == ins) return head == null ? 0 : spanLinkedList(head);
+                if (e == ins) return head == null ? 0 : span(head);
             }
             long read = readFrom(reader);
             if (head == null) {
@@ -380,9 +558,20 @@ public final class InstructionPool implements Closeable {
         return instructions;
     }
 
+    // read a function body, which is metered if gas schedule is set
+    public long readFunctionBodyFrom(BytesReader reader) {
+        metering = gasSchedule != null;
+        try {
+            return readExpressionFrom(reader);
+        } finally {
+            metering = false;
+        }
+    }
+
     public Instruction toInstruction(long insId) {
         OpCode o = InstructionId.getOpCode(insId);
-        ResultType type = InstructionId.getResultType(insId);
+        // the byte of result type is sub opcode for simd instructions
+        ResultType type = o.code > 0xff ? ResultType.EMPTY : InstructionId.getResultType(insId);
 
         Instruction[] branch0 = null;
         int branch = 0;
@@ -407,7 +596,9 @@ public final class InstructionPool implements Closeable {
         long[] operands = null;
         int operandSize = InstructionId.getOperandSize(insId);
 
-        if (operandSize > 0) {
+        if (o.parts.length > 0) {
+            operands = Superinstructions.operands(insId);
+        } else if (operandSize > 0) {
             operands = new long[operandSize];
             for (int i = 0; i < operands.length; i++) {
                 operands[i] = getOperandDebug(insId, i);
@@ -425,6 +616,15 @@ public final class InstructionPool implements Closeable {
         return this.data.get(offset + index);
     }
 
+    // replace an instruction of the array in place, the instruction must not have branches
+    public void setInstructionInArray(long id, int index, long ins) {
+        int offset = getInstructionsOffset(id);
+        int size = getInstructionsSize(id);
+        if (index >= size)
+            throw new RuntimeException("index overflow");
+        this.data.set(offset + index, ins);
+    }
+
     @Override
     public void close() {
         this.data.close();
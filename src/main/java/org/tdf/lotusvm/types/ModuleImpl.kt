@@ -1,5 +1,6 @@
 package org.tdf.lotusvm.types
 
+import org.tdf.lotusvm.DecodeOptions
 import org.tdf.lotusvm.Module
 import org.tdf.lotusvm.common.BytesReader
 import org.tdf.lotusvm.common.Constants
@@ -10,7 +11,7 @@ import org.tdf.lotusvm.common.Constants
  * module record, except that function definitions are split into two sections, separating their type declarations in the
  * function section from their bodies in the code section.
  */
-internal class ModuleImpl(binary: ByteArray) : Module {
+internal class ModuleImpl @JvmOverloads constructor(binary: ByteArray, options: DecodeOptions = DecodeOptions()) : Module {
     override val customSections: MutableList<CustomSection> = ArrayList()
 
     // the magic number of wasm
@@ -48,7 +49,22 @@ internal class ModuleImpl(binary: ByteArray) : Module {
         private set
     override var dataSection: DataSection? = null
         private set
+    override var dataCountSection: DataCountSection? = null
+        private set
     override val insPool: InstructionPool = InstructionPool()
+    override var threadedCodes: LongArray? = null
+        private set
+    override var registerCodes: LongArray? = null
+        private set
+    override var maxStackSizes: IntArray? = null
+        private set
+    override var maxLabelSizes: IntArray? = null
+        private set
+    override val metered: Boolean = options.gasSchedule != null
+    override var typeIds: IntArray = IntArray(0)
+        private set
+    override var removedInstructions = 0
+        private set
 
     private fun parse(binary: ByteArray) {
         val reader = BytesReader(binary)
@@ -65,6 +81,81 @@ internal class ModuleImpl(binary: ByteArray) : Module {
         readSections(reader)
     }
 
+    // intern types so that signature check of call_indirect is an int comparison
+    private fun internTypes() {
+        val types = typeSection?.functionTypes ?: emptyList()
+        val ids: MutableMap<FunctionType, Int> = HashMap()
+        typeIds = IntArray(types.size) { ids.getOrPut(types[it]) { it } }
+    }
+
+    // function types of function index space
+    private fun functionTypes(): List<FunctionType> {
+        val types = typeSection?.functionTypes ?: emptyList()
+        val functionTypes: MutableList<FunctionType> = ArrayList()
+        importSection?.imports?.filter { it.type == ImportType.TYPE_INDEX }?.forEach { functionTypes.add(types[it.typeIndex]) }
+        functionSection?.typeIndices?.forEach { functionTypes.add(types[it]) }
+        return functionTypes
+    }
+
+    // v128 locals and operands are rewritten by validation, see Validator
+    private fun usesSimd(): Boolean {
+        if (insPool.isSimd) return true
+        if (typeSection?.functionTypes?.any { it.parameterTypes.contains(ValueType.V128) || it.resultTypes.contains(ValueType.V128) } == true)
+            return true
+        if (globalSection?.globals?.any { it.globalType.valueType == ValueType.V128 } == true) return true
+        if (importSection?.imports?.any { it.globalType?.valueType == ValueType.V128 } == true)
+            return true
+        return codeSection?.codes?.any { c -> c.code.locals.any { it.type == ValueType.V128 } } == true
+    }
+
+    private fun validate() {
+        val validator = Validator(this)
+        validator.validate()
+        maxStackSizes = validator.maxStackSizes
+        maxLabelSizes = validator.maxLabelSizes
+    }
+
+    // function bodies are optimized after validation, so unreachable code removed is validated too
+    private fun optimize() {
+        val optimizer = Optimizer(insPool)
+        codeSection?.codes?.forEach { it.code.expression = optimizer.optimize(it.code.expression) }
+        removedInstructions = optimizer.removed
+    }
+
+    // malformed functions are not lowered and will be interpreted as nested code
+    private fun lower() {
+        val types = typeSection?.functionTypes ?: emptyList()
+        val typeIndices = functionSection?.typeIndices ?: IntArray(0)
+        val codes = LongArray(typeIndices.size)
+        val threaded = ThreadedCode(insPool, types, functionTypes())
+        for (i in codes.indices) {
+            codes[i] = try {
+                threaded.lower(types[typeIndices[i]], codeSection!!.codes[i].code.expression)
+            } catch (e: RuntimeException) {
+                0
+            }
+        }
+        threadedCodes = codes
+    }
+
+    // functions not translated are interpreted as threaded or nested code
+    private fun translate() {
+        val types = typeSection?.functionTypes ?: emptyList()
+        val typeIndices = functionSection?.typeIndices ?: IntArray(0)
+        val codes = LongArray(typeIndices.size)
+        val register = RegisterCode(insPool, types, functionTypes())
+        for (i in codes.indices) {
+            val type = types[typeIndices[i]]
+            val function = codeSection!!.codes[i].code
+            codes[i] = try {
+                register.translate(type, type.parameterTypes.size + function.locals.sumOf { it.slots }, function.expression)
+            } catch (e: RuntimeException) {
+                0
+            }
+        }
+        registerCodes = codes
+    }
+
     private fun readSections(reader: BytesReader) {
         val sectionReader = SectionReader(reader)
         while (reader.remaining() > 0) {
@@ -88,6 +179,7 @@ internal class ModuleImpl(binary: ByteArray) : Module {
                 SectionID.ELEMENT -> elementSection = sectionReader.readSection(ElementSection::class.java)
                 SectionID.CODE -> codeSection = sectionReader.readSection(CodeSection::class.java)
                 SectionID.DATA -> dataSection = sectionReader.readSection(DataSection::class.java)
+                SectionID.DATA_COUNT -> dataCountSection = sectionReader.readSection(DataCountSection::class.java)
             }
         }
     }
@@ -98,7 +190,16 @@ internal class ModuleImpl(binary: ByteArray) : Module {
 
     init {
         try {
+            insPool.isFused = options.fused
+            insPool.gasSchedule = options.gasSchedule
             parse(binary)
+            internTypes()
+            if (options.optimized && !options.validated) throw RuntimeException("optimization requires validation")
+            if (usesSimd() && !options.validated) throw RuntimeException("simd requires validation")
+            if (options.validated) validate()
+            if (options.optimized) optimize()
+            if (options.threaded) lower()
+            if (options.register) translate()
         }catch (e: Exception) {
             insPool.close()
             throw e
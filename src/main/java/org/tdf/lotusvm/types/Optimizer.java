@@ -0,0 +1,328 @@
+package org.tdf.lotusvm.types;
+
+import org.tdf.lotusvm.common.OpCode;
+
+import static org.tdf.lotusvm.common.OpCode.*;
+
+// optimization pass over validated function bodies, the instructions of every block are rewritten in place
+// integer arithmetic on constants is folded, division and remainder are folded only if they never trap
+// constant conditions of if, br_if and br_table select the branch taken, if is turned into block of the selected branch
+// instructions following br, br_table, return and unreachable in the same block are unreachable and removed
+// gas instructions are kept, so the gas charged is the same as unoptimized code
+// folded instructions are never observed by hooks
+public final class Optimizer {
+    private final InstructionPool pool;
+    private int removed;
+
+    public Optimizer(InstructionPool pool) {
+        this.pool = pool;
+    }
+
+    // number of instructions removed from all the bodies optimized
+    public int getRemoved() {
+        return removed;
+    }
+
+    // optimize a function body, return id of the optimized body
+    public long optimize(long body) {
+        int before = count(body);
+        body = optimizeInstructions(body);
+        removed += before - count(body);
+        return body;
+    }
+
+    // number of instructions including nested blocks
+    public int count(long instructions) {
+        int size = InstructionPool.getInstructionsSize(instructions);
+        int n = size;
+        for (int i = 0; i < size; i++) {
+            long ins = pool.getInstructionInArray(instructions, i);
+            switch (InstructionId.getOpCode(ins)) {
+                case BLOCK:
+                case LOOP:
+                case IF: {
+                    n += count(pool.getBranch0(ins));
+                    long branch1 = pool.getBranch1(ins);
+                    if (!pool.isNullBranch(branch1))
+                        n += count(branch1);
+                }
+            }
+        }
+        return n;
+    }
+
+    private long optimizeInstructions(long instructions) {
+        int size = InstructionPool.getInstructionsSize(instructions);
+        if (size == 0)
+            return instructions;
+        long[] out = new long[size];
+        int w = 0;
+        for (int i = 0; i < size; i++) {
+            long ins = pool.getInstructionInArray(instructions, i);
+            OpCode c = InstructionId.getOpCode(ins);
+            switch (c) {
+                case BLOCK:
+                case LOOP:
+                case IF: {
+                    pool.setBranchInstructions(ins, 0, optimizeInstructions(pool.getBranch0(ins)));
+                    long branch1 = pool.getBranch1(ins);
+                    if (!pool.isNullBranch(branch1))
+                        pool.setBranchInstructions(ins, 1, optimizeInstructions(branch1));
+                    if (c == IF && isConst(out, w, I32_CONST)) {
+                        boolean taken = InstructionId.getLeft32(out[--w]) != 0;
+                        long selected = taken ? pool.getBranch0(ins) : pool.getBranch1(ins);
+                        pool.setBranchInstructions(ins, 0, pool.isNullBranch(selected) ? 0 : selected);
+                        pool.setBranchInstructions(ins, 1, InstructionPool.NULL);
+                        ins = (ins & ~0xffL) | BLOCK.code;
+                    }
+                    break;
+                }
+                case BR_IF: {
+                    if (!isConst(out, w, I32_CONST))
+                        break;
+                    // not taken, the condition is dropped
+                    if (InstructionId.getLeft32(out[--w]) == 0)
+                        continue;
+                    ins = br(InstructionId.getLeft32(ins));
+                    break;
+                }
+                case BR_TABLE: {
+                    if (!isConst(out, w, I32_CONST))
+                        break;
+                    long index = Integer.toUnsignedLong(InstructionId.getLeft32(out[--w]));
+                    int labels = InstructionId.getOperandSize(ins) - 1;
+                    ins = br(pool.getOperandAsInt(ins, (int) Math.min(index, labels)));
+                    break;
+                }
+                case DROP: {
+                    if (isConst(out, w, I32_CONST) || isConst(out, w, I64_CONST)
+                        || isConst(out, w, F32_CONST) || isConst(out, w, F64_CONST)) {
+                        w--;
+                        continue;
+                    }
+                    break;
+                }
+                default: {
+                    int arity = arity(c);
+                    long folded = arity == 0 ? 0 : fold(c, ins, out, w, arity);
+                    if (folded != 0) {
+                        w -= arity;
+                        ins = folded;
+                    }
+                }
+            }
+            out[w++] = ins;
+            c = InstructionId.getOpCode(ins);
+            if (c == BR || c == BR_TABLE || c == RETURN || c == UNREACHABLE)
+                break;
+        }
+        return pool.rewriteInstructions(instructions, out, w);
+    }
+
+    private static boolean isConst(long[] out, int w, OpCode c) {
+        return w > 0 && InstructionId.getOpCode(out[w - 1]) == c;
+    }
+
+    private static long br(int label) {
+        long ins = InstructionId.setOperandSize(InstructionId.withOpCode(BR), 1);
+        return InstructionId.setLeft32(ins, label);
+    }
+
+    private static long i32(int value) {
+        long ins = InstructionId.setOperandSize(InstructionId.withOpCode(I32_CONST), 1);
+        return InstructionId.setLeft32(ins, value);
+    }
+
+    private static long i32(boolean value) {
+        return i32(value ? 1 : 0);
+    }
+
+    private long i64(long value) {
+        long ins = pool.pushWithBodyOffset(InstructionId.setOperandSize(InstructionId.withOpCode(I64_CONST), 1));
+        pool.pushValue(value);
+        return ins;
+    }
+
+    // number of constant operands of a foldable instruction, 0 if not foldable
+    private static int arity(OpCode c) {
+        if (c.code >= I32_EQ.code && c.code <= I32_GEU.code || c.code >= I32_ADD.code && c.code <= I32_ROTR.code)
+            return 2;
+        if (c.code >= I64_EQ.code && c.code <= I64_GEU.code || c.code >= I64_ADD.code && c.code <= I64_ROTR.code)
+            return 2;
+        switch (c) {
+            case I32_EQZ:
+            case I32_CLZ:
+            case I32_CTZ:
+            case I32_POPCNT:
+            case I32_ADD_C:
+            case I64_EXTEND_SI32:
+            case I64_EXTEND_UI32:
+            case I64_EQZ:
+            case I64_CLZ:
+            case I64_CTZ:
+            case I64_POPCNT:
+            case I32_WRAP_I64:
+                return 1;
+            default:
+                return 0;
+        }
+    }
+
+    // fold the instruction if its operands on top of out are constants, return the constant or 0 if not folded
+    private long fold(OpCode c, long ins, long[] out, int w, int arity) {
+        boolean i32 = c.code >= I32_EQZ.code && c.code <= I32_GEU.code || c.code >= I32_CLZ.code && c.code <= I32_ROTR.code
+            || c == I32_ADD_C || c == I64_EXTEND_SI32 || c == I64_EXTEND_UI32;
+        OpCode operand = i32 ? I32_CONST : I64_CONST;
+        if (w < arity)
+            return 0;
+        for (int k = 1; k <= arity; k++) {
+            if (InstructionId.getOpCode(out[w - k]) != operand)
+                return 0;
+        }
+        long x = value(out[w - arity]);
+        long y = arity == 2 ? value(out[w - 1]) : 0;
+        return i32 ? foldI32(c, ins, (int) x, (int) y) : foldI64(c, x, y);
+    }
+
+    private long value(long ins) {
+        return InstructionId.getOpCode(ins) == I32_CONST ? InstructionId.getLeft32(ins) : pool.getOperand(ins, 0);
+    }
+
+    private long foldI32(OpCode c, long ins, int x, int y) {
+        switch (c) {
+            case I32_EQZ:
+                return i32(x == 0);
+            case I32_CLZ:
+                return i32(Integer.numberOfLeadingZeros(x));
+            case I32_CTZ:
+                return i32(Integer.numberOfTrailingZeros(x));
+            case I32_POPCNT:
+                return i32(Integer.bitCount(x));
+            case I32_ADD_C:
+                return i32(x + InstructionId.getLeft32(ins));
+            case I64_EXTEND_SI32:
+                return i64(x);
+            case I64_EXTEND_UI32:
+                return i64(Integer.toUnsignedLong(x));
+            case I32_EQ:
+                return i32(x == y);
+            case I32_NE:
+                return i32(x != y);
+            case I32_LTS:
+                return i32(x < y);
+            case I32_LTU:
+                return i32(Integer.compareUnsigned(x, y) < 0);
+            case I32_GTS:
+                return i32(x > y);
+            case I32_GTU:
+                return i32(Integer.compareUnsigned(x, y) > 0);
+            case I32_LES:
+                return i32(x <= y);
+            case I32_LEU:
+                return i32(Integer.compareUnsigned(x, y) <= 0);
+            case I32_GES:
+                return i32(x >= y);
+            case I32_GEU:
+                return i32(Integer.compareUnsigned(x, y) >= 0);
+            case I32_ADD:
+                return i32(x + y);
+            case I32_SUB:
+                return i32(x - y);
+            case I32_MUL:
+                return i32(x * y);
+            case I32_DIVS:
+                return y == 0 || x == Integer.MIN_VALUE && y == -1 ? 0 : i32(x / y);
+            case I32_DIVU:
+                return y == 0 ? 0 : i32(Integer.divideUnsigned(x, y));
+            case I32_REMS:
+                return y == 0 ? 0 : i32(x % y);
+            case I32_REMU:
+                return y == 0 ? 0 : i32(Integer.remainderUnsigned(x, y));
+            case I32_AND:
+                return i32(x & y);
+            case I32_OR:
+                return i32(x | y);
+            case I32_XOR:
+                return i32(x ^ y);
+            case I32_SHL:
+                return i32(x << y);
+            case I32_SHRS:
+                return i32(x >> y);
+            case I32_SHRU:
+                return i32(x >>> y);
+            case I32_ROTL:
+                return i32(Integer.rotateLeft(x, y));
+            case I32_ROTR:
+                return i32(Integer.rotateRight(x, y));
+            default:
+                return 0;
+        }
+    }
+
+    private long foldI64(OpCode c, long x, long y) {
+        switch (c) {
+            case I64_EQZ:
+                return i32(x == 0);
+            case I32_WRAP_I64:
+                return i32((int) x);
+            case I64_CLZ:
+                return i64(Long.numberOfLeadingZeros(x));
+            case I64_CTZ:
+                return i64(Long.numberOfTrailingZeros(x));
+            case I64_POPCNT:
+                return i64(Long.bitCount(x));
+            case I64_EQ:
+                return i32(x == y);
+            case I64_NE:
+                return i32(x != y);
+            case I64_LTS:
+                return i32(x < y);
+            case I64_LTU:
+                return i32(Long.compareUnsigned(x, y) < 0);
+            case I64_GTS:
+                return i32(x > y);
+            case I64_GTU:
+                return i32(Long.compareUnsigned(x, y) > 0);
+            case I64_LES:
+                return i32(x <= y);
+            case I64_LEU:
+                return i32(Long.compareUnsigned(x, y) <= 0);
+            case I64_GES:
+                return i32(x >= y);
+            case I64_GEU:
+                return i32(Long.compareUnsigned(x, y) >= 0);
+            case I64_ADD:
+                return i64(x + y);
+            case I64_SUB:
+                return i64(x - y);
+            case I64_MUL:
+                return i64(x * y);
+            case I64_DIVS:
+                return y == 0 || x == Long.MIN_VALUE && y == -1 ? 0 : i64(x / y);
+            case I64_DIVU:
+                return y == 0 ? 0 : i64(Long.divideUnsigned(x, y));
+            case I64_REMS:
+                return y == 0 ? 0 : i64(x % y);
+            case I64_REMU:
+                return y == 0 ? 0 : i64(Long.remainderUnsigned(x, y));
+            case I64_AND:
+                return i64(x & y);
+            case I64_OR:
+                return i64(x | y);
+            case I64_XOR:
+                return i64(x ^ y);
+            case I64_SHL:
+                return i64(x << y);
+            case I64_SHRS:
+                return i64(x >> y);
+            case I64_SHRU:
+                return i64(x >>> y);
+            case I64_ROTL:
+                return i64(Long.rotateLeft(x, (int) y));
+            case I64_ROTR:
+                return i64(Long.rotateRight(x, (int) y));
+            default:
+                return 0;
+        }
+    }
+}
@@ -0,0 +1,487 @@
+package org.tdf.lotusvm.types;
+
+import org.tdf.lotusvm.common.OpCode;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.tdf.lotusvm.common.OpCode.*;
+
+// translate a function body into flat register code, operands are slots of frame instead of the operand stack
+// slot of a local = local index, slot of an operand = local size + stack height, branches are pre-linked
+// local.get and i32.const are deferred until consumed, so the consumer reads the local or the immediate directly
+// instruction = C or immediate (4byte) | B (12bit) | A (12bit) | opcode
+// binary op: A = B op C, unary op: A = op B, i32.add_c: A = B + imm, move: A = B, i32.const: A = imm
+// i64.const: A = the next instruction
+// load: A = load(B + imm), store: store(B + imm, A)
+// get_global: A = globals[imm], set_global: globals[imm] = A, current_memory: A = pages, grow_memory: A = grow(B)
+// select: A = C != 0 ? A : B, the first value is always at the slot of result
+// br = jump to imm, br_if = jump to imm if A != 0, if = jump to imm if A == 0
+// br_table = A is index, imm is label size, followed by label size entries
+// entry = target (4byte) | src (12bit) | dst (12bit) | move flag (1byte)
+// call = imm is function index, A is stack height with arguments on top
+// call_indirect = imm is type index, A is stack height with arguments on top, B is element index
+// return = A is result
+// functions with float instructions or too many slots are not translated
+public final class RegisterCode {
+    public static final int MAX_SLOT = 0xfff;
+
+    // kinds of operand
+    private static final int SLOT = 0;
+    private static final int LOCAL = 1;
+    private static final int CONST = 2;
+
+    private final InstructionPool pool;
+    // function types of type section
+    private final List<FunctionType> types;
+    // function types of function index space
+    private final List<FunctionType> functionTypes;
+
+    private long[] out = new long[64];
+    private int size;
+    // index of the last instruction if it writes top of stack, -1 otherwise
+    private int last;
+    private int localSize;
+
+    // deferred operand stack
+    private int[] kinds = new int[16];
+    private int[] values = new int[16];
+    private int height;
+    private final List<Control> controls = new ArrayList<>();
+
+    public RegisterCode(InstructionPool pool, List<FunctionType> types, List<FunctionType> functionTypes) {
+        this.pool = pool;
+        this.types = types;
+        this.functionTypes = functionTypes;
+    }
+
+    public static int getA(long ins) {
+        return (int) (ins >>> 8) & MAX_SLOT;
+    }
+
+    public static int getB(long ins) {
+        return (int) (ins >>> 20) & MAX_SLOT;
+    }
+
+    public static long instruction(OpCode c, int a, int b, int imm) {
+        return InstructionId.setLeft32(c.code | ((long) a << 8) | ((long) b << 20), imm);
+    }
+
+    // translate the body and push register code into pool, return instructions id of the register code
+    // a RuntimeException is thrown if the body is malformed or not translatable
+    public long translate(FunctionType type, int localSize, long body) {
+        if (localSize > MAX_SLOT)
+            throw new RuntimeException("slot overflow");
+        this.localSize = localSize;
+        size = 0;
+        height = 0;
+        last = -1;
+        controls.clear();
+        Control function = new Control(false, 0, !type.getResultTypes().isEmpty());
+        controls.add(function);
+        if (lowerRange(body))
+            fallthrough(function);
+        endBlock(function);
+        emit(instruction(RETURN, localSize, 0, 0));
+        return pool.pushInstructions(out, size);
+    }
+
+    // return false if the rest of code is unreachable
+    private boolean lowerRange(long instructions) {
+        int n = InstructionPool.getInstructionsSize(instructions);
+        for (int i = 0; i < n; i++) {
+            if (!lowerInstruction(pool.getInstructionInArray(instructions, i)))
+                return false;
+        }
+        return true;
+    }
+
+    private boolean lowerInstruction(long ins) {
+        OpCode c = InstructionId.getOpCode(ins);
+        if (c.parts.length > 0) {
+            for (long part : Superinstructions.expand(ins)) {
+                if (!lowerInstruction(part))
+                    return false;
+            }
+            return true;
+        }
+        switch (c) {
+            case NOP:
+                return true;
+            case GAS:
+                emit(instruction(GAS, 0, 0, InstructionId.getLeft32(ins)));
+                return true;
+            case I32_REINTERPRET_F32:
+            case I64_REINTERPRET_F64:
+            case I64_EXTEND_UI32:
+                // no-ops, the operand is kept
+                require(1);
+                return true;
+            case UNREACHABLE:
+                emit(instruction(UNREACHABLE, 0, 0, 0));
+                return false;
+            case BLOCK:
+            case LOOP: {
+                materializeAll();
+                Control ctl = new Control(c == LOOP, height, InstructionId.getResultType(ins) != ResultType.EMPTY);
+                ctl.start = size;
+                controls.add(ctl);
+                if (lowerRange(pool.getBranch0(ins)))
+                    fallthrough(ctl);
+                endBlock(ctl);
+                return true;
+            }
+            case IF: {
+                int cond = popOperand();
+                materializeAll();
+                int p = emit(instruction(IF, cond, 0, 0));
+                Control ctl = new Control(false, height, InstructionId.getResultType(ins) != ResultType.EMPTY);
+                controls.add(ctl);
+                boolean reachable = lowerRange(pool.getBranch0(ins));
+                long branch1 = pool.getBranch1(ins);
+                if (!pool.isNullBranch(branch1)) {
+                    if (reachable) {
+                        fallthrough(ctl);
+                        ctl.fixups.add(emit(instruction(BR, 0, 0, 0)));
+                    }
+                    out[p] = InstructionId.setLeft32(out[p], size);
+                    height = ctl.height;
+                    reachable = lowerRange(branch1);
+                    if (reachable)
+                        fallthrough(ctl);
+                } else {
+                    if (reachable)
+                        fallthrough(ctl);
+                    out[p] = InstructionId.setLeft32(out[p], size);
+                }
+                endBlock(ctl);
+                return true;
+            }
+            case BR: {
+                materializeAll();
+                Control target = target(InstructionId.getLeft32(ins));
+                emitMove(target);
+                emitJump(instruction(BR, 0, 0, 0), target);
+                return false;
+            }
+            case BR_IF: {
+                int cond = popOperand();
+                materializeAll();
+                Control target = target(InstructionId.getLeft32(ins));
+                if (!needsMove(target)) {
+                    emitJump(instruction(BR_IF, cond, 0, 0), target);
+                    return true;
+                }
+                // skip the move if condition is zero
+                int p = emit(instruction(IF, cond, 0, 0));
+                emitMove(target);
+                emitJump(instruction(BR, 0, 0, 0), target);
+                out[p] = InstructionId.setLeft32(out[p], size);
+                return true;
+            }
+            case BR_TABLE: {
+                int index = popOperand();
+                materializeAll();
+                int labels = InstructionId.getOperandSize(ins);
+                emit(instruction(BR_TABLE, index, 0, labels));
+                for (int i = 0; i < labels; i++) {
+                    Control target = target(pool.getOperandAsInt(ins, i));
+                    long entry = needsMove(target) ?
+                        1L | ((long) (localSize + target.height) << 8) | ((long) (localSize + height - 1) << 20) : 0L;
+                    emitJump(entry, target);
+                }
+                return false;
+            }
+            case RETURN: {
+                int src = controls.get(0).result ? popOperand() : 0;
+                emit(instruction(RETURN, src, 0, 0));
+                return false;
+            }
+            case CALL: {
+                int f = InstructionId.getLeft32(ins);
+                if (f < 0 || f >= functionTypes.size())
+                    throw new RuntimeException("call function index overflow");
+                call(CALL, functionTypes.get(f), 0, f);
+                return true;
+            }
+            case CALL_INDIRECT: {
+                int idx = InstructionId.getLeft32(ins);
+                if (idx < 0 || idx >= types.size())
+                    throw new RuntimeException("call indirect type index overflow");
+                int element = popOperand();
+                call(CALL_INDIRECT, types.get(idx), element, idx);
+                return true;
+            }
+            case DROP:
+                require(1);
+                height--;
+                return true;
+            case SELECT: {
+                int cond = popOperand();
+                int second = popOperand();
+                require(1);
+                materialize(height - 1);
+                emit(instruction(SELECT, localSize + height - 1, second, cond));
+                return true;
+            }
+            case GET_LOCAL: {
+                int index = local(ins);
+                push(LOCAL, index);
+                return true;
+            }
+            case SET_LOCAL:
+                setLocal(local(ins), false);
+                return true;
+            case TEE_LOCAL:
+                setLocal(local(ins), true);
+                return true;
+            case GET_GLOBAL:
+                emitValue(instruction(GET_GLOBAL, localSize + height, 0, InstructionId.getLeft32(ins)));
+                return true;
+            case SET_GLOBAL:
+                emit(instruction(SET_GLOBAL, popOperand(), 0, InstructionId.getLeft32(ins)));
+                return true;
+            case CURRENT_MEMORY:
+                emitValue(instruction(CURRENT_MEMORY, localSize + height, 0, 0));
+                return true;
+            case GROW_MEMORY: {
+                int n = popOperand();
+                emitValue(instruction(GROW_MEMORY, localSize + height, n, 0));
+                return true;
+            }
+            case I32_CONST:
+                push(CONST, InstructionId.getLeft32(ins));
+                return true;
+            case I64_CONST: {
+                push(SLOT, 0);
+                emit(instruction(I64_CONST, localSize + height - 1, 0, 0));
+                emit(pool.getOperand(ins, 0));
+                return true;
+            }
+        }
+        if (c.isFloatOp(c))
+            throw new RuntimeException("float number op " + c.name + " is not translated");
+        if (c.code > 0xff)
+            throw new RuntimeException("simd op " + c.name + " is not translated");
+        if (c.code >= I32_LOAD.code && c.code <= I64_LOAD32_U.code) {
+            int address = popOperand();
+            emitValue(instruction(c, localSize + height, address, InstructionId.getLeft32(ins)));
+            return true;
+        }
+        if (c.code >= I32_STORE.code && c.code <= I64_STORE32.code) {
+            int value = popOperand();
+            int address = popOperand();
+            emit(instruction(c, value, address, InstructionId.getLeft32(ins)));
+            return true;
+        }
+        if (c.code < I32_EQZ.code)
+            throw new RuntimeException("unknown opcode " + c);
+        if (ThreadedCode.pops(c) == 1) {
+            int src = popOperand();
+            emitValue(instruction(c, localSize + height, src, 0));
+            return true;
+        }
+        require(2);
+        if ((c == I32_ADD || c == I32_SUB) && kinds[height - 1] == CONST) {
+            int imm = values[height - 1];
+            height--;
+            int src = popOperand();
+            emitValue(instruction(I32_ADD_C, localSize + height, src, c == I32_ADD ? imm : -imm));
+            return true;
+        }
+        int second = popOperand();
+        int first = popOperand();
+        emitValue(instruction(c, localSize + height, first, second));
+        return true;
+    }
+
+    private void call(OpCode c, FunctionType type, int element, int imm) {
+        int params = type.getParameterTypes().size();
+        require(params);
+        // arguments are passed on stack
+        for (int i = height - params; i < height; i++) {
+            materialize(i);
+        }
+        emit(instruction(c, height, element, imm));
+        height -= params;
+        if (!type.getResultTypes().isEmpty())
+            push(SLOT, 0);
+    }
+
+    private void setLocal(int index, boolean tee) {
+        require(1);
+        int top = height - 1;
+        if (kinds[top] == LOCAL && values[top] == index) {
+            if (!tee)
+                height--;
+            return;
+        }
+        if (kinds[top] == SLOT && last == size - 1 && getA(out[last]) == localSize + top && !deferred(index)) {
+            // write the result into local directly
+            out[last] = (out[last] & ~((long) MAX_SLOT << 8)) | ((long) index << 8);
+        } else {
+            // deferred reads of the local are done before it's overwritten
+            materializeLocal(index);
+            if (kinds[top] == CONST) {
+                emit(instruction(I32_CONST, index, 0, values[top]));
+            } else {
+                emit(instruction(MOVE, index, kinds[top] == LOCAL ? values[top] : localSize + top, 0));
+            }
+        }
+        height--;
+        if (tee)
+            push(LOCAL, index);
+    }
+
+    private int local(long ins) {
+        int index = InstructionId.getLeft32(ins);
+        if (index < 0 || index >= localSize)
+            throw new RuntimeException("local variable overflow");
+        return index;
+    }
+
+    private Control target(int depth) {
+        if (depth < 0 || depth >= controls.size())
+            throw new RuntimeException("label index overflow");
+        Control target = controls.get(controls.size() - 1 - depth);
+        if (height < target.height + (target.arity() ? 1 : 0))
+            throw new RuntimeException("stack underflow");
+        return target;
+    }
+
+    // the result is moved to the stack height of target
+    private boolean needsMove(Control target) {
+        return target.arity() && height - 1 != target.height;
+    }
+
+    private void emitMove(Control target) {
+        if (needsMove(target))
+            emit(instruction(MOVE, localSize + target.height, localSize + height - 1, 0));
+    }
+
+    private void emitJump(long ins, Control target) {
+        if (target.loop) {
+            emit(InstructionId.setLeft32(ins, target.start));
+            return;
+        }
+        target.fixups.add(emit(ins));
+    }
+
+    // the result of block is at the stack height of block
+    private void fallthrough(Control ctl) {
+        if (height != ctl.height + (ctl.result ? 1 : 0))
+            throw new RuntimeException("stack height mismatch");
+        materializeAll();
+    }
+
+    private void endBlock(Control ctl) {
+        controls.remove(controls.size() - 1);
+        for (int i = 0; i < ctl.fixups.size(); i++) {
+            int p = ctl.fixups.get(i);
+            out[p] = InstructionId.setLeft32(out[p], size);
+        }
+        height = ctl.height;
+        if (ctl.result)
+            push(SLOT, 0);
+        last = -1;
+    }
+
+    // slot of the operand at stack height p
+    private int operand(int p) {
+        if (kinds[p] == CONST)
+            materialize(p);
+        return kinds[p] == LOCAL ? values[p] : localSize + p;
+    }
+
+    private int popOperand() {
+        require(1);
+        int slot = operand(height - 1);
+        height--;
+        return slot;
+    }
+
+    private void materialize(int p) {
+        if (kinds[p] == LOCAL)
+            emit(instruction(MOVE, localSize + p, values[p], 0));
+        if (kinds[p] == CONST)
+            emit(instruction(I32_CONST, localSize + p, 0, values[p]));
+        kinds[p] = SLOT;
+    }
+
+    // operands at join point are always in their slots
+    private void materializeAll() {
+        for (int i = 0; i < height; i++) {
+            materialize(i);
+        }
+    }
+
+    private void materializeLocal(int index) {
+        for (int i = 0; i < height; i++) {
+            if (kinds[i] == LOCAL && values[i] == index)
+                materialize(i);
+        }
+    }
+
+    private boolean deferred(int index) {
+        for (int i = 0; i < height; i++) {
+            if (kinds[i] == LOCAL && values[i] == index)
+                return true;
+        }
+        return false;
+    }
+
+    private void require(int n) {
+        Control current = controls.get(controls.size() - 1);
+        if (height - n < current.height)
+            throw new RuntimeException("stack underflow");
+    }
+
+    private void push(int kind, int value) {
+        if (localSize + height >= MAX_SLOT)
+            throw new RuntimeException("slot overflow");
+        if (height == kinds.length) {
+            kinds = Arrays.copyOf(kinds, height * 2);
+            values = Arrays.copyOf(values, height * 2);
+        }
+        kinds[height] = kind;
+        values[height] = value;
+        height++;
+    }
+
+    // emit an instruction writes a new operand on top of stack
+    private void emitValue(long ins) {
+        push(SLOT, 0);
+        last = emit(ins);
+    }
+
+    private int emit(long ins) {
+        if (size == out.length)
+            out = Arrays.copyOf(out, size * 2);
+        out[size] = ins;
+        last = -1;
+        return size++;
+    }
+
+    private static final class Control {
+        final boolean loop;
+        // stack height at entry
+        final int height;
+        final boolean result;
+        // pc of loop body
+        int start;
+        // pc of branches to the end of block
+        final List<Integer> fixups = new ArrayList<>();
+
+        Control(boolean loop, int height, boolean result) {
+            this.loop = loop;
+            this.height = height;
+            this.result = result;
+        }
+
+        // branch to loop carries no value
+        boolean arity() {
+            return !loop && result;
+        }
+    }
+}
@@ -6,7 +6,8 @@ import org.tdf.lotusvm.common.Constants
 enum class ResultType(val code: Int) {
     EMPTY(Constants.RESULT_EMPTY), I32(Constants.VALUE_I32), I64(Constants.VALUE_I64), F32(Constants.VALUE_F32), F64(
         Constants.VALUE_F64
-    );
+    ),
+    V128(Constants.VALUE_V128);
 
     companion object {
         @JvmField
@@ -20,6 +21,7 @@ enum class ResultType(val code: Int) {
                 Constants.VALUE_I64 -> I64
                 Constants.VALUE_F32 -> F32
                 Constants.VALUE_F64 -> F64
+                Constants.VALUE_V128 -> V128
                 Constants.RESULT_EMPTY -> EMPTY
                 else -> throw IllegalArgumentException(String.format("unknown value type %x", type))
             }
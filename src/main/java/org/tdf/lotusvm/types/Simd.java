@@ -0,0 +1,351 @@
+package org.tdf.lotusvm.types;
+
+import org.tdf.lotusvm.common.OpCode;
+
+import static org.tdf.lotusvm.common.Opcodes.*;
+
+// integer subset of fixed-width simd, a v128 value takes two slots, the low 64 bits are pushed first
+// lanes are computed by swar on each 64 bit half, no lane crosses the halves except of shuffle and swizzle
+// a v128 local takes the slot of it's index and a slot after all locals, see Validator
+public final class Simd {
+    private static final ValueType[] NONE = {};
+    private static final ValueType[] I = {ValueType.I32};
+    private static final ValueType[] L = {ValueType.I64};
+    private static final ValueType[] V = {ValueType.V128};
+    private static final ValueType[] VV = {ValueType.V128, ValueType.V128};
+    private static final ValueType[] VVV = {ValueType.V128, ValueType.V128, ValueType.V128};
+    private static final ValueType[] VI = {ValueType.V128, ValueType.I32};
+    private static final ValueType[] VL = {ValueType.V128, ValueType.I64};
+    private static final ValueType[] IV = {ValueType.I32, ValueType.V128};
+    private static final ValueType[] VVI = {ValueType.V128, ValueType.V128, ValueType.I32};
+
+    // lowest and highest bit of every lane
+    private static final long LOW_8 = 0x0101010101010101L;
+    private static final long HIGH_8 = 0x8080808080808080L;
+    private static final long LOW_16 = 0x0001000100010001L;
+    private static final long HIGH_16 = 0x8000800080008000L;
+    private static final long LOW_32 = 0x0000000100000001L;
+    private static final long HIGH_32 = 0x8000000080000000L;
+
+    private Simd() {
+    }
+
+    // operand types of simd instruction, the last one is the top of stack
+    public static ValueType[] operands(OpCode c) {
+        switch (c.code) {
+            case V128_CONST:
+            case V128_GET_LOCAL:
+                return NONE;
+            case V128_LOAD:
+            case I8X16_SPLAT:
+            case I16X8_SPLAT:
+            case I32X4_SPLAT:
+                return I;
+            case I64X2_SPLAT:
+                return L;
+            case V128_STORE:
+                return IV;
+            case I8X16_EXTRACT_LANE_S:
+            case I8X16_EXTRACT_LANE_U:
+            case I16X8_EXTRACT_LANE_S:
+            case I16X8_EXTRACT_LANE_U:
+            case I32X4_EXTRACT_LANE:
+            case I64X2_EXTRACT_LANE:
+            case V128_NOT:
+            case V128_ANY_TRUE:
+            case I8X16_ALL_TRUE:
+            case I16X8_ALL_TRUE:
+            case I32X4_ALL_TRUE:
+            case I64X2_ALL_TRUE:
+            case V128_SET_LOCAL:
+            case V128_TEE_LOCAL:
+            case V128_DROP:
+                return V;
+            case I8X16_REPLACE_LANE:
+            case I16X8_REPLACE_LANE:
+            case I32X4_REPLACE_LANE:
+            case I8X16_SHL:
+            case I8X16_SHR_S:
+            case I8X16_SHR_U:
+            case I16X8_SHL:
+            case I16X8_SHR_S:
+            case I16X8_SHR_U:
+            case I32X4_SHL:
+            case I32X4_SHR_S:
+            case I32X4_SHR_U:
+            case I64X2_SHL:
+            case I64X2_SHR_S:
+            case I64X2_SHR_U:
+                return VI;
+            case I64X2_REPLACE_LANE:
+                return VL;
+            case V128_BITSELECT:
+                return VVV;
+            case V128_SELECT:
+                return VVI;
+            default:
+                if (c.code <= 0xff)
+                    throw new RuntimeException(c.name + " is not a simd instruction");
+                return VV;
+        }
+    }
+
+    // result type of simd instruction, null if nothing is pushed
+    public static ValueType result(OpCode c) {
+        switch (c.code) {
+            case V128_STORE:
+            case V128_SET_LOCAL:
+            case V128_DROP:
+                return null;
+            case I8X16_EXTRACT_LANE_S:
+            case I8X16_EXTRACT_LANE_U:
+            case I16X8_EXTRACT_LANE_S:
+            case I16X8_EXTRACT_LANE_U:
+            case I32X4_EXTRACT_LANE:
+            case V128_ANY_TRUE:
+            case I8X16_ALL_TRUE:
+            case I16X8_ALL_TRUE:
+            case I32X4_ALL_TRUE:
+            case I64X2_ALL_TRUE:
+                return ValueType.I32;
+            case I64X2_EXTRACT_LANE:
+                return ValueType.I64;
+            default:
+                return ValueType.V128;
+        }
+    }
+
+    // number of lanes indexed by the lane immediate, 0 if the instruction has no lane immediate
+    public static int lanes(OpCode c) {
+        switch (c.code) {
+            case I8X16_EXTRACT_LANE_S:
+            case I8X16_EXTRACT_LANE_U:
+            case I8X16_REPLACE_LANE:
+                return 16;
+            case I16X8_EXTRACT_LANE_S:
+            case I16X8_EXTRACT_LANE_U:
+            case I16X8_REPLACE_LANE:
+                return 8;
+            case I32X4_EXTRACT_LANE:
+            case I32X4_REPLACE_LANE:
+                return 4;
+            case I64X2_EXTRACT_LANE:
+            case I64X2_REPLACE_LANE:
+                return 2;
+            default:
+                return 0;
+        }
+    }
+
+    public static int slots(ValueType t) {
+        if (t == null)
+            return 0;
+        return t == ValueType.V128 ? 2 : 1;
+    }
+
+    public static int slots(ValueType[] types) {
+        int n = 0;
+        for (ValueType t : types) {
+            n += slots(t);
+        }
+        return n;
+    }
+
+    // v128 local instruction = high slot (2byte) | low slot (2byte) | 0xfd | sub opcode
+    public static long local(OpCode c, int low, int high) {
+        return InstructionId.setLeft32(InstructionId.withOpCode(c), low | high << 16);
+    }
+
+    public static int getLowSlot(long ins) {
+        return InstructionId.getLeft32(ins) & 0xffff;
+    }
+
+    public static int getHighSlot(long ins) {
+        return InstructionId.getLeft32(ins) >>> 16;
+    }
+
+    // lanewise binary operation on 64 bit halves of both operands
+    public static long binary(int code, long a, long b) {
+        switch (code) {
+            case V128_AND:
+                return a & b;
+            case V128_ANDNOT:
+                return a & ~b;
+            case V128_OR:
+                return a | b;
+            case V128_XOR:
+                return a ^ b;
+            case I8X16_ADD:
+                return add(a, b, HIGH_8);
+            case I16X8_ADD:
+                return add(a, b, HIGH_16);
+            case I32X4_ADD:
+                return add(a, b, HIGH_32);
+            case I64X2_ADD:
+                return a + b;
+            case I8X16_SUB:
+                return sub(a, b, HIGH_8);
+            case I16X8_SUB:
+                return sub(a, b, HIGH_16);
+            case I32X4_SUB:
+                return sub(a, b, HIGH_32);
+            case I64X2_SUB:
+                return a - b;
+            case I16X8_MUL: {
+                long r = 0;
+                for (int s = 0; s < 64; s += 16) {
+                    r |= (((a >>> s) * (b >>> s)) & 0xffffL) << s;
+                }
+                return r;
+            }
+            case I32X4_MUL:
+                return ((a * b) & 0xffffffffL) | ((a >>> 32) * (b >>> 32)) << 32;
+            case I64X2_MUL:
+                return a * b;
+            case I8X16_EQ:
+                return ~nonZero(a ^ b, HIGH_8, 7, 0xffL);
+            case I16X8_EQ:
+                return ~nonZero(a ^ b, HIGH_16, 15, 0xffffL);
+            case I32X4_EQ:
+                return ~nonZero(a ^ b, HIGH_32, 31, 0xffffffffL);
+            case I64X2_EQ:
+                return a == b ? -1L : 0L;
+            case I8X16_NE:
+                return nonZero(a ^ b, HIGH_8, 7, 0xffL);
+            case I16X8_NE:
+                return nonZero(a ^ b, HIGH_16, 15, 0xffffL);
+            case I32X4_NE:
+                return nonZero(a ^ b, HIGH_32, 31, 0xffffffffL);
+            case I64X2_NE:
+                return a != b ? -1L : 0L;
+            default:
+                throw new RuntimeException(String.format("unknown opcode %x", code));
+        }
+    }
+
+    // lanewise shift of a 64 bit half, the shift count is modulo lane width
+    public static long shift(int code, long a, int count) {
+        switch (code) {
+            case I8X16_SHL: {
+                int s = count & 7;
+                return (a << s) & splat8(0xff << s);
+            }
+            case I8X16_SHR_U: {
+                int s = count & 7;
+                return (a >>> s) & splat8(0xff >>> s);
+            }
+            case I8X16_SHR_S: {
+                // sign extend by (x ^ m) - m where m is the shifted sign bit
+                int s = count & 7;
+                long m = splat8(0x80 >>> s);
+                return sub(((a >>> s) & splat8(0xff >>> s)) ^ m, m, HIGH_8);
+            }
+            case I16X8_SHL: {
+                int s = count & 15;
+                return (a << s) & splat16(0xffff << s);
+            }
+            case I16X8_SHR_U: {
+                int s = count & 15;
+                return (a >>> s) & splat16(0xffff >>> s);
+            }
+            case I16X8_SHR_S: {
+                int s = count & 15;
+                long m = splat16(0x8000 >>> s);
+                return sub(((a >>> s) & splat16(0xffff >>> s)) ^ m, m, HIGH_16);
+            }
+            case I32X4_SHL: {
+                int s = count & 31;
+                return (a << s) & splat32(-1 << s);
+            }
+            case I32X4_SHR_U: {
+                int s = count & 31;
+                return (a >>> s) & splat32(-1 >>> s);
+            }
+            case I32X4_SHR_S: {
+                int s = count & 31;
+                return (((int) a >> s) & 0xffffffffL) | ((long) ((int) (a >>> 32) >> s)) << 32;
+            }
+            case I64X2_SHL:
+                return a << count;
+            case I64X2_SHR_U:
+                return a >>> count;
+            case I64X2_SHR_S:
+                return a >> count;
+            default:
+                throw new RuntimeException(String.format("unknown opcode %x", code));
+        }
+    }
+
+    // all lanes of both halves are non-zero
+    public static boolean allTrue(int code, long low, long high) {
+        switch (code) {
+            case I8X16_ALL_TRUE:
+                return nonZero(low, HIGH_8, 7, 0xffL) == -1L && nonZero(high, HIGH_8, 7, 0xffL) == -1L;
+            case I16X8_ALL_TRUE:
+                return nonZero(low, HIGH_16, 15, 0xffffL) == -1L && nonZero(high, HIGH_16, 15, 0xffffL) == -1L;
+            case I32X4_ALL_TRUE:
+                return nonZero(low, HIGH_32, 31, 0xffffffffL) == -1L && nonZero(high, HIGH_32, 31, 0xffffffffL) == -1L;
+            default:
+                return low != 0 && high != 0;
+        }
+    }
+
+    public static long splat8(int v) {
+        return (v & 0xffL) * LOW_8;
+    }
+
+    public static long splat16(int v) {
+        return (v & 0xffffL) * LOW_16;
+    }
+
+    public static long splat32(int v) {
+        return (v & 0xffffffffL) * LOW_32;
+    }
+
+    // unsigned value of a lane of the half, lane is the index in the half
+    public static long extract(long half, int bits, int lane) {
+        return (half >>> (lane * bits)) & (-1L >>> (64 - bits));
+    }
+
+    public static long replace(long half, int bits, int lane, long value) {
+        long mask = (-1L >>> (64 - bits)) << (lane * bits);
+        return (half & ~mask) | ((value << (lane * bits)) & mask);
+    }
+
+    // 8 bytes selected from the 32 bytes of both operands by the lane indices of 8 bytes, indices are less than 32
+    public static long shuffle(long aLow, long aHigh, long bLow, long bHigh, long lanes) {
+        long r = 0;
+        for (int i = 0; i < 8; i++) {
+            int idx = (int) ((lanes >>> (i * 8)) & 0xff);
+            long half = idx < 16 ? (idx < 8 ? aLow : aHigh) : (idx < 24 ? bLow : bHigh);
+            r |= extract(half, 8, idx & 7) << (i * 8);
+        }
+        return r;
+    }
+
+    // 8 bytes selected from a by the lanes of indices, the byte is zero if the index is out of range
+    public static long swizzle(long aLow, long aHigh, long indices) {
+        long r = 0;
+        for (int i = 0; i < 8; i++) {
+            int idx = (int) ((indices >>> (i * 8)) & 0xff);
+            if (idx < 16)
+                r |= extract(idx < 8 ? aLow : aHigh, 8, idx & 7) << (i * 8);
+        }
+        return r;
+    }
+
+    // lanewise a + b, the carry out of highest bit of lane is discarded
+    private static long add(long a, long b, long high) {
+        return ((a & ~high) + (b & ~high)) ^ ((a ^ b) & high);
+    }
+
+    private static long sub(long a, long b, long high) {
+        return ((a | high) - (b & ~high)) ^ ((a ^ ~b) & high);
+    }
+
+    // all ones in the lanes of x which are non-zero
+    private static long nonZero(long x, long high, int shift, long ones) {
+        long t = (((x & ~high) + ~high) | x) & high;
+        return (t >>> shift) * ones;
+    }
+}
@@ -0,0 +1,115 @@
+package org.tdf.lotusvm.types;
+
+import org.tdf.lotusvm.common.OpCode;
+
+import static org.tdf.lotusvm.common.OpCode.*;
+
+// peephole pass rewrites frequent instruction sequences of a block into fused internal opcodes
+// local.get a; local.get b; i32.add = b (4byte) | a (2byte) | 0xff | i32.add_ll
+// local.get a; i32.load offset     = offset (4byte) | a (2byte) | 0xff | i32.load_l
+// i32.const c; i32.add             = c (4byte) | 0x0001 | 0xff | i32.add_c
+// local.get a; i32.eqz; br_if l    = l (4byte) | a (2byte) | 0xff | br_if_eqz_l
+// local.get a; i32.const c; i32.add = c (4byte) | a (2byte) | 0xff | i32.add_lc
+// local index is limited to 2 bytes, sequences with larger index are kept
+// hooks observe the parts of a superinstruction, see OpCode.parts
+public final class Superinstructions {
+    private static final int MAX_LOCAL = 0xffff;
+
+    private Superinstructions() {
+    }
+
+    // fuse the instructions in place, return the length of fused instructions
+    public static int fuse(long[] code, int length) {
+        int w = 0;
+        int i = 0;
+        while (i < length) {
+            long ins = code[i];
+            OpCode c = InstructionId.getOpCode(ins);
+            OpCode c1 = i + 1 < length ? InstructionId.getOpCode(code[i + 1]) : null;
+            OpCode c2 = i + 2 < length ? InstructionId.getOpCode(code[i + 2]) : null;
+
+            if (c == GET_LOCAL && isLocal(ins)) {
+                int a = InstructionId.getLeft32(ins);
+                if (c1 == I32_EQZ && c2 == BR_IF) {
+                    code[w++] = fused(BR_IF_EQZ_L, a, InstructionId.getLeft32(code[i + 2]));
+                    i += 3;
+                    continue;
+                }
+                if (c1 == I32_CONST && c2 == I32_ADD) {
+                    code[w++] = fused(I32_ADD_LC, a, InstructionId.getLeft32(code[i + 1]));
+                    i += 3;
+                    continue;
+                }
+                if (c1 == GET_LOCAL && c2 == I32_ADD) {
+                    code[w++] = fused(I32_ADD_LL, a, InstructionId.getLeft32(code[i + 1]));
+                    i += 3;
+                    continue;
+                }
+                if (c1 == I32_LOAD) {
+                    code[w++] = fused(I32_LOAD_L, a, InstructionId.getLeft32(code[i + 1]));
+                    i += 2;
+                    continue;
+                }
+            }
+            if (c == I32_CONST && c1 == I32_ADD) {
+                code[w++] = withOperand(I32_ADD_C, InstructionId.getLeft32(ins));
+                i += 2;
+                continue;
+            }
+            code[w++] = ins;
+            i++;
+        }
+        return w;
+    }
+
+    // expand a superinstruction into the instructions as decoded from binary
+    public static long[] expand(long ins) {
+        OpCode c = InstructionId.getOpCode(ins);
+        int left = InstructionId.getLeft32(ins);
+        switch (c) {
+            case I32_ADD_LL:
+                return new long[]{
+                    withOperand(GET_LOCAL, getLocal(ins)), withOperand(GET_LOCAL, left), InstructionId.withOpCode(I32_ADD)
+                };
+            case I32_LOAD_L:
+                return new long[]{withOperand(GET_LOCAL, getLocal(ins)), withOperand(I32_LOAD, left)};
+            case I32_ADD_C:
+                return new long[]{withOperand(I32_CONST, left), InstructionId.withOpCode(I32_ADD)};
+            case I32_ADD_LC:
+                return new long[]{
+                    withOperand(GET_LOCAL, getLocal(ins)), withOperand(I32_CONST, left), InstructionId.withOpCode(I32_ADD)
+                };
+            case BR_IF_EQZ_L:
+                return new long[]{
+                    withOperand(GET_LOCAL, getLocal(ins)), InstructionId.withOpCode(I32_EQZ), withOperand(BR_IF, left)
+                };
+            default:
+                return new long[]{ins};
+        }
+    }
+
+    // index of the fused local.get
+    public static int getLocal(long ins) {
+        return (int) ((ins >>> 16) & MAX_LOCAL);
+    }
+
+    // operands for debug
+    static long[] operands(long ins) {
+        long left = Integer.toUnsignedLong(InstructionId.getLeft32(ins));
+        if (InstructionId.getOpCode(ins) == I32_ADD_C)
+            return new long[]{left};
+        return new long[]{getLocal(ins), left};
+    }
+
+    private static boolean isLocal(long ins) {
+        return Integer.compareUnsigned(InstructionId.getLeft32(ins), MAX_LOCAL) <= 0;
+    }
+
+    private static long fused(OpCode c, int local, int operand) {
+        return InstructionId.setLeft32(InstructionId.withOpCode(c), operand) | ((long) local << 16);
+    }
+
+    private static long withOperand(OpCode c, int operand) {
+        return InstructionId.setOperandSize(InstructionId.setLeft32(InstructionId.withOpCode(c), operand), 1);
+    }
+}
@@ -0,0 +1,296 @@
+package org.tdf.lotusvm.types;
+
+import org.tdf.lotusvm.common.OpCode;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.tdf.lotusvm.common.OpCode.*;
+
+// lower nested block bodies of a function into a single flat instruction stream, branches are pre-linked
+// block and loop are kept as markers without label, so hooks observe the same instructions as nested code
+// if = jump to else branch or end when condition is zero
+// else = jump to end, emitted at the end of then-branch
+// br, br_if = target pc (4byte) | stack height (2byte) | arity (1byte) | opcode
+// br_table = label size (4byte) | opcode, followed by label size branch descriptors encoded as br
+// br_if_eqz_l = kept as decoded, followed by a branch descriptor encoded as br
+// end = function exit, appended at the end of stream
+// the stack height is relative to operand stack base of the frame, i.e. excludes locals, a v128 operand takes two slots
+public final class ThreadedCode {
+    public static final int MAX_STACK_HEIGHT = 0xffff;
+
+    private final InstructionPool pool;
+    // function types of type section
+    private final List<FunctionType> types;
+    // function types of function index space
+    private final List<FunctionType> functionTypes;
+
+    private long[] out = new long[64];
+    private int size;
+    private int height;
+    private final List<Control> controls = new ArrayList<>();
+
+    public ThreadedCode(InstructionPool pool, List<FunctionType> types, List<FunctionType> functionTypes) {
+        this.pool = pool;
+        this.types = types;
+        this.functionTypes = functionTypes;
+    }
+
+    public static long branch(OpCode c, int target, int height, boolean arity) {
+        long ins = InstructionId.setLeft32(c.code, target);
+        return ins | ((long) height << 16) | (arity ? 0x100L : 0L);
+    }
+
+    public static int getTarget(long ins) {
+        return InstructionId.getLeft32(ins);
+    }
+
+    public static int getHeight(long ins) {
+        return (int) ((ins >>> 16) & MAX_STACK_HEIGHT);
+    }
+
+    public static boolean getArity(long ins) {
+        return (ins & 0x100L) != 0;
+    }
+
+    // lower the body and push the flat code into pool, return instructions id of the flat code
+    // a RuntimeException is thrown if the body is malformed
+    public long lower(FunctionType type, long body) {
+        size = 0;
+        height = 0;
+        controls.clear();
+        Control function = new Control(false, 0, !type.getResultTypes().isEmpty());
+        controls.add(function);
+        lowerRange(body);
+        link(function, size);
+        emit(InstructionId.withOpCode(END));
+        return pool.pushInstructions(out, size);
+    }
+
+    private void lowerRange(long instructions) {
+        int n = InstructionPool.getInstructionsSize(instructions);
+        for (int i = 0; i < n; i++) {
+            if (!lowerInstruction(pool.getInstructionInArray(instructions, i)))
+                // the rest of instructions are unreachable
+                return;
+        }
+    }
+
+    // return false if the instruction is followed by unreachable code
+    private boolean lowerInstruction(long ins) {
+        OpCode c = InstructionId.getOpCode(ins);
+        switch (c) {
+            case BLOCK:
+            case LOOP: {
+                emit(ins);
+                Control ctl = new Control(c == LOOP, height, InstructionId.getResultType(ins) != ResultType.EMPTY);
+                ctl.start = size;
+                controls.add(ctl);
+                lowerRange(pool.getBranch0(ins));
+                endBlock(ctl);
+                return true;
+            }
+            case IF: {
+                pop(1);
+                int p = emit(InstructionId.withOpCode(IF));
+                Control ctl = new Control(false, height, InstructionId.getResultType(ins) != ResultType.EMPTY);
+                controls.add(ctl);
+                lowerRange(pool.getBranch0(ins));
+                long branch1 = pool.getBranch1(ins);
+                if (!pool.isNullBranch(branch1)) {
+                    int q = emit(InstructionId.withOpCode(ELSE));
+                    out[p] = InstructionId.setLeft32(out[p], size);
+                    height = ctl.height;
+                    lowerRange(branch1);
+                    out[q] = InstructionId.setLeft32(out[q], size);
+                } else {
+                    out[p] = InstructionId.setLeft32(out[p], size);
+                }
+                endBlock(ctl);
+                return true;
+            }
+            case BR:
+                emitBranch(BR, InstructionId.getLeft32(ins));
+                return false;
+            case BR_IF:
+                pop(1);
+                emitBranch(BR_IF, InstructionId.getLeft32(ins));
+                return true;
+            case BR_TABLE: {
+                pop(1);
+                int labels = InstructionId.getOperandSize(ins);
+                emit(InstructionId.setLeft32(InstructionId.withOpCode(BR_TABLE), labels));
+                for (int i = 0; i < labels; i++) {
+                    emitBranch(BR, pool.getOperandAsInt(ins, i));
+                }
+                return false;
+            }
+            case BR_IF_EQZ_L:
+                emit(ins);
+                emitBranch(BR, InstructionId.getLeft32(ins));
+                return true;
+            case RETURN:
+            case UNREACHABLE:
+                emit(ins);
+                return false;
+            case CALL: {
+                int f = InstructionId.getLeft32(ins);
+                if (f < 0 || f >= functionTypes.size())
+                    throw new RuntimeException("call function index overflow");
+                FunctionType t = functionTypes.get(f);
+                pop(t.getParameterTypes().size());
+                push(t.getResultTypes().size());
+                emit(ins);
+                return true;
+            }
+            case CALL_INDIRECT: {
+                int idx = InstructionId.getLeft32(ins);
+                if (idx < 0 || idx >= types.size())
+                    throw new RuntimeException("call indirect type index overflow");
+                FunctionType t = types.get(idx);
+                pop(t.getParameterTypes().size() + 1);
+                push(t.getResultTypes().size());
+                emit(ins);
+                return true;
+            }
+            default:
+                pop(pops(c));
+                push(pushes(c));
+                emit(ins);
+                return true;
+        }
+    }
+
+    private void endBlock(Control ctl) {
+        controls.remove(controls.size() - 1);
+        link(ctl, size);
+        height = ctl.height + (ctl.result ? 1 : 0);
+    }
+
+    // patch forward branches to the end of block
+    private void link(Control ctl, int target) {
+        for (int i = 0; i < ctl.fixups.size(); i++) {
+            int p = ctl.fixups.get(i);
+            out[p] = InstructionId.setLeft32(out[p], target);
+        }
+    }
+
+    private void emitBranch(OpCode c, int depth) {
+        if (depth < 0 || depth >= controls.size())
+            throw new RuntimeException("label index overflow");
+        Control target = controls.get(controls.size() - 1 - depth);
+        // branch to loop carries no value
+        boolean arity = !target.loop && target.result;
+        if (height < target.height + (arity ? 1 : 0))
+            throw new RuntimeException("stack underflow");
+        int p = emit(branch(c, target.loop ? target.start : 0, target.height, arity));
+        if (!target.loop)
+            target.fixups.add(p);
+    }
+
+    private int emit(long ins) {
+        if (size == out.length)
+            out = Arrays.copyOf(out, size * 2);
+        out[size] = ins;
+        return size++;
+    }
+
+    private void pop(int n) {
+        if (height < n)
+            throw new RuntimeException("stack underflow");
+        height -= n;
+    }
+
+    private void push(int n) {
+        height += n;
+        if (height > MAX_STACK_HEIGHT)
+            throw new RuntimeException("stack overflow");
+    }
+
+    static int pops(OpCode c) {
+        if (c.code > 0xff)
+            return Simd.slots(Simd.operands(c));
+        switch (c) {
+            case NOP:
+            case GAS:
+            case GET_LOCAL:
+            case GET_GLOBAL:
+            case CURRENT_MEMORY:
+            case I32_CONST:
+            case I64_CONST:
+            case F32_CONST:
+            case F64_CONST:
+            case I32_ADD_LL:
+            case I32_ADD_LC:
+            case I32_LOAD_L:
+            case DATA_DROP:
+                return 0;
+            case I32_ADD_C:
+                return 1;
+            case SELECT:
+            case MEMORY_INIT:
+            case MEMORY_COPY:
+            case MEMORY_FILL:
+                return 3;
+            case DROP:
+            case SET_LOCAL:
+            case TEE_LOCAL:
+            case SET_GLOBAL:
+            case GROW_MEMORY:
+                return 1;
+        }
+        if (c.code >= I32_LOAD.code && c.code <= I64_LOAD32_U.code)
+            return 1;
+        if (c.code >= I32_STORE.code && c.code <= I64_STORE32.code)
+            return 2;
+        return isUnary(c) ? 1 : 2;
+    }
+
+    static int pushes(OpCode c) {
+        if (c.code > 0xff)
+            return Simd.slots(Simd.result(c));
+        switch (c) {
+            case NOP:
+            case GAS:
+            case DROP:
+            case SET_LOCAL:
+            case SET_GLOBAL:
+            case MEMORY_INIT:
+            case DATA_DROP:
+            case MEMORY_COPY:
+            case MEMORY_FILL:
+                return 0;
+        }
+        if (c.code >= I32_STORE.code && c.code <= I64_STORE32.code)
+            return 0;
+        return 1;
+    }
+
+    // numeric instructions with one operand
+    private static boolean isUnary(OpCode c) {
+        return c == I32_EQZ || c == I64_EQZ ||
+            c.code >= I32_CLZ.code && c.code <= I32_POPCNT.code ||
+            c.code >= I64_CLZ.code && c.code <= I64_POPCNT.code ||
+            c.code >= F32_ABS.code && c.code <= F32_SQRT.code ||
+            c.code >= F64_ABS.code && c.code <= F64_SQRT.code ||
+            c.code >= I32_WRAP_I64.code;
+    }
+
+    private static final class Control {
+        final boolean loop;
+        // stack height at entry
+        final int height;
+        final boolean result;
+        // pc of loop body
+        int start;
+        // pc of branches to the end of block
+        final List<Integer> fixups = new ArrayList<>();
+
+        Control(boolean loop, int height, boolean result) {
+            this.loop = loop;
+            this.height = height;
+            this.result = result;
+        }
+    }
+}
@@ -33,6 +33,15 @@ public class UnsafeLongBuffer implements LongBuffer {
         UnsafeUtil.UNSAFE.putLong(ptr, val);
     }
 
+    // access without bounds check, the index must be less than size
+    public long getUnchecked(int index) {
+        return UnsafeUtil.UNSAFE.getLong(pointer + (index * 8L));
+    }
+
+    public void setUnchecked(int index, long val) {
+        UnsafeUtil.UNSAFE.putLong(pointer + (index * 8L), val);
+    }
+
     private void setInternal(int index, long val) {
         long ptr = pointer + (index * 8L);
         UnsafeUtil.UNSAFE.putLong(ptr, val);
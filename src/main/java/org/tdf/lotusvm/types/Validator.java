@@ -0,0 +1,737 @@
+package org.tdf.lotusvm.types;
+
+import org.tdf.lotusvm.Module;
+import org.tdf.lotusvm.common.OpCode;
+
+import java.util.*;
+
+import static org.tdf.lotusvm.common.OpCode.*;
+import static org.tdf.lotusvm.types.UnsafeUtil.MAX_UNSIGNED_SHORT;
+
+// validation of web assembly 1.0 modules, a RuntimeException is thrown if the module is invalid
+// function bodies are type checked by an operand stack of value types and a control stack of labels,
+// the max operand stack height and the max label depth of each defined function are recorded,
+// so that a frame could be reserved at function entry and accesses inside the frame are unchecked
+// simd instructions are validated too, v128 values are limited to locals and operands, see Simd
+// local.get, local.set, local.tee, drop and select of v128 are rewritten to v128 instructions in place
+public final class Validator {
+    // max pages of a memory, 4GiB
+    private static final int MAX_PAGES = 0x10000;
+
+    // operand and result type of conversions, from i32.wrap_i64 to f64.reinterpret_i64
+    private static final ValueType[][] CONVERSIONS = {
+        {ValueType.I64, ValueType.I32},
+        {ValueType.F32, ValueType.I32}, {ValueType.F32, ValueType.I32},
+        {ValueType.F64, ValueType.I32}, {ValueType.F64, ValueType.I32},
+        {ValueType.I32, ValueType.I64}, {ValueType.I32, ValueType.I64},
+        {ValueType.F32, ValueType.I64}, {ValueType.F32, ValueType.I64},
+        {ValueType.F64, ValueType.I64}, {ValueType.F64, ValueType.I64},
+        {ValueType.I32, ValueType.F32}, {ValueType.I32, ValueType.F32},
+        {ValueType.I64, ValueType.F32}, {ValueType.I64, ValueType.F32},
+        {ValueType.F64, ValueType.F32},
+        {ValueType.I32, ValueType.F64}, {ValueType.I32, ValueType.F64},
+        {ValueType.I64, ValueType.F64}, {ValueType.I64, ValueType.F64},
+        {ValueType.F32, ValueType.F64},
+        {ValueType.F32, ValueType.I32}, {ValueType.F64, ValueType.I64},
+        {ValueType.I32, ValueType.F32}, {ValueType.I64, ValueType.F64},
+    };
+
+    private final Module module;
+    private final InstructionPool pool;
+    // function types of type section
+    private final List<FunctionType> types;
+    // function types of function index space
+    private final List<FunctionType> functionTypes = new ArrayList<>();
+    // global types of global index space
+    private final List<GlobalType> globalTypes = new ArrayList<>();
+    private int importedGlobals;
+    private int tables;
+    private int memories;
+    // number of data segments declared by data count section, -1 if absent
+    private int dataCount = -1;
+
+    private int[] maxStackSizes;
+    private int[] maxLabelSizes;
+
+    // state of the function under validation, null operand type is unknown type of unreachable code
+    private ValueType[] locals;
+    // slot of the high 64 bits of v128 locals, allocated after all the locals
+    private int[] highSlots;
+    private ValueType result;
+    private ValueType[] operands = new ValueType[64];
+    private int height;
+    // operand stack height in slots, a v128 operand takes two slots
+    private int slots;
+    private int maxHeight;
+    private final List<Control> controls = new ArrayList<>();
+    private int maxDepth;
+
+    public Validator(Module module) {
+        this.module = module;
+        this.pool = module.getInsPool();
+        this.types = module.getTypeSection() == null ? Collections.emptyList() : module.getTypeSection().getFunctionTypes();
+    }
+
+    // max operand stack height in slots of defined functions, excludes locals
+    public int[] getMaxStackSizes() {
+        return maxStackSizes;
+    }
+
+    // max label depth of defined functions, includes the label of function body
+    public int[] getMaxLabelSizes() {
+        return maxLabelSizes;
+    }
+
+    public void validate() {
+        for (FunctionType t : types) {
+            if (t.getResultTypes().size() > 1)
+                throw new RuntimeException("invalid result arity");
+            if (t.getParameterTypes().contains(ValueType.V128) || t.getResultTypes().contains(ValueType.V128))
+                throw new RuntimeException("v128 parameters and results are not supported");
+        }
+        if (module.getImportSection() != null) {
+            for (ImportSection.Import imp : module.getImportSection().getImports()) {
+                switch (imp.getType()) {
+                    case TYPE_INDEX:
+                        functionTypes.add(type(imp.getTypeIndex()));
+                        break;
+                    case TABLE_TYPE:
+                        checkLimit(imp.getTableType().getLimit(), false);
+                        tables++;
+                        break;
+                    case MEMORY_TYPE:
+                        checkLimit(imp.getLimitType(), true);
+                        memories++;
+                        break;
+                    case GLOBAL_TYPE:
+                        checkGlobal(imp.getGlobalType());
+                        globalTypes.add(imp.getGlobalType());
+                        importedGlobals++;
+                        break;
+                }
+            }
+        }
+        int[] typeIndices = module.getFunctionSection() == null ? new int[0] : module.getFunctionSection().getTypeIndices();
+        for (int idx : typeIndices) {
+            functionTypes.add(type(idx));
+        }
+        if (module.getTableSection() != null) {
+            for (TableType t : module.getTableSection().getTableTypes()) {
+                checkLimit(t.getLimit(), false);
+                tables++;
+            }
+        }
+        if (module.getMemorySection() != null) {
+            for (LimitType l : module.getMemorySection().getMemories()) {
+                checkLimit(l, true);
+                memories++;
+            }
+        }
+        if (tables > 1)
+            throw new RuntimeException("multiple tables");
+        if (memories > 1)
+            throw new RuntimeException("multiple memories");
+        if (module.getGlobalSection() != null) {
+            for (Global g : module.getGlobalSection().getGlobals()) {
+                checkGlobal(g.getGlobalType());
+                checkConstant(g.getExpression(), g.getGlobalType().getValueType());
+                globalTypes.add(g.getGlobalType());
+            }
+        }
+        if (module.getExportSection() != null) {
+            Set<String> names = new HashSet<>();
+            for (Export e : module.getExportSection().getExports()) {
+                if (!names.add(e.getName()))
+                    throw new RuntimeException("duplicate export name " + e.getName());
+                checkExport(e);
+            }
+        }
+        if (module.getStartSection() != null) {
+            FunctionType t = function(module.getStartSection().getFunctionIndex());
+            if (!t.getParameterTypes().isEmpty() || !t.getResultTypes().isEmpty())
+                throw new RuntimeException("start function must have type [] -> []");
+        }
+        if (module.getElementSection() != null) {
+            for (Element e : module.getElementSection().getElements()) {
+                if (e.getTableIndex() != 0 || tables == 0)
+                    throw new RuntimeException("unknown table " + e.getTableIndex());
+                checkConstant(e.getExpression(), ValueType.I32);
+                for (int f : e.getFunctionIndex()) {
+                    function(f);
+                }
+            }
+        }
+        if (module.getDataCountSection() != null) {
+            dataCount = module.getDataCountSection().getCount();
+            int segments = module.getDataSection() == null ? 0 : module.getDataSection().getDataSegments().size();
+            if (dataCount != segments)
+                throw new RuntimeException("data count and data section have inconsistent lengths");
+        }
+        if (module.getDataSection() != null) {
+            for (DataSection.DataSegment d : module.getDataSection().getDataSegments()) {
+                if (d.getPassive())
+                    continue;
+                if (d.getMemoryIndex() != 0 || memories == 0)
+                    throw new RuntimeException("unknown memory " + d.getMemoryIndex());
+                checkConstant(d.getExpression(), ValueType.I32);
+            }
+        }
+        List<Code> codes = module.getCodeSection() == null ? Collections.emptyList() : module.getCodeSection().getCodes();
+        if (codes.size() != typeIndices.length)
+            throw new RuntimeException("function and code section have inconsistent lengths");
+        maxStackSizes = new int[codes.size()];
+        maxLabelSizes = new int[codes.size()];
+        for (int i = 0; i < codes.size(); i++) {
+            validateFunction(types.get(typeIndices[i]), codes.get(i).getCode());
+            maxStackSizes[i] = maxHeight;
+            maxLabelSizes[i] = maxDepth;
+        }
+    }
+
+    private FunctionType type(int idx) {
+        if (idx < 0 || idx >= types.size())
+            throw new RuntimeException("unknown type " + Integer.toUnsignedString(idx));
+        return types.get(idx);
+    }
+
+    private FunctionType function(int idx) {
+        if (idx < 0 || idx >= functionTypes.size())
+            throw new RuntimeException("unknown function " + Integer.toUnsignedString(idx));
+        return functionTypes.get(idx);
+    }
+
+    private GlobalType global(int idx) {
+        if (idx < 0 || idx >= globalTypes.size())
+            throw new RuntimeException("unknown global " + Integer.toUnsignedString(idx));
+        return globalTypes.get(idx);
+    }
+
+    // globals are stored in a slot
+    private static void checkGlobal(GlobalType t) {
+        if (t.getValueType() == ValueType.V128)
+            throw new RuntimeException("v128 globals are not supported");
+    }
+
+    private static void checkLimit(LimitType limit, boolean memory) {
+        if (memory && (Integer.compareUnsigned(limit.getMinimum(), MAX_PAGES) > 0
+            || Integer.compareUnsigned(limit.getMaximum(), MAX_PAGES) > 0))
+            throw new RuntimeException("memory size must be at most 65536 pages");
+        if (Integer.compareUnsigned(limit.getMinimum(), limit.getMaximum()) > 0)
+            throw new RuntimeException("size minimum must not be greater than maximum");
+    }
+
+    private void checkExport(Export e) {
+        switch (e.getType()) {
+            case FUNCTION_INDEX:
+                function(e.getIndex());
+                return;
+            case GLOBAL_INDEX:
+                global(e.getIndex());
+                return;
+            case TABLE_INDEX:
+                if (e.getIndex() != 0 || tables == 0)
+                    throw new RuntimeException("unknown table " + e.getIndex());
+                return;
+            case MEMORY_INDEX:
+                if (e.getIndex() != 0 || memories == 0)
+                    throw new RuntimeException("unknown memory " + e.getIndex());
+        }
+    }
+
+    // constant expression is a single const instruction or global.get of an imported global
+    private void checkConstant(long expression, ValueType type) {
+        if (InstructionPool.getInstructionsSize(expression) != 1)
+            throw new RuntimeException("constant expression required");
+        long ins = pool.getInstructionInArray(expression, 0);
+        ValueType t;
+        switch (InstructionId.getOpCode(ins)) {
+            case I32_CONST:
+                t = ValueType.I32;
+                break;
+            case I64_CONST:
+                t = ValueType.I64;
+                break;
+            case F32_CONST:
+                t = ValueType.F32;
+                break;
+            case F64_CONST:
+                t = ValueType.F64;
+                break;
+            case GET_GLOBAL: {
+                int idx = InstructionId.getLeft32(ins);
+                if (idx < 0 || idx >= importedGlobals)
+                    throw new RuntimeException("unknown global " + Integer.toUnsignedString(idx));
+                GlobalType g = globalTypes.get(idx);
+                if (g.isMutable())
+                    throw new RuntimeException("constant expression required");
+                t = g.getValueType();
+                break;
+            }
+            default:
+                throw new RuntimeException("constant expression required");
+        }
+        if (t != type)
+            throw new RuntimeException("type mismatch");
+    }
+
+    private void validateFunction(FunctionType type, Function function) {
+        long n = type.getParameterTypes().size();
+        long total = n;
+        for (Local l : function.getLocals()) {
+            n += Integer.toUnsignedLong(l.getCount());
+            total += Integer.toUnsignedLong(l.getCount()) * Simd.slots(l.getType());
+        }
+        if (total > MAX_UNSIGNED_SHORT)
+            throw new RuntimeException("too many locals");
+        locals = new ValueType[(int) n];
+        highSlots = new int[(int) n];
+        int p = 0;
+        for (ValueType t : type.getParameterTypes()) {
+            locals[p++] = t;
+        }
+        for (Local l : function.getLocals()) {
+            Arrays.fill(locals, p, p + l.getCount(), l.getType());
+            p += l.getCount();
+        }
+        for (int i = 0; i < locals.length; i++) {
+            if (locals[i] == ValueType.V128)
+                highSlots[i] = p++;
+        }
+        result = type.getResultTypes().isEmpty() ? null : type.getResultTypes().get(0);
+        height = 0;
+        slots = 0;
+        maxHeight = 0;
+        controls.clear();
+        maxDepth = 0;
+        pushControl(false, result);
+        validateRange(function.getExpression());
+        popControl();
+    }
+
+    private void validateRange(long instructions) {
+        int n = InstructionPool.getInstructionsSize(instructions);
+        for (int i = 0; i < n; i++) {
+            long ins = pool.getInstructionInArray(instructions, i);
+            // superinstructions are validated as their parts, the parts are never rewritten since they operate on i32
+            if (InstructionId.getOpCode(ins).parts.length == 0) {
+                long rewritten = validateInstruction(ins);
+                if (rewritten != ins)
+                    pool.setInstructionInArray(instructions, i, rewritten);
+                continue;
+            }
+            for (long part : Superinstructions.expand(ins)) {
+                validateInstruction(part);
+            }
+        }
+    }
+
+    // return the instruction rewritten for v128 operands, or the instruction itself
+    private long validateInstruction(long ins) {
+        OpCode c = InstructionId.getOpCode(ins);
+        int imm = InstructionId.getLeft32(ins);
+        if (c.code > 0xff) {
+            validateSimd(c, ins);
+            return ins;
+        }
+        switch (c) {
+            case UNREACHABLE:
+                setUnreachable();
+                return ins;
+            case NOP:
+            case GAS:
+                return ins;
+            case BLOCK:
+            case LOOP: {
+                ValueType t = blockType(ins);
+                pushControl(c == LOOP, t);
+                validateRange(pool.getBranch0(ins));
+                popControl();
+                push(t);
+                return ins;
+            }
+            case IF: {
+                ValueType t = blockType(ins);
+                pop(ValueType.I32);
+                Control ctl = pushControl(false, t);
+                validateRange(pool.getBranch0(ins));
+                long branch1 = pool.getBranch1(ins);
+                if (!pool.isNullBranch(branch1)) {
+                    popControl();
+                    controls.add(ctl);
+                    ctl.unreachable = false;
+                    validateRange(branch1);
+                } else if (t != null) {
+                    // missing else branch produces no value
+                    throw new RuntimeException("type mismatch");
+                }
+                popControl();
+                push(t);
+                return ins;
+            }
+            case BR: {
+                ValueType t = labelType(imm);
+                pop(t);
+                setUnreachable();
+                return ins;
+            }
+            case BR_IF: {
+                pop(ValueType.I32);
+                ValueType t = labelType(imm);
+                pop(t);
+                push(t);
+                return ins;
+            }
+            case BR_TABLE: {
+                pop(ValueType.I32);
+                int size = InstructionId.getOperandSize(ins);
+                ValueType t = labelType(pool.getOperandAsInt(ins, size - 1));
+                for (int i = 0; i < size - 1; i++) {
+                    if (labelType(pool.getOperandAsInt(ins, i)) != t)
+                        throw new RuntimeException("type mismatch");
+                }
+                pop(t);
+                setUnreachable();
+                return ins;
+            }
+            case RETURN:
+                pop(result);
+                setUnreachable();
+                return ins;
+            case CALL:
+                call(function(imm));
+                return ins;
+            case CALL_INDIRECT:
+                if (tables == 0)
+                    throw new RuntimeException("unknown table 0");
+                pop(ValueType.I32);
+                call(type(imm));
+                return ins;
+            case DROP:
+                return pop() == ValueType.V128 ? InstructionId.withOpCode(V128_DROP) : ins;
+            case SELECT: {
+                pop(ValueType.I32);
+                ValueType t0 = pop();
+                ValueType t1 = pop();
+                if (t0 != null && t1 != null && t0 != t1)
+                    throw new RuntimeException("type mismatch");
+                ValueType t = t0 != null ? t0 : t1;
+                pushOperand(t);
+                return t == ValueType.V128 ? InstructionId.withOpCode(V128_SELECT) : ins;
+            }
+            case GET_LOCAL: {
+                ValueType t = local(imm);
+                push(t);
+                return t == ValueType.V128 ? Simd.local(V128_GET_LOCAL, imm, highSlots[imm]) : ins;
+            }
+            case SET_LOCAL: {
+                ValueType t = local(imm);
+                pop(t);
+                return t == ValueType.V128 ? Simd.local(V128_SET_LOCAL, imm, highSlots[imm]) : ins;
+            }
+            case TEE_LOCAL: {
+                ValueType t = local(imm);
+                pop(t);
+                push(t);
+                return t == ValueType.V128 ? Simd.local(V128_TEE_LOCAL, imm, highSlots[imm]) : ins;
+            }
+            case GET_GLOBAL:
+                push(global(imm).getValueType());
+                return ins;
+            case SET_GLOBAL: {
+                GlobalType g = global(imm);
+                if (!g.isMutable())
+                    throw new RuntimeException("global is immutable");
+                pop(g.getValueType());
+                return ins;
+            }
+            case CURRENT_MEMORY:
+                checkMemory();
+                push(ValueType.I32);
+                return ins;
+            case MEMORY_INIT:
+                checkMemory();
+                checkData(InstructionId.getLeft32(ins));
+                pop(ValueType.I32);
+                pop(ValueType.I32);
+                pop(ValueType.I32);
+                return ins;
+            case DATA_DROP:
+                checkData(InstructionId.getLeft32(ins));
+                return ins;
+            case MEMORY_COPY:
+            case MEMORY_FILL:
+                checkMemory();
+                pop(ValueType.I32);
+                pop(ValueType.I32);
+                pop(ValueType.I32);
+                return ins;
+            case GROW_MEMORY:
+                checkMemory();
+                pop(ValueType.I32);
+                push(ValueType.I32);
+                return ins;
+            case I32_CONST:
+                push(ValueType.I32);
+                return ins;
+            case I64_CONST:
+                push(ValueType.I64);
+                return ins;
+            case F32_CONST:
+                push(ValueType.F32);
+                return ins;
+            case F64_CONST:
+                push(ValueType.F64);
+                return ins;
+        }
+        if (c.code >= I32_LOAD.code && c.code <= I64_LOAD32_U.code) {
+            checkMemory();
+            pop(ValueType.I32);
+            push(memoryType(c));
+            return ins;
+        }
+        if (c.code >= I32_STORE.code && c.code <= I64_STORE32.code) {
+            checkMemory();
+            pop(memoryType(c));
+            pop(ValueType.I32);
+            return ins;
+        }
+        if (c.code >= I32_EQZ.code && c.code <= F64_REINTERPRET_I64.code) {
+            validateNumeric(c);
+            return ins;
+        }
+        throw new RuntimeException("invalid instruction " + c.name);
+    }
+
+    private void validateSimd(OpCode c, long ins) {
+        switch (c) {
+            case V128_LOAD:
+            case V128_STORE:
+                checkMemory();
+                break;
+            case I8X16_SHUFFLE:
+                for (int i = 0; i < 2; i++) {
+                    long lanes = pool.getOperand(ins, i);
+                    for (int j = 0; j < 8; j++) {
+                        if (((lanes >>> (j * 8)) & 0xff) >= 32)
+                            throw new RuntimeException("invalid lane index");
+                    }
+                }
+                break;
+            case V128_GET_LOCAL:
+            case V128_SET_LOCAL:
+            case V128_TEE_LOCAL:
+            case V128_DROP:
+            case V128_SELECT:
+                throw new RuntimeException("invalid instruction " + c.name);
+        }
+        int lanes = Simd.lanes(c);
+        if (lanes > 0 && Integer.compareUnsigned(InstructionId.getLeft32(ins), lanes) >= 0)
+            throw new RuntimeException("invalid lane index");
+        ValueType[] operands = Simd.operands(c);
+        for (int i = operands.length - 1; i >= 0; i--) {
+            pop(operands[i]);
+        }
+        push(Simd.result(c));
+    }
+
+    private void validateNumeric(OpCode c) {
+        if (c == I32_EQZ) {
+            unary(ValueType.I32, ValueType.I32);
+        } else if (c.code <= I32_GEU.code) {
+            binary(ValueType.I32, ValueType.I32);
+        } else if (c == I64_EQZ) {
+            unary(ValueType.I64, ValueType.I32);
+        } else if (c.code <= I64_GEU.code) {
+            binary(ValueType.I64, ValueType.I32);
+        } else if (c.code <= F32_GE.code) {
+            binary(ValueType.F32, ValueType.I32);
+        } else if (c.code <= F64_GE.code) {
+            binary(ValueType.F64, ValueType.I32);
+        } else if (c.code <= I32_POPCNT.code) {
+            unary(ValueType.I32, ValueType.I32);
+        } else if (c.code <= I32_ROTR.code) {
+            binary(ValueType.I32, ValueType.I32);
+        } else if (c.code <= I64_POPCNT.code) {
+            unary(ValueType.I64, ValueType.I64);
+        } else if (c.code <= I64_ROTR.code) {
+            binary(ValueType.I64, ValueType.I64);
+        } else if (c.code <= F32_SQRT.code) {
+            unary(ValueType.F32, ValueType.F32);
+        } else if (c.code <= F32_COPYSIGN.code) {
+            binary(ValueType.F32, ValueType.F32);
+        } else if (c.code <= F64_SQRT.code) {
+            unary(ValueType.F64, ValueType.F64);
+        } else if (c.code <= F64_COPYSIGN.code) {
+            binary(ValueType.F64, ValueType.F64);
+        } else {
+            ValueType[] t = CONVERSIONS[c.code - I32_WRAP_I64.code];
+            unary(t[0], t[1]);
+        }
+    }
+
+    private static ValueType memoryType(OpCode c) {
+        switch (c) {
+            case I64_LOAD:
+            case I64_LOAD8_S:
+            case I64_LOAD8_U:
+            case I64_LOAD16_S:
+            case I64_LOAD16_U:
+            case I64_LOAD32_S:
+            case I64_LOAD32_U:
+            case I64_STORE:
+            case I64_STORE8:
+            case I64_STORE16:
+            case I64_STORE32:
+                return ValueType.I64;
+            case F32_LOAD:
+            case F32_STORE:
+                return ValueType.F32;
+            case F64_LOAD:
+            case F64_STORE:
+                return ValueType.F64;
+            default:
+                return ValueType.I32;
+        }
+    }
+
+    private void checkMemory() {
+        if (memories == 0)
+            throw new RuntimeException("unknown memory 0");
+    }
+
+    // data segments are referenced by index before data section is decoded, so data count section is required
+    private void checkData(int idx) {
+        if (dataCount < 0)
+            throw new RuntimeException("data count section required");
+        if (Integer.compareUnsigned(idx, dataCount) >= 0)
+            throw new RuntimeException("unknown data segment " + Integer.toUnsignedString(idx));
+    }
+
+    private ValueType local(int idx) {
+        if (idx < 0 || idx >= locals.length)
+            throw new RuntimeException("unknown local " + Integer.toUnsignedString(idx));
+        return locals[idx];
+    }
+
+    private static ValueType blockType(long ins) {
+        ResultType t = InstructionId.getResultType(ins);
+        switch (t) {
+            case I32:
+                return ValueType.I32;
+            case I64:
+                return ValueType.I64;
+            case F32:
+                return ValueType.F32;
+            case F64:
+                return ValueType.F64;
+            case V128:
+                throw new RuntimeException("v128 block results are not supported");
+            default:
+                return null;
+        }
+    }
+
+    // type carried by branch to the label, null if the branch carries no value
+    private ValueType labelType(int depth) {
+        if (depth < 0 || depth >= controls.size())
+            throw new RuntimeException("unknown label " + Integer.toUnsignedString(depth));
+        Control ctl = controls.get(controls.size() - 1 - depth);
+        // branch to loop carries no value
+        return ctl.loop ? null : ctl.result;
+    }
+
+    private void call(FunctionType t) {
+        for (int i = t.getParameterTypes().size() - 1; i >= 0; i--) {
+            pop(t.getParameterTypes().get(i));
+        }
+        push(t.getResultTypes().isEmpty() ? null : t.getResultTypes().get(0));
+    }
+
+    private void unary(ValueType operand, ValueType r) {
+        pop(operand);
+        push(r);
+    }
+
+    private void binary(ValueType operand, ValueType r) {
+        pop(operand);
+        pop(operand);
+        push(r);
+    }
+
+    private void push(ValueType t) {
+        if (t == null)
+            return;
+        pushOperand(t);
+    }
+
+    // push an operand of any type, null is unknown type
+    private void pushOperand(ValueType t) {
+        if (height == operands.length)
+            operands = Arrays.copyOf(operands, height * 2);
+        operands[height++] = t;
+        slots += Simd.slots(t);
+        maxHeight = Math.max(maxHeight, slots);
+    }
+
+    // pop an operand of any type, null is unknown type of unreachable code
+    private ValueType pop() {
+        Control ctl = controls.get(controls.size() - 1);
+        if (height == ctl.height) {
+            if (ctl.unreachable)
+                return null;
+            throw new RuntimeException("type mismatch: stack underflow");
+        }
+        ValueType t = operands[--height];
+        slots -= Simd.slots(t);
+        return t;
+    }
+
+    // pop an operand of expected type, return type of the operand, null expected type pops nothing
+    private ValueType pop(ValueType expected) {
+        if (expected == null)
+            return null;
+        ValueType actual = pop();
+        if (actual != null && actual != expected)
+            throw new RuntimeException("type mismatch: expect " + expected + " but found " + actual);
+        return expected;
+    }
+
+    private Control pushControl(boolean loop, ValueType result) {
+        Control ctl = new Control(loop, result, height, slots);
+        controls.add(ctl);
+        maxDepth = Math.max(maxDepth, controls.size());
+        return ctl;
+    }
+
+    private void popControl() {
+        Control ctl = controls.get(controls.size() - 1);
+        pop(ctl.result);
+        if (height != ctl.height)
+            throw new RuntimeException("type mismatch: values remained on the stack");
+        controls.remove(controls.size() - 1);
+    }
+
+    private void setUnreachable() {
+        Control ctl = controls.get(controls.size() - 1);
+        height = ctl.height;
+        slots = ctl.slots;
+        ctl.unreachable = true;
+    }
+
+    private static final class Control {
+        final boolean loop;
+        // type of values at the end of block, null if the block produces no value
+        final ValueType result;
+        // operand stack height at entry
+        final int height;
+        final int slots;
+        boolean unreachable;
+
+        Control(boolean loop, ValueType result, int height, int slots) {
+            this.loop = loop;
+            this.result = result;
+            this.height = height;
+            this.slots = slots;
+        }
+    }
+}
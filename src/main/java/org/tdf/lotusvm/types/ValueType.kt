@@ -9,9 +9,11 @@ import org.tdf.lotusvm.common.ObjectReader
  * 0x7E -> i64
  * 0x7D -> f32
  * 0x7C ->  f64
+ * 0x7B -> v128
  */
 enum class ValueType(val code: Int) {
-    I32(Constants.VALUE_I32), I64(Constants.VALUE_I64), F32(Constants.VALUE_F32), F64(Constants.VALUE_F64);
+    I32(Constants.VALUE_I32), I64(Constants.VALUE_I64), F32(Constants.VALUE_F32), F64(Constants.VALUE_F64),
+    V128(Constants.VALUE_V128);
 
     companion object : ObjectReader<ValueType> {
         override fun readFrom(reader: BytesReader): ValueType {
@@ -20,6 +22,7 @@ enum class ValueType(val code: Int) {
                 Constants.VALUE_I64 -> I64
                 Constants.VALUE_F32 -> F32
                 Constants.VALUE_F64 -> F64
+                Constants.VALUE_V128 -> V128
                 else -> throw IllegalArgumentException(String.format("unknown value type %x", type))
             }
         }
@@ -0,0 +1,75 @@
+package org.tdf.lotusvm;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import org.tdf.lotusvm.runtime.BufferMemory;
+import org.tdf.lotusvm.runtime.Memory;
+import org.tdf.lotusvm.types.BufferLongBuffer;
+import org.tdf.lotusvm.types.LimitType;
+
+import java.util.Arrays;
+import java.util.function.UnaryOperator;
+
+@RunWith(JUnit4.class)
+public class BufferMemoryTest {
+    @Test
+    public void testAll() throws Exception {
+        for (boolean direct : new boolean[]{true, false}) {
+            for (UnaryOperator<Builder> configure : Arrays.<UnaryOperator<Builder>>asList(b -> b, b -> b.jit(0))) {
+                TestModule module = Util.getTestModule("testdata/spec", b -> configure.apply(b).memory(new BufferMemory(direct)));
+                module.testAll();
+                assert module.getFailures() == 0;
+            }
+        }
+    }
+
+    @Test
+    public void testGrow() {
+        for (boolean direct : new boolean[]{true, false}) {
+            Memory m = new BufferMemory(direct);
+            m.setLimit(new LimitType(true, 1, 3));
+            m.storeI64(Memory.PAGE_SIZE - 8, 0x0102030405060708L);
+            m.put(16, new byte[]{1, 2, 3});
+            assert m.grow(2) == 1;
+            // pages of grow are unsigned
+            for (int n : new int[]{1, -1, Integer.MAX_VALUE, Integer.MIN_VALUE}) {
+                assert m.grow(n) == -1;
+                assert m.getPages() == 3;
+            }
+            assert m.load64(Memory.PAGE_SIZE - 8) == 0x0102030405060708L;
+            assert m.load8(Memory.PAGE_SIZE - 8) == 8;
+            assert Arrays.equals(m.load(16, 3), new byte[]{1, 2, 3});
+            assert m.load32(0, 3 * Memory.PAGE_SIZE - 4) == 0;
+            try {
+                m.load(3 * Memory.PAGE_SIZE - 2, 3);
+                assert false;
+            } catch (RuntimeException e) {
+                assert e.getMessage().contains("overflow");
+            }
+            m.close();
+        }
+    }
+
+    @Test
+    public void testLongBuffer() {
+        BufferLongBuffer buffer = new BufferLongBuffer(1);
+        for (int i = 0; i < 100; i++) {
+            buffer.push(i * 0x100000001L);
+        }
+        assert buffer.size() == 100;
+        for (int i = 0; i < 100; i++) {
+            assert buffer.get(i) == i * 0x100000001L;
+        }
+        buffer.setSize(1000);
+        buffer.set(999, -1);
+        assert buffer.get(999) == -1 && buffer.get(99) == 99 * 0x100000001L;
+        try {
+            buffer.get(1000);
+            assert false;
+        } catch (RuntimeException e) {
+            assert e.getMessage().contains("overflow");
+        }
+        buffer.close();
+    }
+}
@@ -0,0 +1,178 @@
+package org.tdf.lotusvm;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import org.tdf.lotusvm.runtime.BaseMemory;
+import org.tdf.lotusvm.runtime.BufferMemory;
+import org.tdf.lotusvm.runtime.Memory;
+import org.tdf.lotusvm.runtime.UnsafeMemory;
+import org.tdf.lotusvm.runtime.UnsafeStackAllocator;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Supplier;
+import java.util.function.UnaryOperator;
+
+@RunWith(JUnit4.class)
+public class BulkMemoryTest {
+    private static final List<DecodeOptions> OPTIONS = Arrays.asList(
+        new DecodeOptions(),
+        new DecodeOptions().validated(true).optimized(true),
+        new DecodeOptions().fused(true).threaded(true),
+        new DecodeOptions().validated(true).register(true).fused(true)
+    );
+
+    private static final List<Supplier<Memory>> MEMORIES = Arrays.asList(
+        UnsafeMemory::new, BaseMemory::new, () -> new BufferMemory(true), () -> new BufferMemory(false)
+    );
+
+    @Test
+    public void testAll() {
+        for (Supplier<Memory> memories : MEMORIES) {
+            for (DecodeOptions options : OPTIONS) {
+                test(options, memories, UnaryOperator.identity());
+            }
+            test(new DecodeOptions(), memories, b -> b.jit(0));
+        }
+    }
+
+    private static void test(DecodeOptions options, Supplier<Memory> memories, UnaryOperator<Builder> configure) {
+        try (Module md = Module.create(module(true), options); Memory memory = memories.get()) {
+            ModuleInstance instance = configure.apply(
+                ModuleInstance.builder()
+                    .module(md)
+                    .memory(memory)
+                    .stackAllocator(new UnsafeStackAllocator(1024, 64, 1024))
+            ).build();
+            // active segment is put at instantiation
+            assert Arrays.equals(memory.load(0, 5), new byte[]{1, 2, 3, 4, 0});
+
+            instance.execute("init", 10, 0, 3);
+            assert Arrays.equals(memory.load(10, 3), new byte[]{7, 8, 9});
+
+            // overlapped regions
+            instance.execute("copy", 11, 10, 3);
+            assert Arrays.equals(memory.load(10, 4), new byte[]{7, 7, 8, 9});
+            instance.execute("copy", 0, 1, 3);
+            assert Arrays.equals(memory.load(0, 4), new byte[]{2, 3, 4, 4});
+
+            // only the low byte of value is used
+            instance.execute("fill", 100, 0x1ff, 21);
+            assert memory.load8(99) == 0 && memory.load8(100) == -1 && memory.load8(120) == -1 && memory.load8(121) == 0;
+
+            // zero length at the end of memory is allowed
+            instance.execute("fill", Memory.PAGE_SIZE, 0, 0);
+            instance.execute("copy", Memory.PAGE_SIZE, 0, 0);
+            trap(() -> instance.execute("fill", Memory.PAGE_SIZE - 1, 0, 2));
+            trap(() -> instance.execute("copy", 0, Memory.PAGE_SIZE - 1, 2));
+            trap(() -> instance.execute("copy", 0, 0, -1));
+            trap(() -> instance.execute("init", 0, 2, 2));
+            assert memory.load8(0) == 2;
+
+            // segments are empty after drop, active segments are dropped at instantiation
+            instance.execute("drop");
+            instance.execute("init", 0, 0, 0);
+            trap(() -> instance.execute("init", 0, 0, 1));
+            trap(() -> instance.execute("init0"));
+        }
+    }
+
+    @Test
+    public void testGas() {
+        long used = gas(new GasSchedule());
+        assert gas(new GasSchedule().byteCost(2)) == used + 2 * 1000;
+        try {
+            new GasSchedule().byteCost(-1);
+            assert false;
+        } catch (RuntimeException e) {
+            assert e.getMessage().contains("negative");
+        }
+    }
+
+    private static long gas(GasSchedule schedule) {
+        try (Module md = Module.create(module(true), new DecodeOptions().gas(schedule)); Memory memory = new UnsafeMemory()) {
+            ModuleInstance instance = ModuleInstance.builder()
+                .module(md)
+                .memory(memory)
+                .stackAllocator(new UnsafeStackAllocator(1024, 64, 1024))
+                .gasLimit(Long.MAX_VALUE)
+                .build();
+            instance.execute("fill", 0, 1, 1000);
+            return instance.getGasUsed();
+        }
+    }
+
+    @Test
+    public void testValidate() {
+        Module.create(module(true), new DecodeOptions().validated(true)).close();
+        try {
+            Module.create(module(false), new DecodeOptions().validated(true));
+            assert false;
+        } catch (RuntimeException e) {
+            assert e.getMessage().contains("data count section required");
+        }
+    }
+
+    private static void trap(Runnable r) {
+        try {
+            r.run();
+            assert false;
+        } catch (RuntimeException e) {
+            assert e.getMessage().contains("overflow");
+        }
+    }
+
+    // module with a memory of 1 page, an active segment [1, 2, 3, 4] at 0 and a passive segment [7, 8, 9],
+    // exporting copy, fill, init: (i32, i32, i32) -> (), drop: () -> () and init0: () -> ()
+    // init0 initializes from the dropped active segment
+    private static byte[] module(boolean dataCount) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.writeBytes(new byte[]{0x00, 0x61, 0x73, 0x6d, 0x01, 0x00, 0x00, 0x00});
+        // type section
+        section(out, 0x01, 0x02, 0x60, 0x03, 0x7f, 0x7f, 0x7f, 0x00, 0x60, 0x00, 0x00);
+        // function section
+        section(out, 0x03, 0x05, 0x00, 0x00, 0x00, 0x01, 0x01);
+        // memory section
+        section(out, 0x05, 0x01, 0x00, 0x01);
+        // export section
+        section(out, 0x07, 0x05,
+            0x04, 'c', 'o', 'p', 'y', 0x00, 0x00,
+            0x04, 'f', 'i', 'l', 'l', 0x00, 0x01,
+            0x04, 'i', 'n', 'i', 't', 0x00, 0x02,
+            0x04, 'd', 'r', 'o', 'p', 0x00, 0x03,
+            0x05, 'i', 'n', 'i', 't', '0', 0x00, 0x04
+        );
+        // data count section
+        if (dataCount)
+            section(out, 0x0c, 0x02);
+        // code section
+        section(out, 0x0a, 0x05,
+            // memory.copy
+            0x0c, 0x00, 0x20, 0x00, 0x20, 0x01, 0x20, 0x02, 0xfc, 0x0a, 0x00, 0x00, 0x0b,
+            // memory.fill
+            0x0b, 0x00, 0x20, 0x00, 0x20, 0x01, 0x20, 0x02, 0xfc, 0x0b, 0x00, 0x0b,
+            // memory.init 1
+            0x0c, 0x00, 0x20, 0x00, 0x20, 0x01, 0x20, 0x02, 0xfc, 0x08, 0x01, 0x00, 0x0b,
+            // data.drop 1
+            0x05, 0x00, 0xfc, 0x09, 0x01, 0x0b,
+            // memory.init 0 (i32.const 0, i32.const 0, i32.const 1)
+            0x0c, 0x00, 0x41, 0x00, 0x41, 0x00, 0x41, 0x01, 0xfc, 0x08, 0x00, 0x00, 0x0b
+        );
+        // data section
+        section(out, 0x0b, 0x02,
+            0x00, 0x41, 0x00, 0x0b, 0x04, 0x01, 0x02, 0x03, 0x04,
+            0x01, 0x03, 0x07, 0x08, 0x09
+        );
+        return out.toByteArray();
+    }
+
+    private static void section(ByteArrayOutputStream out, int id, int... bytes) {
+        out.write(id);
+        out.write(bytes.length);
+        for (int b : bytes) {
+            out.write(b);
+        }
+    }
+}
@@ -0,0 +1,172 @@
+package org.tdf.lotusvm;
+
+import org.tdf.lotusvm.common.OpCode;
+import org.tdf.lotusvm.types.InstructionId;
+import org.tdf.lotusvm.types.InstructionPool;
+
+import static org.tdf.lotusvm.common.Opcodes.*;
+
+// compare dispatch on OpCode enum with dispatch on the opcode byte of instruction id,
+// instructions are taken from threaded code of bench/main.wasm, handlers are kept trivial to expose the dispatch cost
+// usage: DispatchBench [rounds]
+public class DispatchBench {
+    // jdk 17, 3000 rounds
+    // enum dispatch = 7.840 ns/ins
+    // byte dispatch = 7.325 ns/ins
+    public static void main(String... args) {
+        int rounds = args.length > 0 ? Integer.parseInt(args[0]) : 2000;
+        long[] code = instructions();
+        // warm up
+        long r = 0;
+        for (int i = 0; i < rounds / 4; i++) {
+            r += enumDispatch(code) + byteDispatch(code);
+        }
+
+        long start = System.nanoTime();
+        for (int i = 0; i < rounds; i++) {
+            r += enumDispatch(code);
+        }
+        long enumNanos = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        for (int i = 0; i < rounds; i++) {
+            r += byteDispatch(code);
+        }
+        long byteNanos = System.nanoTime() - start;
+
+        double n = (double) rounds * code.length;
+        System.out.printf("instructions = %d checksum = %d%n", code.length, r);
+        System.out.printf("enum dispatch = %.3f ns/ins%n", enumNanos / n);
+        System.out.printf("byte dispatch = %.3f ns/ins%n", byteNanos / n);
+    }
+
+    private static long[] instructions() {
+        try (Module md = Module.create(Util.readClassPathFile("bench/main.wasm"), true)) {
+            int size = 0;
+            for (long c : md.getThreadedCodes()) {
+                size += InstructionPool.getInstructionsSize(c);
+            }
+            long[] r = new long[size];
+            int p = 0;
+            for (long c : md.getThreadedCodes()) {
+                for (int i = 0; i < InstructionPool.getInstructionsSize(c); i++) {
+                    r[p++] = md.getInsPool().getInstructionInArray(c, i);
+                }
+            }
+            return r;
+        }
+    }
+
+    static long enumDispatch(long[] code) {
+        long r = 0;
+        for (long ins : code) {
+            OpCode c = InstructionId.getOpCode(ins);
+            switch (c) {
+                case GET_LOCAL:
+                    r += InstructionId.getLeft32(ins);
+                    break;
+                case SET_LOCAL:
+                case TEE_LOCAL:
+                    r -= InstructionId.getLeft32(ins);
+                    break;
+                case I32_CONST:
+                    r ^= InstructionId.getLeft32(ins);
+                    break;
+                case I32_ADD:
+                    r += 3;
+                    break;
+                case I32_SUB:
+                    r -= 3;
+                    break;
+                case I32_AND:
+                    r &= 0xffffffL;
+                    break;
+                case I32_LOAD:
+                case I64_LOAD:
+                    r += 5;
+                    break;
+                case I32_STORE:
+                case I64_STORE:
+                    r -= 5;
+                    break;
+                case BR:
+                case BR_IF:
+                    r += 7;
+                    break;
+                case CALL:
+                    r -= 7;
+                    break;
+                case I32_EQZ:
+                case I32_EQ:
+                case I32_NE:
+                    r <<= 1;
+                    break;
+                case I32_LTS:
+                case I32_LTU:
+                case I32_GTS:
+                case I32_GTU:
+                    r >>>= 1;
+                    break;
+                default:
+                    r++;
+            }
+        }
+        return r;
+    }
+
+    static long byteDispatch(long[] code) {
+        long r = 0;
+        for (long ins : code) {
+            switch (InstructionId.getCode(ins)) {
+                case GET_LOCAL:
+                    r += InstructionId.getLeft32(ins);
+                    break;
+                case SET_LOCAL:
+                case TEE_LOCAL:
+                    r -= InstructionId.getLeft32(ins);
+                    break;
+                case I32_CONST:
+                    r ^= InstructionId.getLeft32(ins);
+                    break;
+                case I32_ADD:
+                    r += 3;
+                    break;
+                case I32_SUB:
+                    r -= 3;
+                    break;
+                case I32_AND:
+                    r &= 0xffffffL;
+                    break;
+                case I32_LOAD:
+                case I64_LOAD:
+                    r += 5;
+                    break;
+                case I32_STORE:
+                case I64_STORE:
+                    r -= 5;
+                    break;
+                case BR:
+                case BR_IF:
+                    r += 7;
+                    break;
+                case CALL:
+                    r -= 7;
+                    break;
+                case I32_EQZ:
+                case I32_EQ:
+                case I32_NE:
+                    r <<= 1;
+                    break;
+                case I32_LTS:
+                case I32_LTU:
+                case I32_GTS:
+                case I32_GTU:
+                    r >>>= 1;
+                    break;
+                default:
+                    r++;
+            }
+        }
+        return r;
+    }
+}
@@ -0,0 +1,155 @@
+package org.tdf.lotusvm;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import org.tdf.lotusvm.runtime.ModuleInstanceImpl;
+import org.tdf.lotusvm.runtime.UnsafeMemory;
+import org.tdf.lotusvm.runtime.UnsafeStackAllocator;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.function.UnaryOperator;
+
+@RunWith(JUnit4.class)
+public class ExecutionLimitTest {
+    private static final List<DecodeOptions> OPTIONS = Arrays.asList(
+        new DecodeOptions(),
+        new DecodeOptions().threaded(true),
+        new DecodeOptions().register(true).fused(true)
+    );
+
+    // steps are the same whatever the function is interpreted or compiled
+    @Test
+    public void testStepLimit() {
+        long steps = bench(OPTIONS.get(0), UnaryOperator.identity());
+        assert steps > 0;
+        for (DecodeOptions options : OPTIONS) {
+            assert bench(options, UnaryOperator.identity()) == steps;
+            assert bench(options, b -> b.jit(0)) == steps;
+            assert bench(options, b -> b.stepLimit(steps)) == steps;
+            try {
+                bench(options, b -> b.stepLimit(steps - 1));
+                assert false;
+            } catch (RuntimeException e) {
+                assert e.getMessage().equals("step limit exceeded");
+            }
+        }
+    }
+
+    @Test
+    public void testInterrupt() throws Exception {
+        for (DecodeOptions options : OPTIONS) {
+            for (UnaryOperator<Builder> configure : Arrays.<UnaryOperator<Builder>>asList(b -> b, b -> b.jit(0))) {
+                ModuleInstance instance = spin(options, b -> configure.apply(b).interruptible());
+                Thread watchdog = new Thread(() -> {
+                    try {
+                        Thread.sleep(50);
+                    } catch (InterruptedException ignored) {
+                    }
+                    instance.interrupt();
+                });
+                watchdog.start();
+                try {
+                    instance.execute("spin");
+                    assert false;
+                } catch (RuntimeException e) {
+                    assert e.getMessage().equals("execution interrupted");
+                }
+                watchdog.join();
+            }
+        }
+    }
+
+    // an interrupt of a completed execution, e.g. a watchdog racing with completion, doesn't abort the next one
+    @Test
+    public void testInterruptAfterCompletion() {
+        for (DecodeOptions options : OPTIONS) {
+            for (UnaryOperator<Builder> configure : Arrays.<UnaryOperator<Builder>>asList(b -> b, b -> b.jit(0))) {
+                try (
+                    Module md = Module.create(Util.readClassPathFile("bench/main.wasm"), options);
+                    UnsafeStackAllocator allocator = new UnsafeStackAllocator(Bench.MAX_STACK_SIZE, Bench.MAX_FRAMES, Bench.MAX_LABELS);
+                    UnsafeMemory memory = new UnsafeMemory()
+                ) {
+                    ModuleInstanceImpl instance = (ModuleInstanceImpl) configure.apply(
+                        ModuleInstance.builder()
+                            .module(md)
+                            .memory(memory)
+                            .stackAllocator(allocator)
+                            .interruptible()
+                    ).build();
+                    instance.execute("bench");
+                    instance.interrupt();
+                    instance.execute("bench");
+                    assert instance.getSteps() > 0;
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testTimeout() {
+        for (DecodeOptions options : OPTIONS) {
+            ModuleInstance instance = spin(options, b -> b.timeout(TimeUnit.MILLISECONDS.toNanos(50)));
+            try {
+                instance.execute("spin");
+                assert false;
+            } catch (RuntimeException e) {
+                assert e.getMessage().equals("execution timeout");
+            }
+        }
+    }
+
+    @Test
+    public void testNotInterruptible() {
+        ModuleInstance instance = spin(OPTIONS.get(0), UnaryOperator.identity());
+        try {
+            instance.interrupt();
+            assert false;
+        } catch (RuntimeException e) {
+            assert e.getMessage().contains("not interruptible");
+        }
+    }
+
+    // return steps of bench, steps are counted only if limited
+    private static long bench(DecodeOptions options, UnaryOperator<Builder> configure) {
+        try (
+            Module md = Module.create(Util.readClassPathFile("bench/main.wasm"), options);
+            UnsafeStackAllocator allocator = new UnsafeStackAllocator(Bench.MAX_STACK_SIZE, Bench.MAX_FRAMES, Bench.MAX_LABELS);
+            UnsafeMemory memory = new UnsafeMemory()
+        ) {
+            ModuleInstanceImpl instance = (ModuleInstanceImpl) configure.apply(
+                ModuleInstance.builder()
+                    .module(md)
+                    .memory(memory)
+                    .stackAllocator(allocator)
+                    .interruptible()
+            ).build();
+            instance.execute("bench");
+            return instance.getSteps();
+        }
+    }
+
+    // instance of a module exporting a function spin with an infinite loop
+    private static ModuleInstance spin(DecodeOptions options, UnaryOperator<Builder> configure) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.writeBytes(new byte[]{0x00, 0x61, 0x73, 0x6d, 0x01, 0x00, 0x00, 0x00});
+        // type section
+        out.writeBytes(new byte[]{0x01, 0x04, 0x01, 0x60, 0x00, 0x00});
+        // function section
+        out.writeBytes(new byte[]{0x03, 0x02, 0x01, 0x00});
+        // export section
+        out.writeBytes(new byte[]{0x07, 0x08, 0x01, 0x04, 's', 'p', 'i', 'n', 0x00, 0x00});
+        // code section, loop br 0 end
+        out.writeBytes(new byte[]{0x0a, 0x09, 0x01, 0x07, 0x00, 0x03, 0x40, 0x0c, 0x00, 0x0b, 0x0b});
+        Module md = Module.create(out.toByteArray(), options);
+        return configure.apply(
+            ModuleInstance.builder()
+                .module(md)
+                .memory(new UnsafeMemory())
+                .stackAllocator(Util.getAllocator())
+        ).build();
+    }
+}
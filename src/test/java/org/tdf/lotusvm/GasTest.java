@@ -0,0 +1,126 @@
+package org.tdf.lotusvm;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import org.tdf.lotusvm.common.OpCode;
+import org.tdf.lotusvm.runtime.HostFunction;
+import org.tdf.lotusvm.runtime.Hook;
+import org.tdf.lotusvm.runtime.ModuleInstanceImpl;
+import org.tdf.lotusvm.runtime.UnsafeMemory;
+import org.tdf.lotusvm.runtime.UnsafeStackAllocator;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.UnaryOperator;
+
+@RunWith(JUnit4.class)
+public class GasTest {
+    private static final List<DecodeOptions> OPTIONS = Arrays.asList(
+        new DecodeOptions().gas(new GasSchedule()),
+        new DecodeOptions().gas(new GasSchedule()).threaded(true),
+        new DecodeOptions().gas(new GasSchedule()).fused(true).threaded(true),
+        new DecodeOptions().gas(new GasSchedule()).register(true).fused(true)
+    );
+
+    @Test
+    public void testAll() throws Exception {
+        for (DecodeOptions options : OPTIONS) {
+            TestModule module = Util.getTestModule("testdata", b -> b.gasLimit(Long.MAX_VALUE))
+                .withDecoder(bin -> Module.create(bin, options));
+            module.testAll();
+            assert module.getFailures() == 0;
+            module = Util.getTestModule("testdata/spec", b -> b.gasLimit(Long.MAX_VALUE))
+                .withDecoder(bin -> Module.create(bin, options));
+            module.testAll();
+            assert module.getFailures() == 0;
+        }
+    }
+
+    // gas used is the same whatever the function is interpreted or compiled
+    @Test
+    public void testDeterministic() {
+        long used = bench(OPTIONS.get(0), UnaryOperator.identity());
+        assert used > 0;
+        for (DecodeOptions options : OPTIONS) {
+            assert bench(options, UnaryOperator.identity()) == used;
+            assert bench(options, b -> b.jit(0)) == used;
+        }
+        assert bench(new DecodeOptions().gas(new GasSchedule().cost(OpCode.I32_ADD, 10)), UnaryOperator.identity()) > used;
+    }
+
+    @Test
+    public void testOutOfGas() {
+        long used = bench(OPTIONS.get(0), UnaryOperator.identity());
+        for (DecodeOptions options : OPTIONS) {
+            assert bench(options, b -> b.gasLimit(used)) == used;
+            try {
+                bench(options, b -> b.gasLimit(used - 1));
+                assert false;
+            } catch (RuntimeException e) {
+                assert e.getMessage().equals("out of gas");
+            }
+        }
+    }
+
+    @Test
+    public void testHooks() throws Exception {
+        Hook hook = new Hook() {
+            @Override
+            public void onInstruction(OpCode ins, ModuleInstanceImpl module) {
+                assert ins != OpCode.GAS;
+            }
+
+            @Override
+            public void onHostFunction(HostFunction function, ModuleInstanceImpl module) {
+            }
+
+            @Override
+            public void onNewFrame() {
+            }
+
+            @Override
+            public void onFrameExit() {
+            }
+        };
+        TestModule module = Util.getTestModule("testdata", b -> b.hooks(Collections.singleton(hook)))
+            .withDecoder(bin -> Module.create(bin, OPTIONS.get(1)));
+        module.testAll();
+        assert module.getFailures() == 0;
+    }
+
+    @Test
+    public void testNotMetered() {
+        try (Module md = Module.create(Util.readClassPathFile("bench/main.wasm"))) {
+            ModuleInstance.builder()
+                .module(md)
+                .memory(new UnsafeMemory())
+                .stackAllocator(Util.getAllocator())
+                .gasLimit(100)
+                .build();
+            assert false;
+        } catch (RuntimeException e) {
+            assert e.getMessage().contains("not metered");
+        }
+    }
+
+    // return gas used by bench
+    private static long bench(DecodeOptions options, UnaryOperator<Builder> configure) {
+        try (
+            Module md = Module.create(Util.readClassPathFile("bench/main.wasm"), options);
+            UnsafeStackAllocator allocator = new UnsafeStackAllocator(Bench.MAX_STACK_SIZE, Bench.MAX_FRAMES, Bench.MAX_LABELS);
+            UnsafeMemory memory = new UnsafeMemory()
+        ) {
+            ModuleInstance instance = configure.apply(
+                ModuleInstance.builder()
+                    .module(md)
+                    .memory(memory)
+                    .stackAllocator(allocator)
+            ).build();
+            instance.execute("bench");
+            assert instance.getGasUsed() + instance.getGasRemaining() >= instance.getGasUsed();
+            return instance.getGasUsed();
+        }
+    }
+}
@@ -0,0 +1,68 @@
+package org.tdf.lotusvm;
+
+import org.tdf.lotusvm.runtime.BaseMemory;
+import org.tdf.lotusvm.runtime.Memory;
+import org.tdf.lotusvm.runtime.UnsafeMemory;
+import org.tdf.lotusvm.types.LimitType;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Supplier;
+
+import static org.tdf.lotusvm.types.UnsafeUtil.UNSAFE;
+
+// grow a page at a time from 1 page to 256 MiB, a store to every new page, as allocators of AssemblyScript
+// realloc is the former UnsafeMemory.grow, reallocated to the exact size on every grow
+// usage: GrowBench [runs]
+public class GrowBench {
+    private static final int PAGES = 4096;
+
+    // jdk 17, linux, ms per growth to 256 MiB, best of 5 runs, two runs each
+    // realloc            222.2 - 237.9
+    // unsafe doubled     174.0 - 178.2
+    // unsafe reserved    145.4 - 181.5
+    // base doubled       205.9 - 223.8
+    // realloc of glibc remaps large blocks without copy, so the time is dominated by zeroing and page faults of new pages,
+    // the former BaseMemory.grow copied 512 GiB in total and is not measured
+    public static void main(String... args) {
+        int runs = args.length > 0 ? Integer.parseInt(args[0]) : 5;
+        List<String> names = Arrays.asList("unsafe doubled", "unsafe reserved", "base doubled");
+        List<Supplier<Memory>> memories = Arrays.asList(UnsafeMemory::new, () -> new UnsafeMemory(PAGES), BaseMemory::new);
+        System.out.printf("realloc: %.1f ms%n", best(runs, GrowBench::realloc));
+        for (int i = 0; i < names.size(); i++) {
+            Supplier<Memory> memory = memories.get(i);
+            System.out.printf("%s: %.1f ms%n", names.get(i), best(runs, () -> grow(memory.get())));
+        }
+    }
+
+    private static double best(int runs, Runnable r) {
+        long best = Long.MAX_VALUE;
+        for (int i = 0; i < runs; i++) {
+            long start = System.nanoTime();
+            r.run();
+            best = Math.min(best, System.nanoTime() - start);
+        }
+        return best / 1e6;
+    }
+
+    private static void grow(Memory m) {
+        m.setLimit(new LimitType(true, 1, PAGES));
+        for (int i = 1; i < PAGES; i++) {
+            if (m.grow(1) != i)
+                throw new RuntimeException("grow failed");
+            m.storeI64(i * Memory.PAGE_SIZE, i);
+        }
+        m.close();
+    }
+
+    private static void realloc() {
+        long pointer = UNSAFE.allocateMemory(Memory.PAGE_SIZE);
+        UNSAFE.setMemory(pointer, Memory.PAGE_SIZE, (byte) 0);
+        for (int i = 1; i < PAGES; i++) {
+            pointer = UNSAFE.reallocateMemory(pointer, (long) (i + 1) * Memory.PAGE_SIZE);
+            UNSAFE.setMemory(pointer + (long) i * Memory.PAGE_SIZE, Memory.PAGE_SIZE, (byte) 0);
+            UNSAFE.putLong(pointer + (long) i * Memory.PAGE_SIZE, i);
+        }
+        UNSAFE.freeMemory(pointer);
+    }
+}
@@ -0,0 +1,79 @@
+package org.tdf.lotusvm;
+
+import org.tdf.lotusvm.runtime.HostArgs;
+import org.tdf.lotusvm.runtime.HostFunction;
+import org.tdf.lotusvm.runtime.HostFunctionBinder;
+import org.tdf.lotusvm.runtime.WasmExport;
+
+// compare host functions bound by HostFunctionBinder with hand-written subclass
+// usage: HostCallBench [calls]
+public class HostCallBench {
+    public static class Exports {
+        @WasmExport("add")
+        public long add(long a, int b) {
+            return a + b;
+        }
+    }
+
+    static class Args implements HostArgs {
+        long a;
+        long b;
+        long result;
+
+        @Override
+        public int size() {
+            return 2;
+        }
+
+        @Override
+        public long arg(int i) {
+            return i == 0 ? a : b;
+        }
+
+        @Override
+        public void setResult(long result) {
+            this.result = result;
+        }
+    }
+
+    // jdk 17, 50000000 calls, both are within 1.8 - 4.1 ns/call across runs without systematic difference,
+    // method handle adapter without generated class = 6.9 - 7.8 ns/call
+    public static void main(String... args) {
+        int calls = args.length > 0 ? Integer.parseInt(args[0]) : 50_000_000;
+        HostFunction hand = new HostFunctionTest.Add();
+        HostFunction bound = HostFunctionBinder.bind(new Exports()).iterator().next();
+        Args view = new Args();
+        long r = 0;
+        long handNanos = 0;
+        long boundNanos = 0;
+        // rounds alternate so both call sites are warmed up in the same way, the first round is warm up
+        for (int round = 0; round < 4; round++) {
+            long start = System.nanoTime();
+            r += run(hand, view, calls);
+            long t = System.nanoTime() - start;
+            if (round > 0)
+                handNanos += t;
+
+            start = System.nanoTime();
+            r += run(bound, view, calls);
+            t = System.nanoTime() - start;
+            if (round > 0)
+                boundNanos += t;
+        }
+
+        System.out.printf("checksum = %d%n", r);
+        System.out.printf("hand-written = %.3f ns/call%n", handNanos / (calls * 3.0));
+        System.out.printf("bound = %.3f ns/call%n", boundNanos / (calls * 3.0));
+    }
+
+    static long run(HostFunction f, Args view, int calls) {
+        long r = 0;
+        for (int i = 0; i < calls; i++) {
+            view.a = i;
+            view.b = r & 0xff;
+            f.execute(view);
+            r += view.result;
+        }
+        return r;
+    }
+}
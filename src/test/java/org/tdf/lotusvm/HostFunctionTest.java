@@ -0,0 +1,354 @@
+package org.tdf.lotusvm;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import org.tdf.lotusvm.runtime.HostArgs;
+import org.tdf.lotusvm.runtime.HostFunction;
+import org.tdf.lotusvm.runtime.HostFunctionBinder;
+import org.tdf.lotusvm.runtime.UnsafeMemory;
+import org.tdf.lotusvm.runtime.UnsafeStackAllocator;
+import org.tdf.lotusvm.runtime.WasmExport;
+import org.tdf.lotusvm.types.FunctionType;
+import org.tdf.lotusvm.types.ValueType;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.function.UnaryOperator;
+
+@RunWith(JUnit4.class)
+public class HostFunctionTest {
+    private static final FunctionType ADD_TYPE = new FunctionType(
+        Arrays.asList(ValueType.I64, ValueType.I32), Collections.singletonList(ValueType.I64)
+    );
+
+    private static final List<DecodeOptions> OPTIONS = Arrays.asList(
+        new DecodeOptions(),
+        new DecodeOptions().threaded(true),
+        new DecodeOptions().register(true).fused(true)
+    );
+
+    // arguments are read in place from the operand stack
+    static class Add extends HostFunction {
+        Add() {
+            super("add", ADD_TYPE);
+        }
+
+        @Override
+        public void execute(HostArgs args) {
+            assert args.size() == 2;
+            args.setI64(args.argI64(0) + args.argI32(1));
+        }
+    }
+
+    static class LegacyAdd extends HostFunction {
+        LegacyAdd() {
+            super("add", ADD_TYPE);
+        }
+
+        @Override
+        public long execute(long[] args) {
+            return args[0] + (int) args[1];
+        }
+    }
+
+    public static class Exports {
+        ModuleInstance caller;
+
+        @WasmExport(value = "add", alias = "plus")
+        public long add(ModuleInstance instance, long a, int b) {
+            caller = instance;
+            return a + b;
+        }
+
+        @WasmExport("sqrt")
+        public static double sqrt(double d) {
+            return Math.sqrt(d);
+        }
+
+        @WasmExport("noop")
+        public void noop(int a, float b) {
+        }
+    }
+
+    // not visible by generated adapters, bound by method handle
+    static class HiddenExports {
+        @WasmExport("add")
+        public static long add(long a, int b) {
+            return a + b;
+        }
+    }
+
+    // non-public and inherited methods are bound by method handle
+    static class PrivateExports {
+        @WasmExport("add")
+        long add(long a, int b) {
+            return a + b;
+        }
+    }
+
+    static class InheritedExports extends PrivateExports {
+        @WasmExport("sub")
+        private static long sub(long a, int b) {
+            return a - b;
+        }
+    }
+
+    // duplicated names are rejected whatever the methods are bound by adapters or method handles
+    public static class DuplicatedExports {
+        @WasmExport("f")
+        public static long f(long a) {
+            return a;
+        }
+
+        @WasmExport("f")
+        public static long g(long a) {
+            return a;
+        }
+    }
+
+    static class HiddenDuplicatedExports {
+        @WasmExport("f")
+        static long f(long a) {
+            return a;
+        }
+
+        @WasmExport("f")
+        static long g(long a) {
+            return a;
+        }
+    }
+
+    public static class DuplicatedAliasExports {
+        @WasmExport(value = "f", alias = "h")
+        public static long f(long a) {
+            return a;
+        }
+
+        @WasmExport("h")
+        public static long g(long a) {
+            return a;
+        }
+    }
+
+    @Test
+    public void testDuplicated() {
+        for (Class<?> c : Arrays.asList(DuplicatedExports.class, HiddenDuplicatedExports.class, DuplicatedAliasExports.class)) {
+            try {
+                HostFunctionBinder.bind(c);
+                assert false;
+            } catch (RuntimeException e) {
+                assert e.getMessage().contains("duplicated");
+            }
+        }
+    }
+
+    @Test
+    public void testHostArgs() {
+        for (HostFunction host : Arrays.asList(new Add(), new LegacyAdd())) {
+            for (DecodeOptions options : OPTIONS) {
+                for (UnaryOperator<Builder> configure : Arrays.<UnaryOperator<Builder>>asList(b -> b, b -> b.jit(0))) {
+                    ModuleInstance instance = instance(host, options, configure);
+                    assert instance.execute("run", 1L << 40, 2)[0] == (1L << 40) + 4;
+                    assert instance.execute("run", 5, -7)[0] == -9;
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testBinder() {
+        Exports exports = new Exports();
+        HostFunction add = null;
+        for (HostFunction f : HostFunctionBinder.bind(exports)) {
+            switch (f.getName()) {
+                case "add":
+                    assert f.getType().equals(ADD_TYPE);
+                    assert f.getAlias().contains("plus");
+                    add = f;
+                    break;
+                case "sqrt":
+                    assert f.getType().getResultTypes().equals(Collections.singletonList(ValueType.F64));
+                    assert Double.longBitsToDouble(f.execute(new long[]{Double.doubleToRawLongBits(4.0)})) == 2.0;
+                    break;
+                case "noop":
+                    assert f.getType().getParameterTypes().equals(Arrays.asList(ValueType.I32, ValueType.F32));
+                    assert f.getType().getResultTypes().isEmpty();
+                    break;
+                default:
+                    assert false;
+            }
+        }
+        assert add != null;
+        assert HostFunctionBinder.bind(Exports.class).size() == 1;
+        HostFunction hidden = HostFunctionBinder.bind(HiddenExports.class).iterator().next();
+        Set<HostFunction> inherited = HostFunctionBinder.bind(new InheritedExports());
+        assert inherited.size() == 2;
+        HostFunction packagePrivate = HostFunctionBinder.bind(new PrivateExports()).iterator().next();
+        assert packagePrivate.getType().equals(ADD_TYPE);
+        assert HostFunctionBinder.bind(InheritedExports.class).iterator().next().getName().equals("sub");
+
+        for (DecodeOptions options : OPTIONS) {
+            for (UnaryOperator<Builder> configure : Arrays.<UnaryOperator<Builder>>asList(b -> b, b -> b.jit(0))) {
+                ModuleInstance instance = instance(add, options, configure);
+                assert instance.execute("run", 1L << 40, -2)[0] == (1L << 40) - 4;
+                assert exports.caller == instance;
+                instance = instance(hidden, options, configure);
+                assert instance.execute("run", 1L << 40, -2)[0] == (1L << 40) - 4;
+                instance = instance(packagePrivate, options, configure);
+                assert instance.execute("run", 1L << 40, -2)[0] == (1L << 40) - 4;
+            }
+        }
+    }
+
+    // suspend on every call, the arguments are recorded
+    static class AsyncAdd extends HostFunction {
+        long a;
+        int b;
+
+        AsyncAdd() {
+            super("add", ADD_TYPE);
+        }
+
+        @Override
+        public void execute(HostArgs args) {
+            a = args.argI64(0);
+            b = args.argI32(1);
+            args.suspend();
+        }
+    }
+
+    @Test
+    public void testSuspend() {
+        for (DecodeOptions options : OPTIONS) {
+            // executions of two instances are multiplexed by one thread
+            AsyncAdd[] hosts = {new AsyncAdd(), new AsyncAdd()};
+            ModuleInstance[] instances = new ModuleInstance[2];
+            Continuation[] continuations = new Continuation[2];
+            for (int i = 0; i < 2; i++) {
+                instances[i] = instance(hosts[i], options, UnaryOperator.identity());
+                continuations[i] = instances[i].executeSuspendable("run", 100 * i, i + 1);
+            }
+            for (int round = 0; round < 2; round++) {
+                for (int i = 0; i < 2; i++) {
+                    Continuation c = continuations[i];
+                    assert !c.isDone() && c.getPending() == hosts[i];
+                    try {
+                        instances[i].execute("run", 1, 2);
+                        assert false;
+                    } catch (RuntimeException e) {
+                        assert e.getMessage().contains("suspended");
+                    }
+                    c.resume(hosts[i].a + hosts[i].b);
+                }
+            }
+            for (int i = 0; i < 2; i++) {
+                assert continuations[i].isDone();
+                assert continuations[i].getResult()[0] == 100 * i + 2 * (i + 1);
+            }
+        }
+    }
+
+    @Test
+    public void testNotSuspendable() {
+        try {
+            instance(new AsyncAdd(), OPTIONS.get(0), UnaryOperator.identity()).execute("run", 1, 2);
+            assert false;
+        } catch (RuntimeException e) {
+            assert e.getMessage().contains("could not be suspended");
+        }
+        try {
+            instance(new AsyncAdd(), OPTIONS.get(0), b -> b.jit(0)).executeSuspendable("run", 1, 2);
+            assert false;
+        } catch (RuntimeException e) {
+            assert e.getMessage().contains("not supported");
+        }
+    }
+
+    @Test
+    public void testNotImplemented() {
+        HostFunction host = new HostFunction("add", ADD_TYPE) {
+        };
+        try {
+            instance(host, OPTIONS.get(0), UnaryOperator.identity()).execute("run", 1, 2);
+            assert false;
+        } catch (RuntimeException e) {
+            assert e.getMessage().contains("not implemented");
+        }
+    }
+
+    // type ids of a host function are kept by instances, the function is shared by modules declaring it at different type indices
+    @Test
+    public void testSharedByModules() {
+        for (DecodeOptions options : OPTIONS) {
+            for (UnaryOperator<Builder> configure : Arrays.<UnaryOperator<Builder>>asList(b -> b, b -> b.jit(0))) {
+                HostFunction host = new Add();
+                ModuleInstance first = indirect(host, 0, options, configure);
+                ModuleInstance second = indirect(host, 2, options, configure);
+                assert first.execute("run", 1, 2)[0] == 3;
+                assert second.execute("run", 1, 2)[0] == 3;
+            }
+        }
+    }
+
+    // module with padding types of () -> () before add: (i64, i32) -> i64, exporting run(a, b) = add(a, b) by call_indirect
+    private static ModuleInstance indirect(HostFunction host, int padding, DecodeOptions options, UnaryOperator<Builder> configure) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.writeBytes(new byte[]{0x00, 0x61, 0x73, 0x6d, 0x01, 0x00, 0x00, 0x00});
+        // type section
+        out.writeBytes(new byte[]{0x01, (byte) (7 + 3 * padding), (byte) (padding + 1)});
+        for (int i = 0; i < padding; i++)
+            out.writeBytes(new byte[]{0x60, 0x00, 0x00});
+        out.writeBytes(new byte[]{0x60, 0x02, 0x7e, 0x7f, 0x01, 0x7e});
+        // import section
+        out.writeBytes(new byte[]{0x02, 0x0b, 0x01, 0x03, 'e', 'n', 'v', 0x03, 'a', 'd', 'd', 0x00, (byte) padding});
+        // function section
+        out.writeBytes(new byte[]{0x03, 0x02, 0x01, (byte) padding});
+        // table section, funcref of 1 element
+        out.writeBytes(new byte[]{0x04, 0x04, 0x01, 0x70, 0x00, 0x01});
+        // export section
+        out.writeBytes(new byte[]{0x07, 0x07, 0x01, 0x03, 'r', 'u', 'n', 0x00, 0x01});
+        // element section, add at 0
+        out.writeBytes(new byte[]{0x09, 0x07, 0x01, 0x00, 0x41, 0x00, 0x0b, 0x01, 0x00});
+        // code section, local.get 0 local.get 1 i32.const 0 call_indirect
+        out.writeBytes(new byte[]{
+            0x0a, 0x0d, 0x01, 0x0b, 0x00, 0x20, 0x00, 0x20, 0x01, 0x41, 0x00, 0x11, (byte) padding, 0x00, 0x0b
+        });
+        return configure.apply(
+            ModuleInstance.builder()
+                .module(Module.create(out.toByteArray(), options))
+                .memory(new UnsafeMemory())
+                .stackAllocator(new UnsafeStackAllocator(1024, 64, 1024))
+                .hostFunctions(Collections.singleton(host))
+                .validateFunctionType()
+        ).build();
+    }
+
+    // module importing add: (i64, i32) -> i64 and exporting run(a, b) = add(add(a, b), b)
+    private static ModuleInstance instance(HostFunction host, DecodeOptions options, UnaryOperator<Builder> configure) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.writeBytes(new byte[]{0x00, 0x61, 0x73, 0x6d, 0x01, 0x00, 0x00, 0x00});
+        // type section
+        out.writeBytes(new byte[]{0x01, 0x07, 0x01, 0x60, 0x02, 0x7e, 0x7f, 0x01, 0x7e});
+        // import section
+        out.writeBytes(new byte[]{0x02, 0x0b, 0x01, 0x03, 'e', 'n', 'v', 0x03, 'a', 'd', 'd', 0x00, 0x00});
+        // function section
+        out.writeBytes(new byte[]{0x03, 0x02, 0x01, 0x00});
+        // export section
+        out.writeBytes(new byte[]{0x07, 0x07, 0x01, 0x03, 'r', 'u', 'n', 0x00, 0x01});
+        // code section, local.get 0 local.get 1 call 0 local.get 1 call 0
+        out.writeBytes(new byte[]{
+            0x0a, 0x0e, 0x01, 0x0c, 0x00, 0x20, 0x00, 0x20, 0x01, 0x10, 0x00, 0x20, 0x01, 0x10, 0x00, 0x0b
+        });
+        return configure.apply(
+            ModuleInstance.builder()
+                .module(Module.create(out.toByteArray(), options))
+                .memory(new UnsafeMemory())
+                .stackAllocator(new UnsafeStackAllocator(1024, 64, 1024))
+                .hostFunctions(Collections.singleton(host))
+        ).build();
+    }
+}
@@ -4,6 +4,8 @@ import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.junit.runners.JUnit4;
 import org.tdf.lotusvm.common.BytesReader;
+import org.tdf.lotusvm.common.OpCode;
+import org.tdf.lotusvm.common.Opcodes;
 import org.tdf.lotusvm.types.Instruction;
 import org.tdf.lotusvm.types.InstructionPool;
 
@@ -37,4 +39,13 @@ public class InstructionPoolTest {
             }
         }
     }
+
+    // opcode constants for dispatch are consistent with OpCode
+    @Test
+    public void testOpcodes() throws Exception {
+        for (OpCode c : OpCode.values()) {
+            assert Opcodes.class.getField(c.name()).getInt(null) == c.code;
+        }
+        assert Opcodes.class.getFields().length == OpCode.values().length;
+    }
 }
@@ -0,0 +1,101 @@
+package org.tdf.lotusvm;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import org.tdf.lotusvm.compiler.CompiledModule;
+import org.tdf.lotusvm.compiler.ModuleCache;
+import org.tdf.lotusvm.compiler.ModuleCompiler;
+import org.tdf.lotusvm.compiler.TieredCompiler;
+import org.tdf.lotusvm.runtime.BaseMemory;
+import org.tdf.lotusvm.runtime.ModuleInstanceImpl;
+import org.tdf.lotusvm.runtime.StackAllocator;
+
+@RunWith(JUnit4.class)
+public class JitTest {
+
+    @Test
+    public void testCompileAll() throws Exception {
+        TestModule module = Util.getTestModule("testdata", b -> b.jit(0));
+        module.testAll();
+        assert module.getFailures() == 0;
+        module = Util.getTestModule("testdata/spec", b -> b.jit(0));
+        module.testAll();
+        assert module.getFailures() == 0;
+    }
+
+    @Test
+    public void testThreshold() throws Exception {
+        Module md = Module.create(Util.readClassPathFile("expression-tests/add.wasm"));
+        StackAllocator allocator = Util.getAllocator();
+        ModuleInstance instance =
+            ModuleInstance.builder()
+                .memory(new BaseMemory())
+                .module(md)
+                .stackAllocator(allocator)
+                .jit(2)
+                .build();
+        TieredCompiler jit = ((ModuleInstanceImpl) instance).getJit();
+        assert instance.execute(0, 1, 1)[0] == 2;
+        assert instance.execute(0, 1, -1)[0] == 0;
+        assert jit.getCompiledCount() == 0;
+        assert instance.execute(0, 2, 3)[0] == 5;
+        assert jit.getCompiledCount() == 1;
+        assert instance.execute(0, 0xffffffffL, 1)[0] == 0;
+        md.close();
+        allocator.close();
+    }
+
+    @Test
+    public void testCompileModule() throws Exception {
+        TestModule module = Util.getTestModule("testdata", b -> b.compiledModule(ModuleCompiler.compile(b.getModule())));
+        module.testAll();
+        assert module.getFailures() == 0;
+        module = Util.getTestModule("testdata/spec", b -> b.compiledModule(ModuleCompiler.compile(b.getModule())));
+        module.testAll();
+        assert module.getFailures() == 0;
+    }
+
+    @Test
+    public void testModuleCache() throws Exception {
+        byte[] code = Util.readClassPathFile("expression-tests/add.wasm");
+        StackAllocator allocator = Util.getAllocator();
+        ModuleCache cache = new ModuleCache(1);
+        CompiledModule compiled = cache.get(new byte[]{1}, () -> code);
+        assert compiled.getCompiledCount() == 1;
+        CompiledModule hit = cache.get(new byte[]{1}, () -> {
+            throw new RuntimeException("cache missed");
+        });
+        assert hit == compiled;
+        hit.close();
+        ModuleInstance instance =
+            ModuleInstance.builder()
+                .memory(new BaseMemory())
+                .compiledModule(compiled)
+                .stackAllocator(allocator)
+                .build();
+        assert instance.execute(0, 2, 3)[0] == 5;
+
+        // decode options are part of the key
+        CompiledModule validated = cache.get(new byte[]{1}, new DecodeOptions().validated(true), () -> code);
+        assert validated != compiled && validated.getModule().getMaxStackSizes() != null;
+        assert cache.size() == 1;
+        // the evicted module is still retained by the caller, so the instance is usable
+        assert compiled.getReferences() == 1;
+        assert instance.execute(0, 0xffffffffL, 1)[0] == 0;
+        compiled.close();
+        assert compiled.getReferences() == 0;
+        try {
+            compiled.retain();
+            assert false;
+        } catch (RuntimeException e) {
+            assert e.getMessage().contains("closed");
+        }
+        validated.close();
+        // the reference of cache is released on close
+        assert validated.getReferences() == 1;
+        cache.close();
+        assert validated.getReferences() == 0;
+        allocator.close();
+    }
+}
@@ -0,0 +1,117 @@
+package org.tdf.lotusvm;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import org.tdf.lotusvm.runtime.MappedMemory;
+import org.tdf.lotusvm.runtime.Memory;
+import org.tdf.lotusvm.runtime.UnsafeStackAllocator;
+import org.tdf.lotusvm.types.LimitType;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.function.UnaryOperator;
+
+@RunWith(JUnit4.class)
+public class MappedMemoryTest {
+    @Test
+    public void testAll() throws Exception {
+        for (boolean copyOnWrite : new boolean[]{false, true}) {
+            for (UnaryOperator<Builder> configure : Arrays.<UnaryOperator<Builder>>asList(b -> b, b -> b.jit(0))) {
+                TestModule module = Util.getTestModule("testdata/spec", b -> configure.apply(b).memory(new MappedMemory(file(), copyOnWrite)));
+                module.testAll();
+                assert module.getFailures() == 0;
+            }
+        }
+    }
+
+    @Test
+    public void testPersist() throws Exception {
+        Path path = file();
+        MappedMemory m = new MappedMemory(path);
+        m.setLimit(new LimitType(true, 1, 4));
+        m.storeI64(8, 0x0102030405060708L);
+        assert m.grow(1) == 1;
+        m.storeI32(Memory.PAGE_SIZE, 7);
+        m.flush();
+        m.close();
+        assert Files.size(path) == 2 * Memory.PAGE_SIZE;
+
+        // pages are restored from the file, not less than minimum
+        m = new MappedMemory(path);
+        m.setLimit(new LimitType(true, 1, 4));
+        assert m.getPages() == 2;
+        assert m.load64(8) == 0x0102030405060708L && m.load32(Memory.PAGE_SIZE) == 7;
+        m.close();
+
+        // copy-on-write never writes the file
+        m = new MappedMemory(path, true);
+        m.setLimit(new LimitType(true, 1, 4));
+        m.storeI64(8, -1L);
+        assert m.grow(1) == 2;
+        assert m.load64(8) == -1L && m.load32(Memory.PAGE_SIZE) == 7;
+        m.storeI32(2 * Memory.PAGE_SIZE, 1);
+        m.close();
+        assert Files.size(path) == 2 * Memory.PAGE_SIZE;
+        m = new MappedMemory(path);
+        m.setLimit(new LimitType(true, 3, 4));
+        assert m.getPages() == 3;
+        assert m.load64(8) == 0x0102030405060708L && m.load32(2 * Memory.PAGE_SIZE) == 0;
+        m.close();
+
+        try {
+            new MappedMemory(path).setLimit(new LimitType(true, 1, 2));
+            assert false;
+        } catch (RuntimeException e) {
+            assert e.getMessage().contains("exceeds limit");
+        }
+    }
+
+    // active data segment is put into a new memory, but not into a restored one
+    @Test
+    public void testRestored() throws Exception {
+        Path path = file();
+        try (MappedMemory m = new MappedMemory(path)) {
+            instance(m, UnaryOperator.identity());
+            assert Arrays.equals(m.load(0, 4), new byte[]{1, 2, 3, 4});
+            m.storeI8(0, (byte) 9);
+        }
+        try (MappedMemory m = new MappedMemory(path)) {
+            instance(m, Builder::restoredMemory);
+            assert Arrays.equals(m.load(0, 4), new byte[]{9, 2, 3, 4});
+        }
+        try (MappedMemory m = new MappedMemory(path)) {
+            instance(m, UnaryOperator.identity());
+            assert Arrays.equals(m.load(0, 4), new byte[]{1, 2, 3, 4});
+        }
+    }
+
+    private static void instance(Memory memory, UnaryOperator<Builder> configure) {
+        // module with a memory of 1 page and an active segment [1, 2, 3, 4] at 0
+        byte[] bin = new byte[]{
+            0x00, 0x61, 0x73, 0x6d, 0x01, 0x00, 0x00, 0x00,
+            0x05, 0x03, 0x01, 0x00, 0x01,
+            0x0b, 0x0a, 0x01, 0x00, 0x41, 0x00, 0x0b, 0x04, 0x01, 0x02, 0x03, 0x04
+        };
+        try (Module md = Module.create(bin)) {
+            configure.apply(
+                ModuleInstance.builder()
+                    .module(md)
+                    .memory(memory)
+                    .stackAllocator(new UnsafeStackAllocator(1024, 64, 1024))
+            ).build();
+        }
+    }
+
+    private static Path file() {
+        try {
+            Path path = Files.createTempFile("lotusvm", ".mem");
+            path.toFile().deleteOnExit();
+            return path;
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+}
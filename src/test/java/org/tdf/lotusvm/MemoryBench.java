@@ -0,0 +1,152 @@
+package org.tdf.lotusvm;
+
+import org.tdf.lotusvm.runtime.BufferMemory;
+import org.tdf.lotusvm.runtime.Memory;
+import org.tdf.lotusvm.runtime.UnsafeMemory;
+import org.tdf.lotusvm.runtime.UnsafeStackAllocator;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Supplier;
+import java.util.function.UnaryOperator;
+
+// memory heavy loops: copy(dst, src, n) copies n bytes by i64.load and i64.store,
+// hash(p, n) computes fnv-1a of n bytes by i32.load8_u
+// usage: MemoryBench [rounds] [unsafe|direct|heap]
+public class MemoryBench {
+    private static final int SIZE = 64 * 1024;
+
+    // jdk 17, 200 rounds of 64 KiB, two runs each, ns/byte
+    // jit copy: two checks per access = 0.54 - 0.56, one check per access = 0.24 - 0.41
+    // jit hash: two checks per access = 2.02 - 2.33, one check per access = 1.81 - 2.00
+    // interpreters are dominated by dispatch, the difference is within noise
+    // jdk 17, jit, two runs each, ns/byte      copy          hash
+    // unsafe                                   0.49 - 0.52   2.28 - 2.39
+    // direct buffer                            0.31 - 0.33   1.84 - 2.16
+    // heap buffer                              0.35 - 0.50   2.48 - 3.24
+    public static void main(String... args) {
+        int rounds = args.length > 0 ? Integer.parseInt(args[0]) : 200;
+        String kind = args.length > 1 ? args[1] : "unsafe";
+        Supplier<Memory> memories = kind.equals("unsafe") ? UnsafeMemory::new : () -> new BufferMemory(kind.equals("direct"));
+        List<String> names = Arrays.asList("interpreted", "threaded", "register", "jit");
+        List<DecodeOptions> options = Arrays.asList(
+            new DecodeOptions(),
+            new DecodeOptions().threaded(true),
+            new DecodeOptions().register(true).fused(true),
+            new DecodeOptions()
+        );
+        List<UnaryOperator<Builder>> configures = Arrays.asList(
+            UnaryOperator.identity(), UnaryOperator.identity(), UnaryOperator.identity(), b -> b.jit(0)
+        );
+        for (int i = 0; i < names.size(); i++) {
+            try (
+                Module md = Module.create(module(), options.get(i));
+                UnsafeStackAllocator allocator = new UnsafeStackAllocator(1024, 64, 1024);
+                Memory memory = memories.get()
+            ) {
+                ModuleInstance instance = configures.get(i).apply(
+                    ModuleInstance.builder()
+                        .module(md)
+                        .memory(memory)
+                        .stackAllocator(allocator)
+                ).build();
+                for (int j = 0; j < SIZE; j++) {
+                    memory.storeI8(j, (byte) j);
+                }
+                // warm up
+                long r = run(instance, rounds / 4);
+                long start = System.nanoTime();
+                for (int j = 0; j < rounds; j++) {
+                    instance.execute("copy", SIZE, 0, SIZE);
+                }
+                long copyNanos = System.nanoTime() - start;
+                start = System.nanoTime();
+                for (int j = 0; j < rounds; j++) {
+                    r += instance.execute("hash", SIZE, SIZE)[0];
+                }
+                long hashNanos = System.nanoTime() - start;
+                double n = (double) rounds * SIZE;
+                System.out.printf("%s %s: copy = %.3f ns/byte hash = %.3f ns/byte checksum = %d%n",
+                    kind, names.get(i), copyNanos / n, hashNanos / n, r);
+            }
+        }
+    }
+
+    private static long run(ModuleInstance instance, int rounds) {
+        long r = 0;
+        for (int i = 0; i < rounds; i++) {
+            instance.execute("copy", SIZE, 0, SIZE);
+            r += instance.execute("hash", SIZE, SIZE)[0];
+        }
+        return r;
+    }
+
+    // module with a memory of 2 pages exporting copy: (i32, i32, i32) -> () and hash: (i32, i32) -> i32
+    static byte[] module() {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.writeBytes(new byte[]{0x00, 0x61, 0x73, 0x6d, 0x01, 0x00, 0x00, 0x00});
+        // type section
+        section(out, 0x01, 0x02, 0x60, 0x03, 0x7f, 0x7f, 0x7f, 0x00, 0x60, 0x02, 0x7f, 0x7f, 0x01, 0x7f);
+        // function section
+        section(out, 0x03, 0x02, 0x00, 0x01);
+        // memory section
+        section(out, 0x05, 0x01, 0x00, 0x02);
+        // export section
+        section(out, 0x07, 0x02, 0x04, 'c', 'o', 'p', 'y', 0x00, 0x00, 0x04, 'h', 'a', 's', 'h', 0x00, 0x01);
+        byte[] copy = body(
+            // local i
+            0x01, 0x01, 0x7f,
+            0x02, 0x40, 0x03, 0x40,
+            // br_if 1 (i >= n)
+            0x20, 0x03, 0x20, 0x02, 0x4f, 0x0d, 0x01,
+            // i64.store (dst + i) (i64.load (src + i))
+            0x20, 0x00, 0x20, 0x03, 0x6a,
+            0x20, 0x01, 0x20, 0x03, 0x6a,
+            0x29, 0x03, 0x00,
+            0x37, 0x03, 0x00,
+            // i += 8
+            0x20, 0x03, 0x41, 0x08, 0x6a, 0x21, 0x03,
+            0x0c, 0x00, 0x0b, 0x0b, 0x0b
+        );
+        byte[] hash = body(
+            // local i, h
+            0x01, 0x02, 0x7f,
+            // h = 0x811c9dc5
+            0x41, 0xc5, 0xbb, 0xf2, 0x88, 0x78, 0x21, 0x03,
+            0x02, 0x40, 0x03, 0x40,
+            // br_if 1 (i >= n)
+            0x20, 0x02, 0x20, 0x01, 0x4f, 0x0d, 0x01,
+            // h = (h ^ i32.load8_u (p + i)) * 0x01000193
+            0x20, 0x03, 0x20, 0x00, 0x20, 0x02, 0x6a, 0x2d, 0x00, 0x00, 0x73,
+            0x41, 0x93, 0x83, 0x80, 0x08, 0x6c, 0x21, 0x03,
+            // i += 1
+            0x20, 0x02, 0x41, 0x01, 0x6a, 0x21, 0x02,
+            0x0c, 0x00, 0x0b, 0x0b,
+            0x20, 0x03, 0x0b
+        );
+        ByteArrayOutputStream code = new ByteArrayOutputStream();
+        code.write(0x02);
+        code.writeBytes(copy);
+        code.writeBytes(hash);
+        out.write(0x0a);
+        out.write(code.size());
+        out.writeBytes(code.toByteArray());
+        return out.toByteArray();
+    }
+
+    // function body prefixed by size, the size is less than 128
+    private static byte[] body(int... bytes) {
+        byte[] r = new byte[bytes.length + 1];
+        r[0] = (byte) bytes.length;
+        for (int i = 0; i < bytes.length; i++) {
+            r[i + 1] = (byte) bytes[i];
+        }
+        return r;
+    }
+
+    private static void section(ByteArrayOutputStream out, int id, int... bytes) {
+        out.write(id);
+        out.writeBytes(body(bytes));
+    }
+}
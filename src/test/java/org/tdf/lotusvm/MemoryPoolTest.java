@@ -0,0 +1,218 @@
+package org.tdf.lotusvm;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import org.tdf.lotusvm.runtime.Memory;
+import org.tdf.lotusvm.runtime.MemoryPool;
+import org.tdf.lotusvm.runtime.PooledMemory;
+import org.tdf.lotusvm.types.LimitType;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.function.UnaryOperator;
+
+@RunWith(JUnit4.class)
+public class MemoryPoolTest {
+    @Test
+    public void testAll() throws Exception {
+        try (MemoryPool pool = new MemoryPool()) {
+            for (UnaryOperator<Builder> configure : Arrays.<UnaryOperator<Builder>>asList(b -> b, b -> b.jit(0))) {
+                try (Memory memory = pool.acquire()) {
+                    TestModule module = Util.getTestModule("testdata/spec", b -> configure.apply(b).memory(memory));
+                    module.testAll();
+                    assert module.getFailures() == 0;
+                }
+            }
+        }
+    }
+
+    // a released region is reused and zeroed
+    @Test
+    public void testReuse() {
+        Random random = new Random(0);
+        try (MemoryPool pool = new MemoryPool()) {
+            for (int i = 0; i < 20; i++) {
+                try (Memory m = pool.acquire()) {
+                    m.setLimit(new LimitType(true, 3, 8));
+                    assert Arrays.equals(m.load(0, 3 * Memory.PAGE_SIZE), new byte[3 * Memory.PAGE_SIZE]);
+                    for (int j = 0; j < 10; j++) {
+                        m.storeI64(random.nextInt(3 * Memory.PAGE_SIZE - 8), -1L);
+                    }
+                    // crossing blocks of 4 KiB
+                    m.storeI64((random.nextInt(40) + 1) * 4096 - 4, -1L);
+                    m.fill(random.nextInt(Memory.PAGE_SIZE), (byte) 1, Memory.PAGE_SIZE);
+                    m.copy(0, 2 * Memory.PAGE_SIZE, Memory.PAGE_SIZE);
+                }
+                // 3 pages rounded up to 4
+                assert pool.getAllocatedBytes() == 4 * Memory.PAGE_SIZE;
+            }
+        }
+    }
+
+    @Test
+    public void testGrow() {
+        try (MemoryPool pool = new MemoryPool()) {
+            PooledMemory m = (PooledMemory) pool.acquire();
+            m.setLimit(new LimitType(true, 3, 6));
+            m.storeI32(3 * Memory.PAGE_SIZE - 4, 7);
+            // inside capacity
+            assert m.grow(1) == 3;
+            assert m.getCapacity() == 4;
+            assert m.load32(3 * Memory.PAGE_SIZE - 4) == 7 && m.load32(4 * Memory.PAGE_SIZE - 4) == 0;
+            // moved to a larger region, the old one is cached
+            assert m.grow(1) == 4;
+            assert m.getCapacity() == 8;
+            assert m.load32(3 * Memory.PAGE_SIZE - 4) == 7 && m.load32(5 * Memory.PAGE_SIZE - 4) == 0;
+            assert m.grow(2) == -1;
+            assert pool.getAllocatedBytes() == 12 * Memory.PAGE_SIZE;
+            m.close();
+            try {
+                m.load8(0);
+                assert false;
+            } catch (RuntimeException e) {
+                assert e.getMessage().contains("overflow");
+            }
+        }
+    }
+
+    // pages of grow are unsigned, memory never shrinks and pages grown are zeros
+    @Test
+    public void testGrowUnsigned() {
+        try (MemoryPool pool = new MemoryPool()) {
+            for (boolean bounded : new boolean[]{false, true}) {
+                try (Memory m = pool.acquire()) {
+                    m.setLimit(new LimitType(bounded, 2, bounded ? 8 : 0));
+                    m.storeI32(2 * Memory.PAGE_SIZE - 4, 0x12345678);
+                    for (int n : new int[]{-1, Integer.MAX_VALUE, Integer.MIN_VALUE, Memory.MAX_PAGES}) {
+                        assert m.grow(n) == -1;
+                        assert m.getPages() == 2;
+                    }
+                    assert m.grow(1) == 2;
+                    assert m.load32(2 * Memory.PAGE_SIZE - 4) == 0x12345678 && m.load32(3 * Memory.PAGE_SIZE - 4) == 0;
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testCaps() {
+        MemoryPool pool = new MemoryPool(0, Memory.PAGE_SIZE, 2 * Memory.PAGE_SIZE);
+        Memory a = pool.acquire();
+        Memory b = pool.acquire();
+        a.setLimit(new LimitType(true, 1, 1));
+        b.setLimit(new LimitType(true, 1, 1));
+        try {
+            pool.acquire().setLimit(new LimitType(true, 1, 1));
+            assert false;
+        } catch (RuntimeException e) {
+            assert e.getMessage().contains("exhausted");
+        }
+        // cached up to 1 page, the other is freed
+        a.close();
+        b.close();
+        assert pool.getCachedBytes() == Memory.PAGE_SIZE;
+        assert pool.getAllocatedBytes() == Memory.PAGE_SIZE;
+        // the cached region is freed for a larger class
+        a = pool.acquire();
+        a.setLimit(new LimitType(true, 2, 2));
+        assert pool.getCachedBytes() == 0;
+        assert pool.getAllocatedBytes() == 2 * Memory.PAGE_SIZE;
+        pool.close();
+        a.close();
+        assert pool.getAllocatedBytes() == 0;
+    }
+
+    // regions cached by another thread are freed once max bytes is hit
+    @Test
+    public void testThreadCaches() throws Exception {
+        MemoryPool pool = new MemoryPool(2, 0, 2 * Memory.PAGE_SIZE);
+        CountDownLatch cached = new CountDownLatch(1);
+        CountDownLatch done = new CountDownLatch(1);
+        Thread thread = new Thread(() -> {
+            cacheTwoPages(pool);
+            cached.countDown();
+            try {
+                done.await();
+            } catch (InterruptedException ignored) {
+            }
+        });
+        thread.start();
+        cached.await();
+        assert pool.getAllocatedBytes() == 2 * Memory.PAGE_SIZE;
+        try (Memory m = pool.acquire()) {
+            m.setLimit(new LimitType(true, 2, 2));
+        }
+        assert pool.getAllocatedBytes() == 2 * Memory.PAGE_SIZE;
+        done.countDown();
+        thread.join();
+        pool.close();
+        assert pool.getAllocatedBytes() == 0;
+    }
+
+    // regions cached by a dead thread are moved to the pool by the next thread using it
+    @Test
+    public void testDeadThreadCaches() throws Exception {
+        MemoryPool pool = new MemoryPool(2, 4 * Memory.PAGE_SIZE, 64 * Memory.PAGE_SIZE);
+        Thread thread = new Thread(() -> cacheTwoPages(pool));
+        thread.start();
+        thread.join();
+        assert pool.getCachedBytes() == 0;
+        // one of the regions moved is reused
+        try (Memory m = pool.acquire()) {
+            m.setLimit(new LimitType(true, 1, 1));
+            assert pool.getCachedBytes() == Memory.PAGE_SIZE;
+        }
+        assert pool.getAllocatedBytes() == 2 * Memory.PAGE_SIZE;
+        pool.close();
+        assert pool.getAllocatedBytes() == 0;
+    }
+
+    // two regions of one page cached by the current thread
+    private static void cacheTwoPages(MemoryPool pool) {
+        Memory a = pool.acquire();
+        Memory b = pool.acquire();
+        a.setLimit(new LimitType(true, 1, 1));
+        b.setLimit(new LimitType(true, 1, 1));
+        a.close();
+        b.close();
+    }
+
+    @Test
+    public void testThreads() throws Exception {
+        MemoryPool pool = new MemoryPool(2, 4 * Memory.PAGE_SIZE, 64 * Memory.PAGE_SIZE);
+        List<Thread> threads = new ArrayList<>();
+        List<Throwable> errors = new ArrayList<>();
+        for (int t = 0; t < 4; t++) {
+            int seed = t;
+            Thread thread = new Thread(() -> {
+                Random random = new Random(seed);
+                for (int i = 0; i < 200; i++) {
+                    try (Memory m = pool.acquire()) {
+                        int pages = random.nextInt(4) + 1;
+                        m.setLimit(new LimitType(true, pages, pages));
+                        int offset = random.nextInt(pages * Memory.PAGE_SIZE - 8);
+                        assert m.load64(offset) == 0;
+                        m.storeI64(offset, seed + 1);
+                    }
+                }
+            });
+            thread.setUncaughtExceptionHandler((th, e) -> {
+                synchronized (errors) {
+                    errors.add(e);
+                }
+            });
+            threads.add(thread);
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assert errors.isEmpty() : errors;
+        pool.close();
+        assert pool.getAllocatedBytes() == 0;
+    }
+}
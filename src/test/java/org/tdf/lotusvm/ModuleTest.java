@@ -5,10 +5,12 @@ import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.junit.runners.JUnit4;
 import org.tdf.lotusvm.common.BytesReader;
+import org.tdf.lotusvm.types.FunctionType;
 import org.tdf.lotusvm.types.ModuleImpl;
 
 import java.io.File;
 import java.io.FileInputStream;
+import java.util.List;
 
 
 @RunWith(JUnit4.class)
@@ -96,4 +98,26 @@ public class ModuleTest {
         ModuleImpl m = new ModuleImpl(Util.readClassPathFile("expression-tests/table.wasm"));
         assert m.getTableSection() != null;
     }
+
+    // equal types share the canonical id
+    @Test
+    public void testTypeIds() throws Exception {
+        int n = 0;
+        for (File f : Util.readClassPathDir("testdata/spec")) {
+            if (f.getName().equals("address.wasm") || !f.getName().endsWith(".wasm")) continue;
+            ModuleImpl m = new ModuleImpl(ByteStreams.toByteArray(new FileInputStream(f)));
+            if (m.getTypeSection() == null) continue;
+            List<FunctionType> types = m.getTypeSection().getFunctionTypes();
+            int[] ids = m.getTypeIds();
+            assert ids.length == types.size();
+            for (int i = 0; i < ids.length; i++) {
+                for (int j = 0; j < ids.length; j++) {
+                    assert (ids[i] == ids[j]) == types.get(i).equals(types.get(j));
+                }
+                if (ids[i] != i) n++;
+            }
+            m.close();
+        }
+        assert n > 0;
+    }
 }
@@ -0,0 +1,104 @@
+package org.tdf.lotusvm;
+
+import org.tdf.lotusvm.common.OpCode;
+import org.tdf.lotusvm.types.Code;
+import org.tdf.lotusvm.types.InstructionId;
+import org.tdf.lotusvm.types.InstructionPool;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.*;
+
+// report the most frequent opcode n-grams over a corpus of wasm files, used to pick sequences to fuse into superinstructions
+// n-grams are counted statically inside a block, sequences across block boundaries are never fused
+// usage: NGramProfiler <n> <top> <file or directory>...
+public class NGramProfiler {
+    private final int n;
+    private final Map<List<OpCode>, Long> counts = new HashMap<>();
+    private long total;
+
+    public NGramProfiler(int n) {
+        if (n <= 0)
+            throw new RuntimeException("invalid n " + n);
+        this.n = n;
+    }
+
+    public static void main(String... args) throws Exception {
+        int n = args.length > 0 ? Integer.parseInt(args[0]) : 3;
+        int top = args.length > 1 ? Integer.parseInt(args[1]) : 20;
+        NGramProfiler profiler = new NGramProfiler(n);
+        if (args.length > 2) {
+            for (int i = 2; i < args.length; i++) {
+                profiler.addPath(new File(args[i]));
+            }
+        } else {
+            profiler.add(Util.readClassPathFile("bench/main.wasm"));
+        }
+        for (Map.Entry<List<OpCode>, Long> e : profiler.top(top)) {
+            StringJoiner j = new StringJoiner("; ");
+            e.getKey().forEach(c -> j.add(c.name));
+            System.out.printf("%10d %6.2f%% %s%n", e.getValue(), e.getValue() * 100.0 / profiler.getTotal(), j);
+        }
+    }
+
+    public void addPath(File f) throws Exception {
+        if (f.isDirectory()) {
+            File[] files = f.listFiles();
+            if (files == null)
+                return;
+            Arrays.sort(files);
+            for (File c : files) {
+                addPath(c);
+            }
+            return;
+        }
+        if (f.getName().endsWith(".wasm"))
+            add(Files.readAllBytes(f.toPath()));
+    }
+
+    public void add(byte[] binary) {
+        try (Module md = Module.create(binary)) {
+            if (md.getCodeSection() == null)
+                return;
+            for (Code c : md.getCodeSection().getCodes()) {
+                addRange(md.getInsPool(), c.getCode().getExpression());
+            }
+        }
+    }
+
+    // total count of n-grams
+    public long getTotal() {
+        return total;
+    }
+
+    public long count(OpCode... gram) {
+        return counts.getOrDefault(Arrays.asList(gram), 0L);
+    }
+
+    public List<Map.Entry<List<OpCode>, Long>> top(int limit) {
+        List<Map.Entry<List<OpCode>, Long>> r = new ArrayList<>(counts.entrySet());
+        r.sort(Map.Entry.<List<OpCode>, Long>comparingByValue().reversed());
+        return r.subList(0, Math.min(limit, r.size()));
+    }
+
+    private void addRange(InstructionPool pool, long instructions) {
+        int size = InstructionPool.getInstructionsSize(instructions);
+        OpCode[] codes = new OpCode[size];
+        for (int i = 0; i < size; i++) {
+            long ins = pool.getInstructionInArray(instructions, i);
+            codes[i] = InstructionId.getOpCode(ins);
+            switch (codes[i]) {
+                case BLOCK:
+                case LOOP:
+                case IF:
+                    addRange(pool, pool.getBranch0(ins));
+                    if (!pool.isNullBranch(pool.getBranch1(ins)))
+                        addRange(pool, pool.getBranch1(ins));
+            }
+        }
+        for (int i = 0; i + n <= size; i++) {
+            counts.merge(Arrays.asList(Arrays.copyOfRange(codes, i, i + n)), 1L, Long::sum);
+            total++;
+        }
+    }
+}
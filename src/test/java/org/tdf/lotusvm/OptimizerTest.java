@@ -0,0 +1,164 @@
+package org.tdf.lotusvm;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import org.tdf.lotusvm.runtime.UnsafeMemory;
+import org.tdf.lotusvm.runtime.UnsafeStackAllocator;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.UnaryOperator;
+
+@RunWith(JUnit4.class)
+public class OptimizerTest {
+    private static final List<DecodeOptions> OPTIONS = Arrays.asList(
+        new DecodeOptions().validated(true).optimized(true),
+        new DecodeOptions().validated(true).optimized(true).fused(true).threaded(true),
+        new DecodeOptions().validated(true).optimized(true).register(true).fused(true)
+    );
+
+    @Test
+    public void testAll() throws Exception {
+        for (DecodeOptions options : OPTIONS) {
+            TestModule module = Util.getTestModule("testdata", UnaryOperator.identity())
+                .withDecoder(bin -> Module.create(bin, options));
+            module.testAll();
+            assert module.getFailures() == 0;
+            module = Util.getTestModule("testdata/spec", UnaryOperator.identity())
+                .withDecoder(bin -> Module.create(bin, options));
+            module.testAll();
+            assert module.getFailures() == 0;
+        }
+    }
+
+    @Test
+    public void testRemoved() throws Exception {
+        int removed = 0;
+        for (File f : Util.readClassPathDir("testdata/spec")) {
+            if (!f.getName().endsWith(".wasm"))
+                continue;
+            try (Module md = Module.create(Files.readAllBytes(f.toPath()), OPTIONS.get(0))) {
+                removed += md.getRemovedInstructions();
+            }
+        }
+        assert removed > 0;
+        try (Module md = Module.create(Util.readClassPathFile("bench/main.wasm"), new DecodeOptions().validated(true))) {
+            assert md.getRemovedInstructions() == 0;
+        }
+        try {
+            Module.create(Util.readClassPathFile("bench/main.wasm"), new DecodeOptions().optimized(true));
+            assert false;
+        } catch (RuntimeException e) {
+            assert e.getMessage().contains("requires validation");
+        }
+    }
+
+    @Test
+    public void testFold() {
+        for (DecodeOptions options : OPTIONS) {
+            // i32.const 6 i32.const 7 i32.mul return i32.const 0 i32.add
+            assert run(options, 0x41, 0x06, 0x41, 0x07, 0x6c, 0x0f, 0x41, 0x00, 0x6a) == 42;
+            try (Module md = Module.create(module(0x41, 0x06, 0x41, 0x07, 0x6c, 0x0f, 0x41, 0x00, 0x6a), options)) {
+                assert md.getRemovedInstructions() >= 3;
+            }
+            // i64.const 5 i64.const 3 i64.mul i32.wrap_i64
+            assert run(options, 0x42, 0x05, 0x42, 0x03, 0x7e, 0xa7) == 15;
+            // i32.const -1 i32.const 28 i32.shr_u i32.const 1 i32.add i32.eqz
+            assert run(options, 0x41, 0x7f, 0x41, 0x1c, 0x76, 0x41, 0x01, 0x6a, 0x45) == 0;
+            // i32.const 0 if (result i32) i32.const 1 else i32.const 2 end
+            assert run(options, 0x41, 0x00, 0x04, 0x7f, 0x41, 0x01, 0x05, 0x41, 0x02, 0x0b) == 2;
+            // block (result i32) i32.const 7 i32.const 3 br_table 0 end
+            assert run(options, 0x02, 0x7f, 0x41, 0x07, 0x41, 0x03, 0x0e, 0x00, 0x00, 0x0b) == 7;
+            // block (result i32) i32.const 7 i32.const 1 br_if 0 drop i32.const 8 end
+            assert run(options, 0x02, 0x7f, 0x41, 0x07, 0x41, 0x01, 0x0d, 0x00, 0x1a, 0x41, 0x08, 0x0b) == 7;
+        }
+    }
+
+    // operations which may trap are never folded
+    @Test
+    public void testTrap() {
+        for (DecodeOptions options : OPTIONS) {
+            // i32.const 1 i32.const 0 i32.div_u
+            try {
+                run(options, 0x41, 0x01, 0x41, 0x00, 0x6e);
+                assert false;
+            } catch (RuntimeException ignored) {
+            }
+            // i32.const 0x80000000 i32.const -1 i32.div_s
+            try {
+                run(options, 0x41, 0x80, 0x80, 0x80, 0x80, 0x78, 0x41, 0x7f, 0x6d);
+                assert false;
+            } catch (RuntimeException ignored) {
+            }
+            // i32.const 0x80000000 i32.const -1 i32.rem_s
+            assert run(options, 0x41, 0x80, 0x80, 0x80, 0x80, 0x78, 0x41, 0x7f, 0x6f) == 0;
+        }
+    }
+
+    // gas charged is the same as unoptimized code
+    @Test
+    public void testGas() {
+        long used = gas(new DecodeOptions().gas(new GasSchedule()));
+        assert used > 0;
+        assert gas(new DecodeOptions().gas(new GasSchedule()).validated(true).optimized(true)) == used;
+        assert gas(new DecodeOptions().gas(new GasSchedule()).validated(true).optimized(true).threaded(true)) == used;
+    }
+
+    private static long gas(DecodeOptions options) {
+        try (
+            Module md = Module.create(Util.readClassPathFile("bench/main.wasm"), options);
+            UnsafeStackAllocator allocator = new UnsafeStackAllocator(Bench.MAX_STACK_SIZE, Bench.MAX_FRAMES, Bench.MAX_LABELS);
+            UnsafeMemory memory = new UnsafeMemory()
+        ) {
+            ModuleInstance instance = ModuleInstance.builder()
+                .module(md)
+                .memory(memory)
+                .stackAllocator(allocator)
+                .gasLimit(Long.MAX_VALUE)
+                .build();
+            instance.execute("bench");
+            return instance.getGasUsed();
+        }
+    }
+
+    private static long run(DecodeOptions options, int... body) {
+        try (Module md = Module.create(module(body), options)) {
+            ModuleInstance instance = ModuleInstance.builder()
+                .module(md)
+                .memory(new UnsafeMemory())
+                .stackAllocator(new UnsafeStackAllocator(1024, 64, 1024))
+                .build();
+            return instance.execute("run")[0];
+        }
+    }
+
+    // module exporting a function run: () -> i32
+    private static byte[] module(int... body) {
+        ByteArrayOutputStream code = new ByteArrayOutputStream();
+        code.write(0x00);
+        for (int b : body) {
+            code.write(b);
+        }
+        code.write(0x0b);
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.writeBytes(new byte[]{0x00, 0x61, 0x73, 0x6d, 0x01, 0x00, 0x00, 0x00});
+        // type section
+        out.writeBytes(new byte[]{0x01, 0x05, 0x01, 0x60, 0x00, 0x01, 0x7f});
+        // function section
+        out.writeBytes(new byte[]{0x03, 0x02, 0x01, 0x00});
+        // export section
+        out.writeBytes(new byte[]{0x07, 0x07, 0x01, 0x03, 'r', 'u', 'n', 0x00, 0x00});
+        // code section
+        out.write(0x0a);
+        out.write(code.size() + 2);
+        out.write(0x01);
+        out.write(code.size());
+        out.writeBytes(code.toByteArray());
+        return out.toByteArray();
+    }
+}
@@ -0,0 +1,45 @@
+package org.tdf.lotusvm;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import org.tdf.lotusvm.types.InstructionPool;
+
+import java.util.Arrays;
+import java.util.function.Function;
+
+@RunWith(JUnit4.class)
+public class RegisterCodeTest {
+    private static final Function<byte[], Module> REGISTER =
+        bin -> Module.create(bin, new DecodeOptions().register(true));
+    private static final Function<byte[], Module> REGISTER_FUSED =
+        bin -> Module.create(bin, new DecodeOptions().register(true).fused(true).threaded(true));
+
+    @Test
+    public void testAll() throws Exception {
+        for (Function<byte[], Module> decoder : Arrays.asList(REGISTER, REGISTER_FUSED)) {
+            TestModule module = Util.getTestModule("testdata").withDecoder(decoder);
+            module.testAll();
+            assert module.getFailures() == 0;
+            module = Util.getTestModule("testdata/spec").withDecoder(decoder);
+            module.testAll();
+            assert module.getFailures() == 0;
+        }
+    }
+
+    @Test
+    public void testTranslated() {
+        try (Module md = REGISTER.apply(Util.readClassPathFile("bench/main.wasm"))) {
+            int instructions = 0;
+            for (int i = 0; i < md.getRegisterCodes().length; i++) {
+                long code = md.getRegisterCodes()[i];
+                assert code != 0;
+                instructions += InstructionPool.getInstructionsSize(code);
+            }
+            assert instructions > 0;
+        }
+        try (Module md = Module.create(Util.readClassPathFile("bench/main.wasm"))) {
+            assert md.getRegisterCodes() == null;
+        }
+    }
+}
@@ -38,6 +38,28 @@ public class RuntimeTest {
         allocator.close();
     }
 
+    // calls are executed in a single loop, so the depth of wasm calls is not limited by java stack
+    @Test
+    public void testDeepRecursion() throws Exception {
+        for (boolean threaded : new boolean[]{false, true}) {
+            Module md = Module.create(Util.readClassPathFile("testdata/spec/fac.wasm"), threaded);
+            StackAllocator allocator = Util.getAllocator();
+            ModuleInstance instance =
+                ModuleInstance.builder()
+                    .memory(new BaseMemory())
+                    .module(md)
+                    .stackAllocator(allocator)
+                    .build();
+            long[] r = new long[]{-1};
+            Thread t = new Thread(null, () -> r[0] = instance.execute("fac-rec", 20000)[0], "fac", 256 * 1024);
+            t.start();
+            t.join();
+            assert r[0] == 0;
+            md.close();
+            allocator.close();
+        }
+    }
+
     @Test
     public void testAddress() throws Exception {
         testSpecFile("address.wasm");
@@ -0,0 +1,203 @@
+package org.tdf.lotusvm;
+
+import org.tdf.lotusvm.runtime.Memory;
+import org.tdf.lotusvm.runtime.UnsafeMemory;
+import org.tdf.lotusvm.runtime.UnsafeStackAllocator;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.UnaryOperator;
+
+// kernels of hash functions on a buffer in place, each one in simd and scalar with the same result:
+// sigma0(p, n) = rotr(x, 7) ^ rotr(x, 18) ^ (x >>> 3) of sha256 message schedule on every i32 word,
+// chi(p, n) = x ^ (~y & rotl(y, 1)) of keccak-f on every i64 word x, where y is the word 16 bytes after x
+// usage: SimdBench [rounds]
+public class SimdBench {
+    private static final int SIZE = 64 * 1024;
+
+    // jdk 17, 200 rounds of 64 KiB, two runs each, ns/byte
+    //                sigma0 simd   sigma0 scalar   chi simd      chi scalar
+    // interpreted    32.5 - 42.2   90.8 - 149.6    40.5 - 51.2   78.3 - 88.3
+    // threaded       38.2 - 49.4   87.9 - 114.0    39.7 - 42.6   64.0 - 70.9
+    // register       50.1 - 60.9   41.4 - 64.0     49.4 - 50.9   32.8 - 34.4
+    // jit            64.4 - 73.8   0.74 - 0.79     61.2 - 65.8   0.40 - 0.42
+    // the simd kernels are not translated by register code and jit, they fall back to interpretation
+    public static void main(String... args) {
+        int rounds = args.length > 0 ? Integer.parseInt(args[0]) : 200;
+        List<String> names = Arrays.asList("interpreted", "threaded", "register", "jit");
+        List<DecodeOptions> options = Arrays.asList(
+            new DecodeOptions().validated(true),
+            new DecodeOptions().validated(true).threaded(true),
+            new DecodeOptions().validated(true).register(true).fused(true),
+            new DecodeOptions().validated(true)
+        );
+        List<UnaryOperator<Builder>> configures = Arrays.asList(
+            UnaryOperator.identity(), UnaryOperator.identity(), UnaryOperator.identity(), b -> b.jit(0)
+        );
+        for (int i = 0; i < names.size(); i++) {
+            try (
+                Module md = Module.create(module(), options.get(i));
+                UnsafeStackAllocator allocator = new UnsafeStackAllocator(1024, 64, 1024);
+                Memory memory = new UnsafeMemory()
+            ) {
+                ModuleInstance instance = configures.get(i).apply(
+                    ModuleInstance.builder()
+                        .module(md)
+                        .memory(memory)
+                        .stackAllocator(allocator)
+                ).build();
+                StringBuilder line = new StringBuilder(names.get(i)).append(":");
+                for (String kernel : new String[]{"sigma0", "chi"}) {
+                    long[] checksums = new long[2];
+                    double[] nanos = new double[2];
+                    for (int k = 0; k < 2; k++) {
+                        String name = kernel + (k == 0 ? "_simd" : "_scalar");
+                        int n = kernel.equals("chi") ? SIZE - 16 : SIZE;
+                        // warm up
+                        reset(memory);
+                        for (int j = 0; j < rounds / 4; j++) {
+                            instance.execute(name, 0, n);
+                        }
+                        reset(memory);
+                        long start = System.nanoTime();
+                        for (int j = 0; j < rounds; j++) {
+                            instance.execute(name, 0, n);
+                        }
+                        nanos[k] = (System.nanoTime() - start) / ((double) rounds * SIZE);
+                        checksums[k] = checksum(memory);
+                    }
+                    if (checksums[0] != checksums[1])
+                        throw new RuntimeException(kernel + " simd and scalar results are different");
+                    line.append(String.format(" %s simd = %.3f ns/byte scalar = %.3f ns/byte checksum = %d",
+                        kernel, nanos[0], nanos[1], checksums[0]));
+                }
+                System.out.println(line);
+            }
+        }
+    }
+
+    private static void reset(Memory memory) {
+        for (int j = 0; j < SIZE; j += 4) {
+            memory.storeI32(j, j * 0x9e3779b9);
+        }
+    }
+
+    private static long checksum(Memory memory) {
+        long r = 0;
+        for (int j = 0; j < SIZE; j += 8) {
+            r = r * 31 + memory.load64(j);
+        }
+        return r;
+    }
+
+    // module with a memory of 2 pages exporting sigma0_simd, sigma0_scalar, chi_simd, chi_scalar: (i32, i32) -> ()
+    static byte[] module() {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.writeBytes(new byte[]{0x00, 0x61, 0x73, 0x6d, 0x01, 0x00, 0x00, 0x00});
+        // type section
+        section(out, 0x01, 0x01, 0x60, 0x02, 0x7f, 0x7f, 0x00);
+        // function section
+        section(out, 0x03, 0x04, 0x00, 0x00, 0x00, 0x00);
+        // memory section
+        section(out, 0x05, 0x01, 0x00, 0x02);
+        // export section
+        section(out, 0x07, 0x04,
+            0x0b, 's', 'i', 'g', 'm', 'a', '0', '_', 's', 'i', 'm', 'd', 0x00, 0x00,
+            0x0d, 's', 'i', 'g', 'm', 'a', '0', '_', 's', 'c', 'a', 'l', 'a', 'r', 0x00, 0x01,
+            0x08, 'c', 'h', 'i', '_', 's', 'i', 'm', 'd', 0x00, 0x02,
+            0x0a, 'c', 'h', 'i', '_', 's', 'c', 'a', 'l', 'a', 'r', 0x00, 0x03
+        );
+        byte[] sigma0Simd = loop(0x10, new int[]{0x01, 0x01, 0x7b},
+            // x = v128.load (p + i)
+            0x20, 0x00, 0x20, 0x02, 0x6a, 0xfd, 0x00, 0x04, 0x00, 0x21, 0x03,
+            0x20, 0x00, 0x20, 0x02, 0x6a,
+            // rotr(x, 7) = x >>> 7 | x << 25
+            0x20, 0x03, 0x41, 0x07, 0xfd, 0xad, 0x01, 0x20, 0x03, 0x41, 0x19, 0xfd, 0xab, 0x01, 0xfd, 0x50,
+            // rotr(x, 18)
+            0x20, 0x03, 0x41, 0x12, 0xfd, 0xad, 0x01, 0x20, 0x03, 0x41, 0x0e, 0xfd, 0xab, 0x01, 0xfd, 0x50,
+            0xfd, 0x51,
+            // x >>> 3
+            0x20, 0x03, 0x41, 0x03, 0xfd, 0xad, 0x01, 0xfd, 0x51,
+            0xfd, 0x0b, 0x04, 0x00
+        );
+        byte[] sigma0Scalar = loop(0x04, new int[]{0x01, 0x01, 0x7f},
+            // x = i32.load (p + i)
+            0x20, 0x00, 0x20, 0x02, 0x6a, 0x28, 0x02, 0x00, 0x21, 0x03,
+            0x20, 0x00, 0x20, 0x02, 0x6a,
+            0x20, 0x03, 0x41, 0x07, 0x78, 0x20, 0x03, 0x41, 0x12, 0x78, 0x73,
+            0x20, 0x03, 0x41, 0x03, 0x76, 0x73,
+            0x36, 0x02, 0x00
+        );
+        byte[] chiSimd = loop(0x10, new int[]{0x01, 0x02, 0x7b},
+            // x = v128.load (p + i), y = v128.load (p + i + 16)
+            0x20, 0x00, 0x20, 0x02, 0x6a, 0xfd, 0x00, 0x04, 0x00, 0x21, 0x03,
+            0x20, 0x00, 0x20, 0x02, 0x6a, 0xfd, 0x00, 0x04, 0x10, 0x21, 0x04,
+            0x20, 0x00, 0x20, 0x02, 0x6a,
+            0x20, 0x03,
+            // v128.andnot (rotl(y, 1), y)
+            0x20, 0x04, 0x41, 0x01, 0xfd, 0xcb, 0x01, 0x20, 0x04, 0x41, 0x3f, 0xfd, 0xcd, 0x01, 0xfd, 0x50,
+            0x20, 0x04, 0xfd, 0x4f,
+            0xfd, 0x51,
+            0xfd, 0x0b, 0x04, 0x00
+        );
+        byte[] chiScalar = loop(0x08, new int[]{0x01, 0x02, 0x7e},
+            // x = i64.load (p + i), y = i64.load (p + i + 16)
+            0x20, 0x00, 0x20, 0x02, 0x6a, 0x29, 0x03, 0x00, 0x21, 0x03,
+            0x20, 0x00, 0x20, 0x02, 0x6a, 0x29, 0x03, 0x10, 0x21, 0x04,
+            0x20, 0x00, 0x20, 0x02, 0x6a,
+            0x20, 0x03,
+            // rotl(y, 1) & (y ^ -1)
+            0x20, 0x04, 0x42, 0x01, 0x89, 0x20, 0x04, 0x42, 0x7f, 0x85, 0x83,
+            0x85,
+            0x37, 0x03, 0x00
+        );
+        ByteArrayOutputStream code = new ByteArrayOutputStream();
+        code.write(0x04);
+        for (byte[] body : Arrays.asList(sigma0Simd, sigma0Scalar, chiSimd, chiScalar)) {
+            code.writeBytes(body);
+        }
+        out.write(0x0a);
+        out.write(code.size() & 0x7f | 0x80);
+        out.write(code.size() >>> 7);
+        out.writeBytes(code.toByteArray());
+        return out.toByteArray();
+    }
+
+    // for (i = 0; i < n; i += step) { kernel }, i is local 2 followed by the locals declared
+    private static byte[] loop(int step, int[] locals, int... kernel) {
+        ByteArrayOutputStream b = new ByteArrayOutputStream();
+        // local i
+        b.write(locals[0] + 1);
+        b.writeBytes(new byte[]{0x01, 0x7f});
+        for (int i = 1; i < locals.length; i++) {
+            b.write(locals[i]);
+        }
+        b.writeBytes(new byte[]{0x02, 0x40, 0x03, 0x40});
+        // br_if 1 (i >= n)
+        b.writeBytes(new byte[]{0x20, 0x02, 0x20, 0x01, 0x4f, 0x0d, 0x01});
+        for (int k : kernel) {
+            b.write(k);
+        }
+        // i += step
+        b.writeBytes(new byte[]{0x20, 0x02, 0x41, (byte) step, 0x6a, 0x21, 0x02});
+        b.writeBytes(new byte[]{0x0c, 0x00, 0x0b, 0x0b, 0x0b});
+        return body(b.toByteArray());
+    }
+
+    // function body prefixed by size, the size is less than 128
+    private static byte[] body(byte[] bytes) {
+        byte[] r = new byte[bytes.length + 1];
+        r[0] = (byte) bytes.length;
+        System.arraycopy(bytes, 0, r, 1, bytes.length);
+        return r;
+    }
+
+    private static void section(ByteArrayOutputStream out, int id, int... bytes) {
+        out.write(id);
+        out.write(bytes.length);
+        for (int b : bytes) {
+            out.write(b);
+        }
+    }
+}
@@ -0,0 +1,591 @@
+package org.tdf.lotusvm;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import org.tdf.lotusvm.common.OpCode;
+import org.tdf.lotusvm.runtime.BaseMemory;
+import org.tdf.lotusvm.runtime.BufferMemory;
+import org.tdf.lotusvm.runtime.HostFunction;
+import org.tdf.lotusvm.runtime.Hook;
+import org.tdf.lotusvm.runtime.Memory;
+import org.tdf.lotusvm.runtime.ModuleInstanceImpl;
+import org.tdf.lotusvm.runtime.UnsafeMemory;
+import org.tdf.lotusvm.runtime.UnsafeStackAllocator;
+
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.function.Supplier;
+import java.util.function.UnaryOperator;
+
+import static org.tdf.lotusvm.common.OpCode.*;
+
+@RunWith(JUnit4.class)
+public class SimdTest {
+    private static final List<DecodeOptions> OPTIONS = Arrays.asList(
+        new DecodeOptions().validated(true),
+        new DecodeOptions().validated(true).optimized(true).fused(true),
+        new DecodeOptions().validated(true).threaded(true),
+        new DecodeOptions().validated(true).register(true).fused(true)
+    );
+
+    private static final List<Supplier<Memory>> MEMORIES = Arrays.asList(
+        UnsafeMemory::new, BaseMemory::new, () -> new BufferMemory(true), () -> new BufferMemory(false)
+    );
+
+    private static final int[] SHUFFLE = {0, 17, 2, 19, 31, 16, 7, 8, 9, 10, 27, 26, 25, 3, 15, 0};
+    private static final int[] CONST = {1, 2, 3, 4, 0x80, 0xff, 0x7f, 0, 9, 10, 11, 12, 13, 14, 15, 16};
+    private static final int[] COUNTS = {0, 1, 7, 8, 9, 15, 17, 31, 33, 63, 65, -1};
+
+    // function exported as f<index>, the v128 operands are loaded from p, p + 16 and p + 32,
+    // the v128 result is stored at p + 48, the scalar operand is the second parameter
+    private static final class Op {
+        final OpCode code;
+        final int vectors;
+        final int[] immediates;
+        // type of scalar operand, 0 if absent
+        final int scalar;
+        // type of scalar result, 0 if the result is v128
+        final int result;
+
+        Op(OpCode code, int vectors, int scalar, int result, int... immediates) {
+            this.code = code;
+            this.vectors = vectors;
+            this.immediates = immediates;
+            this.scalar = scalar;
+            this.result = result;
+        }
+    }
+
+    private static final int I32 = 0x7f;
+    private static final int I64 = 0x7e;
+
+    private static final List<Op> OPS = new ArrayList<>();
+
+    static {
+        for (OpCode c : Arrays.asList(
+            V128_AND, V128_ANDNOT, V128_OR, V128_XOR, I8X16_SWIZZLE,
+            I8X16_ADD, I8X16_SUB, I16X8_ADD, I16X8_SUB, I16X8_MUL, I32X4_ADD, I32X4_SUB, I32X4_MUL,
+            I64X2_ADD, I64X2_SUB, I64X2_MUL,
+            I8X16_EQ, I8X16_NE, I16X8_EQ, I16X8_NE, I32X4_EQ, I32X4_NE, I64X2_EQ, I64X2_NE
+        )) {
+            OPS.add(new Op(c, 2, 0, 0));
+        }
+        OPS.add(new Op(V128_NOT, 1, 0, 0));
+        OPS.add(new Op(V128_BITSELECT, 3, 0, 0));
+        OPS.add(new Op(I8X16_SHUFFLE, 2, 0, 0, SHUFFLE));
+        OPS.add(new Op(V128_CONST, 0, 0, 0, CONST));
+        for (OpCode c : Arrays.asList(
+            I8X16_SHL, I8X16_SHR_S, I8X16_SHR_U, I16X8_SHL, I16X8_SHR_S, I16X8_SHR_U,
+            I32X4_SHL, I32X4_SHR_S, I32X4_SHR_U, I64X2_SHL, I64X2_SHR_S, I64X2_SHR_U
+        )) {
+            OPS.add(new Op(c, 1, I32, 0));
+        }
+        for (OpCode c : Arrays.asList(V128_ANY_TRUE, I8X16_ALL_TRUE, I16X8_ALL_TRUE, I32X4_ALL_TRUE, I64X2_ALL_TRUE)) {
+            OPS.add(new Op(c, 1, 0, I32));
+        }
+        OPS.add(new Op(I8X16_SPLAT, 0, I32, 0));
+        OPS.add(new Op(I16X8_SPLAT, 0, I32, 0));
+        OPS.add(new Op(I32X4_SPLAT, 0, I32, 0));
+        OPS.add(new Op(I64X2_SPLAT, 0, I64, 0));
+        for (int lane : new int[]{0, 1, 7, 8, 15}) {
+            OPS.add(new Op(I8X16_EXTRACT_LANE_S, 1, 0, I32, lane));
+            OPS.add(new Op(I8X16_EXTRACT_LANE_U, 1, 0, I32, lane));
+            OPS.add(new Op(I8X16_REPLACE_LANE, 1, I32, 0, lane));
+        }
+        for (int lane : new int[]{0, 3, 4, 7}) {
+            OPS.add(new Op(I16X8_EXTRACT_LANE_S, 1, 0, I32, lane));
+            OPS.add(new Op(I16X8_EXTRACT_LANE_U, 1, 0, I32, lane));
+            OPS.add(new Op(I16X8_REPLACE_LANE, 1, I32, 0, lane));
+        }
+        for (int lane : new int[]{0, 1, 2, 3}) {
+            OPS.add(new Op(I32X4_EXTRACT_LANE, 1, 0, I32, lane));
+            OPS.add(new Op(I32X4_REPLACE_LANE, 1, I32, 0, lane));
+        }
+        for (int lane : new int[]{0, 1}) {
+            OPS.add(new Op(I64X2_EXTRACT_LANE, 1, 0, I64, lane));
+            OPS.add(new Op(I64X2_REPLACE_LANE, 1, I64, 0, lane));
+        }
+    }
+
+    @Test
+    public void testAll() {
+        for (Supplier<Memory> memories : MEMORIES) {
+            for (DecodeOptions options : OPTIONS) {
+                test(options, memories, UnaryOperator.identity());
+            }
+            test(OPTIONS.get(0), memories, b -> b.jit(0));
+        }
+    }
+
+    private static void test(DecodeOptions options, Supplier<Memory> memories, UnaryOperator<Builder> configure) {
+        try (Module md = Module.create(module(), options); Memory memory = memories.get()) {
+            ModuleInstance instance = configure.apply(
+                ModuleInstance.builder()
+                    .module(md)
+                    .memory(memory)
+                    .stackAllocator(new UnsafeStackAllocator(1024, 64, 1024))
+            ).build();
+            Random random = new Random(42);
+            for (int round = 0; round < 8; round++) {
+                byte[][] vectors = vectors(random, round);
+                for (int i = 0; i < 3; i++) {
+                    memory.put(i * 16, vectors[i]);
+                }
+                for (int i = 0; i < OPS.size(); i++) {
+                    Op op = OPS.get(i);
+                    long scalar = op.scalar == I64 ? random.nextLong() : op.scalar == I32 ? random.nextInt() : 0;
+                    long[] scalars = op.scalar == I32 && op.vectors == 1 && op.immediates.length == 0 ? longs(COUNTS) : new long[]{scalar};
+                    for (long s : scalars) {
+                        long[] r = instance.execute("f" + i, 0, s);
+                        if (op.result == 0) {
+                            assert Arrays.equals(memory.load(48, 16), expect(op, vectors, s)) : op.code.name;
+                        } else if (op.result == I32) {
+                            assert (int) r[0] == (int) expectScalar(op, vectors[0]) : op.code.name;
+                        } else {
+                            assert r[0] == expectScalar(op, vectors[0]) : op.code.name;
+                        }
+                    }
+                }
+                for (int c = 0; c < 2; c++) {
+                    memory.storeI32(64, 0);
+                    instance.execute("mix", 0, c);
+                    byte[] sel = c != 0 ? vectors[0] : vectors[1];
+                    byte[] shuffled = shuffle(sel, bytes(CONST), SHUFFLE);
+                    byte[] expected = fromLanes(binary(I32X4_ADD, lanes(shuffled, 32), lanes(splat(32, 7), 32), 32), 32);
+                    assert Arrays.equals(memory.load(48, 16), expected);
+                    assert memory.load32(64) == 7;
+                }
+            }
+            // out of bounds
+            try {
+                instance.execute("f0", Memory.PAGE_SIZE - 40, 0);
+                assert false;
+            } catch (RuntimeException e) {
+                assert e.getMessage().contains("overflow");
+            }
+        }
+    }
+
+    @Test
+    public void testHooks() {
+        Set<OpCode> observed = new HashSet<>();
+        Hook hook = new Hook() {
+            @Override
+            public void onInstruction(OpCode ins, ModuleInstanceImpl module) {
+                observed.add(ins);
+            }
+
+            @Override
+            public void onHostFunction(HostFunction function, ModuleInstanceImpl module) {
+            }
+
+            @Override
+            public void onNewFrame() {
+            }
+
+            @Override
+            public void onFrameExit() {
+            }
+        };
+        for (DecodeOptions options : Arrays.asList(OPTIONS.get(0), OPTIONS.get(2))) {
+            observed.clear();
+            try (Module md = Module.create(module(), options); Memory memory = new UnsafeMemory()) {
+                ModuleInstance instance = ModuleInstance.builder()
+                    .module(md)
+                    .memory(memory)
+                    .stackAllocator(new UnsafeStackAllocator(1024, 64, 1024))
+                    .hooks(Collections.singleton(hook))
+                    .build();
+                instance.execute("mix", 0, 1);
+            }
+            assert observed.containsAll(Arrays.asList(V128_LOAD, V128_GET_LOCAL, V128_TEE_LOCAL, V128_DROP, V128_SELECT, I8X16_SHUFFLE, I32X4_ADD));
+        }
+    }
+
+    @Test
+    public void testValidate() {
+        invalid(module(), new DecodeOptions(), "simd requires validation");
+        // i8x16.extract_lane_u 16
+        invalid(single(0x7f, 0x7f, 0xfd, 0x0c, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0xfd, 0x16, 16),
+            new DecodeOptions().validated(true), "invalid lane index");
+        // i32x4.add of i32 operands
+        invalid(single(0x7f, 0x7f, 0x20, 0x00, 0x20, 0x00, 0xfd, 0xae, 0x01, 0xfd, 0x1b, 0x00),
+            new DecodeOptions().validated(true), "type mismatch");
+        // v128 result
+        invalid(single(0x7f, 0x7b, 0xfd, 0x0c, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0),
+            new DecodeOptions().validated(true), "v128 parameters and results are not supported");
+        // unknown sub opcode
+        invalid(single(0x7f, 0x7f, 0xfd, 0xff, 0x01), new DecodeOptions().validated(true), "unknown opcode");
+    }
+
+    private static void invalid(byte[] binary, DecodeOptions options, String message) {
+        try {
+            Module.create(binary, options).close();
+            assert false;
+        } catch (RuntimeException e) {
+            assert e.getMessage().contains(message) : e.getMessage();
+        }
+    }
+
+    // module with a memory of 1 page and a single function of type param -> result exported as f
+    private static byte[] single(int param, int result, int... code) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.writeBytes(new byte[]{0x00, 0x61, 0x73, 0x6d, 0x01, 0x00, 0x00, 0x00});
+        section(out, 0x01, new byte[]{0x01, 0x60, 0x01, (byte) param, 0x01, (byte) result});
+        section(out, 0x03, new byte[]{0x01, 0x00});
+        section(out, 0x05, new byte[]{0x01, 0x00, 0x01});
+        section(out, 0x07, new byte[]{0x01, 0x01, 'f', 0x00, 0x00});
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        body.write(0x00);
+        for (int b : code) {
+            body.write(b);
+        }
+        body.write(0x0b);
+        ByteArrayOutputStream codes = new ByteArrayOutputStream();
+        codes.write(0x01);
+        codes.write(body.size());
+        codes.writeBytes(body.toByteArray());
+        section(out, 0x0a, codes.toByteArray());
+        return out.toByteArray();
+    }
+
+    // random vectors, the second one has some lanes equal to the first one, some lanes of all are zero
+    private static byte[][] vectors(Random random, int round) {
+        byte[][] r = new byte[3][16];
+        for (byte[] v : r) {
+            random.nextBytes(v);
+        }
+        for (int i = 0; i < 16; i++) {
+            if (random.nextInt(3) == 0)
+                r[1][i] = r[0][i];
+            if (round % 2 == 1 && random.nextInt(4) == 0)
+                r[0][i] = 0;
+        }
+        // swizzle indices in and out of range
+        r[1][random.nextInt(16)] = 15;
+        r[1][random.nextInt(16)] = 16;
+        if (round == 0)
+            Arrays.fill(r[0], (byte) 0);
+        if (round == 2)
+            Arrays.fill(r[0], (byte) -1);
+        return r;
+    }
+
+    private static byte[] expect(Op op, byte[][] v, long s) {
+        switch (op.code) {
+            case V128_NOT:
+                return bitwise(v[0], v[0], (x, y) -> ~x);
+            case V128_AND:
+                return bitwise(v[0], v[1], (x, y) -> x & y);
+            case V128_ANDNOT:
+                return bitwise(v[0], v[1], (x, y) -> x & ~y);
+            case V128_OR:
+                return bitwise(v[0], v[1], (x, y) -> x | y);
+            case V128_XOR:
+                return bitwise(v[0], v[1], (x, y) -> x ^ y);
+            case V128_BITSELECT: {
+                byte[] r = new byte[16];
+                for (int i = 0; i < 16; i++) {
+                    r[i] = (byte) ((v[0][i] & v[2][i]) | (v[1][i] & ~v[2][i]));
+                }
+                return r;
+            }
+            case V128_CONST:
+                return bytes(CONST);
+            case I8X16_SHUFFLE:
+                return shuffle(v[0], v[1], SHUFFLE);
+            case I8X16_SWIZZLE: {
+                byte[] r = new byte[16];
+                for (int i = 0; i < 16; i++) {
+                    int idx = v[1][i] & 0xff;
+                    r[i] = idx < 16 ? v[0][idx] : 0;
+                }
+                return r;
+            }
+            case I8X16_SPLAT:
+                return splat(8, s);
+            case I16X8_SPLAT:
+                return splat(16, s);
+            case I32X4_SPLAT:
+                return splat(32, s);
+            case I64X2_SPLAT:
+                return splat(64, s);
+            case I8X16_REPLACE_LANE:
+            case I16X8_REPLACE_LANE:
+            case I32X4_REPLACE_LANE:
+            case I64X2_REPLACE_LANE: {
+                int bits = bits(op.code);
+                long[] lanes = lanes(v[0], bits);
+                lanes[op.immediates[0]] = s & mask(bits);
+                return fromLanes(lanes, bits);
+            }
+        }
+        int bits = bits(op.code);
+        if (op.scalar == I32)
+            return fromLanes(shift(op.code, lanes(v[0], bits), (int) s, bits), bits);
+        return fromLanes(binary(op.code, lanes(v[0], bits), lanes(v[1], bits), bits), bits);
+    }
+
+    private static long expectScalar(Op op, byte[] v) {
+        int bits = bits(op.code);
+        long[] lanes = lanes(v, bits);
+        switch (op.code) {
+            case V128_ANY_TRUE:
+                return Arrays.stream(lanes).anyMatch(x -> x != 0) ? 1 : 0;
+            case I8X16_ALL_TRUE:
+            case I16X8_ALL_TRUE:
+            case I32X4_ALL_TRUE:
+            case I64X2_ALL_TRUE:
+                return Arrays.stream(lanes).allMatch(x -> x != 0) ? 1 : 0;
+            case I8X16_EXTRACT_LANE_S:
+                return (byte) lanes[op.immediates[0]];
+            case I16X8_EXTRACT_LANE_S:
+                return (short) lanes[op.immediates[0]];
+            case I32X4_EXTRACT_LANE:
+                return (int) lanes[op.immediates[0]];
+            default:
+                return lanes[op.immediates[0]];
+        }
+    }
+
+    private static long[] binary(OpCode c, long[] a, long[] b, int bits) {
+        long[] r = new long[a.length];
+        long mask = mask(bits);
+        String name = c.name.substring(c.name.indexOf('.') + 1);
+        for (int i = 0; i < a.length; i++) {
+            switch (name) {
+                case "add":
+                    r[i] = (a[i] + b[i]) & mask;
+                    break;
+                case "sub":
+                    r[i] = (a[i] - b[i]) & mask;
+                    break;
+                case "mul":
+                    r[i] = (a[i] * b[i]) & mask;
+                    break;
+                case "eq":
+                    r[i] = a[i] == b[i] ? mask : 0;
+                    break;
+                case "ne":
+                    r[i] = a[i] != b[i] ? mask : 0;
+                    break;
+                default:
+                    throw new RuntimeException(c.name);
+            }
+        }
+        return r;
+    }
+
+    private static long[] shift(OpCode c, long[] a, int count, int bits) {
+        long[] r = new long[a.length];
+        long mask = mask(bits);
+        int s = count & (bits - 1);
+        for (int i = 0; i < a.length; i++) {
+            if (c.name.endsWith("shl")) {
+                r[i] = (a[i] << s) & mask;
+            } else if (c.name.endsWith("shr_u")) {
+                r[i] = a[i] >>> s;
+            } else {
+                long signed = a[i] << (64 - bits) >> (64 - bits);
+                r[i] = (signed >> s) & mask;
+            }
+        }
+        return r;
+    }
+
+    private interface Bitwise {
+        int apply(int x, int y);
+    }
+
+    private static byte[] bitwise(byte[] a, byte[] b, Bitwise f) {
+        byte[] r = new byte[16];
+        for (int i = 0; i < 16; i++) {
+            r[i] = (byte) f.apply(a[i], b[i]);
+        }
+        return r;
+    }
+
+    private static byte[] shuffle(byte[] a, byte[] b, int[] lanes) {
+        byte[] r = new byte[16];
+        for (int i = 0; i < 16; i++) {
+            r[i] = lanes[i] < 16 ? a[lanes[i]] : b[lanes[i] - 16];
+        }
+        return r;
+    }
+
+    private static byte[] splat(int bits, long value) {
+        long[] lanes = new long[128 / bits];
+        Arrays.fill(lanes, value & mask(bits));
+        return fromLanes(lanes, bits);
+    }
+
+    private static int bits(OpCode c) {
+        if (c.name.startsWith("i16x8"))
+            return 16;
+        if (c.name.startsWith("i32x4"))
+            return 32;
+        if (c.name.startsWith("i64x2"))
+            return 64;
+        return 8;
+    }
+
+    private static long mask(int bits) {
+        return bits == 64 ? -1L : (1L << bits) - 1;
+    }
+
+    // unsigned lanes of little endian bytes
+    private static long[] lanes(byte[] v, int bits) {
+        int bytes = bits / 8;
+        long[] r = new long[16 / bytes];
+        for (int i = 0; i < r.length; i++) {
+            for (int j = bytes - 1; j >= 0; j--) {
+                r[i] = r[i] << 8 | (v[i * bytes + j] & 0xffL);
+            }
+        }
+        return r;
+    }
+
+    private static byte[] fromLanes(long[] lanes, int bits) {
+        int bytes = bits / 8;
+        byte[] r = new byte[16];
+        for (int i = 0; i < lanes.length; i++) {
+            for (int j = 0; j < bytes; j++) {
+                r[i * bytes + j] = (byte) (lanes[i] >>> (j * 8));
+            }
+        }
+        return r;
+    }
+
+    private static byte[] bytes(int[] values) {
+        byte[] r = new byte[values.length];
+        for (int i = 0; i < values.length; i++) {
+            r[i] = (byte) values[i];
+        }
+        return r;
+    }
+
+    private static long[] longs(int[] values) {
+        return Arrays.stream(values).asLongStream().toArray();
+    }
+
+    // module with a memory of 1 page exporting f<i> of OPS and mix: (i32, i32) -> (),
+    // all the functions take two parameters (p, scalar) so the arity is the same
+    private static byte[] module() {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.writeBytes(new byte[]{0x00, 0x61, 0x73, 0x6d, 0x01, 0x00, 0x00, 0x00});
+        // type section: (i32, i32) -> (), (i32, i32) -> i32, (i32, i32) -> i64, (i32, i64) -> (), (i32, i64) -> i64
+        section(out, 0x01, new byte[]{
+            0x05,
+            0x60, 0x02, 0x7f, 0x7f, 0x00,
+            0x60, 0x02, 0x7f, 0x7f, 0x01, 0x7f,
+            0x60, 0x02, 0x7f, 0x7f, 0x01, 0x7e,
+            0x60, 0x02, 0x7f, 0x7e, 0x00,
+            0x60, 0x02, 0x7f, 0x7e, 0x01, 0x7e,
+        });
+        ByteArrayOutputStream functions = new ByteArrayOutputStream();
+        functions.write(OPS.size() + 1);
+        for (Op op : OPS) {
+            boolean i64 = op.scalar == I64;
+            int type = op.result == 0 ? (i64 ? 3 : 0) : op.result == I32 ? 1 : (i64 ? 4 : 2);
+            functions.write(type);
+        }
+        functions.write(0);
+        section(out, 0x03, functions.toByteArray());
+        section(out, 0x05, new byte[]{0x01, 0x00, 0x01});
+        ByteArrayOutputStream exports = new ByteArrayOutputStream();
+        exports.write(OPS.size() + 1);
+        for (int i = 0; i < OPS.size(); i++) {
+            byte[] name = ("f" + i).getBytes();
+            exports.write(name.length);
+            exports.writeBytes(name);
+            exports.write(0x00);
+            exports.write(i);
+        }
+        exports.write(3);
+        exports.writeBytes("mix".getBytes());
+        exports.write(0x00);
+        exports.write(OPS.size());
+        section(out, 0x07, exports.toByteArray());
+        ByteArrayOutputStream codes = new ByteArrayOutputStream();
+        codes.write(OPS.size() + 1);
+        for (Op op : OPS) {
+            ByteArrayOutputStream body = new ByteArrayOutputStream();
+            body.write(0x00);
+            if (op.result == 0)
+                body.write(new byte[]{0x20, 0x00}, 0, 2);
+            for (int k = 0; k < op.vectors; k++) {
+                // v128.load align = 4, offset = 16 * k
+                body.writeBytes(new byte[]{0x20, 0x00, (byte) 0xfd, 0x00, 0x04, (byte) (16 * k)});
+            }
+            if (op.scalar != 0)
+                body.writeBytes(new byte[]{0x20, 0x01});
+            simd(body, op.code);
+            for (int b : op.immediates) {
+                body.write(b);
+            }
+            // v128.store align = 4, offset = 48
+            if (op.result == 0)
+                body.writeBytes(new byte[]{(byte) 0xfd, 0x0b, 0x04, 0x30});
+            body.write(0x0b);
+            codes.write(body.size());
+            codes.writeBytes(body.toByteArray());
+        }
+        ByteArrayOutputStream mix = new ByteArrayOutputStream();
+        // local k: i32, x: v128, y: v128
+        mix.writeBytes(new byte[]{0x02, 0x01, 0x7f, 0x02, 0x7b});
+        // x = v128.load p
+        mix.writeBytes(new byte[]{0x20, 0x00, (byte) 0xfd, 0x00, 0x04, 0x00, 0x21, 0x03});
+        // drop (y = v128.load p + 16)
+        mix.writeBytes(new byte[]{0x20, 0x00, (byte) 0xfd, 0x00, 0x04, 0x10, 0x22, 0x04, 0x1a});
+        // k = 7
+        mix.writeBytes(new byte[]{0x41, 0x07, 0x21, 0x02});
+        mix.writeBytes(new byte[]{0x20, 0x00});
+        // select x y c
+        mix.writeBytes(new byte[]{0x20, 0x03, 0x20, 0x04, 0x20, 0x01, 0x1b});
+        // i8x16.shuffle (v128.const)
+        mix.writeBytes(new byte[]{(byte) 0xfd, 0x0c});
+        mix.writeBytes(bytes(CONST));
+        mix.writeBytes(new byte[]{(byte) 0xfd, 0x0d});
+        mix.writeBytes(bytes(SHUFFLE));
+        // i32x4.add (i32x4.splat k)
+        mix.writeBytes(new byte[]{0x20, 0x02, (byte) 0xfd, 0x11, (byte) 0xfd, (byte) 0xae, 0x01});
+        mix.writeBytes(new byte[]{(byte) 0xfd, 0x0b, 0x04, 0x30});
+        // i32.store p + 64 k
+        mix.writeBytes(new byte[]{0x20, 0x00, 0x20, 0x02, 0x36, 0x02, 0x40, 0x0b});
+        codes.write(mix.size());
+        codes.writeBytes(mix.toByteArray());
+        section(out, 0x0a, codes.toByteArray());
+        return out.toByteArray();
+    }
+
+    // 0xfd followed by sub opcode as leb128
+    private static void simd(ByteArrayOutputStream out, OpCode c) {
+        int sub = c.code & 0xff;
+        out.write(0xfd);
+        if (sub < 0x80) {
+            out.write(sub);
+        } else {
+            out.write(sub & 0x7f | 0x80);
+            out.write(sub >>> 7);
+        }
+    }
+
+    // section of id prefixed by size as leb128
+    private static void section(ByteArrayOutputStream out, int id, byte[] bytes) {
+        out.write(id);
+        int n = bytes.length;
+        while (n >= 0x80) {
+            out.write(n & 0x7f | 0x80);
+            n >>>= 7;
+        }
+        out.write(n);
+        out.writeBytes(bytes);
+    }
+}
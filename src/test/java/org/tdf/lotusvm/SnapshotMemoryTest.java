@@ -0,0 +1,147 @@
+package org.tdf.lotusvm;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import org.tdf.lotusvm.runtime.Memory;
+import org.tdf.lotusvm.runtime.SnapshotMemory;
+import org.tdf.lotusvm.types.LimitType;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.function.UnaryOperator;
+
+@RunWith(JUnit4.class)
+public class SnapshotMemoryTest {
+    @Test
+    public void testAll() throws Exception {
+        for (UnaryOperator<Builder> configure : Arrays.<UnaryOperator<Builder>>asList(b -> b, b -> b.jit(0))) {
+            TestModule module = Util.getTestModule("testdata/spec", b -> configure.apply(b).memory(new SnapshotMemory()));
+            module.testAll();
+            assert module.getFailures() == 0;
+        }
+    }
+
+    @Test
+    public void testSnapshot() {
+        SnapshotMemory m = new SnapshotMemory();
+        m.setLimit(new LimitType(true, 1, 4));
+        m.storeI32(0, 1);
+        int s1 = m.snapshot();
+        m.storeI32(0, 2);
+        // crossing blocks
+        m.storeI64(SnapshotMemory.BLOCK_SIZE - 4, 0x0102030405060708L);
+        int s2 = m.snapshot();
+        m.storeI32(0, 3);
+        assert m.grow(2) == 1;
+        m.storeI32(2 * Memory.PAGE_SIZE, 4);
+        m.rollback(s2);
+        assert m.getSnapshots() == 1;
+        assert m.getPages() == 1;
+        assert m.load32(0) == 2;
+        assert m.load64(SnapshotMemory.BLOCK_SIZE - 4) == 0x0102030405060708L;
+
+        // commit merges the journal into the outer snapshot
+        m.snapshot();
+        m.fill(0, (byte) 9, SnapshotMemory.BLOCK_SIZE + 1);
+        m.commit();
+        assert m.load8(SnapshotMemory.BLOCK_SIZE) == 9;
+        m.rollback(s1);
+        assert m.getSnapshots() == 0;
+        assert m.load32(0) == 1;
+        assert m.load64(SnapshotMemory.BLOCK_SIZE - 4) == 0;
+
+        // changes are kept after the outermost commit
+        m.snapshot();
+        m.storeI32(0, 5);
+        m.commit();
+        assert m.load32(0) == 5;
+        try {
+            m.rollback(1);
+            assert false;
+        } catch (RuntimeException e) {
+            assert e.getMessage().contains("unknown snapshot");
+        }
+        m.close();
+    }
+
+    // pages of grow are unsigned, memory never shrinks
+    @Test
+    public void testGrowUnsigned() {
+        for (boolean bounded : new boolean[]{false, true}) {
+            SnapshotMemory m = new SnapshotMemory();
+            m.setLimit(new LimitType(bounded, 2, bounded ? 8 : 0));
+            m.storeI32(2 * Memory.PAGE_SIZE - 4, 0x12345678);
+            for (int n : new int[]{-1, Integer.MAX_VALUE, Integer.MIN_VALUE, Memory.MAX_PAGES}) {
+                assert m.grow(n) == -1;
+                assert m.getPages() == 2;
+            }
+            assert m.grow(1) == 2;
+            assert m.load32(2 * Memory.PAGE_SIZE - 4) == 0x12345678 && m.load32(3 * Memory.PAGE_SIZE - 4) == 0;
+        }
+    }
+
+    // random writes, grows, snapshots, commits and rollbacks compared with copies of memory
+    @Test
+    public void testRandom() {
+        Random random = new Random(0);
+        SnapshotMemory m = new SnapshotMemory();
+        m.setLimit(new LimitType(true, 1, 4));
+        // copies of memory when snapshots taken
+        List<byte[]> copies = new ArrayList<>();
+        for (int i = 0; i < 20000; i++) {
+            int op = random.nextInt(100);
+            int size = m.getPages() * Memory.PAGE_SIZE;
+            if (op < 3) {
+                copies.add(m.load(0, size));
+                assert m.snapshot() == copies.size();
+            } else if (op < 5 && !copies.isEmpty()) {
+                m.commit();
+                copies.remove(copies.size() - 1);
+            } else if (op < 7 && !copies.isEmpty()) {
+                int s = random.nextInt(copies.size()) + 1;
+                m.rollback(s);
+                byte[] copy = copies.get(s - 1);
+                copies.subList(s - 1, copies.size()).clear();
+                assert Arrays.equals(m.load(0, m.getPages() * Memory.PAGE_SIZE), copy);
+            } else if (op < 8) {
+                m.grow(1);
+            } else if (op < 10) {
+                int n = random.nextInt(3 * SnapshotMemory.BLOCK_SIZE);
+                int src = random.nextInt(size - n);
+                int dst = random.nextInt(size - n);
+                byte[] expected = m.load(src, n);
+                m.copy(dst, src, n);
+                assert Arrays.equals(m.load(dst, n), expected);
+            } else if (op < 12) {
+                int n = random.nextInt(2 * SnapshotMemory.BLOCK_SIZE);
+                m.fill(random.nextInt(size - n), (byte) random.nextInt(), n);
+            } else {
+                // around block boundaries
+                int base = random.nextInt(size / SnapshotMemory.BLOCK_SIZE - 1) * SnapshotMemory.BLOCK_SIZE;
+                int offset = SnapshotMemory.BLOCK_SIZE - 8 + random.nextInt(16);
+                long v = random.nextLong();
+                switch (random.nextInt(4)) {
+                    case 0:
+                        m.storeI64(base, offset, v);
+                        assert m.load64(base, offset) == v;
+                        break;
+                    case 1:
+                        m.storeI32(base, offset, (int) v);
+                        assert m.load32(base, offset) == (int) v;
+                        break;
+                    case 2:
+                        m.storeI16(base, offset, (short) v);
+                        assert m.load16(base, offset) == (short) v;
+                        break;
+                    default:
+                        m.storeI8(base, offset, (byte) v);
+                        assert m.load8(base, offset) == (byte) v;
+                }
+            }
+        }
+        m.close();
+    }
+}
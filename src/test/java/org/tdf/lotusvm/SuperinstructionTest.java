@@ -0,0 +1,105 @@
+package org.tdf.lotusvm;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import org.tdf.lotusvm.common.OpCode;
+import org.tdf.lotusvm.runtime.HostFunction;
+import org.tdf.lotusvm.runtime.Hook;
+import org.tdf.lotusvm.runtime.ModuleInstanceImpl;
+import org.tdf.lotusvm.types.Code;
+import org.tdf.lotusvm.types.InstructionId;
+import org.tdf.lotusvm.types.InstructionPool;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.function.Function;
+
+@RunWith(JUnit4.class)
+public class SuperinstructionTest {
+    private static final Function<byte[], Module> FUSED =
+        bin -> Module.create(bin, new DecodeOptions().fused(true));
+    private static final Function<byte[], Module> FUSED_THREADED =
+        bin -> Module.create(bin, new DecodeOptions().fused(true).threaded(true));
+
+    @Test
+    public void testAll() throws Exception {
+        for (Function<byte[], Module> decoder : Arrays.asList(FUSED, FUSED_THREADED)) {
+            TestModule module = Util.getTestModule("testdata").withDecoder(decoder);
+            module.testAll();
+            assert module.getFailures() == 0;
+            module = Util.getTestModule("testdata/spec").withDecoder(decoder);
+            module.testAll();
+            assert module.getFailures() == 0;
+        }
+    }
+
+    @Test
+    public void testFused() {
+        byte[] bin = Util.readClassPathFile("bench/main.wasm");
+        try (Module plain = Module.create(bin); Module fused = FUSED.apply(bin)) {
+            assert fused.getInsPool().size() < plain.getInsPool().size();
+            int n = 0;
+            for (Code c : fused.getCodeSection().getCodes()) {
+                long body = c.getCode().getExpression();
+                for (int i = 0; i < InstructionPool.getInstructionsSize(body); i++) {
+                    if (InstructionId.getOpCode(fused.getInsPool().getInstructionInArray(body, i)).parts.length > 0)
+                        n++;
+                }
+            }
+            assert n > 0;
+        }
+        try (Module threaded = FUSED_THREADED.apply(bin)) {
+            for (long code : threaded.getThreadedCodes()) {
+                assert code != 0;
+            }
+        }
+    }
+
+    // hooks observe the same instructions whether superinstructions are fused or not
+    @Test
+    public void testHooks() throws Exception {
+        Map<OpCode, Integer> plain = countInstructions(Module::create);
+        assert !plain.isEmpty();
+        assert plain.equals(countInstructions(FUSED));
+        assert plain.equals(countInstructions(FUSED_THREADED));
+    }
+
+    @Test
+    public void testProfiler() {
+        NGramProfiler profiler = new NGramProfiler(2);
+        profiler.add(Util.readClassPathFile("bench/main.wasm"));
+        assert profiler.getTotal() > 0;
+        assert profiler.count(OpCode.I32_CONST, OpCode.I32_ADD) > 0;
+        assert profiler.top(1).get(0).getValue() >= profiler.count(OpCode.I32_CONST, OpCode.I32_ADD);
+    }
+
+    private static Map<OpCode, Integer> countInstructions(Function<byte[], Module> decoder) throws Exception {
+        Map<OpCode, Integer> counts = new EnumMap<>(OpCode.class);
+        Hook hook = new Hook() {
+            @Override
+            public void onInstruction(OpCode ins, ModuleInstanceImpl module) {
+                counts.merge(ins, 1, Integer::sum);
+            }
+
+            @Override
+            public void onHostFunction(HostFunction function, ModuleInstanceImpl module) {
+            }
+
+            @Override
+            public void onNewFrame() {
+            }
+
+            @Override
+            public void onFrameExit() {
+            }
+        };
+        TestModule module = Util.getTestModule("testdata", b -> b.hooks(Collections.singleton(hook)))
+            .withDecoder(decoder);
+        module.testAll();
+        assert module.getFailures() == 0;
+        return counts;
+    }
+}
@@ -7,16 +7,37 @@ import org.tdf.lotusvm.types.ValueType;
 
 import java.nio.file.Paths;
 import java.util.*;
+import java.util.function.Function;
+import java.util.function.UnaryOperator;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
 public class TestModule {
     private TestConfig[] configs;
     private String directory;
+    // extra options applied to module instance builder
+    private UnaryOperator<Builder> configure;
+    private Function<byte[], Module> decoder = Module::create;
+    // count of functions which returns unexpected results
+    private int failures;
 
     public TestModule(TestConfig[] configs, String directory) {
+        this(configs, directory, UnaryOperator.identity());
+    }
+
+    public TestModule(TestConfig[] configs, String directory, UnaryOperator<Builder> configure) {
         this.configs = configs;
         this.directory = directory;
+        this.configure = configure;
+    }
+
+    public TestModule withDecoder(Function<byte[], Module> decoder) {
+        this.decoder = decoder;
+        return this;
+    }
+
+    public int getFailures() {
+        return failures;
     }
 
     @SneakyThrows
@@ -72,15 +93,16 @@ public class TestModule {
         UnsafeStackAllocator u = new UnsafeStackAllocator(32768 * 128, 32768, 32768 * 128);
         Module md;
             try {
-                md = Module.create(Util.readClassPathFile(filename));
-                instance = ModuleInstance
-                    .builder()
-                    .memory(m)
-                    .hostFunctions(Collections.singleton(new PrintHost()))
-                    .validateFunctionType()
-                    .module(md)
-                    .stackAllocator(u)
-                    .build();
+                md = decoder.apply(Util.readClassPathFile(filename));
+                instance = configure.apply(
+                    ModuleInstance
+                        .builder()
+                        .memory(m)
+                        .hostFunctions(Collections.singleton(new PrintHost()))
+                        .validateFunctionType()
+                        .module(md)
+                        .stackAllocator(u)
+                ).build();
             } catch (Exception e) {
                 System.out.println("test file ignored = " + filename + " reason = " + e.getMessage());
                 return;
@@ -124,6 +146,7 @@ public class TestModule {
                     e = e2;
                 }
                 if (e == null) {
+                    failures++;
                     System.err.println(failedMessage + " " + function.trap + " expected");
                 } else {
 //                    System.out.println("test passed for file = " + cfg.file + " function = " + function.function);
@@ -135,6 +158,7 @@ public class TestModule {
                 res = instance.execute(function.function, args1);
             } catch (Exception e) {
                 if(e.getMessage() == null || !e.getMessage().startsWith("float number")) {
+                    failures++;
                     System.err.println(failedMessage);
                     e.printStackTrace();
                 }
@@ -143,6 +167,7 @@ public class TestModule {
             }
             if (function.returns != null) {
                 if (res[0] != function.returns.data) {
+                    failures++;
                     System.err.println(failedMessage + " return not match ");
                     System.err.printf("found %d expect %d%n", res[0], function.returns.data);
 
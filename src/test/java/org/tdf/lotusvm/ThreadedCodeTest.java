@@ -0,0 +1,84 @@
+package org.tdf.lotusvm;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import org.tdf.lotusvm.common.OpCode;
+import org.tdf.lotusvm.runtime.HostFunction;
+import org.tdf.lotusvm.runtime.Hook;
+import org.tdf.lotusvm.runtime.ModuleInstanceImpl;
+import org.tdf.lotusvm.runtime.UnsafeMemory;
+import org.tdf.lotusvm.runtime.UnsafeStackAllocator;
+
+import java.util.Collections;
+
+@RunWith(JUnit4.class)
+public class ThreadedCodeTest {
+
+    @Test
+    public void testAll() throws Exception {
+        TestModule module = Util.getTestModule("testdata").withDecoder(bin -> Module.create(bin, true));
+        module.testAll();
+        assert module.getFailures() == 0;
+        module = Util.getTestModule("testdata/spec").withDecoder(bin -> Module.create(bin, true));
+        module.testAll();
+        assert module.getFailures() == 0;
+    }
+
+    @Test
+    public void testLowered() {
+        Module md = Module.create(Util.readClassPathFile("bench/main.wasm"), true);
+        for (long code : md.getThreadedCodes()) {
+            assert code != 0;
+        }
+        md.close();
+        md = Module.create(Util.readClassPathFile("bench/main.wasm"));
+        assert md.getThreadedCodes() == null;
+        md.close();
+    }
+
+    // the interpreter variant is selected again once hooks of the instance changed
+    @Test
+    public void testHooksChanged() {
+        int[] counts = new int[2];
+        Hook hook = new Hook() {
+            @Override
+            public void onInstruction(OpCode ins, ModuleInstanceImpl module) {
+                counts[0]++;
+            }
+
+            @Override
+            public void onHostFunction(HostFunction function, ModuleInstanceImpl module) {
+            }
+
+            @Override
+            public void onNewFrame() {
+            }
+
+            @Override
+            public void onFrameExit() {
+                counts[1]++;
+            }
+        };
+        try (
+            Module md = Module.create(Util.readClassPathFile("bench/main.wasm"), true);
+            UnsafeStackAllocator allocator = new UnsafeStackAllocator(Bench.MAX_STACK_SIZE, Bench.MAX_FRAMES, Bench.MAX_LABELS);
+            UnsafeMemory memory = new UnsafeMemory()
+        ) {
+            ModuleInstanceImpl instance = (ModuleInstanceImpl) ModuleInstance.builder()
+                .module(md)
+                .memory(memory)
+                .stackAllocator(allocator)
+                .build();
+            instance.execute("bench");
+            assert counts[0] == 0;
+            instance.setHooks(Collections.singleton(hook));
+            instance.execute("bench");
+            int n = counts[0];
+            assert n > 0 && counts[1] > 0;
+            instance.setHooks(Collections.emptySet());
+            instance.execute("bench");
+            assert counts[0] == n;
+        }
+    }
+}
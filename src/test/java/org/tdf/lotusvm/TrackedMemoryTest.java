@@ -0,0 +1,110 @@
+package org.tdf.lotusvm;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import org.tdf.lotusvm.runtime.BaseMemory;
+import org.tdf.lotusvm.runtime.Memory;
+import org.tdf.lotusvm.runtime.TrackedMemory;
+import org.tdf.lotusvm.types.LimitType;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.PrimitiveIterator;
+import java.util.Random;
+import java.util.function.UnaryOperator;
+
+@RunWith(JUnit4.class)
+public class TrackedMemoryTest {
+    @Test
+    public void testAll() throws Exception {
+        for (UnaryOperator<Builder> configure : Arrays.<UnaryOperator<Builder>>asList(b -> b, b -> b.jit(0))) {
+            TestModule module = Util.getTestModule("testdata/spec", b -> configure.apply(b).memory(new TrackedMemory(new BaseMemory())));
+            module.testAll();
+            assert module.getFailures() == 0;
+        }
+    }
+
+    @Test
+    public void testDirty() {
+        TrackedMemory m = new TrackedMemory(new BaseMemory());
+        m.setLimit(new LimitType(true, 1, 2));
+        assert m.getTrackedPages() == Memory.PAGE_SIZE / m.getPageSize();
+        // all pages are dirty after set limit
+        assert pages(m).size() == m.getTrackedPages();
+        m.clearDirty();
+        assert pages(m).isEmpty();
+
+        // crossing pages
+        m.storeI64(m.getPageSize() - 4, -1L);
+        m.storeI8(5 * m.getPageSize(), (byte) 1);
+        m.fill(7 * m.getPageSize() + 1, (byte) 1, m.getPageSize());
+        assert pages(m).equals(Arrays.asList(0, 1, 5, 7, 8));
+        m.clearDirty();
+
+        // trapped store is not tracked
+        try {
+            m.storeI32(Memory.PAGE_SIZE - 2, 1);
+            assert false;
+        } catch (RuntimeException e) {
+            assert e.getMessage().contains("overflow");
+        }
+        assert pages(m).isEmpty();
+
+        assert m.grow(1) == 1;
+        assert pages(m).size() == Memory.PAGE_SIZE / m.getPageSize();
+        assert pages(m).get(0) == Memory.PAGE_SIZE / m.getPageSize();
+        m.close();
+    }
+
+    // incremental digest equals to digest of a new memory of same content
+    @Test
+    public void testDigest() {
+        Random random = new Random(0);
+        TrackedMemory m = new TrackedMemory(new BaseMemory(), 10);
+        m.setLimit(new LimitType(true, 1, 4));
+        byte[] zero = m.digest();
+        assert !Arrays.equals(zero, new byte[32]);
+        for (int i = 0; i < 200; i++) {
+            int size = m.getPages() * Memory.PAGE_SIZE;
+            switch (random.nextInt(5)) {
+                case 0:
+                    m.grow(1);
+                    break;
+                case 1:
+                    m.put(random.nextInt(size - 100), new byte[]{(byte) random.nextInt(), 1, 2});
+                    break;
+                case 2:
+                    m.copy(random.nextInt(size - 3000), random.nextInt(size - 3000), 3000);
+                    break;
+                default:
+                    m.storeI64(random.nextInt(size - 8), random.nextLong());
+            }
+            if (random.nextInt(4) == 0) {
+                assert Arrays.equals(m.digest(), digest(m));
+            }
+        }
+        assert Arrays.equals(m.digest(), digest(m));
+        assert !Arrays.equals(m.digest(), zero);
+        // unchanged without writes
+        assert Arrays.equals(m.digest(), m.digest());
+    }
+
+    private static byte[] digest(TrackedMemory m) {
+        TrackedMemory r = new TrackedMemory(new BaseMemory(), 10);
+        r.setLimit(new LimitType(false, m.getPages(), 0));
+        r.put(0, m.load(0, m.getPages() * Memory.PAGE_SIZE));
+        return r.digest();
+    }
+
+    private static List<Integer> pages(TrackedMemory m) {
+        List<Integer> r = new ArrayList<>();
+        for (PrimitiveIterator.OfInt it = m.dirtyPages(); it.hasNext(); ) {
+            int i = it.nextInt();
+            assert m.isDirty(i);
+            r.add(i);
+        }
+        return r;
+    }
+}
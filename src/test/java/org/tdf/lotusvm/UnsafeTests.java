@@ -3,10 +3,16 @@ package org.tdf.lotusvm;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.junit.runners.JUnit4;
+import org.tdf.lotusvm.runtime.BaseMemory;
+import org.tdf.lotusvm.runtime.BufferMemory;
+import org.tdf.lotusvm.runtime.Memory;
 import org.tdf.lotusvm.runtime.UnsafeMemory;
+import org.tdf.lotusvm.types.LimitType;
 import org.tdf.lotusvm.types.UnsafeUtil;
 import sun.misc.Unsafe;
 
+import java.util.Arrays;
+
 @RunWith(JUnit4.class)
 public class UnsafeTests {
 
@@ -21,4 +27,76 @@ public class UnsafeTests {
         assert  ((7 << 3) | 7 )== (7 * 8 + 7) ;
     }
 
+    // effective address = unsigned base + unsigned offset is checked against memory size once
+    @Test
+    public void testEffectiveAddress() {
+        for (Memory m : new Memory[]{new UnsafeMemory(), new BaseMemory(), new BufferMemory(), new BufferMemory(false)}) {
+            m.setLimit(new LimitType(true, 1, 1));
+            int end = Memory.PAGE_SIZE;
+            m.storeI64(end - 16, 8, -1L);
+            assert m.load64(end - 8, 0) == -1L;
+            assert m.load32(0, end - 4) == -1;
+            assert m.load8(end - 1, 0) == -1;
+            for (int[] address : new int[][]{{end - 4, 1}, {-1, 1}, {-1, -1}, {1, Integer.MAX_VALUE}}) {
+                try {
+                    m.load32(address[0], address[1]);
+                    assert false;
+                } catch (RuntimeException e) {
+                    assert e.getMessage().contains("overflow");
+                }
+            }
+            m.close();
+        }
+    }
+
+    // memory grows inside capacity without reallocation, new pages are zeros and accesses beyond memory trap
+    @Test
+    public void testGrow() {
+        UnsafeMemory reserved = new UnsafeMemory(16);
+        reserved.setLimit(new LimitType(true, 1, 8));
+        assert reserved.getCapacity() == 8;
+        UnsafeMemory doubled = new UnsafeMemory();
+        doubled.setLimit(new LimitType(false, 1, 0));
+        BaseMemory base = new BaseMemory();
+        base.setLimit(new LimitType(false, 1, 0));
+        for (Memory m : new Memory[]{reserved, doubled, base}) {
+            for (int i = 1; i < 8; i++) {
+                m.storeI64(i * Memory.PAGE_SIZE - 8, -1L);
+                try {
+                    m.load8(i * Memory.PAGE_SIZE);
+                    assert false;
+                } catch (RuntimeException e) {
+                    assert e.getMessage().contains("overflow");
+                }
+                assert m.grow(1) == i;
+                assert m.load64(i * Memory.PAGE_SIZE - 8) == -1L;
+                assert Arrays.equals(m.load(i * Memory.PAGE_SIZE, Memory.PAGE_SIZE), new byte[Memory.PAGE_SIZE]);
+            }
+        }
+        assert reserved.getCapacity() == 8 && reserved.grow(1) == -1;
+        // doubled from 1 page
+        assert doubled.getCapacity() == 8;
+        assert base.getData().length == 8 * Memory.PAGE_SIZE;
+        reserved.close();
+        doubled.close();
+    }
+
+    // pages of grow are unsigned, grow(-1) is 0xffffffff pages
+    @Test
+    public void testGrowUnsigned() {
+        for (boolean bounded : new boolean[]{false, true}) {
+            for (Memory m : new Memory[]{new UnsafeMemory(16), new UnsafeMemory(), new BaseMemory()}) {
+                m.setLimit(new LimitType(bounded, 2, bounded ? 8 : 0));
+                m.storeI32(2 * Memory.PAGE_SIZE - 4, 0x12345678);
+                for (int n : new int[]{-1, Integer.MAX_VALUE, Integer.MIN_VALUE, Memory.MAX_PAGES}) {
+                    assert m.grow(n) == -1;
+                    assert m.getPages() == 2;
+                }
+                assert m.grow(0) == 2;
+                assert m.grow(1) == 2;
+                assert m.load32(2 * Memory.PAGE_SIZE - 4) == 0x12345678 && m.load32(3 * Memory.PAGE_SIZE - 4) == 0;
+                m.close();
+            }
+        }
+    }
 }
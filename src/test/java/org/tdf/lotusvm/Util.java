@@ -11,6 +11,7 @@ import java.io.File;
 import java.io.InputStream;
 
 import java.nio.file.Paths;
+import java.util.function.UnaryOperator;
 
 public class Util {
     public static ObjectMapper MAPPER = new ObjectMapper()
@@ -38,11 +39,15 @@ public class Util {
 
 
     public static TestModule getTestModule(String directory) throws Exception {
+        return getTestModule(directory, UnaryOperator.identity());
+    }
+
+    public static TestModule getTestModule(String directory, UnaryOperator<Builder> configure) throws Exception {
         String file = Paths.get(directory, "modules.json").toString();
         TestConfig[] cfgs = MAPPER.readValue(
             readClassPathFile(file),
             TestConfig[].class);
-        return new TestModule(cfgs, directory);
+        return new TestModule(cfgs, directory, configure);
     }
 
 
@@ -0,0 +1,128 @@
+package org.tdf.lotusvm;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import org.tdf.lotusvm.runtime.UnsafeMemory;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.function.Function;
+
+@RunWith(JUnit4.class)
+public class ValidatorTest {
+    private static final Function<byte[], Module> VALIDATED =
+        bin -> Module.create(bin, new DecodeOptions().validated(true));
+    private static final Function<byte[], Module> VALIDATED_REGISTER =
+        bin -> Module.create(bin, new DecodeOptions().validated(true).register(true).fused(true).threaded(true));
+
+    // modules accepted by decoder are valid
+    @Test
+    public void testValid() throws Exception {
+        int n = 0;
+        for (String dir : Arrays.asList("testdata", "testdata/spec", "bench")) {
+            for (File f : Util.readClassPathDir(dir)) {
+                if (!f.getName().endsWith(".wasm"))
+                    continue;
+                byte[] bin = Files.readAllBytes(f.toPath());
+                try (Module md = VALIDATED.apply(bin)) {
+                    assert md.getMaxStackSizes().length == md.getCodeSection().getCodes().size();
+                    for (int size : md.getMaxLabelSizes()) {
+                        assert size > 0;
+                    }
+                }
+                n++;
+            }
+        }
+        assert n > 0;
+        try (Module md = Module.create(Util.readClassPathFile("bench/main.wasm"))) {
+            assert md.getMaxStackSizes() == null;
+        }
+    }
+
+    @Test
+    public void testInvalid() {
+        // i32 expected
+        assert !isValid(0x7f, 0x42, 0x00);
+        // local index out of range
+        assert !isValid(0x7f, 0x20, 0x01);
+        // label index out of range
+        assert !isValid(0x40, 0x0c, 0x01);
+        // values remained on the stack
+        assert !isValid(0x7f, 0x41, 0x00, 0x41, 0x00);
+        // stack underflow
+        assert !isValid(0x7f, 0x6a);
+        // memory access without memory
+        assert !isValid(0x7f, 0x41, 0x00, 0x28, 0x02, 0x00);
+        // if without else produces no value
+        assert !isValid(0x7f, 0x41, 0x00, 0x04, 0x7f, 0x41, 0x00, 0x0b);
+
+        assert isValid(0x7f, 0x20, 0x00);
+        // operands of unreachable code are polymorphic
+        assert isValid(0x7f, 0x00, 0x6a);
+        assert isValid(0x40, 0x02, 0x40, 0x0c, 0x01, 0x0b);
+    }
+
+    @Test
+    public void testUnchecked() throws Exception {
+        for (Function<byte[], Module> decoder : Arrays.asList(VALIDATED, VALIDATED_REGISTER)) {
+            TestModule module = Util.getTestModule("testdata", Builder::unchecked).withDecoder(decoder);
+            module.testAll();
+            assert module.getFailures() == 0;
+            module = Util.getTestModule("testdata/spec", Builder::unchecked).withDecoder(decoder);
+            module.testAll();
+            assert module.getFailures() == 0;
+        }
+    }
+
+    @Test
+    public void testNotValidated() {
+        try (Module md = Module.create(Util.readClassPathFile("bench/main.wasm"))) {
+            ModuleInstance.builder()
+                .module(md)
+                .memory(new UnsafeMemory())
+                .stackAllocator(Util.getAllocator())
+                .unchecked()
+                .build();
+            assert false;
+        } catch (RuntimeException e) {
+            assert e.getMessage().contains("not validated");
+        }
+    }
+
+    // module of a function () -> result with one i32 local
+    private static boolean isValid(int result, int... body) {
+        ByteArrayOutputStream code = new ByteArrayOutputStream();
+        code.write(0x01);
+        code.write(0x01);
+        code.write(0x7f);
+        for (int b : body) {
+            code.write(b);
+        }
+        code.write(0x0b);
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.writeBytes(new byte[]{0x00, 0x61, 0x73, 0x6d, 0x01, 0x00, 0x00, 0x00});
+        // type section
+        if (result == 0x40) {
+            out.writeBytes(new byte[]{0x01, 0x04, 0x01, 0x60, 0x00, 0x00});
+        } else {
+            out.writeBytes(new byte[]{0x01, 0x05, 0x01, 0x60, 0x00, 0x01, (byte) result});
+        }
+        // function section
+        out.writeBytes(new byte[]{0x03, 0x02, 0x01, 0x00});
+        // code section
+        out.write(0x0a);
+        out.write(code.size() + 2);
+        out.write(0x01);
+        out.write(code.size());
+        out.writeBytes(code.toByteArray());
+        try (Module md = VALIDATED.apply(out.toByteArray())) {
+            return md.getMaxStackSizes() != null;
+        } catch (RuntimeException e) {
+            return false;
+        }
+    }
+}